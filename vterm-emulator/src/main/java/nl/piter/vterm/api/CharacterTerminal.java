@@ -7,10 +7,12 @@
 //---
 package nl.piter.vterm.api;
 
+import nl.piter.vterm.emulator.Util;
 import nl.piter.vterm.ui.panels.charpane.ColorMap;
 
 import java.awt.*;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * Interface to a Character Terminal.
@@ -40,6 +42,13 @@ public interface CharacterTerminal {
      */
     void writeChar(byte[] bytes);
 
+    /**
+     * Write unicode code point at current cursor position. Does not move cursor.
+     */
+    default void writeCodePoint(int codePoint) {
+        writeChar(new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8));
+    }
+
     /**
      * Put single char or utf-8 character sequence.
      */
@@ -102,6 +111,35 @@ public interface CharacterTerminal {
      */
     void setColorMap(ColorMap colorMap);
 
+    /**
+     * Mark line y as soft wrapped: the text continues on the next line after an auto wrap.
+     */
+    default void setLineWrapped(int y, boolean wrapped) {
+    }
+
+    /**
+     * Append a combining code point (combining mark, zero width joiner, emoji modifier) to the character
+     * at x,y, so the cell holds a grapheme cluster. Does not move cursor. Ignored by default.
+     */
+    default void combineCodePoint(int x, int y, int codePoint) {
+    }
+
+    /**
+     * Capture the text of the screen and optionally the scrollback history, can be called from any thread.
+     *
+     * @return text or null if the terminal doesn't keep its text.
+     */
+    default TerminalText getTerminalText(boolean includeHistory) {
+        return null;
+    }
+
+    /**
+     * All input received so far has been processed: a good moment to show the updates. Updates might be
+     * shown later otherwise, to limit the frame rate. Ignored by default.
+     */
+    default void inputIdle() {
+    }
+
     /**
      * Scroll lines from startline(inclusive) to endline (exclusive)
      */
@@ -150,6 +188,21 @@ public interface CharacterTerminal {
         putChar(Character.toString(optUtf).getBytes(StandardCharsets.UTF_8), x, y);
     }
 
+    /**
+     * Write run of printable (utf-8) characters starting at current cursor position.
+     * The run must fit on the current line. Does not move cursor.
+     */
+    default void writeText(byte[] bytes, int offset, int length) {
+        int x = getCursorX();
+        int y = getCursorY();
+        int end = offset + length;
+        while (offset < end) {
+            int len = Util.utf8Length(bytes[offset]);
+            putChar(Arrays.copyOfRange(bytes, offset, offset + len), x++, y);
+            offset += len;
+        }
+    }
+
     default void setCharSet(int nr, TermConst.CharSet mapCharSet) {
         this.setCharSet(nr, mapCharSet.toString());
     }
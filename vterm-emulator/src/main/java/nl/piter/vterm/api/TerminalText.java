@@ -0,0 +1,73 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.api;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Read only text of a terminal, captured at one moment: the screen and optionally the scrollback history.
+ * Lines are numbered from the oldest history line, the screen rows come last.
+ * <p>
+ * Lines are returned as CharSequence views on the cell storage, nothing is copied until toString() is
+ * called. Trailing blanks are trimmed. A line which has been soft wrapped by an auto wrap continues on the
+ * next line, getLogicalLine() joins such lines. Note that a character index is not a column index when
+ * the line contains characters outside the BMP or grapheme clusters.
+ */
+public interface TerminalText {
+
+    /**
+     * Number of history lines plus the number of screen rows.
+     */
+    int numLines();
+
+    int numHistoryLines();
+
+    /**
+     * Line without trailing blanks.
+     */
+    CharSequence getLine(int index);
+
+    /**
+     * Text of the columns [startColumn,endColumn) of the line, not trimmed. Columns past the stored text of a
+     * history line are omitted.
+     */
+    CharSequence getLine(int index, int startColumn, int endColumn);
+
+    /**
+     * Whether the line has been soft wrapped and continues on the next line.
+     */
+    boolean isWrapped(int index);
+
+    /**
+     * Logical line starting at index: the line joined with the lines it has been wrapped onto.
+     * Only the last line is trimmed.
+     */
+    CharSequence getLogicalLine(int index);
+
+    /**
+     * Index of the line after the logical line starting at index.
+     */
+    int nextLogicalLine(int index);
+
+    /**
+     * Write all lines, each followed by a newline. Empty screen rows at the end are skipped.
+     *
+     * @param joinWrapped write logical lines: no newline after a soft wrapped line.
+     */
+    void writeTo(Writer writer, boolean joinWrapped) throws IOException;
+
+    /**
+     * Write all lines utf-8 encoded, see writeTo(Writer,boolean).
+     *
+     * @return number of bytes written.
+     */
+    long writeTo(WritableByteChannel channel, boolean joinWrapped) throws IOException;
+
+}
@@ -0,0 +1,241 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Lock-free single producer, single consumer byte ring buffer between a channel reader thread and the emulator.
+ * <p>
+ * The producer stops reading from the channel when the occupancy reaches the high watermark, and resumes when the
+ * consumer has drained it to the low watermark. Both sides only block when they have to (empty or above
+ * high watermark) and then park, the other side unparks them after publishing.
+ */
+public class ByteRingBuffer {
+
+    public static final int DEFAULT_CAPACITY = 1024 * 1024;
+
+    // Backstop for missed wake ups.
+    private static final long PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final byte[] buffer;
+    private final int mask;
+    private final int highWatermark;
+    private final int lowWatermark;
+
+    // Total number of bytes written and read. Only updated by the producer respectively the consumer.
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong readCount = new AtomicLong();
+
+    private volatile boolean closed;
+    private volatile Thread waitingProducer;
+    private volatile Thread waitingConsumer;
+
+    // Metrics, updated by the producer:
+    private volatile int peakOccupancy;
+    private volatile long numThrottled;
+
+    public ByteRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ByteRingBuffer(int capacity) {
+        this(capacity, capacity / 4, (capacity / 4) * 3);
+    }
+
+    /**
+     * @param capacity      size in bytes, rounded up to a power of two.
+     * @param lowWatermark  resume reading from the channel at or below this occupancy.
+     * @param highWatermark stop reading from the channel at or above this occupancy.
+     */
+    public ByteRingBuffer(int capacity, int lowWatermark, int highWatermark) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive:" + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        if ((lowWatermark < 0) || (highWatermark <= lowWatermark) || (highWatermark > size)) {
+            throw new IllegalArgumentException("Invalid watermarks: low=" + lowWatermark + ", high=" + highWatermark
+                    + ", capacity=" + size);
+        }
+        this.buffer = new byte[size];
+        this.mask = size - 1;
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+    }
+
+    // --- Producer --- //
+
+    /**
+     * Read available bytes from the input stream directly into the buffer. Blocks while the occupancy is at or
+     * above the high watermark, until it has been drained to the low watermark.
+     *
+     * @return number of bytes read, or -1 at EOF or if the buffer has been closed.
+     */
+    public int readFrom(InputStream inps) throws IOException {
+        long write = writeCount.get();
+        if (occupancy(write) >= highWatermark) {
+            numThrottled++;
+            if (!awaitLowWatermark()) {
+                return -1;
+            }
+        }
+        int offset = (int) (write & mask);
+        int free = buffer.length - occupancy(write);
+        int len = Math.min(free, buffer.length - offset);
+        int result = inps.read(buffer, offset, len);
+        if (result <= 0) {
+            return -1;
+        }
+        publish(write + result);
+        return result;
+    }
+
+    /**
+     * Write all bytes, blocks when the buffer is full.
+     *
+     * @return false if the buffer has been closed.
+     */
+    public boolean write(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            long write = writeCount.get();
+            int free = buffer.length - occupancy(write);
+            if (free == 0) {
+                numThrottled++;
+                if (!awaitLowWatermark()) {
+                    return false;
+                }
+                continue;
+            }
+            int start = (int) (write & mask);
+            int len = Math.min(Math.min(free, length), buffer.length - start);
+            System.arraycopy(bytes, offset, buffer, start, len);
+            publish(write + len);
+            offset += len;
+            length -= len;
+        }
+        return true;
+    }
+
+    private void publish(long write) {
+        int occupancy = occupancy(write);
+        if (occupancy > peakOccupancy) {
+            peakOccupancy = occupancy;
+        }
+        writeCount.lazySet(write);
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    private boolean awaitLowWatermark() {
+        waitingProducer = Thread.currentThread();
+        try {
+            while ((!closed) && (occupancy(writeCount.get()) > lowWatermark)) {
+                LockSupport.parkNanos(this, PARK_NANOS);
+            }
+        } finally {
+            waitingProducer = null;
+        }
+        return !closed;
+    }
+
+    // --- Consumer --- //
+
+    /**
+     * Read available bytes, blocks until at least one byte is available.
+     *
+     * @return number of bytes read, or -1 if the buffer is closed and empty.
+     */
+    public int read(byte[] bytes, int offset, int length) {
+        long read = readCount.get();
+        long available = writeCount.get() - read;
+        if (available == 0) {
+            waitingConsumer = Thread.currentThread();
+            try {
+                while (((available = writeCount.get() - read) == 0) && (!closed)) {
+                    LockSupport.parkNanos(this, PARK_NANOS);
+                }
+            } finally {
+                waitingConsumer = null;
+            }
+            if (available == 0) {
+                return -1; // closed
+            }
+        }
+        int start = (int) (read & mask);
+        int len = (int) Math.min(Math.min(available, length), buffer.length - start);
+        System.arraycopy(buffer, start, bytes, offset, len);
+        readCount.lazySet(read + len);
+        if ((waitingProducer != null) && (occupancy() <= lowWatermark)) {
+            LockSupport.unpark(waitingProducer);
+        }
+        return len;
+    }
+
+    /**
+     * Signal end of input. The consumer can still read the remaining bytes.
+     */
+    public void close() {
+        closed = true;
+        LockSupport.unpark(waitingProducer);
+        LockSupport.unpark(waitingConsumer);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    // --- Metrics --- //
+
+    /**
+     * Number of bytes written but not yet read.
+     */
+    public int occupancy() {
+        return (int) (writeCount.get() - readCount.get());
+    }
+
+    private int occupancy(long write) {
+        return (int) (write - readCount.get());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    public int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * Highest occupancy seen by the producer.
+     */
+    public int getPeakOccupancy() {
+        return peakOccupancy;
+    }
+
+    /**
+     * Number of times the producer had to wait for the consumer.
+     */
+    public long getNumThrottled() {
+        return numThrottled;
+    }
+
+    public long getTotalBytes() {
+        return writeCount.get();
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import nl.piter.vterm.emulator.Tokens.Token;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Default StringPayloadHandler of the emulator: collects a streamed OSC/DCS/APC string, so a long string is handled
+ * like a short one when the STRING_END token arrives. The size is bounded by the maximum payload size of the
+ * tokenizer, the buffer shrinks back after each string.
+ */
+class StringPayloadCollector implements StringPayloadHandler {
+
+    private static final int INITIAL_CAPACITY = 4 * VTxStateMachine.MAX_STRING;
+
+    private byte[] bytes = new byte[INITIAL_CAPACITY];
+    private int size;
+    private Token token;
+    private int command;
+    private boolean complete;
+
+    @Override
+    public void startPayload(Token token, int command) {
+        this.token = token;
+        this.command = command;
+        this.size = 0;
+        this.complete = false;
+    }
+
+    @Override
+    public void payloadChunk(byte[] chunk, int offset, int length) {
+        if (size + length > bytes.length) {
+            byte[] newBytes = new byte[Math.max(bytes.length * 2, size + length)];
+            System.arraycopy(bytes, 0, newBytes, 0, size);
+            bytes = newBytes;
+        }
+        System.arraycopy(chunk, offset, bytes, size, length);
+        size += length;
+    }
+
+    @Override
+    public void endPayload(boolean complete) {
+        this.complete = complete;
+    }
+
+    /**
+     * OSC_GRAPHMODE, DCS_DEVICE_CONTROL_STRING or APP_PROGRAM_CMD.
+     */
+    Token token() {
+        return token;
+    }
+
+    /**
+     * OSC command number or -1.
+     */
+    int command() {
+        return command;
+    }
+
+    /**
+     * Whether the whole string has been collected: false if it has been truncated at the maximum payload size.
+     */
+    boolean isComplete() {
+        return complete;
+    }
+
+    int size() {
+        return size;
+    }
+
+    String text() {
+        return new String(bytes, 0, size, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Drop the collected string.
+     */
+    void clear() {
+        size = 0;
+        token = null;
+        if (bytes.length > INITIAL_CAPACITY) {
+            bytes = new byte[INITIAL_CAPACITY];
+        }
+    }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import nl.piter.vterm.emulator.Tokens.Token;
+
+/**
+ * Receives OSC, DCS and APC string payloads which are too long for the string argument of a token
+ * (see VTxStateMachine.MAX_STRING), for example OSC 52 clipboard data or long OSC 8 hyperlinks.
+ * The payload is delivered in chunks while it is parsed, so memory use stays bounded.
+ * <p>
+ * Chunk bytes are only valid during the call.
+ */
+public interface StringPayloadHandler {
+
+    /**
+     * @param token   OSC_GRAPHMODE, DCS_DEVICE_CONTROL_STRING or APP_PROGRAM_CMD.
+     * @param command OSC command number (for example 52), or -1 for DCS and APC strings.
+     */
+    void startPayload(Token token, int command);
+
+    /**
+     * Next part of the payload, for OSC without the command number and separator.
+     */
+    void payloadChunk(byte[] bytes, int offset, int length);
+
+    /**
+     * @param complete false if the string was aborted, or truncated at the maximum payload size.
+     */
+    void endPayload(boolean complete);
+
+}
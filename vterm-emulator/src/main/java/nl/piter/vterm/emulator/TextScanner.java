@@ -0,0 +1,98 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Bulk scanner for runs of printable ASCII (0x20-0x7e), which is most of the bytes in terminal output.
+ * <p>
+ * Uses SWAR (SIMD within a register): eight bytes are read as one little endian long word and checked for
+ * C0 controls, DEL and high-bit bytes with a few arithmetic operations, without per byte branching.
+ * Falls back to a scalar loop when the long view is not available, or if disabled with the system
+ * property "vterm.emulator.scalarTextScan=true".
+ */
+@Slf4j
+public final class TextScanner {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long SPACES = 0x2020202020202020L;
+    private static final long DELS = 0x7f7f7f7f7f7f7f7fL;
+
+    private static final VarHandle LONG_VIEW = createLongView();
+
+    private static final boolean SWAR_ENABLED = (LONG_VIEW != null) && !Boolean.getBoolean("vterm.emulator.scalarTextScan");
+
+    private TextScanner() {
+    }
+
+    private static VarHandle createLongView() {
+        try {
+            return MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+        } catch (Throwable e) {
+            log.warn("No long word view on byte arrays, using scalar text scan: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    public static boolean isSwarEnabled() {
+        return SWAR_ENABLED;
+    }
+
+    /**
+     * Returns index of first byte in [offset,end) which is not printable ASCII, or end.
+     */
+    public static int scanPrintableAscii(byte[] bytes, int offset, int end) {
+        if (SWAR_ENABLED) {
+            return scanSwar(bytes, offset, end);
+        }
+        return scanScalar(bytes, offset, end);
+    }
+
+    static int scanScalar(byte[] bytes, int offset, int end) {
+        int pos = offset;
+        while ((pos < end) && isPrintableAscii(bytes[pos])) {
+            pos++;
+        }
+        return pos;
+    }
+
+    static int scanSwar(byte[] bytes, int offset, int end) {
+        int pos = offset;
+        while (pos + 8 <= end) {
+            long mask = nonPrintableMask((long) LONG_VIEW.get(bytes, pos));
+            if (mask != 0) {
+                // lowest flagged byte is the first one in little endian order:
+                return pos + (Long.numberOfTrailingZeros(mask) >>> 3);
+            }
+            pos += 8;
+        }
+        return scanScalar(bytes, pos, end);
+    }
+
+    /**
+     * Sets the high bit of each byte which is below 0x20, equal to 0x7f or has the high bit set.
+     * Borrows only propagate upwards from a flagged byte, so the lowest flagged byte is always exact.
+     */
+    static long nonPrintableMask(long word) {
+        long control = (word - SPACES) & ~word;
+        long del = word ^ DELS;
+        del = (del - ONES) & ~del;
+        return (word | control | del) & HIGH_BITS;
+    }
+
+    private static boolean isPrintableAscii(byte b) {
+        return (b >= 0x20) && (b != 0x7f);
+    }
+
+}
@@ -97,6 +97,8 @@ public class Tokens {
         CHARACTER_REPEAT,
         // Actual Character
         CHAR,
+        // Run of printable (utf-8) characters
+        TEXT,
         // movement tokens
         UP,
         DOWN,
@@ -0,0 +1,210 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+/**
+ * Incremental UTF-8 decoder which decodes one byte at a time into a code point, without allocating.
+ * <p>
+ * Only well-formed UTF-8 (RFC 3629) is accepted: overlong forms, surrogates, code points above U+10FFFF
+ * and the obsolete 5 and 6 byte forms are rejected.
+ * <p>
+ * Malformed sequence policy: each maximal invalid subpart is replaced by a single U+FFFD replacement character.
+ * An invalid lead byte is consumed. A byte which interrupts an incomplete sequence is NOT consumed
+ * (see isConsumed()) and must be decoded again as start of the next character.
+ */
+public class Utf8Decoder {
+
+    public static final int REPLACEMENT_CHAR = 0xfffd;
+
+    /**
+     * UTF-8 encoding of U+FFFD.
+     */
+    public static final byte[] REPLACEMENT_BYTES = {(byte) 0xef, (byte) 0xbf, (byte) 0xbd};
+
+    // decode results
+    public static final int ACCEPT = 0;
+    public static final int CONTINUE = 1;
+    public static final int REJECT = 2;
+
+    private int codePoint;
+    private int needed;
+    private int seen;
+    private int lower = 0x80;
+    private int upper = 0xbf;
+    private boolean consumed;
+
+    /**
+     * Decode next byte (0-255).
+     *
+     * @return ACCEPT if a code point has been completed, CONTINUE if more bytes are needed or REJECT for
+     * a malformed sequence, in which case the code point is the replacement character.
+     */
+    public int decode(int b) {
+        consumed = true;
+
+        if (needed == 0) {
+            if (b < 0x80) {
+                codePoint = b;
+                return ACCEPT;
+            } else if ((b >= 0xc2) && (b <= 0xdf)) {
+                needed = 1;
+                codePoint = b & 0x1f;
+            } else if ((b >= 0xe0) && (b <= 0xef)) {
+                if (b == 0xe0) {
+                    lower = 0xa0; // overlong
+                } else if (b == 0xed) {
+                    upper = 0x9f; // surrogates
+                }
+                needed = 2;
+                codePoint = b & 0x0f;
+            } else if ((b >= 0xf0) && (b <= 0xf4)) {
+                if (b == 0xf0) {
+                    lower = 0x90; // overlong
+                } else if (b == 0xf4) {
+                    upper = 0x8f; // > U+10FFFF
+                }
+                needed = 3;
+                codePoint = b & 0x07;
+            } else {
+                // continuation byte, overlong 2 byte lead (c0,c1) or 5/6 byte forms.
+                codePoint = REPLACEMENT_CHAR;
+                return REJECT;
+            }
+            seen = 0;
+            return CONTINUE;
+        }
+
+        if ((b < lower) || (b > upper)) {
+            reset();
+            codePoint = REPLACEMENT_CHAR;
+            consumed = false;
+            return REJECT;
+        }
+
+        lower = 0x80;
+        upper = 0xbf;
+        codePoint = (codePoint << 6) | (b & 0x3f);
+        if (++seen < needed) {
+            return CONTINUE;
+        }
+        needed = 0;
+        return ACCEPT;
+    }
+
+    /**
+     * Abort incomplete sequence, for example at EOF.
+     *
+     * @return REJECT if a sequence was in progress, ACCEPT otherwise.
+     */
+    public int abort() {
+        if (needed == 0) {
+            return ACCEPT;
+        }
+        reset();
+        codePoint = REPLACEMENT_CHAR;
+        return REJECT;
+    }
+
+    /**
+     * Whether the last decoded byte has been consumed. If not, it must be decoded again.
+     */
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    public boolean inSequence() {
+        return needed > 0;
+    }
+
+    /**
+     * Decoded code point after ACCEPT, or the replacement character after REJECT.
+     */
+    public int codePoint() {
+        return codePoint;
+    }
+
+    public void reset() {
+        needed = 0;
+        seen = 0;
+        lower = 0x80;
+        upper = 0xbf;
+    }
+
+    // --- Static helpers --- //
+
+    /**
+     * Returns length of complete and well-formed UTF-8 sequence at offset, or 0 if not valid or incomplete.
+     */
+    public static int sequenceLength(byte[] bytes, int offset, int end) {
+        int lead = bytes[offset] & 0xff;
+        if (lead < 0x80) {
+            return 1;
+        }
+        if ((lead < 0xc2) || (lead > 0xf4)) {
+            return 0;
+        }
+        int len = Util.utf8Length(lead);
+        if (offset + len > end) {
+            return 0;
+        }
+        int second = bytes[offset + 1] & 0xff;
+        if (((lead == 0xe0) && (second < 0xa0)) || ((lead == 0xed) && (second > 0x9f))
+                || ((lead == 0xf0) && (second < 0x90)) || ((lead == 0xf4) && (second > 0x8f))) {
+            return 0;
+        }
+        for (int i = 1; i < len; i++) {
+            if ((bytes[offset + i] & 0xc0) != 0x80) {
+                return 0;
+            }
+        }
+        return len;
+    }
+
+    /**
+     * Decode code point of well-formed sequence at offset, see sequenceLength().
+     */
+    public static int codePointAt(byte[] bytes, int offset) {
+        int lead = bytes[offset] & 0xff;
+        int len = Util.utf8Length(lead);
+        if (len == 1) {
+            return lead;
+        }
+        int value = lead & (0x7f >> len);
+        for (int i = 1; i < len; i++) {
+            value = (value << 6) | (bytes[offset + i] & 0x3f);
+        }
+        return value;
+    }
+
+    /**
+     * Encode code point into buffer at offset.
+     *
+     * @return number of bytes written (1-4).
+     */
+    public static int encode(int codePoint, byte[] buffer, int offset) {
+        if (codePoint < 0x80) {
+            buffer[offset] = (byte) codePoint;
+            return 1;
+        } else if (codePoint < 0x800) {
+            buffer[offset] = (byte) (0xc0 | (codePoint >> 6));
+            buffer[offset + 1] = (byte) (0x80 | (codePoint & 0x3f));
+            return 2;
+        } else if (codePoint < 0x10000) {
+            buffer[offset] = (byte) (0xe0 | (codePoint >> 12));
+            buffer[offset + 1] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+            buffer[offset + 2] = (byte) (0x80 | (codePoint & 0x3f));
+            return 3;
+        }
+        buffer[offset] = (byte) (0xf0 | (codePoint >> 18));
+        buffer[offset + 1] = (byte) (0x80 | ((codePoint >> 12) & 0x3f));
+        buffer[offset + 2] = (byte) (0x80 | ((codePoint >> 6) & 0x3f));
+        buffer[offset + 3] = (byte) (0x80 | (codePoint & 0x3f));
+        return 4;
+    }
+
+}
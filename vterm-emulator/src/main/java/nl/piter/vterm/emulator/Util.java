@@ -63,6 +63,15 @@ public class Util {
             return bts;
         }
 
+        /**
+         * Copy bytes into existing array, which must be large enough.
+         */
+        public byte[] getBytes(byte[] dest) {
+            for (int i = 0; i < index; i++)
+                dest[i] = (byte) values[i];
+            return dest;
+        }
+
         public int size() {
             return index;
         }
@@ -192,6 +201,44 @@ public class Util {
         return (v1 > v2) ? v1 : v2;
     }
 
+    /**
+     * Length of utf-8 sequence starting with lead byte, or 1 if the byte isn't a (supported) lead byte.
+     */
+    public static int utf8Length(int leadByte) {
+        if ((leadByte & 0xe0) == 0xc0) {
+            return 2;
+        } else if ((leadByte & 0xf0) == 0xe0) {
+            return 3;
+        } else if ((leadByte & 0xf8) == 0xf0) {
+            return 4;
+        }
+        return 1;
+    }
+
+    public static final int ZERO_WIDTH_JOINER = 0x200d;
+
+    /**
+     * Whether the code point extends the previous character into a grapheme cluster instead of taking a cell
+     * of its own: combining and enclosing marks (including variation selectors), zero width (non) joiner,
+     * emoji skin tone modifiers and tag characters.
+     */
+    public static boolean isGraphemeExtend(int codePoint) {
+        if (codePoint < 0x300) {
+            return false;
+        }
+        if ((codePoint == ZERO_WIDTH_JOINER) || (codePoint == 0x200c)) {
+            return true;
+        }
+        if ((codePoint >= 0x1f3fb) && (codePoint <= 0x1f3ff)) {
+            return true;
+        }
+        if ((codePoint >= 0xe0020) && (codePoint <= 0xe007f)) {
+            return true;
+        }
+        int type = Character.getType(codePoint);
+        return (type == Character.NON_SPACING_MARK) || (type == Character.ENCLOSING_MARK);
+    }
+
     /**
      * Match various combinations of quoted and unquoted patterns.
      * Pattern keeps quotes for example if they are needed as shell arguments.
@@ -21,7 +21,6 @@ import java.io.OutputStream;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 
@@ -73,9 +72,12 @@ public class VTxEmulator implements Emulator {
         protected int savedCharSet;
         protected String savedCharSetName;
         protected DecMode decMode = new DecMode();
-        protected byte[] lastChar; // for character repeat;
+        protected int lastCodePoint = ' '; // for character repeat;
+        // previous code point was a zero width joiner: next character joins the cluster
+        protected boolean joinNext;
         public void reset() {
             hasRegion = false;
+            joinNext = false;
             tabSize = 8;
             decMode.reset();
         }
@@ -96,6 +98,13 @@ public class VTxEmulator implements Emulator {
 
     // Emulator reads from Tokenizer:
     private VTxTokenizer tokenizer = null;
+    private InputStream inputStream;
+    // Optional ring buffer filled by a reader thread, consumed by feed():
+    private ByteRingBuffer inputBuffer;
+    private byte[] feedBlock;
+    // long OSC/DCS/APC strings are collected and handled at STRING_END, unless another handler has been set:
+    private final StringPayloadCollector payloadCollector = new StringPayloadCollector();
+    private StringPayloadHandler payloadHandler = payloadCollector;
     // Emulator outputs character to terminal:
     private CharacterTerminal term = null;
 
@@ -121,7 +130,74 @@ public class VTxEmulator implements Emulator {
     }
 
     void setInputStream(InputStream inps) {
+        this.inputStream = inps;
         this.tokenizer = new VTxTokenizer(inps);
+        this.tokenizer.setTokenHandler(this::handleFedToken);
+        this.tokenizer.setStringPayloadHandler(payloadHandler);
+    }
+
+    /**
+     * Size of block read buffer between input stream and tokenizer.
+     */
+    public void setReadBufferSize(int size) {
+        this.tokenizer.setReadBufferSize(size);
+    }
+
+    public int getReadBufferSize() {
+        return this.tokenizer.getReadBufferSize();
+    }
+
+    /**
+     * Decouple reading from parsing and rendering. When set, start() launches a reader thread which drains the input
+     * stream into the ring buffer, while the emulator loop consumes from it using feed().
+     * Must be set before start(), null (default) reads the input stream directly.
+     * Pushed bytes are parsed by the state machine, so this switches the tokenizer engine to STATE_MACHINE.
+     */
+    public void setInputRingBuffer(ByteRingBuffer buffer) {
+        this.inputBuffer = buffer;
+        if (buffer != null) {
+            setTokenizerEngine(getTokenizerEngine());
+        }
+    }
+
+    /**
+     * Ring buffer for occupancy metrics, or null if not used.
+     */
+    public ByteRingBuffer getInputRingBuffer() {
+        return this.inputBuffer;
+    }
+
+    /**
+     * Handler for OSC/DCS/APC strings which are longer than the string argument of a token. By default these strings
+     * are collected and handled like short strings, null truncates them.
+     */
+    public void setStringPayloadHandler(StringPayloadHandler handler) {
+        this.payloadHandler = handler;
+        this.tokenizer.setStringPayloadHandler(handler);
+    }
+
+    /**
+     * Hard limit in bytes for streamed string payloads, longer strings are dropped.
+     */
+    public void setMaxStringPayload(int size) {
+        this.tokenizer.setMaxStringPayload(size);
+    }
+
+    /**
+     * Select tokenizer engine: search tree (default) or table driven state machine.
+     * The input ring buffer only supports the state machine.
+     */
+    public void setTokenizerEngine(VTxTokenizer.Engine engine) {
+        if ((inputBuffer != null) && (engine != VTxTokenizer.Engine.STATE_MACHINE)) {
+            log.warn("Tokenizer engine {} not supported with input ring buffer, using {}", engine,
+                    VTxTokenizer.Engine.STATE_MACHINE);
+            engine = VTxTokenizer.Engine.STATE_MACHINE;
+        }
+        this.tokenizer.setEngine(engine);
+    }
+
+    public VTxTokenizer.Engine getTokenizerEngine() {
+        return this.tokenizer.getEngine();
     }
 
     /**
@@ -135,7 +211,7 @@ public class VTxEmulator implements Emulator {
      * Check whether there is text from stderr which is connected to the Terminal implementation.
      */
     protected void readErrorStream() throws IOException {
-        if (errorInput == null)
+        if ((errorInput == null) || (errorInput.available() <= 0))
             return;
 
         int MAX = 1024;
@@ -233,6 +309,9 @@ public class VTxEmulator implements Emulator {
 
         setConnected(true);
         fireStarted();
+        if (inputBuffer != null) {
+            startReaderThread(inputBuffer);
+        }
         while (!signalTerminate) {
             synchronized (haltMutex) {
                 if (this.signalHalt) {
@@ -246,8 +325,12 @@ public class VTxEmulator implements Emulator {
             }
 
             try {
-                nextToken();
-                tokenCounter++;
+                if (inputBuffer != null) {
+                    nextBlock();
+                } else {
+                    nextToken();
+                    tokenCounter++;
+                }
 //                if (tokenCounter> 5125) {
 //                    Thread.sleep(500);
 //                }
@@ -257,27 +340,103 @@ public class VTxEmulator implements Emulator {
             } // let RuntimeException pass here.
         }
 
+        if (inputBuffer != null) {
+            inputBuffer.close();
+            log.info("Input ring buffer: capacity={}, peak occupancy={}, throttled={}, total bytes={}",
+                    inputBuffer.capacity(), inputBuffer.getPeakOccupancy(), inputBuffer.getNumThrottled(),
+                    inputBuffer.getTotalBytes());
+        }
         setConnected(false);
         fireStopped();
         log.info("<<<Session Ended>>>");
     }
 
+    /**
+     * Reader thread: drains the input stream into the ring buffer until EOF.
+     */
+    private void startReaderThread(final ByteRingBuffer buffer) {
+        Runnable run = () -> {
+            try {
+                while (buffer.readFrom(inputStream) >= 0) {
+                    // continue
+                }
+            } catch (IOException e) {
+                log.error("Reader thread: IOException: {}", e.getMessage());
+            } finally {
+                buffer.close();
+            }
+        };
+        Thread reader = new Thread(run, "VTx-Reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Consume available bytes from the ring buffer, blocks if empty.
+     */
+    protected void nextBlock() throws IOException {
+        readErrorStream();
+        if ((feedBlock == null) || (feedBlock.length != tokenizer.getReadBufferSize())) {
+            feedBlock = new byte[tokenizer.getReadBufferSize()];
+        }
+        int len = inputBuffer.read(feedBlock, 0, feedBlock.length);
+        if (len < 0) {
+            feedEof();
+        } else {
+            feed(feedBlock, 0, len);
+            if (inputBuffer.occupancy() == 0) {
+                term.inputIdle();
+            }
+        }
+    }
+
     public String getType() {
         return "VTx";
     }
 
-    protected void nextToken() throws IOException {
+    /**
+     * Push bytes into the emulator instead of reading them from the input stream, for example from a non-blocking
+     * channel or a captured byte log. Incomplete sequences are continued by the next call.
+     * Uses the state machine tokenizer. Do not mix with start(), which reads from the input stream.
+     */
+    public void feed(byte[] bytes, int offset, int length) throws IOException {
+        updateMaxTextRun();
+        tokenizer.feed(bytes, offset, length);
+    }
 
+    /**
+     * End of pushed input, see feed().
+     */
+    public void feedEof() throws IOException {
+        tokenizer.feedEof();
+    }
+
+    private void handleFedToken(Token token) throws IOException {
+        handleToken(token);
+        tokenCounter++;
+        updateMaxTextRun();
+    }
+
+    private void updateMaxTextRun() {
+        // Text runs stop before the last column, which is subject to auto wrap:
+        tokenizer.setMaxTextRun(term.numColumns() - 1 - term.getCursorX());
+    }
+
+    protected void nextToken() throws IOException {
         readErrorStream();
+        updateMaxTextRun();
+        handleToken(tokenizer.nextToken());
+        // next token would block on the input stream:
+        if ((!tokenizer.hasBufferedInput()) && (inputStream.available() <= 0)) {
+            term.inputIdle();
+        }
+    }
+
+    protected void handleToken(Token token) throws IOException {
 
         int x = term.getCursorX();
         int y = term.getCursorY();
 
-        Token token = tokenizer.nextToken();
-
-        // Text representation parse bytes sequence
-        byte[] bytes = tokenizer.getBytes();
-
         int arg1 = 0;
         int arg2 = 0;
         int num;
@@ -294,7 +453,13 @@ public class VTxEmulator implements Emulator {
         if (arg1 > 0) {
             increment = arg1;
         }
-        log.debug("nextToken #{} {}:'{}' with args:{}", tokenCounter, token, tokenizer.getText(), tokenizer.getFormattedArguments());
+        if (log.isDebugEnabled()) {
+            log.debug("nextToken #{} {}:'{}' with args:{}", tokenCounter, token, tokenizer.getText(), tokenizer.getFormattedArguments());
+        }
+        // a zero width joiner only joins the character printed right after it:
+        if ((token != Token.CHAR) && (token != Token.TEXT)) {
+            state.joinNext = false;
+        }
 
         switch (token) {
             case EOF:
@@ -315,11 +480,33 @@ public class VTxEmulator implements Emulator {
             case BEL:
                 term.beep();
                 break;
-            case CHAR:
+            case CHAR: {
                 // one or more characters: moves cursor !
-                state.lastChar=bytes.clone();
-                writeChar(bytes);
+                int codePoint = tokenizer.getCodePoint();
+                if (!combineChar(codePoint)) {
+                    state.lastCodePoint = codePoint;
+                    writeChar(codePoint);
+                }
+                break;
+            }
+            case TEXT: {
+                // run of characters which fits before the right margin:
+                byte[] text = tokenizer.getTextBuffer();
+                int offset = tokenizer.getTextOffset();
+                int end = offset + tokenizer.getTextLength();
+                int numChars = tokenizer.getTextNumChars();
+                // leading combining code points belong to the previous character:
+                while ((offset < end) && combineChar(Utf8Decoder.codePointAt(text, offset))) {
+                    offset += Util.utf8Length(text[offset]);
+                    numChars--;
+                }
+                if (numChars > 0) {
+                    state.lastCodePoint = tokenizer.getTextLastCodePoint();
+                    term.writeText(text, offset, end - offset);
+                    moveCursor(numChars, 0);
+                }
                 break;
+            }
             case HT: { // HORIZONTAL TAB
                 x = ((x / state.tabSize + 1) * state.tabSize);
                 if (x >= numColumns()) {
@@ -543,22 +730,22 @@ public class VTxEmulator implements Emulator {
             case CHARACTER_REPEAT: {
                 num = (arg1>0)?arg1:1;
                 for (int i=0;i<num;i++) {
-                    writeChar(state.lastChar);
+                    writeChar(state.lastCodePoint);
                 }
                 break;
             }
             case CHARACTER_ATTRS:
-                handleSetFontStyle(term, tokenizer.args().intArgs());
+                handleSetFontStyle(term, tokenizer.args());
                 break;
             case DEC_SETMODE:
             case DEC_RESETMODE:
                 boolean decValue = (token.compareTo(Token.DEC_SETMODE) == 0);
-                handleDecMode(term, tokenizer.args().intArgs(), decValue);
+                handleDecMode(term, tokenizer.args(), decValue);
                 break;
             case SET_MODE:
             case RESET_MODE:
                 boolean modeValue = (token.compareTo(Token.SET_MODE) == 0);
-                handleSetResetMode(term, tokenizer.args().intArgs(), modeValue);
+                handleSetResetMode(term, tokenizer.args(), modeValue);
                 break;
             case DEVICE_STATUS: {
                 if (arg1 == 6) {
@@ -612,12 +799,19 @@ public class VTxEmulator implements Emulator {
             case DCS_DEVICE_CONTROL_STRING:
                 handleDCS(tokenizer.args().strArg());
                 break;
+            case STRING_END:
+                // long OSC/DCS/APC string has been streamed to the StringPayloadHandler:
+                log.debug("End of streamed string payload, args:{}", tokenizer.args());
+                if (payloadHandler == payloadCollector) {
+                    handleCollectedString();
+                }
+                break;
             case XTERM_WIN_MANIPULATION:
-                handleWindowManipulation(tokenizer.args().intArgs());
-                log.debug("Fixme:Token error:{} with args:{}", token, Arrays.toString(tokenizer.args().intArgs()));
+                handleWindowManipulation(tokenizer.args());
+                log.debug("Fixme:Token error:{} with args:{}", token, tokenizer.args());
                 break;
             case XTERM_SETGET_GRAPHICS:
-                handleXtermSetGetGraphics(tokenizer.args().intArgs());
+                handleXtermSetGetGraphics(tokenizer.args());
                 break;
             // unsupported, misc:
             case ETX:
@@ -626,16 +820,21 @@ public class VTxEmulator implements Emulator {
             case DC2:
             case UNSUPPORTED:
             case ERROR: {
-                String seqstr = Util.prettyByteString(bytes);
                 // vt100 specifies to write checkerboard char:
                 // drawChar('▒');
-                log.debug("Fixme:Token error:{},{},sequence={}", token, tokenizer.getText(), seqstr);
+                if (log.isDebugEnabled()) {
+                    String seqstr = Util.prettyByteString(tokenizer.getBytes());
+                    log.debug("Fixme:Token error:{},{},sequence={}", token, tokenizer.getText(), seqstr);
+                }
                 break;
             }
             default: {
-                String seqstr = Util.prettyByteString(bytes);
                 // vt100 specifies to write checkerboard char:
                 // drawChar('▒');
+                if (!log.isDebugEnabled()) {
+                    break;
+                }
+                String seqstr = Util.prettyByteString(tokenizer.getBytes());
                 log.debug("Fixme: Unimplemented Token: {}:'{}' with args:'{}'; sequence={}; ('{}') ", token,
                         tokenizer.getText(),
                         tokenizer.getFormattedArguments(),
@@ -646,16 +845,16 @@ public class VTxEmulator implements Emulator {
         }// switch (token)
     }
 
-    private void handleXtermSetGetGraphics(int[] intArgs) {
-        if (intArgs.length < 3) {
-            log.debug("handleXtermSetGetGraphics(): not enough argument:{}", Arrays.toString(intArgs));
+    private void handleXtermSetGetGraphics(VTxTokenizer.Arguments args) {
+        if (args.numArgs() < 3) {
+            log.debug("handleXtermSetGetGraphics(): not enough argument:{}", args);
             return;
         }
-        log.debug("handleXtermSetGetGraphics(): {}", Arrays.toString(intArgs));
+        log.debug("handleXtermSetGetGraphics(): {}", args);
 
-        int id = intArgs[0];
-        int mode = intArgs[1];
-        int val = intArgs[2];
+        int id = args.intArg(0);
+        int mode = args.intArg(1);
+        int val = args.intArg(2);
         boolean get = (mode == 1);
         boolean reset = (mode == 2);
         boolean set = (mode == 3);
@@ -678,28 +877,29 @@ public class VTxEmulator implements Emulator {
                 }
                 break;
             case 2:
-                log.debug("unsupported Sixel graphics args :{}", Arrays.toString(intArgs));
+                log.debug("unsupported Sixel graphics args :{}", args);
                 break;
             case 3:
-                log.debug("unsupported ReGIS graphics args :{}", Arrays.toString(intArgs));
+                log.debug("unsupported ReGIS graphics args :{}", args);
                 break;
         }
     }
 
-    private void handleWindowManipulation(int[] intArgs) {
-        if (intArgs.length == 0)
+    private void handleWindowManipulation(VTxTokenizer.Arguments args) {
+        int numArgs = args.numArgs();
+        if (numArgs == 0)
             return;
 
         int rows = term.numRows();
         int cols = term.numColumns();
 
-        int cmd = intArgs[0];
+        int cmd = args.intArg(0);
         switch (cmd) {
             case 8:
-                if (intArgs.length > 2)
-                    rows = intArgs[1];
-                if (intArgs.length > 3)
-                    cols = intArgs[2];
+                if (numArgs > 2)
+                    rows = args.intArg(1);
+                if (numArgs > 3)
+                    cols = args.intArg(2);
                 log.warn("XTerm WinMan: setColumnsAndRows: {},{}", cols, rows);
                 term.setColumnsAndRows(cols, rows);
                 break;
@@ -708,13 +908,16 @@ public class VTxEmulator implements Emulator {
                 this.sendSize(cols, rows);
                 break;
             default:
-                log.debug("Unsupported Windows Manipulation: {}", Arrays.toString(intArgs));
+                log.debug("Unsupported Windows Manipulation: {}", args);
         }
 
     }
 
     private void handleDCS(String strArg) {
         log.debug("handleDCS: not implemented: {}", strArg);
+        if (strArg == null) {
+            return;
+        }
 
         if (strArg.startsWith("+q")) {
             String[] args = strArg.substring("+q".length()).split(";");
@@ -726,10 +929,35 @@ public class VTxEmulator implements Emulator {
 
     }
 
+    /**
+     * Handle long string collected by the payloadCollector like a short one.
+     */
+    private void handleCollectedString() {
+        try {
+            if (!payloadCollector.isComplete()) {
+                log.warn("Dropping string {} (command:{}) longer than the maximum payload size: {} bytes",
+                        payloadCollector.token(), payloadCollector.command(), payloadCollector.size());
+                return;
+            }
+            switch (payloadCollector.token()) {
+                case OSC_GRAPHMODE:
+                    handleGraphMode(payloadCollector.command(), payloadCollector.text());
+                    break;
+                case DCS_DEVICE_CONTROL_STRING:
+                    handleDCS(payloadCollector.text());
+                    break;
+                default:
+                    log.debug("Fixme:Unsupported string:{}", payloadCollector.token());
+            }
+        } finally {
+            payloadCollector.clear();
+        }
+    }
+
     private void handleGraphMode(int type, String strArg) {
         log.debug("OSC_GRAPHMODE: '{}';'{}'", type, strArg);
         if (type ==0  || type == 1 || type == 2) {
-            this.fireGraphModeEvent(type, tokenizer.args().strArg());
+            this.fireGraphModeEvent(type, strArg);
         }
         else if (type == 4 || type ==5) {
             log.debug("GraphMode color set/request: '{}'", strArg);
@@ -884,7 +1112,9 @@ public class VTxEmulator implements Emulator {
             ypos = miny; // inclusive
         }
 
-        log.trace("moveCursor(): {},{} + {},{} => {},{}", oldx, oldy, dx, dy, xpos, ypos);
+        if (log.isTraceEnabled()) {
+            log.trace("moveCursor(): {},{} + {},{} => {},{}", oldx, oldy, dx, dy, xpos, ypos);
+        }
         setCursor(xpos, ypos);
     }
 
@@ -940,6 +1170,8 @@ public class VTxEmulator implements Emulator {
     private void autoNewline() {
         int xpos = 0;
         int ypos = this.term.getCursorY();
+        // soft wrap, before scrolling:
+        term.setLineWrapped(ypos, true);
         ypos++;
 
         if (ypos >= getRegionMaxY()) {
@@ -950,28 +1182,28 @@ public class VTxEmulator implements Emulator {
         setCursor(xpos, ypos);
     }
 
-    private void handleSetFontStyle(CharacterTerminal charTerm, int[] args) {
-        log.trace("handleSetFontStyle(): {}", Arrays.toString(args));
-        int numArgs = args.length;
+    private void handleSetFontStyle(CharacterTerminal charTerm, VTxTokenizer.Arguments args) {
+        log.trace("handleSetFontStyle(): {}", args);
+        int numArgs = args.numArgs();
         if (numArgs == 0) {
             // empty = clear
             charTerm.setDrawStyle(0);
             return;
         }
 
-        // stream parse integers:
-        Iterator<Integer> iterator = Arrays.stream(args).iterator();
-        while (iterator.hasNext()) {
-            int mode = iterator.next(); //#0
+        // parse integers, intArg() returns -1 past the last argument:
+        int index = 0;
+        while (index < numArgs) {
+            int mode = args.intArg(index++); //#0
 
             if (((mode == 38) || (mode == 48))) {
                 boolean isFG = (mode == 38);
-                int subMode = safeNext(iterator, -1); //#1
+                int subMode = args.intArg(index++); //#1
                 if (subMode == 2) {
                     if (numArgs >= 5) {
-                        int r = safeNext(iterator, -1); //#2
-                        int g = safeNext(iterator, -1); //#3
-                        int b = safeNext(iterator, -1); //#4
+                        int r = args.intArg(index++); //#2
+                        int g = args.intArg(index++); //#3
+                        int b = args.intArg(index++); //#4
                         log.error("RGB subMode: RGB: {},{},{}", r, g, b);
                         if (isFG) {
                             charTerm.setDrawForeground(r, g, b);
@@ -983,8 +1215,10 @@ public class VTxEmulator implements Emulator {
                     }
                 } else if (subMode == 5) {
                     // XTERM 256 color mode:
-                    int ccode = safeNext(iterator, -1);//#2
-                    log.debug("RGB subMode: index: {}", ccode);
+                    int ccode = args.intArg(index++);//#2
+                    if (log.isDebugEnabled()) {
+                        log.debug("RGB subMode: index: {}", ccode);
+                    }
                     if (isFG) {
                         charTerm.setDrawForeground(ccode);
                     } else {
@@ -1018,17 +1252,17 @@ public class VTxEmulator implements Emulator {
 
     }
 
-    private void handleDecMode(CharacterTerminal charTerm, int[] args,
+    private void handleDecMode(CharacterTerminal charTerm, VTxTokenizer.Arguments args,
                                boolean value) {
-        log.debug("DECSETMODE: {}:{}", value ? "SET" : "RESET", Arrays.toString(args));
-        int numArgs = args.length;
+        log.debug("DECSETMODE: {}:{}", value ? "SET" : "RESET", args);
+        int numArgs = args.numArgs();
 
         if (numArgs == 0) {
             return; //Reset all ?
         }
 
         for (int i = 0; i < numArgs; i++) {
-            int mode = args[i];
+            int mode = args.intArg(i);
 
             switch (mode) {
                 case 1:
@@ -1120,12 +1354,12 @@ public class VTxEmulator implements Emulator {
         term.clearArea();
     }
 
-    private void handleSetResetMode(CharacterTerminal charTerm, int[] args,
+    private void handleSetResetMode(CharacterTerminal charTerm, VTxTokenizer.Arguments args,
                                     boolean value) {
-        if (args.length == 0)
+        if (args.numArgs() == 0)
             return; //Reset all ?
 
-        int mode = args[0];
+        int mode = args.intArg(0);
 
         if (mode == 4) {
             if (value) {
@@ -1153,7 +1387,31 @@ public class VTxEmulator implements Emulator {
         state.savedCharSetName = term.getCharSetName(state.savedCharSet);
     }
 
-    private void writeChar(byte[] bytes) {
+    /**
+     * Append a combining code point, or the character after a zero width joiner, to the previous character:
+     * the cell left of the cursor, or the cursor cell after writing the last column.
+     *
+     * @return false if the code point must be written as character of its own.
+     */
+    private boolean combineChar(int codePoint) {
+        boolean join = state.joinNext;
+        state.joinNext = false;
+        if ((!join) && (!Util.isGraphemeExtend(codePoint))) {
+            return false;
+        }
+        int x = term.getCursorX();
+        if (!state.decMode.lcf) {
+            if (x == 0) {
+                return false;
+            }
+            x--;
+        }
+        term.combineCodePoint(x, term.getCursorY(), codePoint);
+        state.joinNext = (codePoint == Util.ZERO_WIDTH_JOINER);
+        return true;
+    }
+
+    private void writeChar(int codePoint) {
 
         int oldx = term.getCursorX();
         int oldy = term.getCursorY();
@@ -1162,20 +1420,22 @@ public class VTxEmulator implements Emulator {
         if (term.getCursorX() == term.numColumns() - 1) {
             if (this.state.decMode.modeAutoWrap) {
                 if (!this.state.decMode.lcf) {
-                    term.writeChar(bytes);
+                    term.writeCodePoint(codePoint);
                     this.state.decMode.lcf = true;
                 } else {
                     autoNewline();
-                    term.writeChar(bytes);
-                    this.state.decMode.lcf = false;
+                    term.writeCodePoint(codePoint);
+                    moveCursor(1, 0);
+                }
+                if (log.isTraceEnabled()) {
+                    log.trace("LCF GlitchMode: {},{} -> {},{} [lcf: {}=>{}", oldx, oldy, term.getCursorX(), term.getCursorY(), oldLcf, state.decMode.lcf);
                 }
-                log.trace("LCF GlitchMode: {},{} -> {},{} [lcf: {}=>{}", oldx, oldy, term.getCursorX(), term.getCursorY(), oldLcf, state.decMode.lcf);
             } else {
-                term.writeChar(bytes);
+                term.writeCodePoint(codePoint);
                 autoNewline();
             }
         } else {
-            term.writeChar(bytes);
+            term.writeCodePoint(codePoint);
             moveCursor(1, 0);
         }
 
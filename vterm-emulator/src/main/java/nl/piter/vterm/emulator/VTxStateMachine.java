@@ -0,0 +1,763 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.piter.vterm.emulator.Tokens.Token;
+import nl.piter.vterm.emulator.Tokens.TokenOption;
+import nl.piter.vterm.emulator.Util.MiniBuffer;
+import nl.piter.vterm.emulator.token.IToken;
+
+import java.nio.charset.StandardCharsets;
+
+import static nl.piter.vterm.emulator.VTxCharDefs.*;
+
+/**
+ * Table driven DEC/ANSI parser in the style of the VT500 state machine (see: vt100.net/emu/dec_ansi_parser).
+ * Each byte is processed by a single lookup in a precomputed state transition table. CSI parameters,
+ * intermediates and OSC/DCS/APC strings are collected as side effects of the transition actions.
+ * <p>
+ * The parser is push based: bytes are offered one by one and a Token is returned once a sequence has
+ * been completed. The result (arguments, sequence bytes) is stored in the Arguments and pattern buffer
+ * of the owning VTxTokenizer, so that the emulator sees the same output as with the search tree parser.
+ * <p>
+ * OSC/DCS/APC strings up to MAX_STRING bytes are returned as string argument. If a StringPayloadHandler
+ * has been set, longer strings are streamed to the handler in chunks up to the maximum payload size, after
+ * which a STRING_END token is returned. Without handler they are truncated.
+ */
+@Slf4j
+public class VTxStateMachine {
+
+    // --- States --- //
+    static final int GROUND = 0;
+    static final int UTF8 = 1;
+    static final int ESCAPE = 2;
+    static final int ESCAPE_INTERMEDIATE = 3;
+    static final int CSI_ENTRY = 4;
+    static final int CSI_PARAM = 5;
+    static final int CSI_INTERMEDIATE = 6;
+    static final int CSI_IGNORE = 7;
+    static final int OSC_STRING = 8;
+    static final int ST_STRING = 9; // DCS and APC: terminated by ST only.
+    static final int STRING_ESC = 10; // ESC inside string: ST or abort.
+    static final int NUM_STATES = 11;
+
+    // --- Actions --- //
+    static final int NONE = 0;
+    static final int PRINT = 1;
+    static final int EXECUTE = 2;
+    static final int CLEAR = 3;
+    static final int COLLECT = 4;
+    static final int PARAM = 5;
+    static final int ESC_DISPATCH = 6;
+    static final int CSI_DISPATCH = 7;
+    static final int CSI_START = 8;
+    static final int OSC_START = 9;
+    static final int DCS_START = 10;
+    static final int APC_START = 11;
+    static final int STRING_PUT = 12;
+    static final int STRING_END = 13;
+    static final int STRING_ABORT = 14;
+    static final int UTF8_START = 15;
+    static final int UTF8_PUT = 16;
+    static final int STRING_CANCEL = 17;
+    static final int IGNORE = 18;
+    static final int ERROR = 19;
+    static final int CSI_IGNORE_END = 20;
+    static final int DELETE = 21;
+
+    private static final int ACTION_SHIFT = 8;
+    private static final int STATE_MASK = 0xff;
+
+    /**
+     * Precomputed state transition table: TRANSITIONS[state*256+byte] = (action << 8) | nextState.
+     */
+    private static final int[] TRANSITIONS = createTransitionTable();
+
+    /**
+     * Dispatch tables, compiled from the VTxTokenDefs definitions.
+     */
+    private static final DispatchTables DISPATCH = new DispatchTables(new VTxTokenDefs());
+
+    public static final int MAX_STRING = 256;
+    public static final int DEFAULT_MAX_PAYLOAD = 1024 * 1024;
+    private static final int MAX_INTERMEDIATES = 2;
+
+    // === Instance === //
+
+    private final VTxTokenizer.Arguments arguments;
+    private final MiniBuffer patternBuffer;
+
+    private int state = GROUND;
+    // CSI
+    private int marker;
+    private int intermediates;
+    private int numIntermediates;
+    private int paramValue;
+    private boolean paramDigits;
+    // Strings
+    private final byte[] stringBuffer = new byte[MAX_STRING];
+    private int stringSize;
+    private Token stringToken;
+    // Streaming of long strings:
+    private StringPayloadHandler payloadHandler;
+    private int maxPayloadSize = DEFAULT_MAX_PAYLOAD;
+    private boolean streaming;
+    private boolean truncated;
+    private int payloadSize;
+    // UTF-8
+    private final Utf8Decoder utf8Decoder = new Utf8Decoder();
+    private int codePoint;
+    // result
+    private boolean consumed;
+    private IToken matchedIToken;
+
+    public VTxStateMachine(VTxTokenizer.Arguments arguments, MiniBuffer patternBuffer) {
+        this.arguments = arguments;
+        this.patternBuffer = patternBuffer;
+    }
+
+    /**
+     * Handler for strings longer than MAX_STRING, null truncates them.
+     */
+    public void setPayloadHandler(StringPayloadHandler handler) {
+        abortPayload();
+        this.payloadHandler = handler;
+    }
+
+    public StringPayloadHandler getPayloadHandler() {
+        return this.payloadHandler;
+    }
+
+    /**
+     * Hard limit for streamed payloads. Excess bytes are skipped and the payload is ended as incomplete.
+     */
+    public void setMaxPayloadSize(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Maximum payload size must be positive:" + size);
+        }
+        this.maxPayloadSize = size;
+    }
+
+    public int getMaxPayloadSize() {
+        return this.maxPayloadSize;
+    }
+
+    /**
+     * Process next byte (0-255) or -1 for EOF.
+     *
+     * @return completed Token or null if more bytes are needed.
+     */
+    public Token next(int c) {
+        consumed = true;
+        matchedIToken = null;
+
+        if (c < 0) {
+            if (state == UTF8) {
+                // incomplete utf-8 sequence: replacement char first, then EOF.
+                utf8Decoder.abort();
+                Token token = utf8Reject();
+                consumed = false;
+                return token;
+            }
+            abortPayload();
+            state = GROUND;
+            patternBuffer.reset();
+            return Token.EOF;
+        }
+
+        int transition = TRANSITIONS[(state << 8) | (c & 0xff)];
+        int prevState = state;
+        state = transition & STATE_MASK;
+
+        switch (transition >>> ACTION_SHIFT) {
+            case NONE:
+                putPattern(c);
+                return null;
+            case PRINT:
+                startPattern(c);
+                clearArgs();
+                codePoint = c;
+                return Token.CHAR;
+            case EXECUTE:
+                return execute(c, prevState);
+            case CLEAR:
+                clear();
+                startPattern(c);
+                return null;
+            case COLLECT:
+                collect(c);
+                putPattern(c);
+                return null;
+            case PARAM:
+                param(c);
+                putPattern(c);
+                return null;
+            case ESC_DISPATCH:
+                putPattern(c);
+                return escDispatch(c);
+            case CSI_START:
+                putPattern(c);
+                return null;
+            case CSI_DISPATCH:
+                putPattern(c);
+                return csiDispatch(c);
+            case OSC_START:
+                putPattern(c);
+                return startString(Token.OSC_GRAPHMODE);
+            case DCS_START:
+                putPattern(c);
+                return startString(Token.DCS_DEVICE_CONTROL_STRING);
+            case APC_START:
+                putPattern(c);
+                return startString(Token.APP_PROGRAM_CMD);
+            case STRING_PUT:
+                putString(c);
+                putPattern(c);
+                return null;
+            case STRING_END:
+                putPattern(c);
+                return stringDispatch();
+            case STRING_ABORT:
+                // ESC inside string not followed by '\': drop string, reprocess char as escape sequence.
+                log.debug("Aborted string sequence:{} at: {}", stringToken, Util.byte2hexstr(c));
+                abortPayload();
+                clear();
+                patternBuffer.reset();
+                patternBuffer.put(CTRL_ESC);
+                state = ESCAPE;
+                return next(c);
+            case STRING_CANCEL:
+                // CAN/SUB inside string: drop string, execute control.
+                log.debug("Cancelled string sequence:{} at: {}", stringToken, Util.byte2hexstr(c));
+                abortPayload();
+                stringSize = 0;
+                stringToken = null;
+                return execute(c, prevState);
+            case UTF8_START:
+                patternBuffer.reset();
+                utf8Decoder.reset();
+                return utf8(c);
+            case UTF8_PUT:
+                return utf8(c);
+            case DELETE:
+                startPattern(c);
+                clearArgs();
+                return Token.DEL;
+            case IGNORE:
+                return null;
+            case CSI_IGNORE_END:
+                putPattern(c);
+                log.warn("- unsupported CSI sequence: {}", Util.prettyByteString(patternBuffer.getBytes()));
+                return Token.ERROR;
+            case ERROR:
+            default:
+                putPattern(c);
+                log.warn("- unrecognized pattern: {}", Util.prettyByteString(patternBuffer.getBytes()));
+                return Token.ERROR;
+        }
+    }
+
+    /**
+     * Whether the last byte has been consumed. If not, the same byte must be offered again.
+     */
+    public boolean isConsumed() {
+        return consumed;
+    }
+
+    /**
+     * Token definition of last dispatched sequence, if any.
+     */
+    public IToken getIToken() {
+        return matchedIToken;
+    }
+
+    /**
+     * Whether the parser is in ground state, i.e. not inside an escape, control sequence or string.
+     */
+    public boolean isGround() {
+        return state == GROUND;
+    }
+
+    /**
+     * Code point of last CHAR token.
+     */
+    public int getCodePoint() {
+        return codePoint;
+    }
+
+    public void reset() {
+        abortPayload();
+        state = GROUND;
+        utf8Decoder.reset();
+        clear();
+        patternBuffer.reset();
+    }
+
+    // --- Actions --- //
+
+    private Token execute(int c, int prevState) {
+        if (prevState == GROUND) {
+            startPattern(c);
+            clearArgs();
+        }
+        // C0 during escape sequence: execute but keep sequence state (VTTEST-C0).
+        return VTxTokenizer.matchC0Token(c);
+    }
+
+    private void clear() {
+        arguments.clear();
+        marker = 0;
+        intermediates = 0;
+        numIntermediates = 0;
+        paramValue = 0;
+        paramDigits = false;
+        stringSize = 0;
+        stringToken = null;
+    }
+
+    private void clearArgs() {
+        if ((arguments.numIntegerArgs > 0) || (arguments.stringArg != null)) {
+            arguments.clear();
+        }
+    }
+
+    private void collect(int c) {
+        if ((state == CSI_PARAM) && (numIntermediates == 0) && (c >= '<') && (c <= '?')) {
+            // private marker
+            marker = c;
+        } else if (numIntermediates < MAX_INTERMEDIATES) {
+            intermediates = (intermediates << 8) | c;
+            numIntermediates++;
+        }
+    }
+
+    private void param(int c) {
+        if (c == ';') {
+            pushParam(paramDigits ? paramValue : 0);
+            paramValue = 0;
+            paramDigits = false;
+        } else {
+            paramValue = VTxTokenizer.addDigit(paramValue, c);
+            paramDigits = true;
+        }
+    }
+
+    private void pushParam(int value) {
+        int[] args = arguments.integerArgs;
+        if (arguments.numIntegerArgs < args.length) {
+            args[arguments.numIntegerArgs++] = value;
+        }
+    }
+
+    private Token escDispatch(int c) {
+        IToken itoken;
+        if (numIntermediates == 0) {
+            itoken = DISPATCH.escTokens[c];
+        } else if ((numIntermediates == 1) && (DISPATCH.charsetTokens[intermediates] != null)) {
+            itoken = DISPATCH.charsetTokens[intermediates];
+            arguments.stringArg = String.valueOf((char) c);
+        } else {
+            itoken = DISPATCH.findIntermediate(DISPATCH.escIntermediateKeys, DISPATCH.escIntermediateTokens,
+                    (intermediates << 8) | c);
+        }
+        return dispatch(itoken);
+    }
+
+    private Token csiDispatch(int c) {
+        if (paramDigits) {
+            pushParam(paramValue);
+        }
+        IToken itoken;
+        if (numIntermediates == 0) {
+            itoken = DISPATCH.csiTokens[DispatchTables.markerIndex(marker) * 128 + c];
+        } else {
+            itoken = DISPATCH.findIntermediate(DISPATCH.csiIntermediateKeys, DISPATCH.csiIntermediateTokens,
+                    DispatchTables.csiKey(marker, intermediates, c));
+        }
+        return dispatch(itoken);
+    }
+
+    private Token dispatch(IToken itoken) {
+        if (itoken == null) {
+            log.warn("- unrecognized pattern: {}", Util.prettyByteString(patternBuffer.getBytes()));
+            return Token.ERROR;
+        }
+        matchedIToken = itoken;
+        return itoken.token();
+    }
+
+    private Token startString(Token token) {
+        stringToken = token;
+        stringSize = 0;
+        return null;
+    }
+
+    private Token stringDispatch() {
+        Token token = stringToken;
+        stringToken = null;
+        if (streaming) {
+            flushString();
+            streaming = false;
+            payloadHandler.endPayload(!truncated);
+            arguments.stringArg = null;
+            return Token.STRING_END;
+        }
+        if ((token == Token.OSC_GRAPHMODE) && (stringSize > 0)) {
+            setStringArg(parseCommand());
+        } else {
+            setStringArg(0);
+        }
+        return token;
+    }
+
+    /**
+     * Parse OSC graph mode command: <Int> <ND> <String>.
+     *
+     * @return offset of the string after the ND.
+     */
+    private int parseCommand() {
+        int index = 0;
+        int value = 0;
+        while ((index < stringSize) && isDigit(stringBuffer[index])) {
+            value = VTxTokenizer.addDigit(value, stringBuffer[index++]);
+        }
+        arguments.integerArgs[0] = value;
+        arguments.numIntegerArgs = 1;
+        // ND: any non-digit char, typically ';'.
+        if (index < stringSize) {
+            index++;
+        }
+        return index;
+    }
+
+    private void putString(int c) {
+        if (stringSize == stringBuffer.length) {
+            if (payloadHandler == null) {
+                return; // truncate
+            }
+            flushString();
+        }
+        stringBuffer[stringSize++] = (byte) c;
+    }
+
+    /**
+     * Pass full string buffer to payload handler, starts streaming at the first call.
+     */
+    private void flushString() {
+        int offset = 0;
+        if (!streaming) {
+            int command = -1;
+            if (stringToken == Token.OSC_GRAPHMODE) {
+                offset = parseCommand();
+                command = arguments.integerArgs[0];
+            }
+            streaming = true;
+            truncated = false;
+            payloadSize = 0;
+            payloadHandler.startPayload(stringToken, command);
+        }
+        int len = stringSize - offset;
+        if (len > maxPayloadSize - payloadSize) {
+            len = maxPayloadSize - payloadSize;
+            truncated = true;
+        }
+        if (len > 0) {
+            payloadHandler.payloadChunk(stringBuffer, offset, len);
+            payloadSize += len;
+        }
+        stringSize = 0;
+    }
+
+    private void abortPayload() {
+        if (streaming) {
+            streaming = false;
+            payloadHandler.endPayload(false);
+        }
+    }
+
+    private void setStringArg(int offset) {
+        if (stringSize > offset) {
+            arguments.stringArg = new String(stringBuffer, offset, stringSize - offset, StandardCharsets.UTF_8);
+        } else {
+            arguments.stringArg = null;
+        }
+    }
+
+    private Token utf8(int c) {
+        switch (utf8Decoder.decode(c)) {
+            case Utf8Decoder.CONTINUE:
+                patternBuffer.put(c);
+                state = UTF8;
+                return null;
+            case Utf8Decoder.ACCEPT:
+                patternBuffer.put(c);
+                state = GROUND;
+                codePoint = utf8Decoder.codePoint();
+                clearArgs();
+                return Token.CHAR;
+            case Utf8Decoder.REJECT:
+            default:
+                return utf8Reject();
+        }
+    }
+
+    /**
+     * Malformed utf-8: return replacement char. An interrupting byte is not consumed and must be reprocessed.
+     */
+    private Token utf8Reject() {
+        consumed = utf8Decoder.isConsumed();
+        state = GROUND;
+        VTxTokenizer.setReplacementChar(patternBuffer);
+        codePoint = Utf8Decoder.REPLACEMENT_CHAR;
+        clearArgs();
+        return Token.CHAR;
+    }
+
+    private void startPattern(int c) {
+        patternBuffer.reset();
+        patternBuffer.put(c);
+    }
+
+    private void putPattern(int c) {
+        if (patternBuffer.freeSpace() > 0) {
+            patternBuffer.put(c);
+        }
+    }
+
+    private static boolean isDigit(int c) {
+        return (c >= '0') && (c <= '9');
+    }
+
+    // ========================================================================
+    // Transition table
+    // ========================================================================
+
+    private static int[] createTransitionTable() {
+        int[] table = new int[NUM_STATES * 256];
+
+        // GROUND
+        range(table, GROUND, 0x00, 0x1f, EXECUTE, GROUND);
+        range(table, GROUND, CTRL_ESC, CTRL_ESC, CLEAR, ESCAPE);
+        range(table, GROUND, 0x20, 0x7e, PRINT, GROUND);
+        range(table, GROUND, 0x7f, 0x7f, DELETE, GROUND);
+        range(table, GROUND, 0x80, 0xff, UTF8_START, UTF8);
+
+        // UTF8: the decoder checks continuation bytes.
+        range(table, UTF8, 0x00, 0xff, UTF8_PUT, UTF8);
+
+        // ESCAPE
+        c0(table, ESCAPE);
+        range(table, ESCAPE, 0x20, 0x2f, COLLECT, ESCAPE_INTERMEDIATE);
+        range(table, ESCAPE, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+        range(table, ESCAPE, '[', '[', CSI_START, CSI_ENTRY);
+        range(table, ESCAPE, ']', ']', OSC_START, OSC_STRING);
+        range(table, ESCAPE, 'P', 'P', DCS_START, ST_STRING);
+        range(table, ESCAPE, '_', '_', APC_START, ST_STRING);
+        range(table, ESCAPE, 0x7f, 0x7f, IGNORE, ESCAPE);
+        range(table, ESCAPE, 0x80, 0xff, ERROR, GROUND);
+
+        // ESCAPE_INTERMEDIATE
+        c0(table, ESCAPE_INTERMEDIATE);
+        range(table, ESCAPE_INTERMEDIATE, 0x20, 0x2f, COLLECT, ESCAPE_INTERMEDIATE);
+        range(table, ESCAPE_INTERMEDIATE, 0x30, 0x7e, ESC_DISPATCH, GROUND);
+        range(table, ESCAPE_INTERMEDIATE, 0x7f, 0x7f, IGNORE, ESCAPE_INTERMEDIATE);
+        range(table, ESCAPE_INTERMEDIATE, 0x80, 0xff, ERROR, GROUND);
+
+        // CSI_ENTRY
+        c0(table, CSI_ENTRY);
+        range(table, CSI_ENTRY, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+        range(table, CSI_ENTRY, '0', '9', PARAM, CSI_PARAM);
+        range(table, CSI_ENTRY, ':', ':', NONE, CSI_IGNORE);
+        range(table, CSI_ENTRY, ';', ';', PARAM, CSI_PARAM);
+        range(table, CSI_ENTRY, '<', '?', COLLECT, CSI_PARAM);
+        range(table, CSI_ENTRY, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+        range(table, CSI_ENTRY, 0x7f, 0x7f, IGNORE, CSI_ENTRY);
+        range(table, CSI_ENTRY, 0x80, 0xff, ERROR, GROUND);
+
+        // CSI_PARAM
+        c0(table, CSI_PARAM);
+        range(table, CSI_PARAM, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+        range(table, CSI_PARAM, '0', '9', PARAM, CSI_PARAM);
+        range(table, CSI_PARAM, ':', ':', NONE, CSI_IGNORE);
+        range(table, CSI_PARAM, ';', ';', PARAM, CSI_PARAM);
+        range(table, CSI_PARAM, '<', '?', NONE, CSI_IGNORE);
+        range(table, CSI_PARAM, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+        range(table, CSI_PARAM, 0x7f, 0x7f, IGNORE, CSI_PARAM);
+        range(table, CSI_PARAM, 0x80, 0xff, ERROR, GROUND);
+
+        // CSI_INTERMEDIATE
+        c0(table, CSI_INTERMEDIATE);
+        range(table, CSI_INTERMEDIATE, 0x20, 0x2f, COLLECT, CSI_INTERMEDIATE);
+        range(table, CSI_INTERMEDIATE, 0x30, 0x3f, NONE, CSI_IGNORE);
+        range(table, CSI_INTERMEDIATE, 0x40, 0x7e, CSI_DISPATCH, GROUND);
+        range(table, CSI_INTERMEDIATE, 0x7f, 0x7f, IGNORE, CSI_INTERMEDIATE);
+        range(table, CSI_INTERMEDIATE, 0x80, 0xff, ERROR, GROUND);
+
+        // CSI_IGNORE
+        c0(table, CSI_IGNORE);
+        range(table, CSI_IGNORE, 0x20, 0x3f, NONE, CSI_IGNORE);
+        range(table, CSI_IGNORE, 0x40, 0x7e, CSI_IGNORE_END, GROUND);
+        range(table, CSI_IGNORE, 0x7f, 0xff, IGNORE, CSI_IGNORE);
+
+        // OSC_STRING: terminated by BEL or ST.
+        range(table, OSC_STRING, 0x00, 0x1f, IGNORE, OSC_STRING);
+        range(table, OSC_STRING, 0x20, 0xff, STRING_PUT, OSC_STRING);
+        range(table, OSC_STRING, CTRL_BEL, CTRL_BEL, STRING_END, GROUND);
+
+        // ST_STRING (DCS,APC): terminated by ST.
+        range(table, ST_STRING, 0x00, 0x1f, IGNORE, ST_STRING);
+        range(table, ST_STRING, 0x20, 0xff, STRING_PUT, ST_STRING);
+
+        // String ESC: either ST or start of new escape sequence.
+        range(table, STRING_ESC, 0x00, 0xff, STRING_ABORT, ESCAPE);
+        range(table, STRING_ESC, '\\', '\\', STRING_END, GROUND);
+
+        for (int state : new int[]{OSC_STRING, ST_STRING}) {
+            range(table, state, CTRL_ESC, CTRL_ESC, NONE, STRING_ESC);
+            range(table, state, CTRL_CAN, CTRL_CAN, STRING_CANCEL, GROUND);
+            range(table, state, CTRL_SUB, CTRL_SUB, STRING_CANCEL, GROUND);
+        }
+
+        return table;
+    }
+
+    /**
+     * C0 controls inside escape sequences: execute and stay in state, CAN/SUB abort, ESC restarts.
+     */
+    private static void c0(int[] table, int state) {
+        range(table, state, 0x00, 0x1f, EXECUTE, state);
+        range(table, state, CTRL_CAN, CTRL_CAN, EXECUTE, GROUND);
+        range(table, state, CTRL_SUB, CTRL_SUB, EXECUTE, GROUND);
+        range(table, state, CTRL_ESC, CTRL_ESC, CLEAR, ESCAPE);
+    }
+
+    private static void range(int[] table, int state, int from, int to, int action, int nextState) {
+        for (int c = from; c <= to; c++) {
+            table[(state << 8) | c] = (action << ACTION_SHIFT) | nextState;
+        }
+    }
+
+    // ========================================================================
+    // Dispatch tables
+    // ========================================================================
+
+    /**
+     * Final character dispatch tables, compiled once from the VTxTokenDefs.
+     */
+    static class DispatchTables {
+        // markers: none, '<', '=', '>', '?'
+        private static final int NUM_MARKERS = 5;
+
+        final IToken[] escTokens = new IToken[256];
+        final IToken[] charsetTokens = new IToken[256];
+        final IToken[] csiTokens = new IToken[NUM_MARKERS * 128];
+        int[] escIntermediateKeys = new int[0];
+        IToken[] escIntermediateTokens = new IToken[0];
+        int[] csiIntermediateKeys = new int[0];
+        IToken[] csiIntermediateTokens = new IToken[0];
+
+        DispatchTables(VTxTokenDefs tokenDefs) {
+            for (IToken itoken : tokenDefs.getPatterns()) {
+                add(itoken);
+            }
+        }
+
+        private void add(IToken itoken) {
+            byte[] prefix = itoken.prefix();
+            if ((prefix.length < 2) || (prefix[0] != CTRL_ESC)) {
+                return; // C0 tokens are handled by the tokenizer.
+            }
+            if (!itoken.token().isTerminator()) {
+                return; // prefix tokens.
+            }
+            TokenOption option = itoken.option();
+
+            if (prefix[1] == '[') {
+                if ((option != TokenOption.PARAMETER_INTEGERS) || (itoken.terminator() == null)) {
+                    return;
+                }
+                int marker = (prefix.length > 2) ? prefix[2] : 0;
+                byte[] terminator = itoken.terminator();
+                int finalChar = terminator[terminator.length - 1];
+                int intermediates = 0;
+                for (int i = 0; i < terminator.length - 1; i++) {
+                    intermediates = (intermediates << 8) | terminator[i];
+                }
+                if (intermediates == 0) {
+                    putFirst(csiTokens, markerIndex(marker) * 128 + finalChar, itoken);
+                } else {
+                    addCsiIntermediate(csiKey(marker, intermediates, finalChar), itoken);
+                }
+            } else if (option == TokenOption.PARAMETER_CHARSET) {
+                if (prefix.length == 2) {
+                    putFirst(charsetTokens, prefix[1] & 0xff, itoken);
+                }
+            } else if (option == null) {
+                if (prefix.length == 2) {
+                    putFirst(escTokens, prefix[1] & 0xff, itoken);
+                } else if (prefix.length == 3) {
+                    addEscIntermediate(((prefix[1] & 0xff) << 8) | (prefix[2] & 0xff), itoken);
+                }
+            }
+            // String (DCS,APC) and graph mode (OSC) sequences are fixed in the transition table.
+        }
+
+        private void putFirst(IToken[] table, int index, IToken itoken) {
+            // first definition wins, same as search tree matching.
+            if (table[index] == null) {
+                table[index] = itoken;
+            }
+        }
+
+        private void addEscIntermediate(int key, IToken itoken) {
+            escIntermediateKeys = append(escIntermediateKeys, key);
+            escIntermediateTokens = append(escIntermediateTokens, itoken);
+        }
+
+        private void addCsiIntermediate(int key, IToken itoken) {
+            csiIntermediateKeys = append(csiIntermediateKeys, key);
+            csiIntermediateTokens = append(csiIntermediateTokens, itoken);
+        }
+
+        IToken findIntermediate(int[] keys, IToken[] tokens, int key) {
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] == key) {
+                    return tokens[i];
+                }
+            }
+            return null;
+        }
+
+        static int markerIndex(int marker) {
+            if ((marker >= '<') && (marker <= '?')) {
+                return marker - '<' + 1;
+            }
+            return 0;
+        }
+
+        static int csiKey(int marker, int intermediates, int finalChar) {
+            return (markerIndex(marker) << 24) | ((intermediates & 0xffff) << 8) | finalChar;
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] result = new int[array.length + 1];
+            System.arraycopy(array, 0, result, 0, array.length);
+            result[array.length] = value;
+            return result;
+        }
+
+        private static IToken[] append(IToken[] array, IToken value) {
+            IToken[] result = new IToken[array.length + 1];
+            System.arraycopy(array, 0, result, 0, array.length);
+            result[array.length] = value;
+            return result;
+        }
+    }
+
+}
@@ -11,11 +11,13 @@ import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.emulator.token.IToken;
 import nl.piter.vterm.emulator.token.SearchTree;
 import nl.piter.vterm.emulator.token.TokenDef;
+import nl.piter.vterm.emulator.token.TokenTrie;
 import nl.piter.vterm.exceptions.VTxInvalidConfigurationException;
 
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import static nl.piter.vterm.emulator.Tokens.Token;
@@ -190,28 +192,41 @@ public class VTxTokenDefs {
             {} // NILL
     };
 
+    /**
+     * Token patterns and search trie are compiled once and shared by all instances.
+     */
+    private static final List<IToken> sharedPatterns = new ArrayList<>();
+    private static final TokenTrie<IToken> sharedTrie = compile();
+
     // === INSTANCE === //
 
-    protected List<IToken> tokenPatterns = new ArrayList();
-    protected SearchTree<IToken> searchTree=new SearchTree();
+    protected final List<IToken> tokenPatterns;
+    protected final TokenTrie<IToken> searchTrie;
 
     public VTxTokenDefs() {
-        compile();
+        this.tokenPatterns = Collections.unmodifiableList(sharedPatterns);
+        this.searchTrie = sharedTrie;
     }
 
-    // 'compile' = create SearchTree
-    private void compile() {
+    // 'compile' = create SearchTree and compact it into a TokenTrie.
+    private static TokenTrie<IToken> compile() {
+        SearchTree<IToken> searchTree = new SearchTree<>();
         for (int i = 0; i < tokenDefs.length; i++) {
-            addPattern(tokenDefs[i]);
+            IToken tokenDef = createPattern(tokenDefs[i]);
+            if (tokenDef != null) {
+                sharedPatterns.add(tokenDef);
+                searchTree.add(tokenDef);
+            }
         }
+        return searchTree.compile();
     }
 
-    private void addPattern(Object[] def) {
+    private static IToken createPattern(Object[] def) {
 
         TokenOption option = null;
         byte[] terminatorChars = null;
         if ((def == null) || (def.length == 0)) {
-            return;
+            return null;
         }
 
         Object lastObj = def[def.length - 1];
@@ -260,12 +275,10 @@ public class VTxTokenDefs {
             throw new VTxInvalidConfigurationException("Couldn't parse pattern: " + Arrays.toString(def));
         }
 
-        IToken tokenDef = TokenDef.createFrom(chars, option, terminatorChars, token, tokenDescription);
-        tokenPatterns.add(tokenDef);
-        searchTree.add(tokenDef);
+        return TokenDef.createFrom(chars, option, terminatorChars, token, tokenDescription);
     }
 
-    private byte[] getStringBytes(Object obj) {
+    private static byte[] getStringBytes(Object obj) {
         // Beware of auto-boxing:
         if (obj instanceof Byte) {
             return new byte[]{(byte) obj};
@@ -307,7 +320,7 @@ public class VTxTokenDefs {
 
         // Partial state matching now functional?
         // IToken fullMatch = searchTree.findFull(pattern, patternIndex);
-        IToken prefix = searchTree.findPartial(pattern, patternIndex);
+        IToken prefix = searchTrie.findPartial(pattern, patternIndex);
         if(prefix!=null) {
             return prefix;
         }
@@ -25,12 +25,36 @@ import static nl.piter.vterm.emulator.Util.isEmpty;
 /**
  * Simple tokenizer class. Issue nextToken() to parse inputStream.
  * getBytes() returns parsed byte sequence.
+ * <p>
+ * Alternatively bytes can be pushed using feed(), which emits the tokens to a TokenHandler. Partial sequences are
+ * kept between feed() calls, so the bytes may be split at any position.
  */
 @Slf4j
 public class VTxTokenizer {
 
     private static final int MAX_MINIBUF = 256;
 
+    /**
+     * Default size of block read buffer between input stream and tokenizer.
+     */
+    public static final int DEFAULT_READ_BUFFER_SIZE = 8192;
+
+    /**
+     * Parser engine: the original search tree matcher or the table driven state machine.
+     */
+    public enum Engine {
+        SEARCH_TREE,
+        STATE_MACHINE
+    }
+
+    /**
+     * Callback for tokens emitted by feed(). Token arguments, bytes and text run are valid during the callback.
+     */
+    @FunctionalInterface
+    public interface TokenHandler {
+        void handleToken(Token token) throws IOException;
+    }
+
     // =======================================================================
 
     private final VTxTokenDefs tokenDefs;
@@ -40,10 +64,30 @@ public class VTxTokenizer {
     // Must be able to hold long (XTERM) string arguments. (title, etc.):
     private final MiniBuffer readAheadBuffer = new MiniBuffer(MAX_MINIBUF);
     private final MiniBuffer patternBuffer = new MiniBuffer(MAX_MINIBUF);
-    private final byte[] one = new byte[1];
+    // Reusable byte copy of the pattern buffer for the search tree:
+    private final byte[] patternBytes = new byte[MAX_MINIBUF];
+
+    // Block read buffer below the read ahead buffer, refilled using bulk reads:
+    private byte[] readBuffer;
+    private int readPos;
+    private int readLen;
+
+    // Text run scanned from the read buffer or fed bytes. Maximum run length in characters, 0 disables text runs:
+    private int maxTextRun;
+    private boolean textRun;
+    private byte[] textBuffer;
+    private int textOffset;
+    private int textLength;
+    private int textNumChars;
+    private int textLastCharOffset;
+
+    // Decoded code point of last CHAR token:
+    private final Utf8Decoder utf8Decoder = new Utf8Decoder();
+    private int codePoint;
 
     // input
     private final InputStream inputStream;
+    private TokenHandler tokenHandler;
 
     //
     private final Logger vtermTokenRecorder = LoggerFactory.getLogger("VTERM-RECORDER");
@@ -52,10 +96,10 @@ public class VTxTokenizer {
      * Options/Arguments for CSI sequences.
      */
     public class Arguments {
-        private final int[] integerArgs = new int[16];
-        private int numIntegerArgs;
+        final int[] integerArgs = new int[16];
+        int numIntegerArgs;
         private int dummyND;
-        private String stringArg;
+        String stringArg;
         private int dummyNP;
 
         public int numArgs() {
@@ -74,6 +118,9 @@ public class VTxTokenizer {
             return stringArg;
         }
 
+        /**
+         * Returns copy of integer arguments. Use numArgs() and intArg() to avoid the copy.
+         */
         public int[] intArgs() {
             if (this.numIntegerArgs == 0) {
                 return new int[]{};
@@ -101,6 +148,22 @@ public class VTxTokenizer {
         public Character charSet() {
             return this.stringArg.charAt(0);
         }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = 0; i < numIntegerArgs; i++) {
+                if (i > 0) {
+                    sb.append(';');
+                }
+                sb.append(integerArgs[i]);
+            }
+            // for graph mode
+            if (!isEmpty(stringArg)) {
+                sb.append(",'").append(stringArg).append("'");
+            }
+            return sb.append(']').toString();
+        }
     }
 
     public class State {
@@ -115,7 +178,6 @@ public class VTxTokenizer {
         protected IToken matchedIToken;
         protected boolean keepPatternBuffer;
         //
-        protected char[] charBuffer = new char[16];
         protected char[] stringBuffer = new char[256];
 
         public void reset() {
@@ -128,28 +190,155 @@ public class VTxTokenizer {
         }
     }
 
+    /**
+     * Add digit to integer argument, saturates at Integer.MAX_VALUE.
+     */
+    static int addDigit(int value, int digit) {
+        if (value > (Integer.MAX_VALUE - 9) / 10) {
+            return Integer.MAX_VALUE;
+        }
+        return value * 10 + (digit - '0');
+    }
+
     private final State state = new State();
     private final Arguments arguments = new Arguments();
+    private final VTxStateMachine stateMachine = new VTxStateMachine(arguments, patternBuffer);
+    private Engine engine;
+    // long strings are streamed: the search tree engine parses OSC/DCS/APC strings with the state machine
+    private boolean streamStrings;
 
     public VTxTokenizer(InputStream inps) {
+        this(inps, DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    public VTxTokenizer(InputStream inps, int readBufferSize) {
+        this(inps, readBufferSize, Engine.SEARCH_TREE);
+    }
+
+    /**
+     * Push only tokenizer, see feed(). Always uses the state machine engine.
+     * The pull methods nextToken() and nextChar() throw an IllegalStateException.
+     */
+    public VTxTokenizer(TokenHandler handler) {
+        this(null, DEFAULT_READ_BUFFER_SIZE, Engine.STATE_MACHINE);
+        this.tokenHandler = handler;
+    }
+
+    public VTxTokenizer(InputStream inps, int readBufferSize, Engine engine) {
         this.inputStream = inps;
         this.tokenDefs = new VTxTokenDefs();
+        this.readBuffer = new byte[checkReadBufferSize(readBufferSize)];
+        this.engine = engine;
+    }
+
+    public void setEngine(Engine engine) {
+        if (this.engine != engine) {
+            this.stateMachine.reset();
+            this.reset();
+        }
+        this.engine = engine;
+    }
+
+    public Engine getEngine() {
+        return this.engine;
+    }
+
+    /**
+     * Resize read buffer. Bytes which already have been read but not yet consumed are kept.
+     */
+    public void setReadBufferSize(int size) {
+        textRun = false;
+        int pending = readLen - readPos;
+        byte[] newBuffer = new byte[Math.max(checkReadBufferSize(size), pending)];
+        System.arraycopy(readBuffer, readPos, newBuffer, 0, pending);
+        this.readBuffer = newBuffer;
+        this.readPos = 0;
+        this.readLen = pending;
+    }
+
+    public int getReadBufferSize() {
+        return this.readBuffer.length;
+    }
+
+    private static int checkReadBufferSize(int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Read buffer size must be positive:" + size);
+        }
+        return size;
+    }
+
+    /**
+     * Maximum number of printable characters to collect into a single TEXT token. Typically the
+     * number of columns up to the right margin. Values below 2 disable text runs.
+     */
+    public void setMaxTextRun(int maxChars) {
+        this.maxTextRun = maxChars;
+    }
+
+    public int getMaxTextRun() {
+        return this.maxTextRun;
     }
 
     public Arguments args() {
         return this.arguments;
     }
 
+    /**
+     * Stream OSC/DCS/APC strings longer than VTxStateMachine.MAX_STRING to the handler, null truncates them.
+     * With a handler the search tree engine hands these strings to the state machine as well.
+     */
+    public void setStringPayloadHandler(StringPayloadHandler handler) {
+        this.stateMachine.setPayloadHandler(handler);
+        this.streamStrings = (handler != null);
+    }
+
+    public void setMaxStringPayload(int size) {
+        this.stateMachine.setMaxPayloadSize(size);
+    }
+
+    public void setTokenHandler(TokenHandler handler) {
+        this.tokenHandler = handler;
+    }
+
+    public TokenHandler getTokenHandler() {
+        return this.tokenHandler;
+    }
+
     public int nextChar() throws IOException {
         if (readAheadBuffer.size() > 0) {
             return readAheadBuffer.pop();
-        } else {
-            // Use byte buffer to avoid buggy Pty4j InputStream read():
-            int result = inputStream.read(one);
-            if (result <= 0)
-                return -1;
-            return (one[0] & 0x00ff); // mask to positive value;
         }
+        if ((readPos >= readLen) && (!fillReadBuffer())) {
+            return -1;
+        }
+        return (readBuffer[readPos++] & 0x00ff); // mask to positive value;
+    }
+
+    /**
+     * Bulk read into read buffer. Blocks until at least one byte is available.
+     *
+     * @return false in the case of an EOF.
+     * @throws IllegalStateException if there is no input stream to pull from, see feed().
+     */
+    private boolean fillReadBuffer() throws IOException {
+        if (inputStream == null) {
+            throw new IllegalStateException("push-only tokenizer");
+        }
+        // Use byte buffer to avoid buggy Pty4j InputStream read():
+        int result = inputStream.read(readBuffer, 0, readBuffer.length);
+        if (result <= 0) {
+            return false;
+        }
+        readPos = 0;
+        readLen = result;
+        return true;
+    }
+
+    /**
+     * Whether bytes have been read from the input stream which have not been tokenized yet.
+     */
+    public boolean hasBufferedInput() {
+        return (readAheadBuffer.size() > 0) || (readPos < readLen);
     }
 
     public void ungetChar(int c) throws IOException {
@@ -160,19 +349,223 @@ public class VTxTokenizer {
     }
 
     public byte[] getBytes() {
+        if (textRun) {
+            return Arrays.copyOfRange(textBuffer, textOffset, textOffset + textLength);
+        }
         return this.patternBuffer.getBytes();
     }
 
+    // --- Text run: bytes are valid until next nextToken() --- //
+
+    public byte[] getTextBuffer() {
+        return this.textBuffer;
+    }
+
+    public int getTextOffset() {
+        return this.textOffset;
+    }
+
+    public int getTextLength() {
+        return this.textLength;
+    }
+
+    public int getTextNumChars() {
+        return this.textNumChars;
+    }
+
+    /**
+     * Code point of last character in text run, for character repeat.
+     */
+    public int getTextLastCodePoint() {
+        return Utf8Decoder.codePointAt(textBuffer, textLastCharOffset);
+    }
+
+    /**
+     * Decoded code point of CHAR token. Malformed UTF-8 is returned as Utf8Decoder.REPLACEMENT_CHAR.
+     */
+    public int getCodePoint() {
+        return this.codePoint;
+    }
+
     protected void reset() {
         patternBuffer.reset();
         this.arguments.clear();
         this.state.reset();
     }
 
+    public Token nextToken() throws IOException {
+        textRun = false;
+        if ((maxTextRun > 1) && isGround() && ((readPos < readLen) || fillReadBuffer())
+                && scanTextRun(readBuffer, readPos, readLen)) {
+            readPos += textLength;
+            return textMatch();
+        }
+        if (engine == Engine.STATE_MACHINE) {
+            return nextStateMachineToken();
+        }
+        return nextSearchTreeToken();
+    }
+
+    private boolean isGround() {
+        if (readAheadBuffer.size() > 0) {
+            return false;
+        }
+        if (engine == Engine.STATE_MACHINE) {
+            return stateMachine.isGround();
+        }
+        // the state machine may be inside a sequence after an aborted string, see nextStringToken():
+        return (!state.keepPatternBuffer) && stateMachine.isGround();
+    }
+
+    /**
+     * Push bytes into the state machine engine and emit each completed token to the TokenHandler.
+     * Incomplete sequences are kept and continued by the next feed() call. Use feedEof() at the end of the input.
+     * Do not mix with nextToken() as the pull methods keep their own read ahead.
+     */
+    public void feed(byte[] buffer, int offset, int length) throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            textRun = false;
+            if ((maxTextRun > 1) && stateMachine.isGround() && scanTextRun(buffer, pos, end)) {
+                pos += textLength;
+                tokenHandler.handleToken(textMatch());
+                continue;
+            }
+            Token token = stateMachine.next(buffer[pos] & 0x00ff);
+            if (stateMachine.isConsumed()) {
+                pos++;
+            }
+            if (token != null) {
+                tokenHandler.handleToken(stateMachineMatch(token));
+            }
+        }
+        textRun = false;
+    }
+
+    /**
+     * End of input: flush incomplete sequence and emit EOF.
+     */
+    public void feedEof() throws IOException {
+        textRun = false;
+        Token token;
+        do {
+            token = stateMachine.next(-1);
+            if (token != null) {
+                tokenHandler.handleToken(stateMachineMatch(token));
+            }
+        } while (token != Token.EOF);
+    }
+
+    private Token textMatch() {
+        patternBuffer.reset();
+        if ((arguments.numIntegerArgs > 0) || (arguments.stringArg != null)) {
+            arguments.clear();
+        }
+        state.reset();
+        return fullMatch(Token.TEXT);
+    }
+
+    /**
+     * Scan bytes for run of printable ASCII and valid utf-8 characters up to next control byte.
+     * Only runs of at least two characters are returned as text run. ASCII stretches are scanned in bulk by
+     * the TextScanner.
+     */
+    private boolean scanTextRun(byte[] buffer, int start, int end) {
+        int pos = start;
+        int numChars = 0;
+        int lastChar = pos;
+        while ((pos < end) && (numChars < maxTextRun)) {
+            int c = buffer[pos] & 0xff;
+            if ((c < 0x20) || (c == 0x7f)) {
+                break;
+            }
+            if (c < 0x80) {
+                // bulk scan printable ASCII, one byte per char:
+                int next = TextScanner.scanPrintableAscii(buffer, pos, Math.min(end, pos + maxTextRun - numChars));
+                numChars += next - pos;
+                lastChar = next - 1;
+                pos = next;
+                continue;
+            }
+            int len = Utf8Decoder.sequenceLength(buffer, pos, end);
+            if (len <= 0) {
+                break;
+            }
+            // combining code point starts a new run, so the emulator can join it with the previous character:
+            if ((numChars > 0) && Util.isGraphemeExtend(Utf8Decoder.codePointAt(buffer, pos))) {
+                break;
+            }
+            lastChar = pos;
+            pos += len;
+            numChars++;
+        }
+        if (numChars < 2) {
+            return false;
+        }
+        textRun = true;
+        textBuffer = buffer;
+        textOffset = start;
+        textLength = pos - start;
+        textNumChars = numChars;
+        textLastCharOffset = lastChar;
+        return true;
+    }
+
+    /**
+     * Feed bytes to the table driven state machine until a token has been completed.
+     */
+    private Token nextStateMachineToken() throws IOException {
+        Token token;
+        do {
+            int c = nextChar();
+            token = stateMachine.next(c);
+            if (!stateMachine.isConsumed()) {
+                ungetChar(c);
+            }
+        } while (token == null);
+        return stateMachineMatch(token);
+    }
+
+    /**
+     * Whether the pattern buffer holds the start of an OSC, DCS or APC string.
+     */
+    private boolean isStringStart() {
+        int[] values = patternBuffer.values();
+        if ((patternBuffer.index() != 2) || (values[0] != VTxCharDefs.CTRL_ESC)) {
+            return false;
+        }
+        int c = values[1];
+        return (c == ']') || (c == 'P') || (c == '_');
+    }
+
+    /**
+     * Parse the rest of a string sequence with the state machine, which streams long strings.
+     */
+    private Token nextStringToken(int c) throws IOException {
+        stateMachine.reset();
+        stateMachine.next(VTxCharDefs.CTRL_ESC);
+        stateMachine.next(c);
+        return nextStateMachineToken();
+    }
+
+    private Token stateMachineMatch(Token token) {
+        state.reset();
+        state.matchedIToken = stateMachine.getIToken();
+        if (token == Token.CHAR) {
+            codePoint = stateMachine.getCodePoint();
+        }
+        return fullMatch(token);
+    }
+
     /**
      * Ad Hoc tokenizer, need to use proper scanner.
      */
-    public Token nextToken() throws IOException {
+    private Token nextSearchTreeToken() throws IOException {
+        if (!stateMachine.isGround()) {
+            // continue sequence started in an aborted string:
+            return nextStateMachineToken();
+        }
 
         VTxTokenizer tokenizer = this;
         if (state.keepPatternBuffer) {
@@ -195,6 +588,9 @@ public class VTxTokenizer {
                 log.error("GOT EOF: int: {} => char: '{}'", c, (char) c);
                 return fullMatch(Token.EOF);
             }
+            if (streamStrings && isStringStart()) {
+                return nextStringToken(c);
+            }
             // log character bugger only at finest logging level !
             if (log.isTraceEnabled()) {
                 log.trace("+ appending [{}]'{}': buffer='{}'", String.format("%02x", c), (char) c, Util.prettyByteString(patternBuffer.getBytes()));
@@ -235,6 +631,7 @@ public class VTxTokenizer {
             if (!state.escSequence) {
                 Token charToken = matchCharToken(c);
                 if (charToken != null) {
+                    codePoint = c;
                     return fullMatch(charToken);
                 }
 
@@ -251,7 +648,7 @@ public class VTxTokenizer {
             boolean fullMatch;
             boolean prefixMatch = false;
 
-            IToken itoken = this.tokenDefs.findFirst(patternBuffer.getBytes(), patternBuffer.index());
+            IToken itoken = this.tokenDefs.findFirst(patternBuffer.getBytes(patternBytes), patternBuffer.index());
             if (itoken != null) {
                 fullMatch = itoken.full().length == patternBuffer.index();
                 if (!fullMatch) {
@@ -309,7 +706,9 @@ public class VTxTokenizer {
                 if ((isDigit(lookahead()) || (lookahead() == ';'))) {
                     this.state.optGraphModeParsed = parseGraphModeArguments();
                 }
-                log.trace("> - state.optGraphModeParsed:{}: ({},'{}')", state.optGraphModeParsed, arguments.integerArgs[0], arguments.stringArg);
+                if (log.isTraceEnabled()) {
+                    log.trace("> - state.optGraphModeParsed:{}: ({},'{}')", state.optGraphModeParsed, arguments.integerArgs[0], arguments.stringArg);
+                }
             }
 
             if (prefixMatch && (itoken.option() == TokenOption.PARAMETER_STRING)) {
@@ -318,7 +717,9 @@ public class VTxTokenizer {
                     this.arguments.stringArg = str;
                     this.state.optStringParsed = true;
                 }
-                log.trace("> - state.optStringParsed:{}: ({},'{}')", state.optStringParsed, arguments.integerArgs[0], arguments.stringArg);
+                if (log.isTraceEnabled()) {
+                    log.trace("> - state.optStringParsed:{}: ({},'{}')", state.optStringParsed, arguments.integerArgs[0], arguments.stringArg);
+                }
             }
 
             if (prefixMatch && itoken.option() == TokenOption.PARAMETER_INTEGERS) {
@@ -327,14 +728,15 @@ public class VTxTokenizer {
                     arguments.numIntegerArgs = parseIntegerList(arguments.integerArgs);
                     this.state.optIntegersParsed = (arguments.numIntegerArgs > 0);
                 }
-                log.trace("> - state.optIntegersParsed:{}: {}", state.optIntegersParsed, tokenizer.getFormattedArguments());
+                log.trace("> - state.optIntegersParsed:{}: {}", state.optIntegersParsed, arguments);
             }
 
             // End state:
             if (fullMatch) {
-                log.debug("FULL MATCH: '{}' => sequence: {} with args: {}", itoken.token(),
-                        Util.prettyByteString(patternBuffer.getBytes()),
-                        getFormattedArguments());
+                if (log.isDebugEnabled()) {
+                    log.debug("FULL MATCH: '{}' => sequence: {} with args: {}", itoken.token(),
+                            Util.prettyByteString(patternBuffer.getBytes()), arguments);
+                }
                 tokenizer.state.matchedIToken = itoken;
                 return fullMatch(itoken.token());
             } else if (prefixMatch) {
@@ -361,7 +763,7 @@ public class VTxTokenizer {
         return ((char) c);
     }
 
-    private Token matchC0Token(int c) {
+    static Token matchC0Token(int c) {
         if (c <= -1) {
             return Token.EOF;
         }
@@ -415,14 +817,16 @@ public class VTxTokenizer {
 
     private Token fullMatch(Token token) {
 
-        vtermTokenRecorder.debug("{x},{},[{},'{}'])",
-                patternBuffer.getBytes(),
-                token, args().intArgs(),
-                (args().stringArg != null ? args().stringArg : ""));
+        if (vtermTokenRecorder.isDebugEnabled()) {
+            vtermTokenRecorder.debug("{x},{},[{},'{}'])",
+                    getBytes(),
+                    token, args().intArgs(),
+                    (args().stringArg != null ? args().stringArg : ""));
+        }
 
         this.state.matchedToken = token;
         if (log.isTraceEnabled()) {
-            log.trace("MATCHED:{},args={}", this.state.matchedToken, getFormattedArguments());
+            log.trace("MATCHED:{},args={}", this.state.matchedToken, arguments);
         }
         return token;
     }
@@ -436,58 +840,42 @@ public class VTxTokenizer {
     }
 
     private Token matchUTF8Token(int c) throws IOException {
-        // check utf-8
-        if (((c & 0x80) > 0) && (!ansi_mode)) {
-            int num = 1; //already have first byte
-
-            // utf-8 can exist of 6 bytes length (32bits encoded)
-            // binary prefix are:
-            //  110xxxxx (c0) for 2 bytes
-            //  1110xxxx (e0) for 3 bytes
-            //  11110xxx (f0) for 4 bytes
-            //  111110xx (f8) for 5 bytes
-            //  1111110x (fc) for 6 bytes
-
-            if ((c & 0xe0) == 0xc0) {
-                num = 2;
-            } else if ((c & 0xf0) == 0xe0) {
-                num = 3;
-            } else if ((c & 0xf8) == 0xf0) {
-                num = 4;
-            } else if ((c & 0xfc) == 0xf8) {
-                num = 5;
-            } else if ((c & 0xfd) == 0xfc) {
-                num = 6;
-            }
-
-            byte[] utfBytes = new byte[num];
-            utfBytes[0] = (byte) c;
-
-            // read bytes as-is:
-            for (int i = 1; i < num; i++) {
-                utfBytes[i] = readUByte(); // put into byte buffer
-            }
-
-            String utf8 = new String(utfBytes, StandardCharsets.UTF_8);
-            log.trace("Is this UTf8? : '{}' => '{}'", Util.prettyByteString(utfBytes), utf8);
-            this.patternBuffer.setBytes(utfBytes, num);
-            return Token.CHAR;
+        if (((c & 0x80) == 0) || ansi_mode) {
+            return null;
         }
-        return null;
+        // Decode in place, bytes are collected in the pattern buffer:
+        utf8Decoder.reset();
+        int result = utf8Decoder.decode(c);
+        while (result == Utf8Decoder.CONTINUE) {
+            int next = nextChar();
+            if (next < 0) {
+                ungetChar(next); // keep EOF
+                result = utf8Decoder.abort();
+                break;
+            }
+            result = utf8Decoder.decode(next);
+            if (utf8Decoder.isConsumed()) {
+                patternBuffer.put(next);
+            } else {
+                ungetChar(next);
+            }
+        }
+        if (result == Utf8Decoder.REJECT) {
+            log.debug("Malformed UTF-8 sequence: {}", Util.prettyByteString(patternBuffer.getBytes()));
+            setReplacementChar(patternBuffer);
+        }
+        codePoint = utf8Decoder.codePoint();
+        return Token.CHAR;
     }
 
     /**
-     * Read Unsigned Byte value: 0<= value <=255. This method does NOT return values < 0 ! If this
-     * is the case an IOException is thrown. This contrary to getChar(), which may return -1 in the
-     * case of an EOF.
+     * Replace pattern by utf-8 encoded replacement character.
      */
-    private byte readUByte() throws IOException {
-        int c = nextChar();
-
-        if (c < 0)
-            throw new IOException("EOF: End of stream");
-        // cast unsigned byte value:
-        return (byte) (c & 0x00ff);
+    static void setReplacementChar(MiniBuffer buffer) {
+        buffer.reset();
+        for (byte b : Utf8Decoder.REPLACEMENT_BYTES) {
+            buffer.put(b & 0xff);
+        }
     }
 
     private boolean isChar(int c) {
@@ -495,23 +883,21 @@ public class VTxTokenizer {
         return (c >= 0x20) && (c < 0x7f);
     }
 
-    private String parseInt() throws IOException {
-        boolean cont = true;
-        int index = 0;
-        while (cont && index < state.charBuffer.length) {
+    /**
+     * Parse digits directly into integer value.
+     *
+     * @return parsed value or -1 if there are no digits.
+     */
+    private int parseInt() throws IOException {
+        int value = -1;
+        while (true) {
             int digit = this.nextChar();
-            if (isDigit(digit)) {
-                state.charBuffer[index++] = (char) digit;
-                cont = true;
-            } else {
+            if (!isDigit(digit)) {
                 this.ungetChar(digit);
-                cont = false;
+                return value;
             }
+            value = addDigit(Math.max(value, 0), digit);
         }
-        if (index == 0) {
-            return null;
-        }
-        return new String(state.charBuffer, 0, index);
     }
 
     private String parseString() throws IOException {
@@ -548,21 +934,17 @@ public class VTxTokenizer {
         int numInts = 0;
         //
         while (true) {
-            String intstr = parseInt();
+            int value = parseInt();
 
-            if (intstr != null) {
-                try {
-                    array[numInts++] = Integer.valueOf(intstr);
-                } catch (NumberFormatException e) {
-                    log.error("NumberFormatException:" + e.getMessage(), e);
-                }
+            if ((value >= 0) && (numInts < array.length)) {
+                array[numInts++] = value;
             }
 
             int digit = nextChar();
 
             if (digit == ';') {
                 // check for empty value, but only after ';';
-                if (intstr == null) {
+                if ((value < 0) && (numInts < array.length)) {
                     array[numInts++] = 0;
                 }
                 continue; // parse next integer
@@ -572,7 +954,6 @@ public class VTxTokenizer {
                 break; // end of argument list
             }
         }
-        log.debug("- parseIntegerList(): '{}'", Arrays.toString(Arrays.copyOfRange(array, 0, numInts)));
         return numInts;
     }
 
@@ -580,18 +961,12 @@ public class VTxTokenizer {
      * parse graph mode: <Int> <ND> <String> <NP>
      */
     private boolean parseGraphModeArguments() throws IOException {
-        String intstr = parseInt();
-        if (intstr != null) {
-            arguments.integerArgs[0] = Integer.valueOf(intstr);
-            arguments.numIntegerArgs = 1;
-        }
+        int value = parseInt();
+        arguments.integerArgs[0] = Math.max(value, 0);
+        arguments.numIntegerArgs = 1;
 
         // ND: any non-digit char, typically ';'.
         arguments.dummyND = nextChar();
-        if (intstr == null) {
-            arguments.integerArgs[0] = 0;
-            arguments.numIntegerArgs = 1;
-        }
 
         String argStr = parseString();
         if (!isEmpty(argStr)) {
@@ -618,27 +993,14 @@ public class VTxTokenizer {
      * return byte buffer as utf8.
      */
     public String getText() {
+        if (textRun) {
+            return new String(textBuffer, textOffset, textLength, StandardCharsets.UTF_8);
+        }
         return new String(patternBuffer.getBytes(), StandardCharsets.UTF_8);
     }
 
     public String getFormattedArguments() {
-        String str = "[";
-
-        if (args().numIntegerArgs > 0) {
-            for (int i = 0; i < args().numIntegerArgs; i++) {
-                str += args().integerArgs[i];
-                if (i < args().numIntegerArgs - 1) {
-                    str += ";";
-                }
-            }
-        }
-        // for graph mode
-        if (!isEmpty(args().stringArg)) {
-            str += ",'" + args().stringArg + "'";
-        }
-
-        str = str + "]";
-        return str;
+        return arguments.toString();
     }
 
     public IToken getIToken() {
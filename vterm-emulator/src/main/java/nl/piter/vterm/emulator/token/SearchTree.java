@@ -4,11 +4,13 @@ import nl.piter.vterm.api.ByteArray;
 import nl.piter.vterm.exceptions.VTxInvalidConfigurationException;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Fixed size 256-width (8-bit) minimal search tree.
  * Uses non-recursive find, and after init no dynamic memory is used.
+ * Each node uses a 256-slot child index, use compile() to create a compact and immutable TokenTrie for lookups.
  */
 public class SearchTree<T extends ByteArray> {
 
@@ -67,6 +69,79 @@ public class SearchTree<T extends ByteArray> {
         }
     }
 
+    /**
+     * Compile this tree into a compact double-array TokenTrie.
+     * Nodes are placed breadth first, each at the lowest base offset where all its children fit.
+     */
+    public TokenTrie<T> compile() {
+        int size = 512;
+        int[] base = new int[size];
+        int[] check = new int[size];
+        Object[] values = new Object[size];
+        Arrays.fill(check, -1);
+        check[0] = 0; // root slot is in use.
+        int used = 1;
+
+        List<TreeEl<T>> nodes = new ArrayList<>();
+        List<Integer> states = new ArrayList<>();
+        nodes.add(root);
+        states.add(0);
+        int[] labels = new int[256];
+
+        // Breadth first: the node list grows while it is traversed.
+        for (int i = 0; i < nodes.size(); i++) {
+            TreeEl<T> node = nodes.get(i);
+            int state = states.get(i);
+            values[state] = ((node.values != null) && (node.values.size() > 0)) ? node.values.get(0) : null;
+
+            int numLabels = 0;
+            for (int id = 0; id < 256; id++) {
+                if (node.index[id] != null) {
+                    labels[numLabels++] = id;
+                }
+            }
+            if (numLabels == 0) {
+                continue; // leaf: base 0
+            }
+
+            int offset = findBase(check, labels, numLabels);
+            int max = offset + labels[numLabels - 1] + 1;
+            if (max > size) {
+                size = Math.max(size * 2, max);
+                base = Arrays.copyOf(base, size);
+                values = Arrays.copyOf(values, size);
+                int oldSize = check.length;
+                check = Arrays.copyOf(check, size);
+                Arrays.fill(check, oldSize, size, -1);
+            }
+            base[state] = offset;
+            for (int j = 0; j < numLabels; j++) {
+                int child = offset + labels[j];
+                check[child] = state;
+                nodes.add(node.index[labels[j]]);
+                states.add(child);
+            }
+            used = Math.max(used, max);
+        }
+        return new TokenTrie<>(Arrays.copyOf(base, used), Arrays.copyOf(check, used), Arrays.copyOf(values, used), nodes.size());
+    }
+
+    /**
+     * Lowest base offset (&gt;0) for which all labels map to free slots.
+     */
+    private static int findBase(int[] check, int[] labels, int numLabels) {
+        for (int offset = 1; ; offset++) {
+            boolean free = true;
+            for (int j = 0; (j < numLabels) && free; j++) {
+                int slot = offset + labels[j];
+                free = (slot >= check.length) || (check[slot] < 0);
+            }
+            if (free) {
+                return offset;
+            }
+        }
+    }
+
     public T findFull(byte[] search, int indexLen) {
         return find(search, indexLen, true);
     }
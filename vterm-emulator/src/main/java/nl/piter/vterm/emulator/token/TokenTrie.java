@@ -0,0 +1,83 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator.token;
+
+import nl.piter.vterm.api.ByteArray;
+
+/**
+ * Compact immutable double-array trie, compiled once from a SearchTree.
+ * <p>
+ * A transition from state S with byte C goes to state T=base[S]+C if check[T]==S. Each state stores the
+ * first added value which passes through it, as in the SearchTree, so find() has the same semantics but
+ * uses three flat arrays instead of a 256-slot child index per node.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class TokenTrie<T extends ByteArray> {
+
+    private static final int ROOT = 0;
+
+    private final int[] base;
+    private final int[] check;
+    private final Object[] values;
+    private final int numNodes;
+
+    TokenTrie(int[] base, int[] check, Object[] values, int numNodes) {
+        this.base = base;
+        this.check = check;
+        this.values = values;
+        this.numNodes = numNodes;
+    }
+
+    public T findFull(byte[] search, int indexLen) {
+        return find(search, indexLen, true);
+    }
+
+    public T findPartial(byte[] pattern, int patternIndex) {
+        return find(pattern, patternIndex, false);
+    }
+
+    /**
+     * Same semantics as SearchTree.find(): returns the first added value of which the first indexLen bytes
+     * match, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public T find(byte[] search, int indexLen, boolean fullMatch) {
+        if (indexLen <= 0) {
+            return null;
+        }
+        int state = ROOT;
+        for (int level = 0; level < indexLen; level++) {
+            int next = base[state] + (search[level] & 0x00ff);
+            if ((next >= check.length) || (check[next] != state)) {
+                return null;
+            }
+            state = next;
+        }
+        return (T) values[state];
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Number of slots in the double array, at least numNodes().
+     */
+    public int numSlots() {
+        return check.length;
+    }
+
+    /**
+     * Estimated heap size in bytes, assuming 16 byte array headers and 4 byte (compressed) references.
+     * Values are shared and not included.
+     */
+    public long estimatedSize() {
+        return 16 + 4 * 4 + 3 * 16 + 12L * check.length;
+    }
+
+}
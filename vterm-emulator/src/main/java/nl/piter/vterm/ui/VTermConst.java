@@ -18,6 +18,18 @@ public class VTermConst {
     public static final String VTERM_FONT_SIZE = "vterm.font.size";
     public static final String VTERM_FONT_ANTI_ALIASING = "vterm.font.antiAliasing";
     public static final String VTERM_SYNC_SLOW_SCROLLING = "vterm.ui.slowScrolling";
+    public static final String VTERM_RENDER_FRAME_RATE = "vterm.render.frameRate";
+    public static final String VTERM_EMULATOR_READ_BUFFER_SIZE = "vterm.emulator.readBufferSize";
+    public static final String VTERM_EMULATOR_TOKENIZER = "vterm.emulator.tokenizer";
+    public static final String VTERM_EMULATOR_MAX_STRING_PAYLOAD = "vterm.emulator.maxStringPayload";
+    public static final String VTERM_EMULATOR_READER_THREAD = "vterm.emulator.readerThread";
+    public static final String VTERM_EMULATOR_RING_BUFFER_SIZE = "vterm.emulator.ringBuffer.size";
+    public static final String VTERM_EMULATOR_RING_BUFFER_LOW_WATERMARK = "vterm.emulator.ringBuffer.lowWatermark";
+    public static final String VTERM_EMULATOR_RING_BUFFER_HIGH_WATERMARK = "vterm.emulator.ringBuffer.highWatermark";
+    public static final String VTERM_SCROLLBACK_MAX_LINES = "vterm.scrollback.maxLines";
+    public static final String VTERM_SCROLLBACK_MAX_BYTES = "vterm.scrollback.maxBytes";
+    public static final String VTERM_SCROLLBACK_OVERFLOW = "vterm.scrollback.overflow";
+    public static final String VTERM_SCROLLBACK_OVERFLOW_DIR = "vterm.scrollback.overflowDir";
     public static final String VTERM_SESSION_DEFAULT_ROWS = "vterm.session.default.numRows";
     public static final String VTERM_SESSION_DEFAULT_COLUMNS = "vterm.session.default.numColumns";
     public static final String VTERM_SESSION_LAST_URI_SSH = "vterm.session.last.sshUri";
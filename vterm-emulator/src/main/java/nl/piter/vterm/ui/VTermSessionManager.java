@@ -9,11 +9,16 @@ package nl.piter.vterm.ui;
 
 import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.api.*;
+import nl.piter.vterm.emulator.ByteRingBuffer;
 import nl.piter.vterm.emulator.Emulator;
 import nl.piter.vterm.emulator.VTermChannelProvider;
 import nl.piter.vterm.emulator.VTxEmulator;
+import nl.piter.vterm.emulator.VTxStateMachine;
+import nl.piter.vterm.emulator.VTxTokenizer;
 import nl.piter.vterm.sys.SysEnv;
 import nl.piter.vterm.ui.panels.VTermPanel;
+import nl.piter.vterm.ui.panels.charpane.CharPane;
+import nl.piter.vterm.ui.panels.charpane.ScrollbackBuffer;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -25,6 +30,18 @@ import java.nio.file.Path;
 import java.util.Properties;
 
 import static nl.piter.vterm.emulator.Util.isEmpty;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_MAX_STRING_PAYLOAD;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_READER_THREAD;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_READ_BUFFER_SIZE;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_RING_BUFFER_HIGH_WATERMARK;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_RING_BUFFER_LOW_WATERMARK;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_RING_BUFFER_SIZE;
+import static nl.piter.vterm.ui.VTermConst.VTERM_EMULATOR_TOKENIZER;
+import static nl.piter.vterm.ui.VTermConst.VTERM_RENDER_FRAME_RATE;
+import static nl.piter.vterm.ui.VTermConst.VTERM_SCROLLBACK_MAX_BYTES;
+import static nl.piter.vterm.ui.VTermConst.VTERM_SCROLLBACK_MAX_LINES;
+import static nl.piter.vterm.ui.VTermConst.VTERM_SCROLLBACK_OVERFLOW;
+import static nl.piter.vterm.ui.VTermConst.VTERM_SCROLLBACK_OVERFLOW_DIR;
 import static nl.piter.vterm.ui.VTermConst.VTERM_SYNC_SLOW_SCROLLING;
 import static nl.piter.vterm.ui.VTermConst.VTERM_TERM_TYPE;
 
@@ -242,9 +259,31 @@ public class VTermSessionManager implements Runnable {
     private void updateAndStart(VTxEmulator emulator) {
         boolean value = getBoolProperty(VTERM_SYNC_SLOW_SCROLLING, false);
         emulator.setSlowScrolling(value);
+        emulator.setReadBufferSize(getIntProperty(VTERM_EMULATOR_READ_BUFFER_SIZE, VTxTokenizer.DEFAULT_READ_BUFFER_SIZE));
+        emulator.setTokenizerEngine(getTokenizerEngine());
+        emulator.setMaxStringPayload(getIntProperty(VTERM_EMULATOR_MAX_STRING_PAYLOAD, VTxStateMachine.DEFAULT_MAX_PAYLOAD));
+        if (getBoolProperty(VTERM_EMULATOR_READER_THREAD, false)) {
+            emulator.setInputRingBuffer(createInputRingBuffer());
+        }
+        terminalPanel.updateFrameRate(getIntProperty(VTERM_RENDER_FRAME_RATE, CharPane.DEFAULT_FRAME_RATE));
+        terminalPanel.updateHistoryLimits(getIntProperty(VTERM_SCROLLBACK_MAX_LINES, ScrollbackBuffer.DEFAULT_MAX_LINES),
+                getIntProperty(VTERM_SCROLLBACK_MAX_BYTES, (int) ScrollbackBuffer.DEFAULT_MAX_BYTES));
+        if (getBoolProperty(VTERM_SCROLLBACK_OVERFLOW, false)) {
+            updateHistoryOverflow();
+        }
         emulator.start();
     }
 
+    private void updateHistoryOverflow() {
+        try {
+            String dir = getProperty(VTERM_SCROLLBACK_OVERFLOW_DIR);
+            Path path = isEmpty(dir) ? getPropertiesDir() : SysEnv.sysEnv().resolveUserHomePath(dir);
+            terminalPanel.updateHistoryOverflow(path);
+        } catch (IOException e) {
+            log.warn("Couldn't create scrollback overflow file, using in-heap history only: {}", e.getMessage());
+        }
+    }
+
     public void setSessionType(String session) {
         this.sessionType = session;
     }
@@ -453,6 +492,44 @@ public class VTermSessionManager implements Runnable {
         return Boolean.parseBoolean(val);
     }
 
+    public int getIntProperty(String key, int defaultVal) {
+        String val = properties.getProperty(key);
+        if (isEmpty(val)) {
+            return defaultVal;
+        }
+        try {
+            return Integer.parseInt(val.trim());
+        } catch (NumberFormatException e) {
+            log.warn("Invalid integer property {}='{}'", key, val);
+            return defaultVal;
+        }
+    }
+
+    private VTxTokenizer.Engine getTokenizerEngine() {
+        String val = properties.getProperty(VTERM_EMULATOR_TOKENIZER);
+        if (isEmpty(val)) {
+            return VTxTokenizer.Engine.SEARCH_TREE;
+        }
+        try {
+            return VTxTokenizer.Engine.valueOf(val.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid tokenizer property {}='{}'", VTERM_EMULATOR_TOKENIZER, val);
+            return VTxTokenizer.Engine.SEARCH_TREE;
+        }
+    }
+
+    private ByteRingBuffer createInputRingBuffer() {
+        int capacity = getIntProperty(VTERM_EMULATOR_RING_BUFFER_SIZE, ByteRingBuffer.DEFAULT_CAPACITY);
+        int low = getIntProperty(VTERM_EMULATOR_RING_BUFFER_LOW_WATERMARK, capacity / 4);
+        int high = getIntProperty(VTERM_EMULATOR_RING_BUFFER_HIGH_WATERMARK, (capacity / 4) * 3);
+        try {
+            return new ByteRingBuffer(capacity, low, high);
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid ring buffer properties: {}", e.getMessage());
+            return new ByteRingBuffer();
+        }
+    }
+
     /**
      * Watches a shell process and signals emulator when shell process died.
      */
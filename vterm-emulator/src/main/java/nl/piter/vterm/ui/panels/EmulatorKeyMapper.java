@@ -11,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.api.TerminalKeyListener;
 import nl.piter.vterm.emulator.Emulator;
 import nl.piter.vterm.emulator.VTxCharDefs;
+import nl.piter.vterm.ui.panels.charpane.CharPane;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
@@ -27,12 +28,20 @@ public class EmulatorKeyMapper implements TerminalKeyListener, KeyListener {
 
     private Emulator emulator = null;
 
+    // optional, for scrollback paging:
+    private CharPane charPane = null;
+
     private char lastPressed;
 
     public EmulatorKeyMapper(Emulator emulator) {
         this.emulator = emulator;
     }
 
+    public EmulatorKeyMapper(Emulator emulator, CharPane charPane) {
+        this.emulator = emulator;
+        this.charPane = charPane;
+    }
+
     public void keyPressed(KeyEvent e) {
         int keycode = e.getKeyCode();
         char keychar = e.getKeyChar();
@@ -88,10 +97,11 @@ public class EmulatorKeyMapper implements TerminalKeyListener, KeyListener {
                     default:
                 }
 
-                if (keycode == KeyEvent.VK_PAGE_UP) {
-
-                } else if (keycode == KeyEvent.VK_PAGE_DOWN) {
-
+                // CTRL-PAGE UP/DOWN: scrollback history
+                if ((keycode == KeyEvent.VK_PAGE_UP) && (charPane != null)) {
+                    charPane.pageUp();
+                } else if ((keycode == KeyEvent.VK_PAGE_DOWN) && (charPane != null)) {
+                    charPane.pageDown();
                 }
             } else if (keycode == KeyEvent.VK_DELETE)
                 emulator.send(emulator.getKeyCode("DELETE"));
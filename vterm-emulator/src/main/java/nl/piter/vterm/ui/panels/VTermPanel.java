@@ -17,6 +17,8 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
+import java.io.IOException;
+import java.nio.file.Path;
 
 /**
  * TermPanel is the Container which manages the CharPane JComponent.
@@ -120,8 +122,7 @@ public class VTermPanel extends JPanel implements ComponentListener {
             charPane.setCursor(lastx + 1, lasty);
             charPane.setCursorOptions(true);
         }
-        charPane.renderTextBuffer(true);
-        charPane.repaint();
+        charPane.requestRender(true);
     }
 
     public void updateFontType(String type, boolean resetGraphics) {
@@ -168,7 +169,7 @@ public class VTermPanel extends JPanel implements ComponentListener {
     public void setEmulator(Emulator emulator) {
         //this.mustStop=false;
         this.emulator = emulator;
-        this.keyMapper = new EmulatorKeyMapper(emulator);
+        this.keyMapper = new EmulatorKeyMapper(emulator, charPane);
         this.addKeyListener(keyMapper);
     }
 
@@ -196,6 +197,21 @@ public class VTermPanel extends JPanel implements ComponentListener {
         this.emulator = null;
     }
 
+    public void updateHistoryLimits(int maxLines, long maxBytes) {
+        charPane.setHistoryLimits(maxLines, maxBytes);
+    }
+
+    /**
+     * Maximum number of frames per second rendered while the emulator updates the screen.
+     */
+    public void updateFrameRate(int frameRate) {
+        charPane.setFrameRate(frameRate);
+    }
+
+    public void updateHistoryOverflow(Path dir) throws IOException {
+        charPane.setHistoryOverflow(dir);
+    }
+
     public void resizeTerminalToAWTSize() {
         charPane.resizeTextBuffersToAWTSize();
     }
@@ -0,0 +1,151 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Timer and colors of blinking text and the blinking cursor. The timer only runs while there is something to
+ * animate: wakeUp() is called when blinking cells or a blinking cursor may have appeared, a tick which finds
+ * nothing to animate stops the timer. The tick itself only marks damage, the renderer asks for the colors
+ * of the current phase, which come from precomputed tables.
+ * <p>
+ * The animation counter advances one step per 10 milliseconds independent of the tick rate, the phases of
+ * the color channels of cell x are ((counter + x*16) / {7,11,17}) modulo 32 on a cosine.
+ */
+final class BlinkAnimator implements ActionListener {
+
+    // animated styles, fast blink (SGR 6) is drawn uberbold instead:
+    public static final int BLINK_STYLES = StyleChar.STYLE_SLOW_BLINK;
+    public static final int TICK_INTERVAL = 30; // ms
+
+    private static final int NUM_STEPS = 32;
+    private static final long STEP_NANOS = 10_000_000L;
+    private static final int[] DIVIDERS = {7, 11, 17};
+    // channel level 128+127*cos() per phase:
+    private static final int[] LEVELS = new int[NUM_STEPS];
+    // cursor color scale 0.5+cos()/2 per phase:
+    private static final double[] SCALES = new double[NUM_STEPS];
+
+    static {
+        for (int phase = 0; phase < NUM_STEPS; phase++) {
+            double cos = Math.cos(((double) phase / NUM_STEPS) * Math.PI * 2);
+            LEVELS[phase] = (int) (128 + 127 * cos);
+            SCALES[phase] = 0.5 + cos / 2.0;
+        }
+    }
+
+    private final BooleanSupplier tick;
+    private final Timer timer;
+    private final long startTime = System.nanoTime();
+    // timer started or about to be started:
+    private final AtomicBoolean running = new AtomicBoolean();
+    private volatile boolean enabled;
+    // event dispatch thread only:
+    private int counter;
+    private final Color[] blinkColors = new Color[NUM_STEPS * NUM_STEPS * NUM_STEPS];
+    private final Color[] cursorColors = new Color[NUM_STEPS];
+    private Color cursorBase;
+
+    /**
+     * @param tick marks the damage of one animation step, returns false if there is nothing to animate.
+     */
+    BlinkAnimator(BooleanSupplier tick) {
+        this.tick = tick;
+        this.timer = new Timer(TICK_INTERVAL, this);
+    }
+
+    public void enable() {
+        enabled = true;
+        wakeUp();
+    }
+
+    public void disable() {
+        enabled = false;
+        running.set(false);
+        SwingUtilities.invokeLater(timer::stop);
+    }
+
+    /**
+     * Blinking content or a blinking cursor may have appeared: start the timer if it isn't running, can be
+     * called from any thread.
+     */
+    public void wakeUp() {
+        if (enabled && (!running.get()) && running.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::startTimer);
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    private void startTimer() {
+        if (enabled && running.get() && (!timer.isRunning())) {
+            timer.start();
+        }
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        counter = (int) ((System.nanoTime() - startTime) / STEP_NANOS);
+        // a wakeUp() during the tick keeps the timer running:
+        running.set(false);
+        if (tick.getAsBoolean() && enabled) {
+            running.set(true);
+        } else if (!running.get()) {
+            timer.stop();
+        }
+    }
+
+    void setCounter(int counter) {
+        this.counter = counter;
+    }
+
+    private int phase(int x, int channel) {
+        return (int) (((counter + x * 16L) / DIVIDERS[channel]) % NUM_STEPS);
+    }
+
+    /**
+     * Foreground of a blinking cell in column x at the current step.
+     */
+    public Color blinkColor(int x) {
+        int index = (phase(x, 0) * NUM_STEPS + phase(x, 1)) * NUM_STEPS + phase(x, 2);
+        Color color = blinkColors[index];
+        if (color == null) {
+            color = new Color(LEVELS[phase(x, 0)], LEVELS[phase(x, 1)], LEVELS[phase(x, 2)]);
+            blinkColors[index] = color;
+        }
+        return color;
+    }
+
+    /**
+     * Color of the blinking cursor in column x at the current step: the foreground fading in and out.
+     */
+    public Color cursorColor(int x, Color fg) {
+        if (!fg.equals(cursorBase)) {
+            Arrays.fill(cursorColors, null);
+            cursorBase = fg;
+        }
+        int phase = phase(x, 0);
+        Color color = cursorColors[phase];
+        if (color == null) {
+            double scale = SCALES[phase];
+            color = new Color((int) (fg.getRed() * scale), (int) (fg.getGreen() * scale),
+                    (int) (fg.getBlue() * scale), LEVELS[phase]);
+            cursorColors[phase] = color;
+        }
+        return color;
+    }
+
+}
@@ -11,16 +11,18 @@ import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.api.CharacterTerminal;
 import nl.piter.vterm.api.CursorOptions;
 import nl.piter.vterm.api.TermConst;
+import nl.piter.vterm.api.TerminalText;
 import nl.piter.vterm.emulator.Util;
 import nl.piter.vterm.ui.fonts.FontInfo;
 
 import javax.swing.*;
 import java.awt.*;
-import java.awt.event.ActionEvent;
-import java.awt.event.ActionListener;
 import java.awt.image.BufferedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 
 import static nl.piter.vterm.api.TermConst.CharSet.CHARSET_GRAPHICS;
 
@@ -28,9 +30,10 @@ import static nl.piter.vterm.api.TermConst.CharSet.CHARSET_GRAPHICS;
  * Character Terminal Render Engine.
  */
 @Slf4j
-public class CharPane extends JComponent implements CharacterTerminal, ActionListener {
+public class CharPane extends JComponent implements CharacterTerminal {
 
     public static final int MAX_CHARSETS = 16;
+    public static final int DEFAULT_FRAME_RATE = RenderScheduler.DEFAULT_FRAME_RATE;
 
     // ========================================================================
 
@@ -48,10 +51,15 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
     private Color cursorBlinkColor;
 
     // === Image Character Buffer ==== //
-    private Image currentImage;
+    private BufferedImage currentImage;
     private TextBuffer currentBuffer;
     private TextBuffer altTextBuffer;
     private TextBuffer fullBuffer;
+    // Lines scrolled off the full screen buffer and number of history lines shown above the live screen:
+    private final ScrollbackBuffer history = new ScrollbackBuffer();
+    // reflow of the history after a width change, runs in the background:
+    private HistoryReflowTask reflowTask;
+    private int viewOffset = 0;
 
     // === Current Draw Style ===
     private int drawStyle = 0;
@@ -63,10 +71,31 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
     private Color customBackground;
     private Color customForeground;
     private int screenBufferNr;
+    // Interned styles shared by both screen buffers, current draw style id is cached per palette epoch:
+    private final StylePalette palette = new StylePalette();
+    private long drawStyleWord;
+    private int drawStyleId;
+    private int drawStyleEpoch = -1;
+    // Grapheme clusters shared by both screen buffers:
+    private final ClusterTable clusters = new ClusterTable();
+    // Reusable view on packed cells and row buffers for the renderer:
+    private final StyleChar renderView = new StyleChar();
+    private int[] renderGlyphs = new int[0];
+    private long[] renderStyles = new long[0];
+    // cell with the cursor in the image, -1 if none: it moves when rows are scrolled in the image.
+    private int renderedCursorX = -1;
+    private int renderedCursorY = -1;
+    // pixel row buffer of scrollImage():
+    private Object scrollRow;
 
     // Animations & Threads:
-    private int animationCounter = 0;
-    private Timer animationTimer;
+    // blinking cells and cursor, only ticks while there is something to animate:
+    private final BlinkAnimator blinkAnimator = new BlinkAnimator(this::doAnimation);
+    // Frame paced rendering: updates only mark damage and request a frame.
+    private final RenderScheduler renderScheduler = new RenderScheduler(this::renderFrame);
+    private volatile boolean fullRenderRequested;
+    // Damage taken over from the current buffer, event dispatch thread only:
+    private DamageMap damage;
 
     // ===============================
     // === MUTEX and Paint Control ===
@@ -75,7 +104,7 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
     private final boolean optionAlwaysSynchronizedScrolling = false;
     // VI demands this
     private final boolean optionSupportAltScreenBuffer = true;
-    // used when resizing component
+    // used when resizing component, excludes updates while the renderer takes the damage of a frame:
     private final Object bufferMutex = new Object();
     private final Object paintMutex = new Object();
 
@@ -103,21 +132,16 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         this.setForeground(Color.GREEN);
 
         this.charRenderer = new CharRenderer();
+        this.charRenderer.setBlinkAnimator(blinkAnimator);
         this._resizeTextBuffers(this.numColumns, this.numRows, false, true);
     }
 
     /**
-     * Start timers and renderer thread is not running
+     * Start the blink animation, its timer only runs while there are blinking cells or a blinking cursor.
      */
     public void startRenderers() {
         log.debug("startRenderers(): Started...");
-
-        if ((animationTimer == null) || (!animationTimer.isRunning())) {
-            // timer
-            animationTimer = new Timer(10, this);
-            animationTimer.setInitialDelay(100); // animate 10 per second (blink)
-            animationTimer.start();
-        }
+        blinkAnimator.enable();
     }
 
     /**
@@ -126,6 +150,7 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
     private void initTextBufferImage() {
         // offscreen buffered image:
         currentImage = new BufferedImage(getImageWidth(), getImageHeight(), BufferedImage.TYPE_INT_ARGB);
+        scrollRow = null;
     }
 
     public void drawTestScreen() {
@@ -201,15 +226,16 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         this.setCharSet(0);
 
         //
-        this.renderTextBuffer(true);
-        repaint();
+        this.requestRender(true);
     }
 
     /**
      * Clear text buffer, doesn't do repaint.
      */
     public void clearArea() {
-        currentBuffer().clearRegion();
+        synchronized (bufferMutex) {
+            currentBuffer().clearRegion();
+        }
     }
 
     /**
@@ -271,20 +297,103 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
     }
 
     /**
-     * Paint textBuffer in offscreen image buffer.
-     * paintAll==false => incremental paint.
+     * Request a frame, see RenderScheduler. Can be called from any thread, the frame is rendered on the
+     * event dispatch thread.
+     *
+     * @param paintAll render all cells instead of the damaged cells only.
+     */
+    public void requestRender(boolean paintAll) {
+        if (paintAll) {
+            this.fullRenderRequested = true;
+        }
+        renderScheduler.requestFrame();
+    }
+
+    /**
+     * Render the requested frame, called by the render scheduler.
+     */
+    private void renderFrame() {
+        if (currentBuffer() == null) {
+            // disposed
+            return;
+        }
+        boolean paintAll = fullRenderRequested;
+        fullRenderRequested = false;
+        renderTextBuffer(paintAll);
+    }
+
+    /**
+     * All input has been processed: show the updates now instead of at the next frame.
+     */
+    @Override
+    public void inputIdle() {
+        renderScheduler.flush();
+    }
+
+    /**
+     * Maximum number of frames per second, the emulator only marks damage between frames.
+     */
+    public void setFrameRate(int frameRate) {
+        renderScheduler.setFrameRate(frameRate);
+    }
+
+    public int getFrameRate() {
+        return renderScheduler.getFrameRate();
+    }
+
+    /**
+     * Paint textBuffer in offscreen image buffer and repaint the rendered rows.
+     * paintAll==false => incremental paint. Must be called on the event dispatch thread, see requestRender().
      */
     public boolean renderTextBuffer(boolean paintAll) {
+        if (paintAll && (viewOffset > 0)) {
+            renderHistory();
+            repaint();
+        }
         return renderTextBuffer(0, 0, this.numColumns, this.numRows, paintAll);
     }
 
+    /**
+     * Paint history lines shown above the live screen.
+     */
+    private void renderHistory() {
+        if (currentImage == null) {
+            initTextBufferImage();
+        }
+        int lineHeight = this.charRenderer.getLineHeight();
+        int numLines = Math.min(viewOffset, numRows);
+        int first = history.size() - viewOffset;
+
+        BufferedImage image = currentImage;
+        Graphics2D graphics = image.createGraphics();
+        charRenderer.updateRenderingHints(graphics);
+        ensureRenderBuffers(numColumns);
+
+        for (int y = 0; y < numLines; y++) {
+            HistoryLine line = history.get(first + y);
+            line.unpack(renderGlyphs, renderStyles, numColumns);
+            charRenderer.renderRow(graphics, image, renderGlyphs, renderStyles, line.clusters(), 0, numColumns,
+                    y * lineHeight, renderView);
+        }
+        graphics.dispose();
+    }
+
+    /**
+     * Mark character as changed and request a frame.
+     */
     public void renderChar(int xpos, int ypos) {
-        renderTextBuffer(xpos, ypos, xpos + 1, ypos, true);
-        repaint();
+        synchronized (bufferMutex) {
+            currentBuffer().needsRepaint(xpos, ypos, true);
+        }
+        requestRender(false);
     }
 
     /**
      * Paints region [x1,y1] to [x2,y2] - includes x2 if x1==x1 - includes y2 if y1==y2
+     * Rows are drawn by CharRenderer.renderRow(), incremental paint (paintAll==false) only draws the runs of
+     * damaged cells of the dirty rows, extended with the cells which italic or uberbold glyphs lean into.
+     * The damage is taken over from the buffer together with a snapshot of the cells, the rendering itself
+     * doesn't block updates. Damage outside the region is kept for the next frame.
      */
     protected boolean renderTextBuffer(int x1, int y1, int x2, int y2, boolean paintAll) {
         if (currentImage == null) {
@@ -292,7 +401,6 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             initTextBufferImage();
         }
 
-        int charwidth = this.charRenderer.getCharWidth();
         int lineHeight = this.charRenderer.getLineHeight();
 
         // single column mode:
@@ -316,78 +424,191 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         if (y1 < 0)
             y1 = 0;
 
-        Graphics2D graphics = (Graphics2D) currentImage.getGraphics();
+        ScreenSnapshot frame;
+        synchronized (bufferMutex) {
+            TextBuffer buffer = currentBuffer();
+            // cells and damage of the same moment:
+            frame = (buffer == null) ? null : buffer.snapshot();
+            if (frame == null) {
+                // disposed
+                return false;
+            }
+            boolean resized = (damage == null) || (!damage.hasSize(frame.columns(), frame.rows()));
+            boolean scrolled = buffer.hasPendingScrolls();
+            if (resized) {
+                damage = new DamageMap(frame.columns(), frame.rows());
+            } else if (scrolled && (renderedCursorY >= 0)) {
+                // the drawn cursor is scrolled with the rows:
+                damage.set(renderedCursorX, renderedCursorY);
+            }
+            buffer.takeDamage(damage);
+            if (resized) {
+                damage.setAll();
+            } else if (scrolled) {
+                // the damage of the cursor cell has been scrolled with its row:
+                damage.set(cursorX, cursorY);
+            }
+        }
+        DamageMap damage = this.damage;
+        ensureRenderBuffers(frame.columns());
+
+        BufferedImage image = currentImage;
+        Graphics2D graphics = image.createGraphics();
         charRenderer.updateRenderingHints(graphics);
 
+        // scrolled rows in the image, to be repainted:
+        int scrollStart = numRows;
+        int scrollEnd = 0;
+        ScrollLog scrolls = damage.scrolls();
+        if (scrolls.size() > 0) {
+            if (paintAll || (viewOffset > 0)) {
+                // all rows are drawn again:
+                damage.setAll();
+            } else {
+                for (int i = 0; i < scrolls.size(); i++) {
+                    scrollImage(image, scrolls.start(i), scrolls.end(i), scrolls.lines(i));
+                    scrollStart = Math.min(scrollStart, scrolls.start(i));
+                    scrollEnd = Math.max(scrollEnd, scrolls.end(i));
+                }
+                scrolls.clear();
+            }
+        }
+
         graphics.setFont(charRenderer.getFontPlain());
         graphics.setColor(getEffectiveForeground());
 
+        // rendered rows, to be repainted:
+        int firstRow = -1;
+        int lastRow = -1;
 
         for (int y = y1; y < y2; y++) {
-            // whether next character already has been cleared:
-            boolean paintBackgroundAheadDone = false;
-
-            for (int x = x1; x < x2; x++) {
-                int xpos = x * charwidth;
-                int ypos = y * lineHeight;
+            if (!paintAll) {
+                y = damage.nextDirtyRow(y);
+                if ((y < 0) || (y >= y2)) {
+                    break;
+                }
+            }
 
-                StyleChar sChar = currentBuffer().get(x, y);
+            // rows below the view when showing history:
+            if (y + viewOffset >= numRows) {
+                break;
+            }
 
-                if (sChar == null) {
-                    log.error("NULL char at:{},{}", x, y);
-                    continue;
-                }
+            if (!frame.checkBounds(x1, y)) {
+                log.error("Row outside snapshot:{}", y);
+                continue;
+            }
 
-                // no redraw needed
-                if (!paintAll && !sChar.hasChanged)
-                    continue;
-
-                // ====
-                // Italics Clear Ahead mode:
-                // ===
-                // Clear next char before drawing current
-                // This because an italics character can 'lean' into the next character.
-                // So clear next character first, draw current and when rendering neighbour
-                // character, do not clear background, but just draw the character.
-                // ====
-
-                boolean paintBackground = true;
-
-                // previous char was italic: current background has already been draw: don't clear current;
-                if (paintBackgroundAheadDone) {
-                    paintBackground = false;
-                    paintBackgroundAheadDone = false; // reset (!)
-                }
+            if (firstRow < 0) {
+                firstRow = y;
+            }
+            lastRow = y;
 
-                // clear next char
-                boolean paintBackgroundAhead = sChar.isItalic() || sChar.isUberBold();
+            int ypos = (y + viewOffset) * lineHeight;
+            int end = Math.min(x2, frame.columns());
+            int[] glyphs = frame.rowGlyphs(y);
+            frame.rowStyles(y, renderStyles);
 
-                // first clear next:
-                if (paintBackgroundAhead) {
-                    StyleChar nextChar = currentBuffer().get(x + 1, y);
+            if (paintAll) {
+                renderRun(graphics, image, frame, glyphs, x1, end, y, ypos);
+                continue;
+            }
 
-                    if (nextChar != null) {
-                        // clear neighbour background:
-                        charRenderer.renderChar(graphics, nextChar, xpos + charwidth, ypos, true, false);
-                        // form next drawing that field already has been cleared.
-                        currentBuffer().needsRepaint(x + 1, y, true); // update draw field !
-                        paintBackgroundAheadDone = true;
-                    }
+            // incremental: runs of damaged cells.
+            int x = Math.max(x1, damage.dirtyStart(y));
+            while (x < end) {
+                x = damage.nextChanged(x, y, end);
+                if (x < 0) {
+                    break;
+                }
+                // extend run with the cells an italic or uberbold glyph leans into:
+                int runEnd = x + 1;
+                while ((runEnd < end) && (damage.isChanged(runEnd, y) || leansAhead(renderStyles[runEnd - 1]))) {
+                    runEnd++;
                 }
+                renderRun(graphics, image, frame, glyphs, x, runEnd, y, ypos);
+                x = runEnd;
+            }
+        } // for y
+        graphics.dispose();
 
-                // draw current:
-                charRenderer.renderChar(graphics, sChar, xpos, ypos, paintBackground, true);
-                currentBuffer().needsRepaint(x, y, false); // has been drawn
+        if (scrollStart < scrollEnd) {
+            firstRow = (firstRow < 0) ? scrollStart : Math.min(firstRow, scrollStart);
+            lastRow = Math.max(lastRow, Math.min(scrollEnd, numRows) - 1);
+        }
+        if (firstRow >= 0) {
+            repaint(0, (firstRow + viewOffset) * lineHeight, getImageWidth(), (lastRow - firstRow + 1) * lineHeight);
+        }
+        return true;
+    }
 
-                // check/update cursor:
-                if ((showCursor) && (isCursor(x, y))) {
-                    charRenderer.renderCursor(graphics, xpos, ypos, cursorBlinkColor);
-                }
+    /**
+     * Move the rendered rows [y1,y2) of the image by lines, positive is up. The rows scrolled in have been
+     * damaged and are drawn by the caller.
+     * Pixel rows are copied through the raster, which is much faster than Graphics.copyArea() on a buffered
+     * image and keeps the image managed.
+     */
+    private void scrollImage(BufferedImage image, int y1, int y2, int lines) {
+        int lineHeight = charRenderer.getLineHeight();
+        int numLines = Math.abs(lines);
+        int height = y2 - y1 - numLines;
+        if (height <= 0) {
+            return;
+        }
+        WritableRaster raster = image.getRaster();
+        int width = Math.min(getImageWidth(), raster.getWidth());
+        int numPixelRows = Math.min(height * lineHeight, raster.getHeight() - (y1 + numLines) * lineHeight);
+        int from = ((lines > 0) ? (y1 + numLines) : y1) * lineHeight;
+        int to = ((lines > 0) ? y1 : (y1 + numLines)) * lineHeight;
+        // copy in the direction which doesn't overwrite rows which still have to be copied:
+        for (int i = 0; i < numPixelRows; i++) {
+            int row = (lines > 0) ? i : (numPixelRows - 1 - i);
+            scrollRow = raster.getDataElements(0, from + row, width, 1, scrollRow);
+            raster.setDataElements(0, to + row, width, 1, scrollRow);
+        }
+        if ((renderedCursorY >= y1) && (renderedCursorY < y2)) {
+            renderedCursorY -= lines;
+            if ((renderedCursorY < y1) || (renderedCursorY >= y2)) {
+                renderedCursorX = -1;
+                renderedCursorY = -1;
+            }
+        }
+    }
+
+    /**
+     * Render cells [x1,x2) of row y and mark them as drawn.
+     */
+    private void renderRun(Graphics2D graphics, BufferedImage image, ScreenSnapshot frame, int[] glyphs,
+                           int x1, int x2, int y, int ypos) {
+        charRenderer.renderRow(graphics, image, glyphs, renderStyles, frame.clusterTable(), x1, x2, ypos, renderView);
+        int charwidth = charRenderer.getCharWidth();
+        for (int x = x1; x < x2; x++) {
+            damage.clear(x, y);
+        }
+        if ((renderedCursorY == y) && (renderedCursorX >= x1) && (renderedCursorX < x2)) {
+            renderedCursorX = -1;
+            renderedCursorY = -1;
+        }
+        // check/update cursor:
+        if ((showCursor) && (cursorY == y) && (cursorX >= x1) && (cursorX < x2)) {
+            charRenderer.renderCursor(graphics, cursorX * charwidth, ypos, cursorBlinkColor);
+            renderedCursorX = cursorX;
+            renderedCursorY = cursorY;
+        }
+    }
 
-            } // for y
-        } // for x
+    /**
+     * Italic and uberbold glyphs can lean into the next cell, which must be drawn after it.
+     */
+    private static boolean leansAhead(long style) {
+        return PackedCell.hasStyle(style, StyleChar.STYLE_ITALIC | StyleChar.STYLE_UBERBOLD);
+    }
 
-        return true;
+    private void ensureRenderBuffers(int columns) {
+        if (renderStyles.length < columns) {
+            renderGlyphs = new int[columns];
+            renderStyles = new long[columns];
+        }
     }
 
     private Color getEffectiveForeground() {
@@ -448,27 +669,29 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             log.error("new cursor Y:{}>{}", y, numRows);
         }
 
-        int prefx = cursorX;
-        int prefy = cursorY;
+        synchronized (bufferMutex) {
+            int prefx = cursorX;
+            int prefy = cursorY;
 
-        this.cursorX = x;
-        this.cursorY = y;
+            this.cursorX = x;
+            this.cursorY = y;
 
-        // Request repaints: !
-        characterChanged(cursorX, cursorY);
-        characterChanged(prefx, prefy);
+            // Request repaints: !
+            characterChanged(cursorX, cursorY);
+            characterChanged(prefx, prefy);
+        }
+        requestRender(false);
     }
 
     /**
-     * Request and schedule repaint. Actual repaint might occur later. Multiple repaint requests are
-     * gathered and the hasChanged field is set to true to merge/combine repaints.
+     * Mark character for repaint by the next frame. Multiple repaint requests are gathered until the frame
+     * is rendered, see requestRender(). Must be called with the buffer mutex held.
      *
      * @param x position of char which needs to be repainted
      * @param y position of char which needs to be repainted
      */
     private void characterChanged(int x, int y) {
         currentBuffer().needsRepaint(x, y, true);
-        renderChar(x, y);
     }
 
     /**
@@ -493,10 +716,16 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             y2 = numRows;
         }
 
-        for (int y = y1; y < y2; y++) {
-            for (int x = x1; x < x2; x++) {
-                // clear means: put space char using current draw style:
-                this.putChar(' ', x, y);
+        synchronized (bufferMutex) {
+            for (int y = y1; y < y2; y++) {
+                for (int x = x1; x < x2; x++) {
+                    // clear means: put space char using current draw style:
+                    this.putChar(' ', x, y);
+                }
+                // cleared until end of line: line doesn't continue.
+                if (x2 == numColumns) {
+                    currentBuffer().setWrapped(y, false);
+                }
             }
         }
     }
@@ -529,30 +758,42 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             endy = -1;
         }
 
-        for (int y = beginy; y != endy; y += stepy) { // rows
-            for (int x = beginx; x != endx; x += stepx) { // columns
-                //
-                currentBuffer().copy(toX + x, toY + y, startX + x, startY + y);
-                if (filler == null)
-                    currentBuffer().clear(startX + x, startY + y);// clear source
-                else
-                    currentBuffer().set(startX + x, startY + y, filler);// clear source
+        synchronized (bufferMutex) {
+            for (int y = beginy; y != endy; y += stepy) { // rows
+                for (int x = beginx; x != endx; x += stepx) { // columns
+                    //
+                    currentBuffer().copy(toX + x, toY + y, startX + x, startY + y);
+                    if (filler == null)
+                        currentBuffer().clear(startX + x, startY + y);// clear source
+                    else
+                        currentBuffer().set(startX + x, startY + y, filler);// clear source
 
+                }
             }
         }
-
-        int x1 = Util.min(startX, toX);
-        int y1 = Util.min(startY, toY);
-        int x2 = Util.max(startX + width, toX + width);
-        int y2 = Util.max(startY + height, toY + height);
-        this.renderTextBuffer(x1, y1, x2, y2, false);
+        // moved cells have been marked as changed:
+        requestRender(false);
     }
 
+    /**
+     * Scroll lines [startline,endline) by moving row references in the text buffer, see TextBuffer.scrollRegion().
+     */
     public void scrollRegion(int startline, int endline, int lines, boolean up) {
-        if (up)
-            move(0, startline + lines, numColumns, endline - startline - lines, 0, startline);
-        else
-            move(0, startline, numColumns, endline - startline - lines, 0, startline + lines);
+        long added;
+        synchronized (bufferMutex) {
+            added = history.getTotalAdded();
+            currentBuffer().scrollRegion(startline, endline, lines, up);
+            added = history.getTotalAdded() - added;
+        }
+
+        if ((viewOffset > 0) && (added > 0)) {
+            // keep showing the same history lines:
+            viewOffset = (int) Math.min(viewOffset + added, history.size());
+            this.requestRender(true);
+        } else {
+            // scrolled rows have been marked as changed:
+            this.requestRender(false);
+        }
     }
 
     /**
@@ -589,6 +830,68 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         putChar(bytes, getCursorX(), getCursorY());
     }
 
+    @Override
+    public void writeCodePoint(int codePoint) {
+        int x = getCursorX();
+        int y = getCursorY();
+        if (!currentBuffer().checkBounds(x, y)) {
+            log.warn("writeCodePoint(): out of bounds (x,y)={},{} >< {},{}", x, y, numColumns, numRows);
+            return;
+        }
+        synchronized (bufferMutex) {
+            currentBuffer().putCell(x, y, PackedCell.glyph(codePoint, getCharSetType()), getStyleId());
+        }
+        requestRender(false);
+    }
+
+    /**
+     * Append combining code point to the cell, the cluster table is compacted first if needed.
+     */
+    @Override
+    public void combineCodePoint(int x, int y, int codePoint) {
+        if (!currentBuffer().checkBounds(x, y)) {
+            log.warn("combineCodePoint(): out of bounds (x,y)={},{} >< {},{}", x, y, numColumns, numRows);
+            return;
+        }
+        synchronized (bufferMutex) {
+            if (clusters.needsCompaction()) {
+                int dropped = clusters.compact(fullBuffer, altTextBuffer);
+                log.debug("combineCodePoint(): compacted cluster table, dropped {} clusters, {} left", dropped, clusters.size());
+            }
+            currentBuffer().combine(x, y, codePoint);
+        }
+        requestRender(false);
+    }
+
+    /**
+     * Update all characters of the text run with one lock of the buffer, the run is rendered by the next frame.
+     */
+    @Override
+    public void writeText(byte[] bytes, int offset, int length) {
+        synchronized (bufferMutex) {
+            int y = getCursorY();
+            TermConst.CharSet charSetType = getCharSetType();
+            int styleId = getStyleId();
+            TextBuffer buffer = currentBuffer();
+
+            int x = getCursorX();
+            int end = offset + length;
+            while ((offset < end) && (x < numColumns)) {
+                if (!buffer.checkBounds(x, y)) {
+                    // asynchronous resize, see putChar().
+                    log.warn("No character at position: {},{}\n", x, y);
+                    break;
+                }
+                int len = Math.min(Util.utf8Length(bytes[offset]), end - offset);
+                int codePoint = PackedCell.decodeCodePoint(bytes, offset, len);
+                buffer.putCell(x, y, PackedCell.glyph(codePoint, charSetType), styleId);
+                offset += len;
+                x++;
+            }
+        }
+        requestRender(false);
+    }
+
     /**
      * Master character update method.
      */
@@ -600,27 +903,57 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             return;
         }
 
-        int xpos = x;
-        int ypos = y;
+        int codePoint = PackedCell.decodeCodePoint(bytes, 0, bytes.length);
+        synchronized (bufferMutex) {
+            currentBuffer().putCell(x, y, PackedCell.glyph(codePoint, getCharSetType()), getStyleId());
+        }
+        requestRender(false);
+    }
 
+    /**
+     * Packed current draw style and colors for updated characters.
+     */
+    private long getStyleWord() {
+        return PackedCell.style(drawStyle, drawForegroundIndex, drawBackgroundIndex, customForeground, customBackground);
+    }
 
-        StyleChar sChar;
-        if ((sChar = currentBuffer().get(xpos, ypos)) == null) {
-            // happens during asynchronize resize events!
-            // Swing resize the current text buffer but the emulator still appends chars.
-            log.warn("No character at position: {},{}\n", xpos, ypos);
-        } else {
-            sChar.setBytes(bytes);
-            sChar.charSet = getCharSetName();
-            sChar.setDrawStyle(getDrawStyle());
-            sChar.foregroundColor = this.drawForegroundIndex;
-            sChar.backgroundColor = this.drawBackgroundIndex;
-            sChar.customForeground = this.customForeground;
-            sChar.customBackground = this.customBackground;
-            sChar.alpha = -1; // reset;
-            characterChanged(xpos, ypos);
+    /**
+     * Interned current draw style. The palette is only compacted here, before a new style is interned, so
+     * compaction happens on the emulator thread between character updates.
+     */
+    private int getStyleId() {
+        long style = getStyleWord();
+        if ((style != drawStyleWord) || (drawStyleEpoch != palette.epoch())) {
+            if (palette.needsCompaction()) {
+                int dropped = palette.compact(fullBuffer, altTextBuffer);
+                log.debug("getStyleId(): compacted style palette, dropped {} styles, {} left", dropped, palette.size());
+            }
+            drawStyleId = palette.intern(style);
+            drawStyleWord = style;
+            drawStyleEpoch = palette.epoch();
         }
-        renderChar(xpos, ypos);
+        return drawStyleId;
+    }
+
+    public StylePalette getStylePalette() {
+        return palette;
+    }
+
+    /**
+     * Consistent copy-on-write view of the current screen buffer, can be taken from any thread.
+     */
+    public ScreenSnapshot snapshot() {
+        return currentBuffer().snapshot();
+    }
+
+    @Override
+    public TerminalText getTerminalText(boolean includeHistory) {
+        ScreenSnapshot snapshot = currentBuffer().snapshot(includeHistory);
+        return (snapshot == null) ? null : new ScreenText(snapshot);
+    }
+
+    private TermConst.CharSet getCharSetType() {
+        return charSets[charSet];
     }
 
     public String getCharSetName() {
@@ -650,6 +983,9 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
 
     public void setDrawStyle(int style) {
         this.drawStyle = style;
+        if (PackedCell.hasStyle(style, BlinkAnimator.BLINK_STYLES)) {
+            blinkAnimator.wakeUp();
+        }
 
         // style=0 is reset colors as well.
         if (style == 0) {
@@ -723,7 +1059,7 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         this.charRenderer.getColorMap().set(num, c);
 
         // repaint ALL
-        this.renderTextBuffer(true);
+        this.requestRender(true);
     }
 
     public Color getColor(int num) {
@@ -736,6 +1072,11 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
 
     public void dispose() {
         stopRenderers();
+        renderScheduler.stop();
+        if (reflowTask != null) {
+            reflowTask.stopTask();
+            reflowTask = null;
+        }
         if (this.currentImage != null) {
             this.currentImage.flush();
             this.currentImage = null;
@@ -751,14 +1092,16 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         }
 
         this.currentBuffer = null;
+
+        if (history.getOverflow() != null) {
+            history.getOverflow().close();
+            history.setOverflow(null);
+        }
     }
 
     public void stopRenderers() {
         log.debug("stopRenderers()");
-        if (animationTimer != null) {
-            this.animationTimer.stop();
-        }
-        animationTimer = null;
+        blinkAnimator.disable();
     }
 
     public void setColumns(int columns) {
@@ -796,7 +1139,7 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             cursorY = numRows - 1;
         }
         // Full repaint:
-        this.renderTextBuffer(true);
+        this.requestRender(true);
         // Will trigger AWT event *here*:
         this.revalidate();
         this.repaint();
@@ -817,9 +1160,10 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
             }
 
             TextBuffer oldBuffer = this.currentBuffer;
+            TextBuffer oldFullBuffer = this.fullBuffer;
 
-            this.fullBuffer = new TextBuffer(newCs, newRs, newCs, newRs);
-            this.altTextBuffer = new TextBuffer(newCs, newRs, newCs, newRs);
+            this.fullBuffer = new TextBuffer(newCs, newRs, newCs, newRs, palette, clusters);
+            this.altTextBuffer = new TextBuffer(newCs, newRs, newCs, newRs, palette, clusters);
 
             int offsety = 0;
             if ((oldBuffer != null) && newRs < oldBuffer.rows()) {
@@ -828,10 +1172,21 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
                     offsety = getCursorY() - newRs + 1;
                 }
             }
-            if (copyContent) {
+            if (copyContent && (oldBuffer == oldFullBuffer) && (oldBuffer.columns() != newCs)) {
+                // new width: rewrap lines
+                reflowScreen(oldBuffer, newCs, newRs);
+            } else if (copyContent && (oldBuffer == oldFullBuffer)) {
+                // rows moved off the top are kept in the history:
+                oldBuffer.addToHistory(0, offsety);
                 this.fullBuffer.copyFrom(oldBuffer, 0, offsety);
+            } else if (copyContent) {
+                // alt screen: rows moved off its top are dropped, the main screen is kept as is
+                this.fullBuffer.copyFrom(oldFullBuffer, 0, 0);
+                this.altTextBuffer.copyFrom(oldBuffer, 0, offsety);
             }
-            this.currentBuffer = fullBuffer;
+            this.fullBuffer.setHistory(history);
+            this.viewOffset = 0;
+            this.currentBuffer = (screenBufferNr == 1) ? altTextBuffer : fullBuffer;
             //
             log.info("resizeTextBuffers(): DONE resizing: {},{} => {},{}", this.numColumns, this.numRows, newCs, newRs);
             this.numColumns = newCs;
@@ -839,87 +1194,162 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
         }
 
         this.initTextBufferImage();
+        // copied rows may have blinking cells:
+        blinkAnimator.wakeUp();
 
         return true;
     }
 
-    protected TextBuffer currentBuffer() {
-        return this.currentBuffer;
+    /**
+     * Rewrap soft wrapped lines of the screen at the new width and start reflow of the history.
+     * Must be called with the new (empty) full screen buffer.
+     */
+    private void reflowScreen(TextBuffer oldBuffer, int newCs, int newRs) {
+        Reflow.Screen screen = Reflow.reflowScreen(oldBuffer, cursorX, cursorY, newCs);
+        // keep cursor on screen, rows moved off the top are kept in the history:
+        int offsety = Math.max(0, screen.cursorY - newRs + 1);
+        for (int y = 0; y < offsety; y++) {
+            history.add(screen.rows.get(y), palette, clusters);
+        }
+        for (int y = offsety; (y < screen.rows.size()) && (y - offsety < newRs); y++) {
+            fullBuffer.setRow(y - offsety, screen.rows.get(y));
+        }
+        this.cursorX = screen.cursorX;
+        this.cursorY = screen.cursorY - offsety;
+        startHistoryReflow(newCs);
     }
 
-    public void pageUp() {
-        // todo: virtual page up!
+    private void startHistoryReflow(int columns) {
+        if (reflowTask != null) {
+            reflowTask.stopTask();
+            reflowTask = null;
+        }
+        if (history.heapSize() == 0) {
+            return;
+        }
+        reflowTask = new HistoryReflowTask(history, columns, () -> SwingUtilities.invokeLater(this::historyReflowed));
+        reflowTask.startTask();
     }
 
-    public void pageDown() {
-        // todo: virtual page down
+    private void historyReflowed() {
+        if (viewOffset > history.size()) {
+            resetView();
+        } else if (viewOffset > 0) {
+            requestRender(true);
+        }
     }
 
-    public void actionPerformed(ActionEvent e) {
-        if (e.getSource() == animationTimer) {
-            doAnimation();
+    /**
+     * Mark line as soft wrapped by auto wrap, used to rewrap lines when the width changes.
+     */
+    @Override
+    public void setLineWrapped(int y, boolean wrapped) {
+        synchronized (bufferMutex) {
+            currentBuffer().setWrapped(y, wrapped);
         }
     }
 
-    public void doAnimation() {
-        TextBuffer buffer;
-        Dimension size;
+    protected TextBuffer currentBuffer() {
+        return this.currentBuffer;
+    }
 
-        // work asynchronous on reference:
-        size = currentBuffer().getSize();
-        buffer = currentBuffer();
+    /**
+     * Show previous page of the scrollback history. Doesn't change the live screen.
+     */
+    public void pageUp() {
+        scrollView(numRows);
+    }
 
-        int div = 8; // slowdown
-        int numSteps = 32;
-        // smooth cosinus
+    /**
+     * Show next page of the scrollback history, or the live screen.
+     */
+    public void pageDown() {
+        scrollView(-numRows);
+    }
 
-        Color fg = getEffectiveForeground();
+    /**
+     * Move viewport into the history (lines>0) or back towards the live screen (lines<0).
+     */
+    public void scrollView(int lines) {
+        int offset = Math.max(0, Math.min(viewOffset + lines, history.size()));
+        if (offset == viewOffset) {
+            return;
+        }
+        this.viewOffset = offset;
+        requestRender(true);
+    }
 
-        for (int x = 0; x < size.width; x++)
-            for (int y = 0; y < size.height; y++) {
-                StyleChar c = buffer.get(x, y);
+    /**
+     * Show live screen.
+     */
+    public void resetView() {
+        scrollView(-viewOffset);
+    }
 
-                double phase0 = (((animationCounter + x * 16) / 7) % numSteps);
-                double phase1 = (((animationCounter + x * 16) / 11) % numSteps);
-                double phase2 = (((animationCounter + x * 16) / 17) % numSteps);
+    public int getViewOffset() {
+        return viewOffset;
+    }
 
-                double cos0 = Math.cos((phase0 / numSteps) * Math.PI * 2);
-                double cos1 = Math.cos((phase1 / numSteps) * Math.PI * 2);
-                double cos2 = Math.cos((phase2 / numSteps) * Math.PI * 2);
+    public ScrollbackBuffer getHistory() {
+        return history;
+    }
 
-                int alpha = (int) (128 + 127 * cos0);
-                int val0 = (int) (128 + 127 * cos0);
-                int val1 = (int) (128 + 127 * cos1);
-                int val2 = (int) (128 + 127 * cos2);
+    /**
+     * Spill history lines which exceed the limits to a memory-mapped file in the directory, which makes the
+     * history unlimited. Null disables the overflow file.
+     */
+    public void setHistoryOverflow(Path dir) throws IOException {
+        ScrollbackFile current = history.getOverflow();
+        history.setOverflow((dir == null) ? null : ScrollbackFile.create(dir));
+        if (current != null) {
+            resetView();
+            current.close();
+        }
+    }
 
-                if ((c != null) && (c.hasStyle(StyleChar.STYLE_SLOW_BLINK))) {
-                    if (c.alpha != alpha) {
-                        buffer.needsRepaint(x, y, true);// update
-                    }
-                    c.customForeground = new Color(val0, val1, val2);
-                }
+    /**
+     * Set line limit and byte budget of the scrollback history, 0 lines disables the history.
+     * With an overflow file, these are the limits of the recent lines kept in the heap.
+     */
+    public void setHistoryLimits(int maxLines, long maxBytes) {
+        history.setLimits(maxLines, maxBytes);
+        if (viewOffset > history.size()) {
+            resetView();
+        }
+    }
 
-                if (isCursor(x, y)) {
-                    if (!this.cursorBlink) {
-                        cursorBlinkColor = null;
-                    } else {
-                        int r = (int) (fg.getRed() * (0.5 + cos0 / 2.0));
-                        int g = (int) (fg.getGreen() * (0.5 + cos0 / 2.0));
-                        int b = (int) (fg.getBlue() * (0.5 + cos0 / 2.0));
-                        cursorBlinkColor = new Color(r, g, b, alpha);
-                        buffer.needsRepaint(x, y, true);// update
-                    }
-                }
+    /**
+     * One step of the blink animation: damage the blinking cells and the cursor cell, they are drawn with the
+     * colors of the current step (see BlinkAnimator).
+     *
+     * @return false if there is nothing to animate, the animation stops until it is woken up again.
+     */
+    private boolean doAnimation() {
+        boolean blinkCursor = (cursorBlink && showCursor);
+        int numBlinking;
+        synchronized (bufferMutex) {
+            TextBuffer buffer = currentBuffer();
+            numBlinking = buffer.markBlinking();
+            if (blinkCursor && buffer.checkBounds(cursorX, cursorY)) {
+                cursorBlinkColor = blinkAnimator.cursorColor(cursorX, getEffectiveForeground());
+                buffer.needsRepaint(cursorX, cursorY, true);
             }
-        this.animationCounter++;
-        this.renderTextBuffer(false);
-        this.repaint();
+        }
+        if ((numBlinking > 0) || blinkCursor) {
+            this.requestRender(false);
+            return true;
+        }
+        // blinking text may still be written:
+        return PackedCell.hasStyle(drawStyle, BlinkAnimator.BLINK_STYLES);
     }
 
     public void setEnableCursor(boolean value) {
         this.showCursor = value;
         if (value) {
             this.renderChar(cursorX, cursorY);
+            if (cursorBlink) {
+                blinkAnimator.wakeUp();
+            }
         }
     }
 
@@ -944,7 +1374,9 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
                 currentBuffer = this.fullBuffer;
             this.screenBufferNr = (useAlt) ? 1 : 0;
         }
-        this.renderTextBuffer(true);
+        // the other buffer may have blinking cells:
+        blinkAnimator.wakeUp();
+        this.requestRender(true);
         return true;
     }
 
@@ -954,6 +1386,12 @@ public class CharPane extends JComponent implements CharacterTerminal, ActionLis
 
     public void setCursorOptions(boolean blink) {
         this.cursorBlink = blink;
+        if (blink) {
+            blinkAnimator.wakeUp();
+        } else {
+            cursorBlinkColor = null;
+            this.renderChar(cursorX, cursorY);
+        }
     }
 
     public void setReverseVideo(boolean value) {
@@ -9,19 +9,22 @@ package nl.piter.vterm.ui.panels.charpane;
 
 import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.api.TermConst;
+import nl.piter.vterm.emulator.Util;
 import nl.piter.vterm.ui.fonts.FontConst;
 import nl.piter.vterm.ui.fonts.FontInfo;
 
 import java.awt.*;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.Objects;
 
 /**
- * Character and graphics renderer for a single cell (character).
+ * Character and graphics renderer for a single cell (character) or a row of cells, see renderRow().
+ * Single code point characters are drawn from a glyph atlas (see GlyphAtlas) when the target is an ARGB
+ * image, grapheme clusters are drawn with drawString().
  */
 @Slf4j
 public class CharRenderer {
@@ -52,6 +55,18 @@ public class CharRenderer {
     private final int lineLeading = 0; // pixels
     private Map<RenderingHints.Key, ?> renderingHints;
 
+    // === Glyph Cache ===
+    private int glyphCacheSize = GlyphAtlas.DEFAULT_CAPACITY;
+    private GlyphAtlas glyphAtlas;
+
+    // === Span rendering, see resolveColors() ===
+    private Color resolvedForeground;
+    private Color resolvedBackground;
+    // characters and cell offsets of a span drawn as one GlyphVector:
+    private char[] spanChars = new char[256];
+    private int[] spanCells = new int[256];
+    // colors of blinking cells, none: blinking cells are drawn with their own colors
+    private BlinkAnimator blinkAnimator;
 
     public CharRenderer() {
         // initialize font metrics:
@@ -63,6 +78,10 @@ public class CharRenderer {
         this.colorMap = map;
     }
 
+    void setBlinkAnimator(BlinkAnimator animator) {
+        this.blinkAnimator = animator;
+    }
+
     /**
      * Initialize font&font metrics
      */
@@ -92,30 +111,193 @@ public class CharRenderer {
         this.fontCharWidth = metrics.charWidth('W');
         renderingHints = finfo.getRenderingHints();
         dummyImage.flush();
+        initGlyphAtlas();
     }
 
-    void renderChar(Graphics2D imageGraphics, StyleChar sChar, int xpos, int ypos, boolean paintBackground, boolean paintForeground) {
-        renderTemplate(imageGraphics, sChar, xpos, ypos, paintBackground, paintForeground);
+    /**
+     * Cached glyphs depend on the fonts: new atlas when the cell size changed, otherwise drop the glyphs.
+     */
+    private void initGlyphAtlas() {
+        if (glyphAtlas != null) {
+            log.debug("initGlyphAtlas(): glyphs={}, hits={}, misses={}, evictions={}", glyphAtlas.size(),
+                    glyphAtlas.getNumHits(), glyphAtlas.getNumMisses(), glyphAtlas.getNumEvictions());
+        }
+        if (glyphCacheSize <= 0) {
+            glyphAtlas = null;
+        } else if ((glyphAtlas != null) && glyphAtlas.hasMetrics(getCharWidth(), getLineHeight())
+                && (glyphAtlas.capacity() == glyphCacheSize)) {
+            glyphAtlas.clear();
+        } else {
+            glyphAtlas = new GlyphAtlas(getCharWidth(), getLineHeight(), glyphCacheSize);
+        }
     }
 
-    protected BufferedImage duplicate(BufferedImage image) {
-        ColorModel cm = image.getColorModel();
-        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-        WritableRaster raster = image.copyData(null);
-        return new BufferedImage(cm, raster, isAlphaPremultiplied, null);
+    /**
+     * Maximum number of cached glyphs, 0 disables the glyph atlas.
+     */
+    public void setGlyphCacheSize(int size) {
+        this.glyphCacheSize = size;
+        initGlyphAtlas();
+    }
+
+    public int getGlyphCacheSize() {
+        return glyphCacheSize;
+    }
+
+    public long getGlyphCacheHits() {
+        return (glyphAtlas != null) ? glyphAtlas.getNumHits() : 0;
+    }
+
+    public long getGlyphCacheMisses() {
+        return (glyphAtlas != null) ? glyphAtlas.getNumMisses() : 0;
     }
 
-    protected int createHash(StyleChar sChar, boolean paintBackground, boolean paintForeground) {
-        return Objects.hash(sChar, paintBackground, paintForeground);
+    public long getGlyphCacheEvictions() {
+        return (glyphAtlas != null) ? glyphAtlas.getNumEvictions() : 0;
+    }
+
+    /**
+     * Render single character (cell) in imageGraphics, the image is the target of imageGraphics.
+     */
+    void renderChar(Graphics2D imageGraphics, BufferedImage image, StyleChar sChar, int xpos, int ypos, boolean paintBackground, boolean paintForeground) {
+        renderTemplate(imageGraphics, image, sChar, xpos, ypos, paintBackground, paintForeground);
     }
 
     /**
      * Render single character (cell) in imageGraphics
      */
-    void renderTemplate(Graphics2D imageGraphics, StyleChar sChar, int xpos, int ypos, boolean paintBackground, boolean paintForeground) {
+    void renderTemplate(Graphics2D imageGraphics, BufferedImage image, StyleChar sChar, int xpos, int ypos, boolean paintBackground, boolean paintForeground) {
+        resolveColors(sChar);
+        Color fg = resolvedForeground;
+        Color bg = resolvedBackground;
+
+        int lineHeight = getLineHeight();
+        int charWidth = getCharWidth();
+
+        // Paint background
+        if (paintBackground) {
+            imageGraphics.setColor(bg);
+            // can use background image here:
+            imageGraphics.fillRect(xpos, ypos, charWidth, lineHeight);
+        }
+
+        if (!paintForeground)
+            return;
+
+        if (sChar.isChar(' ')) {
+            // space already drawn as background has been cleared.
+        } else {
+            renderGlyph(imageGraphics, image, sChar, fg, bg, xpos, ypos);
+            renderLines(imageGraphics, sChar.style, fg, xpos, xpos + charWidth, ypos);
+        }
+
+    }
+
+    /**
+     * Render cells [x1,x2) of a row. Consecutive cells with the same style word are drawn as one span: one
+     * fillRect for the background, colors and font resolved once, and one line for underscore or strikethrough.
+     * Glyphs are drawn from the glyph atlas, without atlas a span is drawn as one GlyphVector with each glyph
+     * positioned at its cell. All backgrounds are filled before the glyphs, so italic and uberbold glyphs
+     * which lean into the next cell aren't erased by its background.
+     *
+     * @param glyphs   glyph words of the row, see PackedCell.
+     * @param styles   style words of the row.
+     * @param clusters cluster table of the cluster glyphs.
+     * @param view     StyleChar used for rendering.
+     */
+    void renderRow(Graphics2D imageGraphics, BufferedImage image, int[] glyphs, long[] styles, String[] clusters,
+                   int x1, int x2, int ypos, StyleChar view) {
+        int charWidth = getCharWidth();
+        for (int x = x1; x < x2; ) {
+            int end = spanEnd(styles, x, x2);
+            unpackSpanStyle(styles[x], x, view);
+            imageGraphics.setColor(resolvedBackground);
+            imageGraphics.fillRect(x * charWidth, ypos, (end - x) * charWidth, getLineHeight());
+            x = end;
+        }
+        if (this.fontInfo.getRenderingHints() != null) {
+            imageGraphics.setRenderingHints(fontInfo.getRenderingHints());
+        }
+        for (int x = x1; x < x2; ) {
+            int end = spanEnd(styles, x, x2);
+            unpackSpanStyle(styles[x], x, view);
+            renderSpanGlyphs(imageGraphics, image, glyphs, clusters, x, end, ypos, view);
+            renderLines(imageGraphics, view.style, resolvedForeground, x * charWidth, end * charWidth, ypos);
+            x = end;
+        }
+    }
+
+    private static int spanEnd(long[] styles, int start, int end) {
+        long style = styles[start];
+        int x = start + 1;
+        // blinking cells have the color of their column:
+        if (PackedCell.hasStyle(style, BlinkAnimator.BLINK_STYLES)) {
+            return x;
+        }
+        while ((x < end) && (styles[x] == style)) {
+            x++;
+        }
+        return x;
+    }
+
+    /**
+     * Unpack the style of the span starting at x into the view and resolve its colors.
+     */
+    private void unpackSpanStyle(long style, int x, StyleChar view) {
+        PackedCell.unpack(PackedCell.BLANK, style, view);
+        if ((blinkAnimator != null) && PackedCell.hasStyle(style, BlinkAnimator.BLINK_STYLES)) {
+            view.customForeground = blinkAnimator.blinkColor(x);
+        }
+        resolveColors(view);
+    }
+
+    /**
+     * Glyphs of the span [x1,x2), colors have been resolved for the style of the view.
+     */
+    private void renderSpanGlyphs(Graphics2D imageGraphics, BufferedImage image, int[] glyphs, String[] clusters,
+                                  int x1, int x2, int ypos, StyleChar view) {
+        Color fg = resolvedForeground;
+        Color bg = resolvedBackground;
+        int charWidth = getCharWidth();
+        boolean useAtlas = useGlyphAtlas(image);
+        int numChars = 0;
+        for (int x = x1; x < x2; x++) {
+            int glyph = glyphs[x];
+            int codePoint = PackedCell.codePoint(glyph);
+            if (codePoint == ' ') {
+                continue;
+            }
+            // collect plain characters for one GlyphVector:
+            if ((!useAtlas) && (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) && (!PackedCell.isCluster(glyph))
+                    && (!PackedCell.isGraphics(glyph))) {
+                if (numChars == spanChars.length) {
+                    spanChars = Arrays.copyOf(spanChars, numChars * 2);
+                    spanCells = Arrays.copyOf(spanCells, numChars * 2);
+                }
+                spanChars[numChars] = (char) codePoint;
+                spanCells[numChars++] = x;
+                continue;
+            }
+            PackedCell.unpackGlyph(glyph, view);
+            if (PackedCell.isCluster(glyph)) {
+                view.setText(ClusterTable.get(clusters, PackedCell.clusterId(glyph)));
+            }
+            renderGlyph(imageGraphics, image, view, fg, bg, x * charWidth, ypos);
+        }
+        if (numChars > 0) {
+            renderGlyphVector(imageGraphics, view, fg, bg, numChars, ypos);
+        }
+    }
+
+    /**
+     * Resolve foreground and background color of the StyleChar into resolvedForeground and resolvedBackground:
+     * indexed and custom colors, inverse and the alpha of faint and hidden characters.
+     */
+    private void resolveColors(StyleChar sChar) {
         int style = sChar.style;
 
         // check indexed colors!
+
         Color fg = colorMap.resolve(sChar.foregroundColor);
         Color bg = colorMap.resolve(sChar.backgroundColor);
 
@@ -156,29 +338,56 @@ public class CharRenderer {
         if ((alpha >= 0) && (alpha < 255))
             fg = new Color(fg.getRed(), fg.getGreen(), fg.getBlue(), alpha);
 
-        int lineHeight = getLineHeight();
-        int charWidth = getCharWidth();
+        resolvedForeground = fg;
+        resolvedBackground = bg;
+    }
 
-        // Paint background
-        if (paintBackground) {
-            imageGraphics.setColor(bg);
-            // can use background image here:
-            imageGraphics.fillRect(xpos, ypos, charWidth, lineHeight);
-        }
+    /**
+     * Glyph of a single cell which isn't a space, without underscore or strikethrough.
+     */
+    private void renderGlyph(Graphics2D imageGraphics, BufferedImage image, StyleChar sChar, Color fg, Color bg, int xpos, int ypos) {
+        boolean isGraphicsChar = isGraphicsCharSet(sChar.charSet);
+        if (isGraphicsChar && this.optionUseOwnGraphicsCharsetRenderer)
+            renderGraphicsChar(imageGraphics, image, sChar, fg, bg, xpos, ypos);
+        else
+            renderPlainChar(imageGraphics, image, sChar, fg, bg, xpos, ypos);
+    }
 
-        if (!paintForeground)
+    /**
+     * Draw the collected span characters as one GlyphVector, each glyph at the position of its cell so
+     * glyphs with a different advance don't shift the rest of the span.
+     */
+    private void renderGlyphVector(Graphics2D imageGraphics, StyleChar sChar, Color fg, Color bg, int numChars, int ypos) {
+        int style = sChar.style;
+        boolean bold = ((style & StyleChar.STYLE_BOLD) > 0);
+        boolean italic = ((style & StyleChar.STYLE_ITALIC) > 0);
+        Font font = getFont((bold ? 1 : 0) | (italic ? 2 : 0));
+        imageGraphics.setFont(font);
+        GlyphVector vector = font.createGlyphVector(imageGraphics.getFontRenderContext(),
+                Arrays.copyOf(spanChars, numChars));
+        if (vector.getNumGlyphs() != numChars) {
+            // not one glyph per character, draw the cells one by one:
+            for (int i = 0; i < numChars; i++) {
+                sChar.setCodePoint(spanChars[i]);
+                sChar.charSet = null;
+                renderPlainChar(imageGraphics, null, sChar, fg, bg, spanCells[i] * getCharWidth(), ypos);
+            }
             return;
-
-        if (sChar.isChar(' ')) {
-            // space already drawn as background has been cleared.
-        } else {
-            boolean isGraphicsChar = isGraphicsCharSet(sChar.charSet);
-            if (isGraphicsChar && this.optionUseOwnGraphicsCharsetRenderer)
-                renderGraphicsChar(imageGraphics, sChar, fg, bg, xpos, ypos);
-            else
-                renderPlainChar(imageGraphics, sChar, fg, bg, xpos, ypos);
         }
-
+        int xstart = spanCells[0] * getCharWidth();
+        for (int i = 0; i < numChars; i++) {
+            vector.setGlyphPosition(i, new Point2D.Float((spanCells[i] - spanCells[0]) * getCharWidth(), 0));
+        }
+        float basey = ypos + getLineHeight() - fontDescent;
+        if ((style & StyleChar.STYLE_UBERBOLD) > 0) {
+            imageGraphics.setColor(ColorMap.blendColor(bg, fg, 0.5, true));
+            imageGraphics.drawGlyphVector(vector, xstart - 1, basey);
+            imageGraphics.drawGlyphVector(vector, xstart + 1, basey);
+            imageGraphics.drawGlyphVector(vector, xstart, basey - 1);
+            imageGraphics.drawGlyphVector(vector, xstart, basey + 1);
+        }
+        imageGraphics.setColor(fg);
+        imageGraphics.drawGlyphVector(vector, xstart, basey);
     }
 
     public Color getEffectiveForeground() {
@@ -189,7 +398,7 @@ public class CharRenderer {
         return colorMap.getBackground();
     }
 
-    private void renderGraphicsChar(Graphics2D imageGraphics, StyleChar schar,
+    private void renderGraphicsChar(Graphics2D imageGraphics, BufferedImage image, StyleChar schar,
                                     Color fg, Color bg, int xpos, int ypos) {
         // 8-bits to 16-bits:
         char c = (char) schar.charBytes[0];
@@ -310,7 +519,7 @@ public class CharRenderer {
         }
 
         if (notSupported)
-            renderPlainChar(imageGraphics, schar, fg, bg, xpos, ypos);
+            renderPlainChar(imageGraphics, image, schar, fg, bg, xpos, ypos);
 
         for (int i = 0; i < size; i++) {
             Color drawFG = fg;
@@ -372,7 +581,7 @@ public class CharRenderer {
         }
     }
 
-    private void renderPlainChar(Graphics2D imageGraphics, StyleChar schar,
+    private void renderPlainChar(Graphics2D imageGraphics, BufferedImage image, StyleChar schar,
                                  Color fg, Color bg, int xpos, int ypos) {
         //
         int style = schar.style;
@@ -382,20 +591,40 @@ public class CharRenderer {
         // lower left corner to start drawing (above descent):
         int imgx = xpos;
         int basey = ypos + getLineHeight() - fontDescent;// text center start above lower border
-        int midy = basey - fontAscent / 3;
-        String encoded;
-        encoded = new String(bytes, 0, numBytes, StandardCharsets.UTF_8);
-
-        encoded = mapCharsetChars(schar.charSet, encoded);
 
         // Render Character;
-        // Blink ? => currently done in animation thread
-        boolean blink = ((style & StyleChar.STYLE_SLOW_BLINK) > 0);
+        // Blink: colors of the blinking cells are set by renderRow(), see BlinkAnimator
         boolean faint = ((style & StyleChar.STYLE_FAINT) > 0);
         boolean bold = ((style & StyleChar.STYLE_BOLD) > 0);
         boolean italic = ((style & StyleChar.STYLE_ITALIC) > 0);
         boolean uberbold = ((style & StyleChar.STYLE_UBERBOLD) > 0);
 
+        // cached glyph of a single code point:
+        if (useGlyphAtlas(image) && (numBytes > 0) && (Util.utf8Length(bytes[0]) == numBytes)) {
+            int fontIndex = (bold ? 1 : 0) | (italic ? 2 : 0);
+            int codePoint = PackedCell.decodeCodePoint(bytes, 0, numBytes);
+            int key = GlyphAtlas.key(codePoint, fontIndex, isGraphicsCharSet(schar.charSet));
+            int slot = glyphAtlas.get(key);
+            if (slot < 0) {
+                String text = mapCharsetChars(schar.charSet, new String(Character.toChars(codePoint)));
+                slot = glyphAtlas.put(key, text, getFont(fontIndex), basey - ypos, fontInfo.getRenderingHints());
+            }
+            if (uberbold) {
+                Color shadedFG = ColorMap.blendColor(bg, fg, 0.5, true);
+                glyphAtlas.composite(slot, image, imgx - 1, ypos, shadedFG);
+                glyphAtlas.composite(slot, image, imgx + 1, ypos, shadedFG);
+                glyphAtlas.composite(slot, image, imgx, ypos - 1, shadedFG);
+                glyphAtlas.composite(slot, image, imgx, ypos + 1, shadedFG);
+            }
+            glyphAtlas.composite(slot, image, imgx, ypos, fg);
+            return;
+        }
+
+        String encoded;
+        encoded = new String(bytes, 0, numBytes, StandardCharsets.UTF_8);
+
+        encoded = mapCharsetChars(schar.charSet, encoded);
+
         imageGraphics.setColor(fg);
 
         if (bold && !italic)
@@ -430,13 +659,47 @@ public class CharRenderer {
         } else {
             imageGraphics.drawString(encoded, imgx, basey);
         }
+    }
+
+    /**
+     * Glyphs are drawn from the atlas into ARGB images.
+     */
+    private boolean useGlyphAtlas(BufferedImage image) {
+        return (glyphAtlas != null) && (image != null) && (image.getType() == BufferedImage.TYPE_INT_ARGB);
+    }
 
+    /**
+     * Underscore and strikethrough from x1 to x2 of the cells at ypos.
+     */
+    private void renderLines(Graphics2D imageGraphics, int style, Color fg, int x1, int x2, int ypos) {
+        if ((style & (StyleChar.STYLE_UNDERSCORE | StyleChar.STYLE_STRIKETHROUGH)) == 0) {
+            return;
+        }
+        int basey = ypos + getLineHeight() - fontDescent;
+        imageGraphics.setColor(fg);
         // add line:
         if ((style & StyleChar.STYLE_UNDERSCORE) > 0) {
-            imageGraphics.drawLine(imgx, basey + 1, imgx + getCharWidth(), basey + 1);
+            imageGraphics.drawLine(x1, basey + 1, x2, basey + 1);
         }
         if ((style & StyleChar.STYLE_STRIKETHROUGH) > 0) {
-            imageGraphics.drawLine(imgx, midy, imgx + getCharWidth(), midy);
+            int midy = basey - fontAscent / 3;
+            imageGraphics.drawLine(x1, midy, x2, midy);
+        }
+    }
+
+    /**
+     * @param fontIndex bit 0: bold, bit 1: italic.
+     */
+    private Font getFont(int fontIndex) {
+        switch (fontIndex) {
+            case 1:
+                return fontBold;
+            case 2:
+                return fontItalic;
+            case 3:
+                return fontItalicBold;
+            default:
+                return fontPlain;
         }
     }
 
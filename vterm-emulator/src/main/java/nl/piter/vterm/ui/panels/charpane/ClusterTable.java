@@ -0,0 +1,162 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.piter.vterm.api.TermConst;
+import nl.piter.vterm.emulator.Utf8Decoder;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Interned grapheme clusters of more than one code point: a base character followed by combining marks,
+ * or an emoji zero width joiner sequence. A cell refers to a cluster with a cluster glyph (see PackedCell),
+ * single code points are stored inline in the glyph word.
+ * <p>
+ * Shared by the text buffers of one terminal. History lines keep their own clusters, so the table only
+ * needs the clusters of the screen: ids which are no longer used after rows have been scrolled off are
+ * dropped by compact(), which the owner calls at a safe point.
+ * intern() and compact() are synchronized, get() isn't: a cluster is stored before its id is returned.
+ * Like the StylePalette, compaction replaces the cluster array so a ScreenSnapshot can keep the old one.
+ */
+@Slf4j
+public class ClusterTable {
+
+    public static final int DEFAULT_COMPACT_THRESHOLD = 1024;
+    // limit stacked combining marks:
+    public static final int MAX_CLUSTER_LENGTH = 32;
+    private static final String REPLACEMENT = new String(Character.toChars(Utf8Decoder.REPLACEMENT_CHAR));
+
+    private String[] clusters = new String[16];
+    private int size;
+    private final Map<String, Integer> ids = new HashMap<>();
+    private final IdCompaction compaction = new IdCompaction(DEFAULT_COMPACT_THRESHOLD, 1);
+
+    /**
+     * @return cluster id or -1 if the table is full.
+     */
+    public synchronized int intern(String cluster) {
+        Integer id = ids.get(cluster);
+        if (id != null) {
+            return id;
+        }
+        if (size > PackedCell.MAX_CLUSTER_ID) {
+            log.warn("intern(): cluster table full, {} clusters", size);
+            return -1;
+        }
+        if (size == clusters.length) {
+            clusters = Arrays.copyOf(clusters, size * 2);
+        }
+        clusters[size] = cluster;
+        ids.put(cluster, size);
+        return size++;
+    }
+
+    /**
+     * Returns cluster text, a stale id of a concurrent reader during compaction returns the replacement
+     * character.
+     */
+    public String get(int id) {
+        return get(clusters, id);
+    }
+
+    static String get(String[] table, int id) {
+        String cluster = ((table != null) && (id < table.length)) ? table[id] : null;
+        return (cluster != null) ? cluster : REPLACEMENT;
+    }
+
+    /**
+     * Current cluster array: entries of ids interned so far don't change, compaction replaces the array.
+     */
+    String[] clusterTable() {
+        return clusters;
+    }
+
+    int compactSeq() {
+        return compaction.sequence();
+    }
+
+    /**
+     * Returns glyph word for the cluster of glyph followed by the code point, with the charset of the glyph.
+     * The glyph is returned unchanged if the cluster would become too long.
+     */
+    public int append(int glyph, int codePoint) {
+        String text;
+        if (PackedCell.isCluster(glyph)) {
+            text = get(PackedCell.clusterId(glyph));
+        } else {
+            text = new String(Character.toChars(PackedCell.codePoint(glyph)));
+        }
+        if (text.length() + 2 > MAX_CLUSTER_LENGTH) {
+            return glyph;
+        }
+        int id = intern(text + new String(Character.toChars(codePoint)));
+        return (id < 0) ? glyph : PackedCell.clusterGlyph(id, glyph);
+    }
+
+    /**
+     * Returns glyph word for text, inline if it is a single code point.
+     */
+    public int glyph(String text, TermConst.CharSet charSet) {
+        if (text.codePointCount(0, text.length()) == 1) {
+            return PackedCell.glyph(text.codePointAt(0), charSet);
+        }
+        int id = intern(text);
+        if (id < 0) {
+            return PackedCell.glyph(text.codePointAt(0), charSet);
+        }
+        return PackedCell.clusterGlyph(id, PackedCell.glyph(0, charSet));
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized boolean needsCompaction() {
+        return compaction.isNeeded(size);
+    }
+
+    public synchronized void setCompactThreshold(int threshold) {
+        compaction.setThreshold(threshold);
+    }
+
+    /**
+     * Drop clusters not used by any cell of the buffers and renumber the others. All buffers using this
+     * table must be passed.
+     *
+     * @return number of dropped clusters.
+     */
+    public synchronized int compact(TextBuffer... buffers) {
+        return compaction.compact(size, new boolean[size], buffers, TextBuffer::markClusterIds, this::renumber,
+                TextBuffer::remapClusterIds);
+    }
+
+    private void renumber(int[] remap, int newSize) {
+        String[] newClusters = new String[clusters.length];
+        ids.clear();
+        for (int id = 0; id < size; id++) {
+            if (remap[id] >= 0) {
+                newClusters[remap[id]] = clusters[id];
+                ids.put(clusters[id], remap[id]);
+            }
+        }
+        clusters = newClusters;
+        size = newSize;
+    }
+
+    public synchronized void clear() {
+        if (size > 0) {
+            clusters = new String[16];
+            ids.clear();
+            size = 0;
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.Arrays;
+
+/**
+ * Damage of the screen owned by the renderer. The damage of the text buffer is moved here together with the
+ * snapshot of a frame (see TextBuffer.takeDamage()), so the emulator never has to wait for a frame to be
+ * rendered. Cells are cleared when drawn, cells which have not been drawn stay marked for the next frame.
+ * Same layout as the damage bits of TextRow: a bit set per row, conservative dirty bounds and dirty row bits.
+ */
+final class DamageMap {
+
+    private final int columns;
+    private final int rows;
+    private final long[][] changed;
+    private final int[] dirtyMin;
+    private final int[] dirtyMax;
+    private final long[] dirtyRows;
+    // scrolls of the rendered rows since the last frame:
+    private final ScrollLog scrolls = new ScrollLog();
+
+    DamageMap(int columns, int rows) {
+        this.columns = columns;
+        this.rows = rows;
+        this.changed = new long[rows][(columns + 63) >>> 6];
+        this.dirtyMin = new int[rows];
+        this.dirtyMax = new int[rows];
+        this.dirtyRows = new long[(rows + 63) >>> 6];
+        setAll();
+    }
+
+    boolean hasSize(int columns, int rows) {
+        return (this.columns == columns) && (this.rows == rows);
+    }
+
+    void setAll() {
+        for (int y = 0; y < rows; y++) {
+            Arrays.fill(changed[y], -1L);
+            dirtyMin[y] = 0;
+            dirtyMax[y] = columns - 1;
+        }
+        Arrays.fill(dirtyRows, -1L);
+        // everything is drawn again:
+        scrolls.clear();
+    }
+
+    /**
+     * Scroll the damage of rows [y1,y2) like TextBuffer.scrollRegion(), the new rows are damaged.
+     * The scroll is logged, so the renderer can move the rendered rows in the image before drawing the damaged
+     * cells. When the log is full all cells are damaged instead.
+     */
+    void scroll(int y1, int y2, int numLines, boolean up) {
+        y1 = Math.max(y1, 0);
+        y2 = Math.min(y2, rows);
+        int height = y2 - y1;
+        if ((height <= 0) || (numLines <= 0)) {
+            return;
+        }
+        if (!scrolls.add(y1, y2, numLines, up)) {
+            setAll();
+            return;
+        }
+        numLines = Math.min(numLines, height);
+        // rotate rows of the region, up is a rotation to the left:
+        int shift = up ? numLines : (height - numLines);
+        reverse(y1, y1 + shift);
+        reverse(y1 + shift, y2);
+        reverse(y1, y2);
+
+        int newStart = up ? (y2 - numLines) : y1;
+        for (int y = newStart; y < newStart + numLines; y++) {
+            Arrays.fill(changed[y], -1L);
+            dirtyMin[y] = 0;
+            dirtyMax[y] = columns - 1;
+        }
+        for (int y = y1; y < y2; y++) {
+            if (dirtyMax[y] >= 0) {
+                dirtyRows[y >>> 6] |= (1L << y);
+            } else {
+                dirtyRows[y >>> 6] &= ~(1L << y);
+            }
+        }
+    }
+
+    private void reverse(int y1, int y2) {
+        for (int i = y1, j = y2 - 1; i < j; i++, j--) {
+            long[] bits = changed[i];
+            changed[i] = changed[j];
+            changed[j] = bits;
+            int min = dirtyMin[i];
+            dirtyMin[i] = dirtyMin[j];
+            dirtyMin[j] = min;
+            int max = dirtyMax[i];
+            dirtyMax[i] = dirtyMax[j];
+            dirtyMax[j] = max;
+        }
+    }
+
+    /**
+     * Scrolls since the last frame, the renderer clears the log after moving the rendered rows.
+     */
+    ScrollLog scrolls() {
+        return scrolls;
+    }
+
+    /**
+     * Add changed bits of row y with bounds [min,max].
+     */
+    void add(int y, long[] bits, int min, int max) {
+        if ((y >= rows) || (max < min)) {
+            return;
+        }
+        long[] row = changed[y];
+        int last = Math.min(max >>> 6, row.length - 1);
+        for (int i = min >>> 6; i <= last; i++) {
+            row[i] |= bits[i];
+        }
+        dirtyMin[y] = Math.min(dirtyMin[y], min);
+        dirtyMax[y] = Math.max(dirtyMax[y], Math.min(max, columns - 1));
+        dirtyRows[y >>> 6] |= (1L << y);
+    }
+
+    void set(int x, int y) {
+        if ((x < 0) || (x >= columns) || (y < 0) || (y >= rows)) {
+            return;
+        }
+        changed[y][x >>> 6] |= (1L << x);
+        dirtyMin[y] = Math.min(dirtyMin[y], x);
+        dirtyMax[y] = Math.max(dirtyMax[y], x);
+        dirtyRows[y >>> 6] |= (1L << y);
+    }
+
+    /**
+     * Clear changed bit, the lower bound is advanced when cells are cleared from left to right.
+     */
+    void clear(int x, int y) {
+        if ((x < 0) || (x >= columns) || (y < 0) || (y >= rows)) {
+            return;
+        }
+        changed[y][x >>> 6] &= ~(1L << x);
+        if (x == dirtyMin[y]) {
+            int next = nextChanged(x + 1, y, dirtyMax[y] + 1);
+            if (next < 0) {
+                dirtyMin[y] = Integer.MAX_VALUE;
+                dirtyMax[y] = -1;
+                dirtyRows[y >>> 6] &= ~(1L << y);
+            } else {
+                dirtyMin[y] = next;
+            }
+        }
+    }
+
+    boolean isChanged(int x, int y) {
+        return (changed[y][x >>> 6] & (1L << x)) != 0;
+    }
+
+    /**
+     * Returns first row &gt;= y with changed cells or -1.
+     */
+    int nextDirtyRow(int y) {
+        while ((y >= 0) && (y < rows)) {
+            long word = dirtyRows[y >>> 6] & (-1L << y);
+            if (word != 0) {
+                int next = ((y >>> 6) << 6) + Long.numberOfTrailingZeros(word);
+                return (next < rows) ? next : -1;
+            }
+            y = ((y >>> 6) + 1) << 6;
+        }
+        return -1;
+    }
+
+    /**
+     * First possibly changed column of row y, Integer.MAX_VALUE if the row is clean.
+     */
+    int dirtyStart(int y) {
+        return dirtyMin[y];
+    }
+
+    /**
+     * End (exclusive) of the possibly changed columns of row y, 0 if the row is clean.
+     */
+    int dirtyEnd(int y) {
+        return dirtyMax[y] + 1;
+    }
+
+    /**
+     * Returns first changed column in [x,end) of row y or -1.
+     */
+    int nextChanged(int x, int y, int end) {
+        if (end > columns) {
+            end = columns;
+        }
+        long[] row = changed[y];
+        while (x < end) {
+            long word = row[x >>> 6] & (-1L << x);
+            if (word != 0) {
+                int next = ((x >>> 6) << 6) + Long.numberOfTrailingZeros(word);
+                return (next < end) ? next : -1;
+            }
+            x = ((x >>> 6) + 1) << 6;
+        }
+        return -1;
+    }
+
+}
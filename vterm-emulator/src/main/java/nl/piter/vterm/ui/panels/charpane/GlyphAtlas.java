@@ -0,0 +1,343 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Bounded cache of rendered glyphs. A glyph is drawn once as a coverage mask into a slot of one shared gray
+ * image, cells are drawn by blending the mask in the foreground color into the target image instead of
+ * calling drawString() for every cell. The least recently used glyph is evicted when all slots are in use.
+ * <p>
+ * A glyph is keyed by code point, font (bold/italic) and whether it is from the graphics charset. Slots are
+ * two cells wide with a margin, so italic glyphs can lean into the next cell like drawString() does.
+ * Not thread safe: used by the render thread.
+ */
+final class GlyphAtlas {
+
+    public static final int DEFAULT_CAPACITY = 2048;
+    // slot margin around the cell:
+    private static final int MARGIN = 2;
+    private static final int SLOTS_PER_ROW = 32;
+    private static final int NONE = -1;
+
+    private final int cellWidth;
+    private final int lineHeight;
+    private final int slotWidth;
+    private final int slotHeight;
+    private final int capacity;
+    private final BufferedImage image;
+    private final byte[] masks;
+    private final int scanline;
+
+    // open addressing hash table: key -> slot, NONE=empty
+    private final int[] table;
+    private final int[] slotKeys;
+    // bounds of the drawn pixels in a slot, relative to the slot:
+    private final int[] inkX;
+    private final int[] inkY;
+    private final int[] inkWidth;
+    private final int[] inkHeight;
+    // LRU list of slots: head is most recently used
+    private final int[] prev;
+    private final int[] next;
+    private int head = NONE;
+    private int tail = NONE;
+    private int size;
+
+    private long numHits;
+    private long numMisses;
+    private long numEvictions;
+
+    GlyphAtlas(int cellWidth, int lineHeight, int capacity) {
+        this.cellWidth = cellWidth;
+        this.lineHeight = lineHeight;
+        this.capacity = Math.max(capacity, 1);
+        this.slotWidth = 2 * cellWidth + 2 * MARGIN;
+        this.slotHeight = lineHeight + 2 * MARGIN;
+        int columns = Math.min(this.capacity, SLOTS_PER_ROW);
+        int rows = (this.capacity + SLOTS_PER_ROW - 1) / SLOTS_PER_ROW;
+        this.image = new BufferedImage(columns * slotWidth, rows * slotHeight, BufferedImage.TYPE_BYTE_GRAY);
+        this.masks = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        this.scanline = image.getWidth();
+
+        int tableSize = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+        this.table = new int[tableSize];
+        Arrays.fill(table, NONE);
+        this.slotKeys = new int[this.capacity];
+        this.inkX = new int[this.capacity];
+        this.inkY = new int[this.capacity];
+        this.inkWidth = new int[this.capacity];
+        this.inkHeight = new int[this.capacity];
+        this.prev = new int[this.capacity];
+        this.next = new int[this.capacity];
+    }
+
+    /**
+     * Glyph key: code point, font style index (0-3) and graphics charset.
+     */
+    static int key(int codePoint, int fontIndex, boolean graphics) {
+        return codePoint | (fontIndex << 21) | (graphics ? (1 << 23) : 0);
+    }
+
+    boolean hasMetrics(int cellWidth, int lineHeight) {
+        return (this.cellWidth == cellWidth) && (this.lineHeight == lineHeight);
+    }
+
+    /**
+     * Returns slot of the cached glyph or -1.
+     */
+    int get(int key) {
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        while (table[index] != NONE) {
+            int slot = table[index];
+            if (slotKeys[slot] == key) {
+                numHits++;
+                touch(slot);
+                return slot;
+            }
+            index = (index + 1) & mask;
+        }
+        numMisses++;
+        return NONE;
+    }
+
+    /**
+     * Draw the glyph of a key which isn't cached, evicts the least recently used glyph if the atlas is full.
+     *
+     * @param baseline baseline offset from the top of the cell.
+     * @return slot of the glyph.
+     */
+    int put(int key, String text, Font font, int baseline, Map<RenderingHints.Key, ?> hints) {
+        int slot;
+        if (size < capacity) {
+            slot = size++;
+        } else {
+            slot = tail;
+            numEvictions++;
+            remove(slotKeys[slot]);
+            unlink(slot);
+        }
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        while (table[index] != NONE) {
+            index = (index + 1) & mask;
+        }
+        table[index] = slot;
+        slotKeys[slot] = key;
+        linkFirst(slot);
+        drawMask(slot, text, font, baseline, hints);
+        return slot;
+    }
+
+    /**
+     * Blend the mask of the slot in color fg into the ARGB target, with the cell at xpos,ypos.
+     * Pixels are updated through the data buffer, which keeps the target a managed image.
+     */
+    void composite(int slot, BufferedImage target, int xpos, int ypos, Color fg) {
+        // only the drawn pixels:
+        int left = xpos - MARGIN + inkX[slot];
+        int top = ypos - MARGIN + inkY[slot];
+        int x0 = Math.max(left, 0);
+        int y0 = Math.max(top, 0);
+        int x1 = Math.min(left + inkWidth[slot], target.getWidth());
+        int y1 = Math.min(top + inkHeight[slot], target.getHeight());
+        if ((x1 <= x0) || (y1 <= y0)) {
+            return;
+        }
+        WritableRaster raster = target.getRaster();
+        DataBuffer pixels = raster.getDataBuffer();
+        int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        int rgb = fg.getRGB() & 0xffffff;
+        int fgAlpha = fg.getAlpha();
+        int slotOffset = (slot / SLOTS_PER_ROW) * slotHeight * scanline + (slot % SLOTS_PER_ROW) * slotWidth;
+        for (int y = y0; y < y1; y++) {
+            int m = slotOffset + (y - ypos + MARGIN) * scanline + (x0 - xpos + MARGIN);
+            int p = y * stride + x0;
+            for (int x = x0; x < x1; x++, m++, p++) {
+                int coverage = masks[m] & 0xff;
+                if (coverage != 0) {
+                    pixels.setElem(p, blend(pixels.getElem(p), rgb, (coverage * fgAlpha + 127) / 255));
+                }
+            }
+        }
+    }
+
+    /**
+     * Source over for non-premultiplied ARGB.
+     */
+    static int blend(int dst, int rgb, int alpha) {
+        if (alpha >= 255) {
+            return 0xff000000 | rgb;
+        }
+        if (alpha <= 0) {
+            return dst;
+        }
+        int dstAlpha = dst >>> 24;
+        if (dstAlpha == 255) {
+            // opaque background, the common case:
+            int inverse = 255 - alpha;
+            int r = div255(((rgb >> 16) & 0xff) * alpha + ((dst >> 16) & 0xff) * inverse);
+            int g = div255(((rgb >> 8) & 0xff) * alpha + ((dst >> 8) & 0xff) * inverse);
+            int b = div255((rgb & 0xff) * alpha + (dst & 0xff) * inverse);
+            return 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+        int dstWeight = dstAlpha * (255 - alpha) / 255;
+        int outAlpha = alpha + dstWeight;
+        int r = (((rgb >> 16) & 0xff) * alpha + ((dst >> 16) & 0xff) * dstWeight) / outAlpha;
+        int g = (((rgb >> 8) & 0xff) * alpha + ((dst >> 8) & 0xff) * dstWeight) / outAlpha;
+        int b = ((rgb & 0xff) * alpha + (dst & 0xff) * dstWeight) / outAlpha;
+        return (outAlpha << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Rounded x/255 for x in [0,255*255].
+     */
+    private static int div255(int x) {
+        x += 128;
+        return (x + (x >> 8)) >> 8;
+    }
+
+    private void drawMask(int slot, String text, Font font, int baseline, Map<RenderingHints.Key, ?> hints) {
+        int sx = (slot % SLOTS_PER_ROW) * slotWidth;
+        int sy = (slot / SLOTS_PER_ROW) * slotHeight;
+        Graphics2D graphics = image.createGraphics();
+        graphics.setClip(sx, sy, slotWidth, slotHeight);
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(sx, sy, slotWidth, slotHeight);
+        if (hints != null) {
+            graphics.setRenderingHints(hints);
+        }
+        graphics.setColor(Color.WHITE);
+        graphics.setFont(font);
+        graphics.drawString(text, sx + MARGIN, sy + MARGIN + baseline);
+        graphics.dispose();
+        updateInk(slot, sx, sy);
+    }
+
+    private void updateInk(int slot, int sx, int sy) {
+        int minX = slotWidth;
+        int minY = slotHeight;
+        int maxX = -1;
+        int maxY = -1;
+        for (int y = 0; y < slotHeight; y++) {
+            int offset = (sy + y) * scanline + sx;
+            for (int x = 0; x < slotWidth; x++) {
+                if (masks[offset + x] != 0) {
+                    minX = Math.min(minX, x);
+                    maxX = Math.max(maxX, x);
+                    minY = Math.min(minY, y);
+                    maxY = y;
+                }
+            }
+        }
+        inkX[slot] = minX;
+        inkY[slot] = minY;
+        inkWidth[slot] = Math.max(0, maxX - minX + 1);
+        inkHeight[slot] = Math.max(0, maxY - minY + 1);
+    }
+
+    private static int hash(int key) {
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Remove key from the hash table, following entries are shifted back to keep the probe sequences intact.
+     */
+    private void remove(int key) {
+        int mask = table.length - 1;
+        int index = hash(key) & mask;
+        while (slotKeys[table[index]] != key) {
+            index = (index + 1) & mask;
+        }
+        int free = index;
+        index = (index + 1) & mask;
+        while (table[index] != NONE) {
+            int home = hash(slotKeys[table[index]]) & mask;
+            // move entry back if its home isn't in (free,index]:
+            if (((index - home) & mask) >= ((index - free) & mask)) {
+                table[free] = table[index];
+                free = index;
+            }
+            index = (index + 1) & mask;
+        }
+        table[free] = NONE;
+    }
+
+    private void touch(int slot) {
+        if (slot != head) {
+            unlink(slot);
+            linkFirst(slot);
+        }
+    }
+
+    private void linkFirst(int slot) {
+        prev[slot] = NONE;
+        next[slot] = head;
+        if (head != NONE) {
+            prev[head] = slot;
+        }
+        head = slot;
+        if (tail == NONE) {
+            tail = slot;
+        }
+    }
+
+    private void unlink(int slot) {
+        if (prev[slot] != NONE) {
+            next[prev[slot]] = next[slot];
+        } else {
+            head = next[slot];
+        }
+        if (next[slot] != NONE) {
+            prev[next[slot]] = prev[slot];
+        } else {
+            tail = prev[slot];
+        }
+    }
+
+    /**
+     * Drop all glyphs, for example after the font has been changed. The counters are kept.
+     */
+    void clear() {
+        Arrays.fill(table, NONE);
+        head = NONE;
+        tail = NONE;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    long getNumHits() {
+        return numHits;
+    }
+
+    long getNumMisses() {
+        return numMisses;
+    }
+
+    long getNumEvictions() {
+        return numEvictions;
+    }
+
+}
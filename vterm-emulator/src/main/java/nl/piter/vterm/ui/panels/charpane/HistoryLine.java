@@ -0,0 +1,402 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.emulator.Utf8Decoder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact immutable line in the scrollback history.
+ * Trailing blanks are trimmed and styles are stored as runs: run i covers columns [runEnds[i-1],runEnds[i]).
+ * Columns after the last glyph are blank, columns after the last run have the default style.
+ * A soft wrapped line continues on the next line and isn't trimmed, so a logical line can be rebuilt by
+ * joining the lines, see Reflow.
+ * Grapheme clusters are stored with the line: a cluster glyph refers to the line's own cluster array, so the
+ * terminal's ClusterTable doesn't have to keep clusters which have been scrolled off.
+ */
+final class HistoryLine {
+
+    private static final int[] NO_GLYPHS = new int[0];
+    private static final int[] NO_RUN_ENDS = new int[0];
+    private static final long[] NO_RUN_STYLES = new long[0];
+    private static final int WRAPPED_BIT = 1 << 31;
+    private static final int CLUSTERS_BIT = 1 << 30;
+
+    private final int[] glyphs;
+    private final int[] runEnds;
+    private final long[] runStyles;
+    private final boolean wrapped;
+    // line local clusters, null if none
+    private final String[] clusters;
+
+    HistoryLine(int[] glyphs, int[] runEnds, long[] runStyles, boolean wrapped) {
+        this(glyphs, runEnds, runStyles, wrapped, null);
+    }
+
+    HistoryLine(int[] glyphs, int[] runEnds, long[] runStyles, boolean wrapped, String[] clusters) {
+        this.glyphs = glyphs;
+        this.runEnds = runEnds;
+        this.runStyles = runStyles;
+        this.wrapped = wrapped;
+        this.clusters = clusters;
+    }
+
+    static HistoryLine encode(TextRow row, StylePalette palette) {
+        return encode(row, palette, null);
+    }
+
+    /**
+     * Encode row of interned style ids: runs are found by id, only run styles are resolved.
+     * Cluster glyphs of the row refer to the cluster table.
+     */
+    static HistoryLine encode(TextRow row, StylePalette palette, ClusterTable table) {
+        int width = row.length();
+        int[] rowIds = row.styleIds;
+        // trailing default style is implicit:
+        int styledWidth = width;
+        while ((styledWidth > 0) && (rowIds[styledWidth - 1] == StylePalette.DEFAULT_ID)) {
+            styledWidth--;
+        }
+
+        int numRuns = 0;
+        for (int x = 0; x < styledWidth; x++) {
+            if ((x == 0) || (rowIds[x] != rowIds[x - 1])) {
+                numRuns++;
+            }
+        }
+
+        int[] glyphs = copyGlyphs(row.glyphs, 0, width, row.wrapped);
+        String[] clusters = localClusters(glyphs, table);
+        if (numRuns == 0) {
+            return new HistoryLine(glyphs, NO_RUN_ENDS, NO_RUN_STYLES, row.wrapped, clusters);
+        }
+
+        int[] runEnds = new int[numRuns];
+        long[] runStyles = new long[numRuns];
+        int run = -1;
+        for (int x = 0; x < styledWidth; x++) {
+            if ((x == 0) || (rowIds[x] != rowIds[x - 1])) {
+                run++;
+                runStyles[run] = palette.style(rowIds[x]);
+            }
+            runEnds[run] = x + 1;
+        }
+        return new HistoryLine(glyphs, runEnds, runStyles, row.wrapped, clusters);
+    }
+
+    /**
+     * Replace cluster glyphs by indices into a new line local cluster array.
+     *
+     * @return the line clusters or null if there are none.
+     */
+    private static String[] localClusters(int[] glyphs, ClusterTable table) {
+        String[] clusters = null;
+        int size = 0;
+        for (int x = 0; x < glyphs.length; x++) {
+            int glyph = glyphs[x];
+            if (!PackedCell.isCluster(glyph)) {
+                continue;
+            }
+            if (table == null) {
+                glyphs[x] = PackedCell.glyph(Utf8Decoder.REPLACEMENT_CHAR, PackedCell.charSet(glyph));
+                continue;
+            }
+            String cluster = table.get(PackedCell.clusterId(glyph));
+            int index = 0;
+            while ((index < size) && (!clusters[index].equals(cluster))) {
+                index++;
+            }
+            if (index == size) {
+                if (clusters == null) {
+                    clusters = new String[4];
+                } else if (size == clusters.length) {
+                    clusters = Arrays.copyOf(clusters, size * 2);
+                }
+                clusters[size++] = cluster;
+            }
+            glyphs[x] = PackedCell.clusterGlyph(index, glyph);
+        }
+        return (clusters == null) ? null : Arrays.copyOf(clusters, size);
+    }
+
+    /**
+     * Copy glyphs [offset,offset+width), trailing blanks are trimmed unless the line is wrapped.
+     */
+    private static int[] copyGlyphs(int[] rowGlyphs, int offset, int width, boolean wrapped) {
+        int length = width;
+        while ((!wrapped) && (length > 0) && (rowGlyphs[offset + length - 1] == PackedCell.BLANK)) {
+            length--;
+        }
+        int[] glyphs = (length == 0) ? NO_GLYPHS : new int[length];
+        System.arraycopy(rowGlyphs, offset, glyphs, 0, length);
+        return glyphs;
+    }
+
+    static HistoryLine encode(int[] rowGlyphs, long[] rowStyles, int width) {
+        return encode(rowGlyphs, rowStyles, 0, width, false, null);
+    }
+
+    static HistoryLine encode(int[] rowGlyphs, long[] rowStyles, int offset, int width, boolean wrapped) {
+        return encode(rowGlyphs, rowStyles, offset, width, wrapped, null);
+    }
+
+    /**
+     * Encode cells [offset,offset+width) of packed glyph and style words, cluster glyphs refer to the
+     * cluster table.
+     */
+    static HistoryLine encode(int[] rowGlyphs, long[] rowStyles, int offset, int width, boolean wrapped,
+                              ClusterTable table) {
+        int end = offset + width;
+        // trailing default style is implicit:
+        int styledEnd = end;
+        while ((styledEnd > offset) && (rowStyles[styledEnd - 1] == PackedCell.DEFAULT_STYLE)) {
+            styledEnd--;
+        }
+
+        int numRuns = 0;
+        for (int x = offset; x < styledEnd; x++) {
+            if ((x == offset) || (rowStyles[x] != rowStyles[x - 1])) {
+                numRuns++;
+            }
+        }
+
+        int[] glyphs = copyGlyphs(rowGlyphs, offset, width, wrapped);
+        String[] clusters = localClusters(glyphs, table);
+        if (numRuns == 0) {
+            return new HistoryLine(glyphs, NO_RUN_ENDS, NO_RUN_STYLES, wrapped, clusters);
+        }
+
+        int[] runEnds = new int[numRuns];
+        long[] runStyles = new long[numRuns];
+        int run = -1;
+        for (int x = offset; x < styledEnd; x++) {
+            if ((x == offset) || (rowStyles[x] != rowStyles[x - 1])) {
+                run++;
+                runStyles[run] = rowStyles[x];
+            }
+            runEnds[run] = x - offset + 1;
+        }
+        return new HistoryLine(glyphs, runEnds, runStyles, wrapped, clusters);
+    }
+
+    /**
+     * Number of glyphs after trimming trailing blanks.
+     */
+    int length() {
+        return glyphs.length;
+    }
+
+    int getGlyph(int x) {
+        return (x < glyphs.length) ? glyphs[x] : PackedCell.BLANK;
+    }
+
+    long getStyle(int x) {
+        for (int i = 0; i < runEnds.length; i++) {
+            if (x < runEnds[i]) {
+                return runStyles[i];
+            }
+        }
+        return PackedCell.DEFAULT_STYLE;
+    }
+
+    /**
+     * Glyph words, not a copy: the line is immutable.
+     */
+    int[] glyphs() {
+        return glyphs;
+    }
+
+    /**
+     * Line local clusters, indexed by the cluster id of a glyph, or null.
+     */
+    String[] clusters() {
+        return clusters;
+    }
+
+    /**
+     * Text of cluster glyph of this line.
+     */
+    String cluster(int glyph) {
+        return clusters[PackedCell.clusterId(glyph)];
+    }
+
+    int numRuns() {
+        return runEnds.length;
+    }
+
+    /**
+     * Whether this line continues on the next line.
+     */
+    boolean isWrapped() {
+        return wrapped;
+    }
+
+    /**
+     * Number of cells with a glyph or a style: length() or the end of the last style run.
+     */
+    int extent() {
+        return (runEnds.length == 0) ? glyphs.length : Math.max(glyphs.length, runEnds[runEnds.length - 1]);
+    }
+
+    /**
+     * Glyph and style words of columns [0,width) for rendering: blanks and the default style past the stored
+     * cells. Cluster glyphs refer to clusters().
+     */
+    void unpack(int[] destGlyphs, long[] destStyles, int width) {
+        int numGlyphs = Math.min(width, glyphs.length);
+        System.arraycopy(glyphs, 0, destGlyphs, 0, numGlyphs);
+        Arrays.fill(destGlyphs, numGlyphs, width, PackedCell.BLANK);
+        int x = 0;
+        for (int i = 0; (i < runEnds.length) && (x < width); i++) {
+            int end = Math.min(runEnds[i], width);
+            Arrays.fill(destStyles, x, end, runStyles[i]);
+            x = end;
+        }
+        Arrays.fill(destStyles, x, width, PackedCell.DEFAULT_STYLE);
+    }
+
+    void copyTo(int[] destGlyphs, long[] destStyles, int offset) {
+        copyTo(destGlyphs, destStyles, offset, null);
+    }
+
+    /**
+     * Unpack cells [0,extent()) into glyph and style words at offset. Clusters are interned in the cluster
+     * table, without table they are replaced by the replacement character.
+     */
+    void copyTo(int[] destGlyphs, long[] destStyles, int offset, ClusterTable table) {
+        int extent = extent();
+        System.arraycopy(glyphs, 0, destGlyphs, offset, glyphs.length);
+        if (clusters != null) {
+            for (int x = 0; x < glyphs.length; x++) {
+                int glyph = glyphs[x];
+                if (PackedCell.isCluster(glyph)) {
+                    destGlyphs[offset + x] = (table == null) ?
+                            PackedCell.glyph(Utf8Decoder.REPLACEMENT_CHAR, PackedCell.charSet(glyph)) :
+                            table.glyph(cluster(glyph), PackedCell.charSet(glyph));
+                }
+            }
+        }
+        for (int x = glyphs.length; x < extent; x++) {
+            destGlyphs[offset + x] = PackedCell.BLANK;
+        }
+        int x = 0;
+        for (int i = 0; i < runEnds.length; i++) {
+            for (; x < runEnds[i]; x++) {
+                destStyles[offset + x] = runStyles[i];
+            }
+        }
+        for (; x < extent; x++) {
+            destStyles[offset + x] = PackedCell.DEFAULT_STYLE;
+        }
+    }
+
+    /**
+     * Size in bytes of the serialized line, see writeTo().
+     */
+    int encodedSize() {
+        int size = 8 + 4 * glyphs.length + 12 * runEnds.length;
+        if (clusters != null) {
+            size += 4;
+            for (String cluster : clusters) {
+                size += 4 + 2 * cluster.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Serialize as: length (bit 31: wrapped, bit 30: has clusters), number of runs, glyphs, run ends,
+     * run styles and, if present, the number of clusters followed by length and chars of each cluster.
+     */
+    void writeTo(ByteBuffer buffer) {
+        int header = glyphs.length;
+        if (wrapped) {
+            header |= WRAPPED_BIT;
+        }
+        if (clusters != null) {
+            header |= CLUSTERS_BIT;
+        }
+        buffer.putInt(header);
+        buffer.putInt(runEnds.length);
+        for (int glyph : glyphs) {
+            buffer.putInt(glyph);
+        }
+        for (int runEnd : runEnds) {
+            buffer.putInt(runEnd);
+        }
+        for (long runStyle : runStyles) {
+            buffer.putLong(runStyle);
+        }
+        if (clusters != null) {
+            buffer.putInt(clusters.length);
+            for (String cluster : clusters) {
+                buffer.putInt(cluster.length());
+                for (int i = 0; i < cluster.length(); i++) {
+                    buffer.putChar(cluster.charAt(i));
+                }
+            }
+        }
+    }
+
+    static HistoryLine readFrom(ByteBuffer buffer) {
+        int header = buffer.getInt();
+        boolean wrapped = (header & WRAPPED_BIT) != 0;
+        boolean hasClusters = (header & CLUSTERS_BIT) != 0;
+        int length = header & ~(WRAPPED_BIT | CLUSTERS_BIT);
+        int numRuns = buffer.getInt();
+        int[] glyphs = (length == 0) ? NO_GLYPHS : new int[length];
+        for (int i = 0; i < length; i++) {
+            glyphs[i] = buffer.getInt();
+        }
+        int[] runEnds = (numRuns == 0) ? NO_RUN_ENDS : new int[numRuns];
+        long[] runStyles = (numRuns == 0) ? NO_RUN_STYLES : new long[numRuns];
+        for (int i = 0; i < numRuns; i++) {
+            runEnds[i] = buffer.getInt();
+        }
+        for (int i = 0; i < numRuns; i++) {
+            runStyles[i] = buffer.getLong();
+        }
+        String[] clusters = null;
+        if (hasClusters) {
+            clusters = new String[buffer.getInt()];
+            for (int i = 0; i < clusters.length; i++) {
+                char[] chars = new char[buffer.getInt()];
+                for (int j = 0; j < chars.length; j++) {
+                    chars[j] = buffer.getChar();
+                }
+                clusters[i] = new String(chars);
+            }
+        }
+        return new HistoryLine(glyphs, runEnds, runStyles, wrapped, clusters);
+    }
+
+    /**
+     * Estimated heap size in bytes, assuming 12 byte object and 16 byte array headers. Shared empty arrays
+     * are not included.
+     */
+    long estimatedSize() {
+        long size = 12 + 4 * 4 + 1;
+        if (glyphs.length > 0) {
+            size += 16 + 4L * glyphs.length;
+        }
+        if (runEnds.length > 0) {
+            size += 16 + 4L * runEnds.length + 16 + 8L * runStyles.length;
+        }
+        if (clusters != null) {
+            size += 16 + 4L * clusters.length;
+            for (String cluster : clusters) {
+                // String object + byte[] (latin1) or char[] (utf-16) value
+                size += 24 + 16 + 2L * cluster.length();
+            }
+        }
+        return size;
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import lombok.extern.slf4j.Slf4j;
+import nl.piter.vterm.exec.ActionTask;
+
+/**
+ * Background reflow of the scrollback history after a width change.
+ * Works on a copy of the heap window, so the emulator can keep adding lines. The result is swapped in at
+ * once, a newer resize stops the task. Lines in the overflow file keep their width.
+ */
+@Slf4j
+class HistoryReflowTask extends ActionTask {
+
+    private final ScrollbackBuffer history;
+    private final int newColumns;
+    private final Runnable whenDone;
+    private volatile boolean stopped;
+
+    HistoryReflowTask(ScrollbackBuffer history, int newColumns, Runnable whenDone) {
+        super(history, "HistoryReflow");
+        this.history = history;
+        this.newColumns = newColumns;
+        this.whenDone = whenDone;
+    }
+
+    @Override
+    public void doTask() {
+        long start = System.currentTimeMillis();
+        HistoryLine[] source;
+        long sourceRemoved;
+        synchronized (history) {
+            source = history.heapLines();
+            sourceRemoved = history.getTotalRemoved();
+        }
+        Reflow.History reflowed = Reflow.reflowHistory(source, newColumns, () -> stopped);
+        if (reflowed == null) {
+            log.debug("doTask(): reflow to {} columns stopped", newColumns);
+            return;
+        }
+        synchronized (history) {
+            if (stopped) {
+                return;
+            }
+            if (!history.replaceReflowed(source, sourceRemoved, reflowed)) {
+                log.debug("doTask(): history replaced while reflowing, skipping reflow");
+                return;
+            }
+        }
+        log.debug("doTask(): reflowed {} history lines to {} lines of {} columns in {}ms", source.length,
+                reflowed.lines.size(), newColumns, System.currentTimeMillis() - start);
+        whenDone.run();
+    }
+
+    @Override
+    public void stopTask() {
+        this.stopped = true;
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.function.BiConsumer;
+
+/**
+ * Compaction of the ids of an interning table shared by the text buffers, see StylePalette and ClusterTable:
+ * drops the ids not used by any cell and renumbers the others in order.
+ * Guarded by the lock of the table, except sequence() which is read by ScreenSnapshot readers.
+ */
+final class IdCompaction {
+
+    /**
+     * Replaces the entries of the table: entry id moves to remap[id], -1 if it is dropped.
+     */
+    interface Renumbering {
+        void renumber(int[] remap, int newSize);
+    }
+
+    private final int minThreshold;
+    private int threshold;
+    // odd while compacting, see TextBuffer.snapshot()
+    private volatile int sequence;
+
+    IdCompaction(int threshold, int minThreshold) {
+        this.minThreshold = minThreshold;
+        this.threshold = Math.max(threshold, minThreshold);
+    }
+
+    int sequence() {
+        return sequence;
+    }
+
+    boolean isNeeded(int size) {
+        return size >= threshold;
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = Math.max(threshold, minThreshold);
+    }
+
+    /**
+     * @param used     ids which are always kept, filled in with the ids used by the buffers.
+     * @param markIds  marks the ids used by a buffer.
+     * @param remapIds renumbers the ids of a buffer.
+     * @return number of dropped ids.
+     */
+    int compact(int size, boolean[] used, TextBuffer[] buffers, BiConsumer<TextBuffer, boolean[]> markIds,
+                Renumbering renumbering, BiConsumer<TextBuffer, int[]> remapIds) {
+        sequence++;
+        try {
+            for (TextBuffer buffer : buffers) {
+                if (buffer != null) {
+                    markIds.accept(buffer, used);
+                }
+            }
+            int[] remap = new int[size];
+            int newSize = 0;
+            for (int id = 0; id < size; id++) {
+                remap[id] = used[id] ? newSize++ : -1;
+            }
+            renumbering.renumber(remap, newSize);
+            for (TextBuffer buffer : buffers) {
+                if (buffer != null) {
+                    remapIds.accept(buffer, remap);
+                }
+            }
+            // avoid compacting again soon when most ids are in use:
+            if (newSize * 2 > threshold) {
+                threshold = newSize * 2;
+            }
+            return size - newSize;
+        } finally {
+            sequence++;
+        }
+    }
+
+}
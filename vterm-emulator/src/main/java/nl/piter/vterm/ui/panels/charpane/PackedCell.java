@@ -0,0 +1,227 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TermConst;
+import nl.piter.vterm.emulator.Utf8Decoder;
+import nl.piter.vterm.emulator.Util;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Packed cell format of the TextBuffer: one int glyph word and one long style word per cell.
+ * <pre>
+ * glyph word: bits  0-20 code point, values from 0x110000 are grapheme cluster ids (see ClusterTable)
+ *             bits 24-27 charset ordinal+1, 0=none (inherit)
+ * style word: bits  0-13 style flags (StyleChar.STYLE_*)
+ *             bits 14-38 foreground color
+ *             bits 39-63 background color
+ * color:      bit 24 set: 24-bit RGB in bits 0-23, otherwise color index+1 in bits 0-8, 0=default.
+ * </pre>
+ * A custom (RGB) color overrides the color index as in StyleChar, so only one of both is stored.
+ * The all zero style word is the default style.
+ */
+public final class PackedCell {
+
+    public static final long DEFAULT_STYLE = 0L;
+
+    public static final int BLANK = ' ';
+
+    private static final int CODE_POINT_MASK = 0x1fffff;
+    // code point values beyond unicode refer to a grapheme cluster:
+    private static final int CLUSTER_BASE = 0x110000;
+    public static final int MAX_CLUSTER_ID = CODE_POINT_MASK - CLUSTER_BASE;
+    private static final int CHARSET_SHIFT = 24;
+    private static final int CHARSET_MASK = 0x0f;
+
+    private static final int STYLE_MASK = 0x3fff;
+    private static final int FG_SHIFT = 14;
+    private static final int BG_SHIFT = 39;
+    private static final long COLOR_MASK = 0x1ffffffL;
+    private static final int COLOR_RGB = 0x1000000;
+    private static final int INDEX_MASK = 0x1ff;
+
+    private static final TermConst.CharSet[] CHARSETS = TermConst.CharSet.values();
+
+    private PackedCell() {
+    }
+
+    // --- Glyph word --- //
+
+    public static int glyph(int codePoint, TermConst.CharSet charSet) {
+        int cs = (charSet == null) ? 0 : charSet.ordinal() + 1;
+        return (codePoint & CODE_POINT_MASK) | (cs << CHARSET_SHIFT);
+    }
+
+    public static int codePoint(int glyph) {
+        return glyph & CODE_POINT_MASK;
+    }
+
+    public static boolean isCluster(int glyph) {
+        return (glyph & CODE_POINT_MASK) >= CLUSTER_BASE;
+    }
+
+    public static int clusterId(int glyph) {
+        return (glyph & CODE_POINT_MASK) - CLUSTER_BASE;
+    }
+
+    /**
+     * Glyph word of cluster id, with the charset of glyph.
+     */
+    public static int clusterGlyph(int clusterId, int glyph) {
+        return (glyph & ~CODE_POINT_MASK) | (CLUSTER_BASE + clusterId);
+    }
+
+    /**
+     * @return charset or null if not set.
+     */
+    public static TermConst.CharSet charSet(int glyph) {
+        int cs = (glyph >>> CHARSET_SHIFT) & CHARSET_MASK;
+        return (cs == 0) ? null : CHARSETS[cs - 1];
+    }
+
+    public static boolean isGraphics(int glyph) {
+        return charSet(glyph) == TermConst.CharSet.CHARSET_GRAPHICS;
+    }
+
+    /**
+     * Decode a single UTF-8 encoded character, returns the replacement character if not well-formed.
+     */
+    public static int decodeCodePoint(byte[] bytes, int offset, int length) {
+        if (length <= 0) {
+            return BLANK;
+        }
+        int len = Util.utf8Length(bytes[offset]);
+        if ((len > length) || (Utf8Decoder.sequenceLength(bytes, offset, offset + len) != len)) {
+            return Utf8Decoder.REPLACEMENT_CHAR;
+        }
+        return Utf8Decoder.codePointAt(bytes, offset);
+    }
+
+    // --- Style word --- //
+
+    public static long style(int style, int fgIndex, int bgIndex, Color customFg, Color customBg) {
+        return (style & STYLE_MASK)
+                | ((long) packColor(fgIndex, customFg) << FG_SHIFT)
+                | ((long) packColor(bgIndex, customBg) << BG_SHIFT);
+    }
+
+    private static int packColor(int index, Color custom) {
+        if (custom != null) {
+            return COLOR_RGB | (custom.getRGB() & 0xffffff);
+        }
+        if (index < 0) {
+            return 0;
+        }
+        return (index + 1) & INDEX_MASK;
+    }
+
+    public static int drawStyle(long style) {
+        return (int) (style & STYLE_MASK);
+    }
+
+    public static boolean hasStyle(long style, int styleFlag) {
+        return (style & styleFlag & STYLE_MASK) != 0;
+    }
+
+    public static int foreground(long style) {
+        return (int) ((style >>> FG_SHIFT) & COLOR_MASK);
+    }
+
+    public static int background(long style) {
+        return (int) ((style >>> BG_SHIFT) & COLOR_MASK);
+    }
+
+    public static long withForeground(long style, Color custom) {
+        return (style & ~(COLOR_MASK << FG_SHIFT)) | ((long) packColor(-1, custom) << FG_SHIFT);
+    }
+
+    /**
+     * @return color index of packed color, or -1 for default or RGB colors.
+     */
+    public static int colorIndex(int color) {
+        if ((color & COLOR_RGB) != 0) {
+            return -1;
+        }
+        return (color & INDEX_MASK) - 1;
+    }
+
+    public static boolean isRGB(int color) {
+        return (color & COLOR_RGB) != 0;
+    }
+
+    public static int rgb(int color) {
+        return color & 0xffffff;
+    }
+
+    // --- StyleChar adapter --- //
+
+    /**
+     * Fill StyleChar view from packed cell. Reuses Color objects of the view if they match.
+     * A cluster glyph is unpacked as replacement character, the owner of the cluster must set the text.
+     */
+    public static void unpack(int glyph, long style, StyleChar target) {
+        unpackGlyph(glyph, target);
+        target.style = drawStyle(style);
+        int fg = foreground(style);
+        int bg = background(style);
+        target.foregroundColor = colorIndex(fg);
+        target.backgroundColor = colorIndex(bg);
+        target.customForeground = unpackColor(fg, target.customForeground);
+        target.customBackground = unpackColor(bg, target.customBackground);
+        target.alpha = -1;
+    }
+
+    /**
+     * Set character and charset of the StyleChar view, the style is kept. A cluster glyph is unpacked as
+     * replacement character.
+     */
+    public static void unpackGlyph(int glyph, StyleChar target) {
+        target.setCodePoint(isCluster(glyph) ? Utf8Decoder.REPLACEMENT_CHAR : codePoint(glyph));
+        TermConst.CharSet charSet = charSet(glyph);
+        target.charSet = (charSet == null) ? null : charSet.toString();
+    }
+
+    private static Color unpackColor(int color, Color current) {
+        if (!isRGB(color)) {
+            return null;
+        }
+        int argb = 0xff000000 | rgb(color);
+        if ((current != null) && (current.getRGB() == argb)) {
+            return current;
+        }
+        return new Color(argb);
+    }
+
+    public static int packGlyph(StyleChar sChar) {
+        return packGlyph(sChar, null);
+    }
+
+    /**
+     * Pack glyph of StyleChar, a character of more than one code point is interned in the cluster table.
+     * Without table only the first code point is stored.
+     */
+    public static int packGlyph(StyleChar sChar, ClusterTable clusters) {
+        TermConst.CharSet charSet = null;
+        if (sChar.charSet != null) {
+            charSet = TermConst.CharSet.valueOf(sChar.charSet);
+        }
+        int len = Math.min(Util.utf8Length(sChar.charBytes[0]), sChar.numBytes);
+        if ((clusters != null) && (len < sChar.numBytes)) {
+            return clusters.glyph(new String(sChar.charBytes, 0, sChar.numBytes, StandardCharsets.UTF_8), charSet);
+        }
+        return glyph(decodeCodePoint(sChar.charBytes, 0, len), charSet);
+    }
+
+    public static long packStyle(StyleChar sChar) {
+        return style(sChar.style, sChar.foregroundColor, sChar.backgroundColor, sChar.customForeground,
+                sChar.customBackground);
+    }
+
+}
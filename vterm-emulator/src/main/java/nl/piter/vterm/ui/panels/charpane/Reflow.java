@@ -0,0 +1,166 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Rewrap logical lines at a new width. A logical line is a run of rows (or history lines) which are soft
+ * wrapped, ending with a row which isn't. Hard line breaks are kept, wrapped rows are joined and split again
+ * at the new width.
+ */
+final class Reflow {
+
+    // check for cancellation after this many logical lines:
+    private static final int CHUNK_SIZE = 256;
+
+    /**
+     * Reflowed screen rows and the new cursor position.
+     */
+    static final class Screen {
+        final List<TextRow> rows = new ArrayList<>();
+        int cursorX;
+        int cursorY;
+    }
+
+    /**
+     * Reflowed history lines. Per logical line the index of its first source line and of its first output
+     * line is kept, so lines removed from the source while reflowing can be mapped, see
+     * ScrollbackBuffer.replaceReflowed().
+     */
+    static final class History {
+        final List<HistoryLine> lines = new ArrayList<>();
+        int[] firstSource = new int[64];
+        int[] firstOutput = new int[64];
+        int numLogical;
+
+        void addLogical(int sourceIndex) {
+            if (numLogical == firstSource.length) {
+                firstSource = Arrays.copyOf(firstSource, numLogical * 2);
+                firstOutput = Arrays.copyOf(firstOutput, numLogical * 2);
+            }
+            firstSource[numLogical] = sourceIndex;
+            firstOutput[numLogical] = lines.size();
+            numLogical++;
+        }
+    }
+
+    private Reflow() {
+    }
+
+    /**
+     * Rewrap the used rows of the screen buffer: the rows up to the last non blank row or the cursor row,
+     * whichever comes last. New rows share the style palette of the buffer.
+     */
+    static Screen reflowScreen(TextBuffer buffer, int cursorX, int cursorY, int newColumns) {
+        int oldColumns = buffer.columns();
+        int used = Math.min(cursorY + 1, buffer.rows());
+        for (int y = buffer.rows() - 1; y >= used; y--) {
+            if ((buffer.getRow(y).extent() > 0) || buffer.getRow(y).wrapped) {
+                used = y + 1;
+                break;
+            }
+        }
+
+        Screen screen = new Screen();
+        int y = 0;
+        while (y < used) {
+            int start = y;
+            while ((y + 1 < used) && buffer.getRow(y).wrapped) {
+                y++;
+            }
+            int end = y++;
+            int length = (end - start) * oldColumns + buffer.getRow(end).extent();
+            int firstRow = screen.rows.size();
+            boolean hasCursor = (cursorY >= start) && (cursorY <= end);
+            if (hasCursor) {
+                int offset = (cursorY - start) * oldColumns + Math.min(cursorX, oldColumns - 1);
+                length = Math.max(length, offset + 1);
+                screen.cursorY = firstRow + offset / newColumns;
+                screen.cursorX = offset % newColumns;
+            }
+            int numRows = Math.max(1, (length + newColumns - 1) / newColumns);
+            for (int i = 0; i < numRows; i++) {
+                TextRow row = new TextRow(newColumns);
+                int offset = i * newColumns;
+                copyCells(buffer, start, oldColumns, offset, row, Math.min(newColumns, length - offset));
+                row.wrapped = (i < numRows - 1);
+                screen.rows.add(row);
+            }
+        }
+        return screen;
+    }
+
+    /**
+     * Copy len cells from logical line offset into row, the logical line starts at row 'start'.
+     */
+    private static void copyCells(TextBuffer buffer, int start, int oldColumns, int offset, TextRow dest, int len) {
+        int destX = 0;
+        while (len > 0) {
+            TextRow source = buffer.getRow(start + offset / oldColumns);
+            int sourceX = offset % oldColumns;
+            int n = Math.min(len, oldColumns - sourceX);
+            System.arraycopy(source.glyphs, sourceX, dest.glyphs, destX, n);
+            System.arraycopy(source.styleIds, sourceX, dest.styleIds, destX, n);
+            destX += n;
+            offset += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Rewrap history lines at the new width. Grapheme clusters stay line local: a scratch cluster table
+     * collects the clusters of each logical line.
+     *
+     * @param stopped polled between chunks of lines.
+     * @return reflowed lines or null if stopped.
+     */
+    static History reflowHistory(HistoryLine[] source, int newColumns, BooleanSupplier stopped) {
+        History history = new History();
+        int[] glyphs = new int[newColumns];
+        long[] styles = new long[newColumns];
+        ClusterTable clusters = new ClusterTable();
+        int index = 0;
+        while (index < source.length) {
+            if ((history.numLogical % CHUNK_SIZE == 0) && stopped.getAsBoolean()) {
+                return null;
+            }
+            int start = index;
+            int length = 0;
+            while ((index + 1 < source.length) && source[index].isWrapped()) {
+                length += source[index++].extent();
+            }
+            length += source[index++].extent();
+            if (length > glyphs.length) {
+                glyphs = new int[length];
+                styles = new long[length];
+            }
+            int offset = 0;
+            clusters.clear();
+            for (int i = start; i < index; i++) {
+                source[i].copyTo(glyphs, styles, offset, clusters);
+                offset += source[i].extent();
+            }
+            history.addLogical(start);
+            // last source line may still be continued by the screen:
+            boolean continued = source[index - 1].isWrapped();
+            int numLines = Math.max(1, (length + newColumns - 1) / newColumns);
+            for (int i = 0; i < numLines; i++) {
+                int lineOffset = i * newColumns;
+                boolean wrapped = (i < numLines - 1) || continued;
+                history.lines.add(HistoryLine.encode(glyphs, styles, lineOffset, Math.min(newColumns, length - lineOffset),
+                        wrapped, clusters));
+            }
+        }
+        return history;
+    }
+
+}
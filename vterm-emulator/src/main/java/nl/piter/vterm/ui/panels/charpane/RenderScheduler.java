@@ -0,0 +1,127 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import javax.swing.*;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.LongSupplier;
+
+/**
+ * Paces the rendering of damaged cells into the backing image. The emulator only marks damage and requests a
+ * frame, requests are coalesced until the frame is rendered. Frames are rendered on the event dispatch thread
+ * at most frameRate times per second, or right away when the emulator has processed all input (see flush()).
+ * Rendering on the same thread as paint() means a half rendered frame is never shown.
+ */
+class RenderScheduler implements ActionListener {
+
+    public static final int DEFAULT_FRAME_RATE = 60;
+    public static final int MAX_FRAME_RATE = 1000;
+
+    private final Runnable renderer;
+    // nano time
+    private final LongSupplier clock;
+    private final Timer timer;
+    // frame requested but not yet rendered:
+    private final AtomicBoolean requested = new AtomicBoolean();
+    private volatile long frameInterval;
+    // event dispatch thread only:
+    private long lastFrame;
+    private volatile long numFrames;
+
+    RenderScheduler(Runnable renderer) {
+        this(renderer, System::nanoTime);
+    }
+
+    RenderScheduler(Runnable renderer, LongSupplier clock) {
+        this.renderer = renderer;
+        this.clock = clock;
+        this.timer = new Timer(0, this);
+        this.timer.setRepeats(false);
+        setFrameRate(DEFAULT_FRAME_RATE);
+    }
+
+    /**
+     * @param frameRate maximum number of frames per second, clipped to [1,MAX_FRAME_RATE].
+     */
+    public void setFrameRate(int frameRate) {
+        frameRate = Math.max(1, Math.min(frameRate, MAX_FRAME_RATE));
+        this.frameInterval = 1000000000L / frameRate;
+    }
+
+    public int getFrameRate() {
+        return (int) (1000000000L / frameInterval);
+    }
+
+    /**
+     * Request a frame, can be called from any thread.
+     */
+    public void requestFrame() {
+        if ((!requested.get()) && requested.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::scheduleFrame);
+        }
+    }
+
+    /**
+     * Input is idle: render a requested frame without waiting for the end of the frame interval.
+     */
+    public void flush() {
+        if (requested.get()) {
+            SwingUtilities.invokeLater(this::renderRequested);
+        }
+    }
+
+    /**
+     * Drop a scheduled frame, a new request schedules the next one.
+     */
+    public void stop() {
+        timer.stop();
+        requested.set(false);
+    }
+
+    /**
+     * Number of rendered frames.
+     */
+    public long getNumFrames() {
+        return numFrames;
+    }
+
+    private void scheduleFrame() {
+        if ((!requested.get()) || timer.isRunning()) {
+            return;
+        }
+        long delay = lastFrame + frameInterval - clock.getAsLong();
+        if (delay <= 0) {
+            renderFrame();
+        } else {
+            timer.setInitialDelay((int) ((delay + 999999) / 1000000));
+            timer.restart();
+        }
+    }
+
+    public void actionPerformed(ActionEvent e) {
+        renderRequested();
+    }
+
+    private void renderRequested() {
+        if (requested.get()) {
+            renderFrame();
+        }
+    }
+
+    private void renderFrame() {
+        timer.stop();
+        // damage marked while rendering requests the next frame:
+        requested.set(false);
+        lastFrame = clock.getAsLong();
+        numFrames++;
+        renderer.run();
+    }
+
+}
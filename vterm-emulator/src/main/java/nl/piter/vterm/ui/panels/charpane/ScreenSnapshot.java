@@ -0,0 +1,139 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+/**
+ * Immutable consistent view on the rows of a TextBuffer, see TextBuffer.snapshot().
+ * Shares the glyph and style arrays of the rows at the time of the snapshot, the buffer copies a row before
+ * it is updated again. Style ids and cluster glyphs are resolved with the palette and cluster arrays of the
+ * same moment, so a snapshot stays valid after compaction.
+ * A snapshot with history also has the history lines of that moment, numbered before the screen rows.
+ */
+public final class ScreenSnapshot {
+
+    private final int epoch;
+    private final int columns;
+    private final int[][] glyphs;
+    private final int[][] styleIds;
+    private final boolean[] wrapped;
+    private final long[] styles;
+    private final String[] clusters;
+    // optional history: overflow lines are read from the history, followed by the heap lines.
+    private ScrollbackBuffer history;
+    private int numOverflow;
+    private HistoryLine[] historyLines;
+
+    ScreenSnapshot(int epoch, int columns, int[][] glyphs, int[][] styleIds, boolean[] wrapped, long[] styles,
+                   String[] clusters) {
+        this.epoch = epoch;
+        this.columns = columns;
+        this.glyphs = glyphs;
+        this.styleIds = styleIds;
+        this.wrapped = wrapped;
+        this.styles = styles;
+        this.clusters = clusters;
+    }
+
+    void setHistory(ScrollbackBuffer history, int numOverflow, HistoryLine[] heapLines) {
+        this.history = history;
+        this.numOverflow = numOverflow;
+        this.historyLines = heapLines;
+    }
+
+    public int numHistoryLines() {
+        return (historyLines == null) ? 0 : numOverflow + historyLines.length;
+    }
+
+    /**
+     * @param index 0 is the oldest history line.
+     */
+    HistoryLine historyLine(int index) {
+        if (index < numOverflow) {
+            return history.getOverflowLine(index);
+        }
+        return historyLines[index - numOverflow];
+    }
+
+    int[] rowGlyphs(int y) {
+        return glyphs[y];
+    }
+
+    /**
+     * Copy the style words of row y into dest.
+     */
+    void rowStyles(int y, long[] dest) {
+        int[] ids = styleIds[y];
+        for (int x = 0; x < columns; x++) {
+            dest[x] = styles[ids[x]];
+        }
+    }
+
+    String[] clusterTable() {
+        return clusters;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    public int rows() {
+        return glyphs.length;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    public boolean checkBounds(int x, int y) {
+        return (y >= 0) && (y < glyphs.length) && (x >= 0) && (x < columns);
+    }
+
+    public int getGlyph(int x, int y) {
+        return glyphs[y][x];
+    }
+
+    public long getStyle(int x, int y) {
+        return styles[styleIds[y][x]];
+    }
+
+    public boolean isWrapped(int y) {
+        return wrapped[y];
+    }
+
+    /**
+     * Text of cell glyph: the code point or the grapheme cluster.
+     */
+    public String getText(int x, int y) {
+        int glyph = glyphs[y][x];
+        if (PackedCell.isCluster(glyph)) {
+            return ClusterTable.get(clusters, PackedCell.clusterId(glyph));
+        }
+        return new String(Character.toChars(PackedCell.codePoint(glyph)));
+    }
+
+    /**
+     * Fill StyleChar view with the cell values. The changed flag isn't part of a snapshot and is set.
+     */
+    public void get(int x, int y, StyleChar target) {
+        int glyph = glyphs[y][x];
+        PackedCell.unpack(glyph, styles[styleIds[y][x]], target);
+        if (PackedCell.isCluster(glyph)) {
+            target.setText(ClusterTable.get(clusters, PackedCell.clusterId(glyph)));
+        }
+        target.hasChanged = true;
+    }
+
+    /**
+     * Whether row y of the snapshot shares its cells with the row: the row hasn't been updated or replaced
+     * since the snapshot.
+     */
+    boolean sharesRow(int y, TextRow row) {
+        return (glyphs[y] == row.glyphs) && (styleIds[y] == row.styleIds);
+    }
+
+}
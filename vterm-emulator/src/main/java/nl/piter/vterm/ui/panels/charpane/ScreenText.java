@@ -0,0 +1,256 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TerminalText;
+import nl.piter.vterm.emulator.Utf8Decoder;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * TerminalText on a ScreenSnapshot: history lines first, then the screen rows.
+ * Lines are TextView's on the glyph arrays of the snapshot and the history lines. The export methods decode
+ * the glyphs straight into a reusable char or byte buffer, without creating Strings per line.
+ */
+public final class ScreenText implements TerminalText {
+
+    private static final int EXPORT_BUFFER_SIZE = 8192;
+
+    private final ScreenSnapshot screen;
+    private final int numHistory;
+
+    public ScreenText(ScreenSnapshot screen) {
+        this.screen = screen;
+        this.numHistory = screen.numHistoryLines();
+    }
+
+    @Override
+    public int numLines() {
+        return numHistory + screen.rows();
+    }
+
+    @Override
+    public int numHistoryLines() {
+        return numHistory;
+    }
+
+    @Override
+    public CharSequence getLine(int index) {
+        checkIndex(index);
+        if (index < numHistory) {
+            HistoryLine line = screen.historyLine(index);
+            return TextView.of(line.glyphs(), line.clusters(), 0, trimmedLength(line.glyphs(), line.length()));
+        }
+        int[] glyphs = screen.rowGlyphs(index - numHistory);
+        return TextView.of(glyphs, screen.clusterTable(), 0, trimmedLength(glyphs, screen.columns()));
+    }
+
+    @Override
+    public CharSequence getLine(int index, int startColumn, int endColumn) {
+        checkIndex(index);
+        if (index < numHistory) {
+            HistoryLine line = screen.historyLine(index);
+            return TextView.of(line.glyphs(), line.clusters(), clip(startColumn, line.length()), clip(endColumn, line.length()));
+        }
+        int[] glyphs = screen.rowGlyphs(index - numHistory);
+        return TextView.of(glyphs, screen.clusterTable(), clip(startColumn, screen.columns()), clip(endColumn, screen.columns()));
+    }
+
+    @Override
+    public boolean isWrapped(int index) {
+        checkIndex(index);
+        if (index < numHistory) {
+            return screen.historyLine(index).isWrapped();
+        }
+        return screen.isWrapped(index - numHistory);
+    }
+
+    @Override
+    public CharSequence getLogicalLine(int index) {
+        checkIndex(index);
+        int end = nextLogicalLine(index);
+        int numSegments = end - index;
+        int[][] glyphs = new int[numSegments][];
+        String[][] clusters = new String[numSegments][];
+        int[] starts = new int[numSegments];
+        int[] ends = new int[numSegments];
+        for (int i = 0; i < numSegments; i++) {
+            int width;
+            if (index + i < numHistory) {
+                HistoryLine line = screen.historyLine(index + i);
+                glyphs[i] = line.glyphs();
+                clusters[i] = line.clusters();
+                width = line.length();
+            } else {
+                glyphs[i] = screen.rowGlyphs(index + i - numHistory);
+                clusters[i] = screen.clusterTable();
+                width = screen.columns();
+            }
+            // only the last line of a logical line is trimmed:
+            ends[i] = (i < numSegments - 1) ? width : trimmedLength(glyphs[i], width);
+        }
+        return new TextView(glyphs, clusters, starts, ends);
+    }
+
+    @Override
+    public int nextLogicalLine(int index) {
+        int last = numLines() - 1;
+        while ((index < last) && isWrapped(index)) {
+            index++;
+        }
+        return index + 1;
+    }
+
+    @Override
+    public void writeTo(Writer writer, boolean joinWrapped) throws IOException {
+        export(new CharSink(writer), joinWrapped);
+    }
+
+    @Override
+    public long writeTo(WritableByteChannel channel, boolean joinWrapped) throws IOException {
+        ByteSink sink = new ByteSink(channel);
+        export(sink, joinWrapped);
+        return sink.numBytes;
+    }
+
+    private void export(Sink sink, boolean joinWrapped) throws IOException {
+        int end = numLines();
+        // skip empty screen rows at the end:
+        while ((end > numHistory) && (!screen.isWrapped(end - 1 - numHistory))
+                && (trimmedLength(screen.rowGlyphs(end - 1 - numHistory), screen.columns()) == 0)) {
+            end--;
+        }
+        for (int index = 0; index < end; index++) {
+            int[] glyphs;
+            String[] clusters;
+            int width;
+            boolean wrapped;
+            if (index < numHistory) {
+                HistoryLine line = screen.historyLine(index);
+                glyphs = line.glyphs();
+                clusters = line.clusters();
+                width = line.length();
+                wrapped = line.isWrapped();
+            } else {
+                glyphs = screen.rowGlyphs(index - numHistory);
+                clusters = screen.clusterTable();
+                width = screen.columns();
+                wrapped = screen.isWrapped(index - numHistory);
+            }
+            boolean join = joinWrapped && wrapped && (index < end - 1);
+            putCells(sink, glyphs, clusters, join ? width : trimmedLength(glyphs, width));
+            if (!join) {
+                sink.put('\n');
+            }
+        }
+        sink.flush();
+    }
+
+    private static void putCells(Sink sink, int[] glyphs, String[] clusters, int end) throws IOException {
+        for (int x = 0; x < end; x++) {
+            int glyph = glyphs[x];
+            if (PackedCell.isCluster(glyph)) {
+                String cluster = ClusterTable.get(clusters, PackedCell.clusterId(glyph));
+                for (int i = 0; i < cluster.length(); ) {
+                    int codePoint = cluster.codePointAt(i);
+                    sink.put(codePoint);
+                    i += Character.charCount(codePoint);
+                }
+            } else {
+                sink.put(PackedCell.codePoint(glyph));
+            }
+        }
+    }
+
+    private static int trimmedLength(int[] glyphs, int width) {
+        int length = Math.min(width, glyphs.length);
+        while ((length > 0) && (glyphs[length - 1] == PackedCell.BLANK)) {
+            length--;
+        }
+        return length;
+    }
+
+    private static int clip(int column, int width) {
+        return Math.max(0, Math.min(column, width));
+    }
+
+    private void checkIndex(int index) {
+        if ((index < 0) || (index >= numLines())) {
+            throw new IndexOutOfBoundsException("Line " + index + " not in [0," + numLines() + ")");
+        }
+    }
+
+    /**
+     * Destination of the export, buffers code points.
+     */
+    private abstract static class Sink {
+
+        abstract void put(int codePoint) throws IOException;
+
+        abstract void flush() throws IOException;
+    }
+
+    private static final class CharSink extends Sink {
+
+        private final Writer writer;
+        private final char[] buffer = new char[EXPORT_BUFFER_SIZE];
+        private int pos;
+
+        CharSink(Writer writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        void put(int codePoint) throws IOException {
+            if (pos + 2 > buffer.length) {
+                flush();
+            }
+            pos += Character.toChars(codePoint, buffer, pos);
+        }
+
+        @Override
+        void flush() throws IOException {
+            writer.write(buffer, 0, pos);
+            pos = 0;
+        }
+    }
+
+    private static final class ByteSink extends Sink {
+
+        private final WritableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(EXPORT_BUFFER_SIZE);
+        private long numBytes;
+
+        ByteSink(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        void put(int codePoint) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            int pos = buffer.position();
+            buffer.position(pos + Utf8Decoder.encode(codePoint, buffer.array(), pos));
+        }
+
+        @Override
+        void flush() throws IOException {
+            buffer.flip();
+            numBytes += buffer.remaining();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+/**
+ * Bounded list of region scrolls which still have to be applied to the rendered image.
+ * Consecutive scrolls of the same region in the same direction are merged, so a burst of line feeds is one
+ * entry. A scroll is stored as region [start,end) and a signed number of lines: positive is up.
+ */
+final class ScrollLog {
+
+    public static final int MAX_SCROLLS = 16;
+
+    private final int[] starts = new int[MAX_SCROLLS];
+    private final int[] ends = new int[MAX_SCROLLS];
+    private final int[] lines = new int[MAX_SCROLLS];
+    private int size;
+
+    /**
+     * Add scroll of rows [start,end) by numLines, the number of lines is clipped to the height of the region.
+     *
+     * @return false if the log is full, the scroll hasn't been added.
+     */
+    boolean add(int start, int end, int numLines, boolean up) {
+        int height = end - start;
+        if (size > 0) {
+            int last = size - 1;
+            if ((starts[last] == start) && (ends[last] == end) && ((lines[last] > 0) == up)) {
+                int merged = Math.min(Math.abs(lines[last]) + numLines, height);
+                lines[last] = up ? merged : -merged;
+                return true;
+            }
+        }
+        if (size == MAX_SCROLLS) {
+            return false;
+        }
+        numLines = Math.min(numLines, height);
+        starts[size] = start;
+        ends[size] = end;
+        lines[size] = up ? numLines : -numLines;
+        size++;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int start(int index) {
+        return starts[index];
+    }
+
+    int end(int index) {
+        return ends[index];
+    }
+
+    /**
+     * Number of lines of scroll index, positive is up.
+     */
+    int lines(int index) {
+        return lines[index];
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded scrollback history of lines scrolled off the top of the screen.
+ * Lines are stored compact (see HistoryLine), the oldest lines are dropped when either the line limit or
+ * the byte budget is exceeded. If an overflow file is set, the heap only keeps a window of recent lines
+ * and dropped lines are appended to the file, which makes the history unlimited.
+ * Synchronized: lines are added by the emulator, read by the renderer and replaced by a reflow task.
+ */
+@Slf4j
+public class ScrollbackBuffer {
+
+    public static final int DEFAULT_MAX_LINES = 10000;
+    public static final long DEFAULT_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    // circular, oldest line at 'first'
+    private HistoryLine[] lines = new HistoryLine[INITIAL_CAPACITY];
+    private int first;
+    private int size;
+    private long numBytes;
+    private long totalAdded;
+    // lines removed from the front of the heap window: spilled, dropped or cleared.
+    private long totalRemoved;
+
+    private int maxLines;
+    private long maxBytes;
+
+    // optional, for lines dropped from the heap:
+    private ScrollbackFile overflow;
+
+    public ScrollbackBuffer() {
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_BYTES);
+    }
+
+    public ScrollbackBuffer(int maxLines, long maxBytes) {
+        setLimits(maxLines, maxBytes);
+    }
+
+    /**
+     * @param maxLines maximum number of lines in the heap, 0 disables the history.
+     * @param maxBytes maximum estimated heap size of the lines.
+     */
+    public synchronized void setLimits(int maxLines, long maxBytes) {
+        if ((maxLines < 0) || (maxBytes < 0)) {
+            throw new IllegalArgumentException("Invalid scrollback limits: maxLines=" + maxLines + ", maxBytes=" + maxBytes);
+        }
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    synchronized void add(TextRow row, StylePalette palette) {
+        add(HistoryLine.encode(row, palette));
+    }
+
+    synchronized void add(TextRow row, StylePalette palette, ClusterTable clusters) {
+        add(HistoryLine.encode(row, palette, clusters));
+    }
+
+    synchronized void add(HistoryLine line) {
+        if (maxLines == 0) {
+            return;
+        }
+        if ((size == lines.length) && (size < maxLines)) {
+            grow();
+        }
+        if (size == lines.length) {
+            removeFirst();
+        }
+        int index = (first + size) % lines.length;
+        lines[index] = line;
+        size++;
+        numBytes += line.estimatedSize();
+        totalAdded++;
+        trim();
+    }
+
+    /**
+     * Add lines encoded and reserved before, see reserve(): doesn't grow or spill unless the history has been
+     * changed meanwhile.
+     */
+    synchronized void addAll(HistoryLine[] newLines, int count) {
+        for (int i = 0; i < count; i++) {
+            add(newLines[i]);
+        }
+    }
+
+    /**
+     * Make room for lines which are about to be added: grow the heap window and trim, or spill to the
+     * overflow file, as if they had been added. Adding them afterwards is a plain store.
+     */
+    synchronized void reserve(HistoryLine[] newLines, int count) {
+        if (maxLines == 0) {
+            return;
+        }
+        long newBytes = 0;
+        for (int i = 0; i < count; i++) {
+            newBytes += newLines[i].estimatedSize();
+        }
+        while ((size + count > lines.length) && (lines.length < maxLines)) {
+            grow();
+        }
+        while ((size > 0) && ((size + count > maxLines) || (numBytes + newBytes > maxBytes))) {
+            removeFirst();
+        }
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) lines.length * 2, maxLines);
+        HistoryLine[] newLines = new HistoryLine[capacity];
+        for (int i = 0; i < size; i++) {
+            newLines[i] = lines[(first + i) % lines.length];
+        }
+        lines = newLines;
+        first = 0;
+    }
+
+    private void trim() {
+        while ((size > 0) && ((size > maxLines) || (numBytes > maxBytes))) {
+            removeFirst();
+        }
+    }
+
+    private void removeFirst() {
+        HistoryLine line = lines[first];
+        if (overflow != null) {
+            spill(line);
+        }
+        dropFirst();
+    }
+
+    private void spill(HistoryLine line) {
+        try {
+            overflow.append(line);
+        } catch (IOException e) {
+            log.error("Failed to append to scrollback file, line is dropped: {}", e.getMessage());
+        }
+    }
+
+    private void dropFirst() {
+        numBytes -= lines[first].estimatedSize();
+        lines[first] = null;
+        first = (first + 1) % lines.length;
+        size--;
+        totalRemoved++;
+    }
+
+    /**
+     * @param index line number, 0 is the oldest line. Lines from the overflow file come first.
+     */
+    synchronized HistoryLine get(int index) {
+        long numOverflow = numOverflowLines();
+        if (index < numOverflow) {
+            return getOverflowLine(index);
+        }
+        int heapIndex = (int) (index - numOverflow);
+        if ((heapIndex < 0) || (heapIndex >= size)) {
+            throw new IndexOutOfBoundsException("Scrollback line " + index + " not in [0," + size() + ")");
+        }
+        return lines[(first + heapIndex) % lines.length];
+    }
+
+    /**
+     * Line from the overflow file, an empty line if it can't be read or the file has been cleared.
+     */
+    synchronized HistoryLine getOverflowLine(int index) {
+        if (index >= numOverflowLines()) {
+            return HistoryLine.encode(new int[0], new long[0], 0);
+        }
+        try {
+            return overflow.get(index);
+        } catch (IOException e) {
+            log.error("Failed to read scrollback line {}: {}", index, e.getMessage());
+            return HistoryLine.encode(new int[0], new long[0], 0);
+        }
+    }
+
+    /**
+     * Number of lines, including lines in the overflow file.
+     */
+    public synchronized int size() {
+        return (int) Math.min(numOverflowLines() + size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Number of lines in the heap window.
+     */
+    public synchronized int heapSize() {
+        return size;
+    }
+
+    /**
+     * Must be called with the lock held.
+     */
+    long numOverflowLines() {
+        return (overflow == null) ? 0 : overflow.size();
+    }
+
+    public synchronized void clear() {
+        while (size > 0) {
+            dropFirst();
+        }
+        if (overflow != null) {
+            overflow.clear();
+        }
+    }
+
+    /**
+     * Use file for lines dropped from the heap window, or null to disable. Doesn't close the current file.
+     */
+    public synchronized void setOverflow(ScrollbackFile overflow) {
+        this.overflow = overflow;
+    }
+
+    public synchronized ScrollbackFile getOverflow() {
+        return overflow;
+    }
+
+    /**
+     * Estimated heap size of the stored lines in bytes.
+     */
+    public synchronized long getNumBytes() {
+        return numBytes;
+    }
+
+    /**
+     * Total number of lines added, including dropped lines.
+     */
+    public synchronized long getTotalAdded() {
+        return totalAdded;
+    }
+
+    /**
+     * Number of lines removed from the front of the heap window since creation.
+     */
+    public synchronized long getTotalRemoved() {
+        return totalRemoved;
+    }
+
+    /**
+     * Copy of the heap window, oldest line first.
+     */
+    synchronized HistoryLine[] heapLines() {
+        HistoryLine[] copy = new HistoryLine[size];
+        int numFirst = Math.min(size, lines.length - first);
+        System.arraycopy(lines, first, copy, 0, numFirst);
+        System.arraycopy(lines, 0, copy, numFirst, size - numFirst);
+        return copy;
+    }
+
+    /**
+     * Replace the heap window with reflowed lines. The source lines were taken from the heap window when
+     * totalRemoved was sourceRemoved: source lines removed since then are skipped, lines added since then
+     * are kept as they are. A logical line of which the first lines have been removed is kept unreflowed.
+     *
+     * @return false if the heap window has been replaced completely since the source was taken.
+     */
+    synchronized boolean replaceReflowed(HistoryLine[] source, long sourceRemoved, Reflow.History reflowed) {
+        long removed = totalRemoved - sourceRemoved;
+        if ((removed < 0) || (removed > source.length) || (source.length - removed > size)) {
+            return false;
+        }
+        int numRemoved = (int) removed;
+        List<HistoryLine> newLines = new ArrayList<>(reflowed.lines.size() + size - source.length + numRemoved);
+        int logical = 0;
+        while ((logical < reflowed.numLogical) && (reflowed.firstSource[logical] < numRemoved)) {
+            logical++;
+        }
+        // partially removed logical line:
+        int sourceEnd = (logical < reflowed.numLogical) ? reflowed.firstSource[logical] : source.length;
+        for (int i = numRemoved; i < sourceEnd; i++) {
+            newLines.add(source[i]);
+        }
+        if (logical < reflowed.numLogical) {
+            newLines.addAll(reflowed.lines.subList(reflowed.firstOutput[logical], reflowed.lines.size()));
+        }
+        // added after the source was taken:
+        for (int i = source.length - numRemoved; i < size; i++) {
+            newLines.add(lines[(first + i) % lines.length]);
+        }
+
+        HistoryLine[] newArray = new HistoryLine[Math.max(INITIAL_CAPACITY, newLines.size())];
+        numBytes = 0;
+        for (int i = 0; i < newLines.size(); i++) {
+            newArray[i] = newLines.get(i);
+            numBytes += newArray[i].estimatedSize();
+        }
+        lines = newArray;
+        first = 0;
+        size = newLines.size();
+        // narrower lines: more lines.
+        trim();
+        return true;
+    }
+
+    public synchronized int getMaxLines() {
+        return maxLines;
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+}
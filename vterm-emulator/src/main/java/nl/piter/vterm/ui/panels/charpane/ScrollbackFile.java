@@ -0,0 +1,181 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Append-only overflow file for scrollback lines which don't fit in the heap window of the ScrollbackBuffer.
+ * <p>
+ * Lines are serialized into a data file and their offsets into an index file with one long per line, so a
+ * line can be found by number without any per line state on the heap. Both files are accessed through
+ * fixed size memory-mapped segments, of which only a few are kept mapped: data is paged in by the OS when
+ * a line is read. Records never cross a segment boundary.
+ * The files are temporary and deleted on close().
+ */
+@Slf4j
+public class ScrollbackFile implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final int INDEX_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MAX_MAPPED_SEGMENTS = 4;
+
+    /**
+     * Small LRU cache of mapped segments of one file.
+     */
+    private static final class SegmentCache extends LinkedHashMap<Long, MappedByteBuffer> {
+
+        private final FileChannel channel;
+        private final int segmentSize;
+
+        SegmentCache(FileChannel channel, int segmentSize) {
+            super(MAX_MAPPED_SEGMENTS * 2, 0.75f, true);
+            this.channel = channel;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, MappedByteBuffer> eldest) {
+            return size() > MAX_MAPPED_SEGMENTS;
+        }
+
+        /**
+         * Returns independent buffer positioned at file offset, maps the segment if needed.
+         */
+        ByteBuffer at(long offset) throws IOException {
+            long segment = offset / segmentSize;
+            MappedByteBuffer mapped = get(segment);
+            if (mapped == null) {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE, segment * segmentSize, segmentSize);
+                put(segment, mapped);
+            }
+            ByteBuffer buffer = mapped.duplicate();
+            buffer.position((int) (offset % segmentSize));
+            return buffer;
+        }
+    }
+
+    private final Path dataPath;
+    private final Path indexPath;
+    private final FileChannel dataChannel;
+    private final FileChannel indexChannel;
+    private final SegmentCache dataSegments;
+    private final SegmentCache indexSegments;
+    private final int segmentSize;
+
+    private long numLines;
+    private long writePosition;
+
+    /**
+     * Create new overflow file in directory. The directory is created if it doesn't exist.
+     */
+    public static ScrollbackFile create(Path dir) throws IOException {
+        return create(dir, DEFAULT_SEGMENT_SIZE);
+    }
+
+    public static ScrollbackFile create(Path dir, int segmentSize) throws IOException {
+        Files.createDirectories(dir);
+        Path data = Files.createTempFile(dir, "scrollback-", ".dat");
+        Path index = Files.createTempFile(dir, "scrollback-", ".idx");
+        data.toFile().deleteOnExit();
+        index.toFile().deleteOnExit();
+        return new ScrollbackFile(data, index, segmentSize);
+    }
+
+    protected ScrollbackFile(Path dataPath, Path indexPath, int segmentSize) throws IOException {
+        this.dataPath = dataPath;
+        this.indexPath = indexPath;
+        this.segmentSize = segmentSize;
+        this.dataChannel = FileChannel.open(dataPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.dataSegments = new SegmentCache(dataChannel, segmentSize);
+        this.indexSegments = new SegmentCache(indexChannel, INDEX_SEGMENT_SIZE);
+    }
+
+    public void append(HistoryLine line) throws IOException {
+        int size = line.encodedSize();
+        if (size > segmentSize) {
+            throw new IOException("Line too large for scrollback segment: " + size + " > " + segmentSize);
+        }
+        long offset = writePosition;
+        if ((offset % segmentSize) + size > segmentSize) {
+            // start at next segment
+            offset = ((offset / segmentSize) + 1) * segmentSize;
+        }
+        line.writeTo(dataSegments.at(offset));
+        indexSegments.at(numLines * 8).putLong(offset);
+        writePosition = offset + size;
+        numLines++;
+    }
+
+    /**
+     * @param index line number, 0 is the oldest line.
+     */
+    public HistoryLine get(long index) throws IOException {
+        if ((index < 0) || (index >= numLines)) {
+            throw new IndexOutOfBoundsException("Scrollback line " + index + " not in [0," + numLines + ")");
+        }
+        long offset = indexSegments.at(index * 8).getLong();
+        return HistoryLine.readFrom(dataSegments.at(offset));
+    }
+
+    public long size() {
+        return numLines;
+    }
+
+    /**
+     * Drop all lines, file space is reused.
+     */
+    public void clear() {
+        numLines = 0;
+        writePosition = 0;
+    }
+
+    /**
+     * Number of bytes written to the data file.
+     */
+    public long getDataSize() {
+        return writePosition;
+    }
+
+    public Path getDataPath() {
+        return dataPath;
+    }
+
+    @Override
+    public void close() {
+        dataSegments.clear();
+        indexSegments.clear();
+        closeAndDelete(dataChannel, dataPath);
+        closeAndDelete(indexChannel, indexPath);
+        numLines = 0;
+        writePosition = 0;
+    }
+
+    private static void closeAndDelete(FileChannel channel, Path path) {
+        try {
+            channel.close();
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete scrollback file:'{}': {}", path, e.getMessage());
+        }
+    }
+
+}
@@ -8,8 +8,10 @@
 package nl.piter.vterm.ui.panels.charpane;
 
 import lombok.EqualsAndHashCode;
+import nl.piter.vterm.emulator.Utf8Decoder;
 
 import java.awt.*;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Styled Character.
@@ -36,6 +38,7 @@ public class StyleChar {
     public static final int STYLE_FRAKTUR = 0x0001 << 13;
     // =====================================================
 
+    // initial size, grows for grapheme clusters:
     protected int MAX_BYTES = 8;
     protected byte[] charBytes = new byte[MAX_BYTES];
     protected int numBytes = 0;
@@ -63,15 +66,40 @@ public class StyleChar {
     }
 
     public void setBytes(byte[] bytes) {
-        System.arraycopy(bytes, 0, this.charBytes, 0, bytes.length);
-        numBytes = bytes.length;
+        setBytes(bytes, 0, bytes.length);
     }
 
     public void setBytes(byte[] bytes, int len) {
-        System.arraycopy(bytes, 0, this.charBytes, 0, len);
+        setBytes(bytes, 0, len);
+    }
+
+    public void setBytes(byte[] bytes, int offset, int len) {
+        ensureCapacity(len);
+        System.arraycopy(bytes, offset, this.charBytes, 0, len);
         numBytes = len;
     }
 
+    /**
+     * Set utf-8 encoded text, for example a grapheme cluster of several code points.
+     */
+    public void setText(String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        setBytes(bytes, 0, bytes.length);
+    }
+
+    private void ensureCapacity(int len) {
+        if (len > charBytes.length) {
+            charBytes = new byte[Math.max(len, charBytes.length * 2)];
+        }
+    }
+
+    /**
+     * Set utf-8 encoded code point.
+     */
+    public void setCodePoint(int codePoint) {
+        numBytes = Utf8Decoder.encode(codePoint, charBytes, 0);
+    }
+
     public void setChar(byte c) {
         charBytes[0] = c;
         numBytes = 1;
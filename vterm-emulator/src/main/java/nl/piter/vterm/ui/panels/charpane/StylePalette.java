@@ -0,0 +1,156 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.Arrays;
+
+/**
+ * Interned style words (see PackedCell), shared by the text buffers of one terminal.
+ * Cells store a small style id instead of the full style word, so equal attributes compare with a single
+ * int compare.
+ * <p>
+ * Ids are never freed on their own. When the palette has grown beyond its threshold, the owner calls
+ * compact() at a safe point, which drops the ids not used by any cell and renumbers the remaining ones.
+ * Each compaction starts a new epoch: ids cached outside the text buffers must be interned again when the
+ * epoch has changed.
+ * <p>
+ * intern() and compact() are synchronized, style() isn't: a style word is stored before its id is returned.
+ * Compaction renumbers ids in place, the owner should only compact from the thread which updates the buffers.
+ * The style array is never changed in place for existing ids, so a ScreenSnapshot can keep the array of its
+ * epoch.
+ */
+public class StylePalette {
+
+    public static final int DEFAULT_ID = 0;
+    public static final int DEFAULT_COMPACT_THRESHOLD = 4096;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private long[] styles = new long[INITIAL_CAPACITY];
+    private int size;
+    // open addressing hash table: id+1, 0=empty
+    private int[] table = new int[INITIAL_CAPACITY * 2];
+    private int epoch;
+    private final IdCompaction compaction = new IdCompaction(DEFAULT_COMPACT_THRESHOLD, 2);
+
+    public StylePalette() {
+        intern(PackedCell.DEFAULT_STYLE);
+    }
+
+    public synchronized int intern(long style) {
+        int mask = table.length - 1;
+        int slot = hash(style) & mask;
+        while (table[slot] != 0) {
+            int id = table[slot] - 1;
+            if (styles[id] == style) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == styles.length) {
+            grow();
+            return intern(style);
+        }
+        int id = size++;
+        // publish style before the id can be used:
+        styles[id] = style;
+        table[slot] = id + 1;
+        return id;
+    }
+
+    private static int hash(long style) {
+        long h = style * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void grow() {
+        styles = Arrays.copyOf(styles, styles.length * 2);
+        rehash(styles.length * 2);
+    }
+
+    private void rehash(int tableSize) {
+        int[] newTable = new int[tableSize];
+        int mask = tableSize - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hash(styles[id]) & mask;
+            while (newTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            newTable[slot] = id + 1;
+        }
+        table = newTable;
+    }
+
+    public long style(int id) {
+        return styles[id];
+    }
+
+    /**
+     * Current style array: entries of ids interned so far don't change, compaction replaces the array.
+     */
+    long[] styleTable() {
+        return styles;
+    }
+
+    int compactSeq() {
+        return compaction.sequence();
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int epoch() {
+        return epoch;
+    }
+
+    /**
+     * Whether the palette should be compacted.
+     */
+    public boolean needsCompaction() {
+        return compaction.isNeeded(size);
+    }
+
+    public void setCompactThreshold(int threshold) {
+        compaction.setThreshold(threshold);
+    }
+
+    /**
+     * Drop ids not used by any cell of the buffers and renumber the others. All buffers using this
+     * palette must be passed. Starts a new epoch.
+     *
+     * @return number of dropped ids.
+     */
+    public synchronized int compact(TextBuffer... buffers) {
+        boolean[] used = new boolean[size];
+        used[DEFAULT_ID] = true;
+        return compaction.compact(size, used, buffers, TextBuffer::markStyleIds, this::renumber,
+                TextBuffer::remapStyleIds);
+    }
+
+    private void renumber(int[] remap, int newSize) {
+        long[] newStyles = new long[styles.length];
+        for (int id = 0; id < size; id++) {
+            if (remap[id] >= 0) {
+                newStyles[remap[id]] = styles[id];
+            }
+        }
+        styles = newStyles;
+        size = newSize;
+        rehash(table.length);
+        epoch++;
+    }
+
+    /**
+     * Estimated heap size in bytes, assuming 16 byte array headers.
+     */
+    public long estimatedSize() {
+        return 12 + 3 * 4 + 16 + 8L * styles.length + 16 + 4L * table.length;
+    }
+
+}
@@ -10,22 +10,74 @@ package nl.piter.vterm.ui.panels.charpane;
 import lombok.extern.slf4j.Slf4j;
 
 import java.awt.*;
+import java.util.Arrays;
 
 /**
- * UNsynchronized text buffer contains Matrix of StyleChars
+ * UNsynchronized text buffer contains Matrix of packed cells.
+ * Per row an int[] with glyph words (code point + charset), see PackedCell, and an int[] with style ids.
+ * Style ids are interned style words from a StylePalette, which can be shared between the buffers of one
+ * terminal. StyleChar is only used as (detached) view on a cell.
+ * Grapheme clusters of more than one code point are stored in a ClusterTable, which is shared the same way.
+ * <p>
+ * Rows are addressed through a circular row index: a full screen scroll only moves the index and clears
+ * the new rows, a region scroll rotates the row references within the region.
+ * <p>
+ * Damage is tracked per cell (changed bits), per row (bounds of the changed columns) and per logical row
+ * (dirty row bits), so an incremental render only visits the damaged spans: see nextDirtyRow(),
+ * dirtyStart(), dirtyEnd() and nextChanged(). Scrolled rows keep their damage: scrolls are logged and
+ * handed to the renderer with the damage, which moves the rendered rows instead of drawing them again.
+ * Rows which may contain blinking cells are flagged, the blink animation only visits those: see
+ * markBlinking().
+ * <p>
+ * Concurrent readers take a ScreenSnapshot instead of reading the rows while the emulator updates them.
+ * Rows are copy-on-write per snapshot epoch: a snapshot shares the row arrays and the next update of a row
+ * copies it first. Updates are bracketed by a write sequence number, which a snapshot only checks, so
+ * the updating thread doesn't wait for a reader, except for the short lock of the history while a snapshot
+ * with history copies the heap lines. There must be a single updating thread.
  */
 @Slf4j
 public class TextBuffer {
 
-    private StyleChar[][] textBuffer;
+    // busy wait for an update in progress before yielding, see snapshot():
+    private static final int SNAPSHOT_SPINS = 100;
+
+    private final StylePalette palette;
+    private final ClusterTable clusters;
+    // circular: logical row y is rows[(top+y) % rows.length]
+    private TextRow[] rows;
+    private int top;
+    // used for region scrolls
+    private TextRow[] scratch;
+    // lines scrolled into the history, encoded before the update which adds them
+    private HistoryLine[] historyLines = new HistoryLine[0];
+    // bit set per logical row: row has changed cells
+    private long[] dirtyRows;
+    // scrolls since the last takeDamage(): moved rows keep their damage, the renderer moves their pixels.
+    private final ScrollLog scrolls = new ScrollLog();
+    // optional history, fed by full screen scrolls
+    private ScrollbackBuffer history;
     private boolean bufferChanged;
     //
     private int nrColumns;
     private int nrRows;
     private int virtualColumns;
     private int virtualRows;
+    // current snapshot epoch, rows of an older epoch are copied before they are updated
+    private volatile int epoch;
+    // odd while rows are being updated
+    private volatile int writeSeq;
 
     public TextBuffer(int numCs, int numRs, int numVCs, int numVRs) {
+        this(numCs, numRs, numVCs, numVRs, new StylePalette());
+    }
+
+    public TextBuffer(int numCs, int numRs, int numVCs, int numVRs, StylePalette palette) {
+        this(numCs, numRs, numVCs, numVRs, palette, new ClusterTable());
+    }
+
+    public TextBuffer(int numCs, int numRs, int numVCs, int numVRs, StylePalette palette, ClusterTable clusters) {
+        this.palette = palette;
+        this.clusters = clusters;
         init(numCs, numRs, numVCs, numVRs);
     }
 
@@ -43,61 +95,188 @@ public class TextBuffer {
         this.virtualColumns = virtualCols;
         this.virtualRows = virtualRows;
 
+        this.rows = new TextRow[virtualRows];
+        this.scratch = new TextRow[virtualRows];
+        this.top = 0;
+        this.dirtyRows = new long[(virtualRows + 63) >>> 6];
 
-        this.textBuffer = new StyleChar[virtualRows][virtualColumns];
-
-        for (int y = 0; y < rows; y++) {
-            for (int x = 0; x < cols; x++) {
-                put(x, y, new StyleChar());
-            }
+        for (int y = 0; y < virtualRows; y++) {
+            this.rows[y] = new TextRow(virtualColumns);
         }
+        setRowsDirty(0, virtualRows);
+        scrolls.clear();
 
         this.bufferChanged = true;
     }
 
-    public void clearRegion() {
-        for (int y = 0; y < nrRows; y++)
-            for (int x = 0; x < nrColumns; x++)
-                textBuffer[y][x].clear();
+    private TextRow row(int y) {
+        int index = top + y;
+        if (index >= rows.length) {
+            index -= rows.length;
+        }
+        return rows[index];
+    }
 
-        this.bufferChanged = true;
+    private TextRow writableRow(int y) {
+        TextRow row = row(y);
+        row.makeWritable(epoch);
+        return row;
     }
 
-    /**
-     * Puts actual object into text array. Doesn't copy object !
-     */
-    protected void put(int x, int y, StyleChar newChar) {
-        textBuffer[y][x] = newChar;
-        newChar.hasChanged = true;
+    private void clearRow(TextRow row) {
+        row.makeWritable(epoch);
+        row.clear();
+    }
+
+    private void beginWrite() {
+        writeSeq++;
+    }
+
+    private void endWrite() {
+        writeSeq++;
+    }
+
+    public void clearRegion() {
+        beginWrite();
+        try {
+            for (int y = 0; y < nrRows; y++) {
+                clearRow(row(y));
+            }
+        } finally {
+            endWrite();
+        }
+        setRowsDirty(0, nrRows);
         this.bufferChanged = true;
     }
 
     public boolean checkBounds(int x, int y) {
         boolean val = true;
 
-        if (textBuffer == null)
+        if (rows == null)
             val = false;
         else if ((y < 0) || (x < 0))
             val = false;
-        else if (y >= textBuffer.length)
-            val = false;
-        else if (textBuffer[y] == null)
+        else if (y >= rows.length)
             val = false;
-        else if (x >= textBuffer[y].length)
+        else if (x >= row(y).length())
             val = false;
 
         return val;
     }
 
     /**
-     * Returns actual object in text array
+     * Store packed cell, the style word is interned.
+     */
+    public void put(int x, int y, int glyph, long style) {
+        putCell(x, y, glyph, palette.intern(style));
+    }
+
+    /**
+     * Store packed cell with an already interned style id of this buffer's palette.
+     */
+    public void putCell(int x, int y, int glyph, int styleId) {
+        beginWrite();
+        try {
+            TextRow row = writableRow(y);
+            row.glyphs[x] = glyph;
+            row.styleIds[x] = styleId;
+            if (PackedCell.hasStyle(palette.style(styleId), BlinkAnimator.BLINK_STYLES)) {
+                row.blinking = true;
+            }
+            setChanged(row, x, y);
+        } finally {
+            endWrite();
+        }
+    }
+
+    public int getGlyph(int x, int y) {
+        return row(y).glyphs[x];
+    }
+
+    public long getStyle(int x, int y) {
+        return palette.style(row(y).styleIds[x]);
+    }
+
+    public int getStyleId(int x, int y) {
+        return row(y).styleIds[x];
+    }
+
+    public void setStyle(int x, int y, long style) {
+        int styleId = palette.intern(style);
+        beginWrite();
+        try {
+            TextRow row = writableRow(y);
+            row.styleIds[x] = styleId;
+            if (PackedCell.hasStyle(style, BlinkAnimator.BLINK_STYLES)) {
+                row.blinking = true;
+            }
+            setChanged(row, x, y);
+        } finally {
+            endWrite();
+        }
+    }
+
+    public StylePalette getPalette() {
+        return palette;
+    }
+
+    public ClusterTable getClusters() {
+        return clusters;
+    }
+
+    /**
+     * Append combining code point to the glyph of the cell, the cell becomes a grapheme cluster.
+     */
+    public void combine(int x, int y, int codePoint) {
+        if (!checkBounds(x, y)) {
+            log.error("combine(): outofbounds (x,y): ({},{})", x, y);
+            return;
+        }
+        int glyph = clusters.append(row(y).glyphs[x], codePoint);
+        beginWrite();
+        try {
+            TextRow row = writableRow(y);
+            row.glyphs[x] = glyph;
+            setChanged(row, x, y);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Text of cell glyph: the code point or the grapheme cluster.
+     */
+    public String getText(int x, int y) {
+        int glyph = row(y).glyphs[x];
+        if (PackedCell.isCluster(glyph)) {
+            return clusters.get(PackedCell.clusterId(glyph));
+        }
+        return new String(Character.toChars(PackedCell.codePoint(glyph)));
+    }
+
+    /**
+     * Returns detached copy of the cell, modifications are not stored. Use set() to update the cell.
      */
     public StyleChar get(int x, int y) {
         if (!checkBounds(x, y)) {
             return null;
         }
+        StyleChar sChar = new StyleChar();
+        get(x, y, sChar);
+        return sChar;
+    }
 
-        return textBuffer[y][x];
+    /**
+     * Fill StyleChar view with the cell values, allows reuse of view objects.
+     */
+    public void get(int x, int y, StyleChar target) {
+        TextRow row = row(y);
+        int glyph = row.glyphs[x];
+        PackedCell.unpack(glyph, palette.style(row.styleIds[x]), target);
+        if (PackedCell.isCluster(glyph)) {
+            target.setText(clusters.get(PackedCell.clusterId(glyph)));
+        }
+        target.hasChanged = row.isChanged(x);
     }
 
     /**
@@ -106,22 +285,54 @@ public class TextBuffer {
     public void set(int x, int y, StyleChar schar) {
         if (!checkBounds(x, y)) {
             log.error("set(): outofbounds (x,y): ({},{})", x, y);
+            return;
         }
-
-        textBuffer[y][x].copyFrom(schar);
+        put(x, y, PackedCell.packGlyph(schar, clusters), PackedCell.packStyle(schar));
     }
 
     public void copyFrom(TextBuffer other, int offsetx, int offsety) {
-        for (int y = 0; y < nrRows; y++) {
-            for (int x = 0; x < nrColumns; x++) {
+        beginWrite();
+        try {
+            copyRows(other, offsetx, offsety);
+        } finally {
+            endWrite();
+        }
+        this.bufferChanged = true;
+    }
 
-                int otherx = x + offsetx;
-                int othery = y + offsety;
-                // Use actual array metrics:
-                if ((othery >= 0) && (othery < other.textBuffer.length) && (otherx < other.textBuffer[othery].length)) {
-                    textBuffer[y][x] = other.textBuffer[othery][otherx];
+    private void copyRows(TextBuffer other, int offsetx, int offsety) {
+        for (int y = 0; y < nrRows; y++) {
+            int othery = y + offsety;
+            // Use actual array metrics:
+            if ((othery < 0) || (othery >= other.rows.length)) {
+                continue;
+            }
+            TextRow source = other.row(othery);
+            TextRow dest = writableRow(y);
+            int len = Math.min(nrColumns, source.length() - offsetx);
+            if (len <= 0) {
+                continue;
+            }
+            System.arraycopy(source.glyphs, offsetx, dest.glyphs, 0, len);
+            if (other.clusters != clusters) {
+                for (int x = 0; x < len; x++) {
+                    int glyph = dest.glyphs[x];
+                    if (PackedCell.isCluster(glyph)) {
+                        dest.glyphs[x] = clusters.glyph(other.clusters.get(PackedCell.clusterId(glyph)),
+                                PackedCell.charSet(glyph));
+                    }
                 }
             }
+            if (other.palette == palette) {
+                System.arraycopy(source.styleIds, offsetx, dest.styleIds, 0, len);
+            } else {
+                for (int x = 0; x < len; x++) {
+                    dest.styleIds[x] = palette.intern(other.palette.style(source.styleIds[offsetx + x]));
+                }
+            }
+            dest.blinking |= source.blinking;
+            dest.setAllChanged();
+            setRowsDirty(y, y + 1);
         }
     }
 
@@ -130,7 +341,113 @@ public class TextBuffer {
         if (!checkBounds(x, y)) {
             return;
         }
-        textBuffer[y][x].hasChanged = val;
+        TextRow row = row(y);
+        if (val) {
+            setChanged(row, x, y);
+        } else if (row.clearChanged(x)) {
+            dirtyRows[y >>> 6] &= ~(1L << y);
+        }
+    }
+
+    public boolean isChanged(int x, int y) {
+        return row(y).isChanged(x);
+    }
+
+    private void setChanged(TextRow row, int x, int y) {
+        row.setChanged(x);
+        dirtyRows[y >>> 6] |= (1L << y);
+        this.bufferChanged = true;
+    }
+
+    private void setRowsDirty(int y1, int y2) {
+        for (int y = y1; y < y2; y++) {
+            dirtyRows[y >>> 6] |= (1L << y);
+        }
+    }
+
+    /**
+     * Returns first row &gt;= y with changed cells or -1.
+     */
+    public int nextDirtyRow(int y) {
+        while ((y >= 0) && (y < virtualRows)) {
+            long word = dirtyRows[y >>> 6] & (-1L << y);
+            if (word != 0) {
+                int next = ((y >>> 6) << 6) + Long.numberOfTrailingZeros(word);
+                return (next < virtualRows) ? next : -1;
+            }
+            y = ((y >>> 6) + 1) << 6;
+        }
+        return -1;
+    }
+
+    /**
+     * Mark the blinking cells as changed, so they are drawn in the next phase of the blink animation. Only the
+     * rows in the blink index are visited, rows without blinking cells are dropped from the index.
+     *
+     * @return number of blinking cells.
+     */
+    public int markBlinking() {
+        int numBlinking = 0;
+        for (int y = 0; y < nrRows; y++) {
+            TextRow row = row(y);
+            if (!row.blinking) {
+                continue;
+            }
+            int numCells = 0;
+            int[] styleIds = row.styleIds;
+            for (int x = 0; x < nrColumns; x++) {
+                if (PackedCell.hasStyle(palette.style(styleIds[x]), BlinkAnimator.BLINK_STYLES)) {
+                    setChanged(row, x, y);
+                    numCells++;
+                }
+            }
+            row.blinking = (numCells > 0);
+            numBlinking += numCells;
+        }
+        return numBlinking;
+    }
+
+    /**
+     * Move the damage of all rows to the renderer's map, the rows are clean afterwards. Updates must be
+     * excluded by the caller, so the damage matches a snapshot taken at the same time.
+     */
+    public void takeDamage(DamageMap damage) {
+        // scrolls first: the damage of the rows is in the scrolled positions.
+        for (int i = 0; i < scrolls.size(); i++) {
+            int lines = scrolls.lines(i);
+            damage.scroll(scrolls.start(i), scrolls.end(i), Math.abs(lines), lines > 0);
+        }
+        scrolls.clear();
+        for (int y = nextDirtyRow(0); (y >= 0) && (y < nrRows); y = nextDirtyRow(y + 1)) {
+            TextRow row = row(y);
+            if (row.isDirty()) {
+                damage.add(y, row.changed, row.dirtyMin, row.dirtyMax);
+                row.clearAllChanged();
+            }
+            dirtyRows[y >>> 6] &= ~(1L << y);
+        }
+        this.bufferChanged = false;
+    }
+
+    /**
+     * First possibly changed column of row y, Integer.MAX_VALUE if the row is clean.
+     */
+    public int dirtyStart(int y) {
+        return row(y).dirtyMin;
+    }
+
+    /**
+     * End (exclusive) of the possibly changed columns of row y, 0 if the row is clean.
+     */
+    public int dirtyEnd(int y) {
+        return row(y).dirtyMax + 1;
+    }
+
+    /**
+     * Returns first changed column in [x,end) of row y or -1.
+     */
+    public int nextChanged(int x, int y, int end) {
+        return row(y).nextChanged(x, end);
     }
 
     public void clear(int x, int y) {
@@ -138,9 +455,7 @@ public class TextBuffer {
             log.error("clear(): outofbounds (x,y): ({},{})", x, y);
             return;
         }
-
-        textBuffer[y][x].clear();
-        this.bufferChanged = true;
+        put(x, y, PackedCell.BLANK, PackedCell.DEFAULT_STYLE);
     }
 
     public void copy(int destx, int desty, int sourcex, int sourcey) {
@@ -152,12 +467,318 @@ public class TextBuffer {
             log.error("copy(): outofbounds (x,y): ({},{})", destx, desty);
             return;
         }
-        // copy values !
-        // do not copy object reference.
-        textBuffer[desty][destx].copyFrom(textBuffer[sourcey][sourcex]);
+        TextRow source = row(sourcey);
+        putCell(destx, desty, source.glyphs[sourcex], source.styleIds[sourcex]);
+    }
+
+    /**
+     * Whether rows have been scrolled since the last takeDamage().
+     */
+    public boolean hasPendingScrolls() {
+        return scrolls.size() > 0;
+    }
+
+    /**
+     * Scroll rows [y1,y2) up or down by numLines and clear the new rows. The new rows are marked as changed,
+     * moved rows keep their damage and the scroll is logged for the renderer, see takeDamage().
+     * Rows scrolled off the top of the full screen are saved in the history.
+     * A full screen scroll is O(1) apart from clearing, a region scroll moves (y2-y1) row references.
+     */
+    public void scrollRegion(int y1, int y2, int numLines, boolean up) {
+        if (y1 < 0) {
+            y1 = 0;
+        }
+        if (y2 > rows.length) {
+            y2 = rows.length;
+        }
+        int height = y2 - y1;
+        if ((height <= 0) || (numLines <= 0)) {
+            return;
+        }
+        if (numLines > height) {
+            numLines = height;
+        }
+
+        // encoding and overflow file IO are done before the update, only the lines are added in the same
+        // update as the scroll, so a snapshot with history doesn't see the rows twice:
+        int numHistoryLines = 0;
+        if ((height == rows.length) && up && (history != null) && (history.getMaxLines() > 0)) {
+            numHistoryLines = encodeHistory(numLines);
+        }
+        beginWrite();
+        try {
+            if (numHistoryLines > 0) {
+                history.addAll(historyLines, numHistoryLines);
+            }
+            moveRows(y1, y2, numLines, up);
+        } finally {
+            endWrite();
+        }
+        if (numHistoryLines > 0) {
+            Arrays.fill(historyLines, 0, numHistoryLines, null);
+        }
+        setRowsDirty(y1, y2);
+        this.bufferChanged = true;
+    }
+
+    private void moveRows(int y1, int y2, int numLines, boolean up) {
+        int height = y2 - y1;
+        if (height == rows.length) {
+            // rotate circular index, rows scrolled out are reused as new rows.
+            if (up) {
+                top = (top + numLines) % rows.length;
+            } else {
+                top = (top - numLines + rows.length) % rows.length;
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                scratch[y] = row(y1 + y);
+            }
+            int shift = up ? numLines : (height - numLines);
+            for (int y = 0; y < height; y++) {
+                int index = top + y1 + y;
+                if (index >= rows.length) {
+                    index -= rows.length;
+                }
+                rows[index] = scratch[(y + shift) % height];
+                scratch[(y + shift) % height] = null;
+            }
+        }
+
+        int newStart = up ? (y2 - numLines) : y1;
+        for (int y = newStart; y < newStart + numLines; y++) {
+            clearRow(row(y));
+        }
+        if (!scrolls.add(y1, y2, numLines, up)) {
+            // too many different scrolls, draw all rows again:
+            for (int y = 0; y < rows.length; y++) {
+                row(y).setAllChanged();
+            }
+            setRowsDirty(0, rows.length);
+            scrolls.clear();
+        }
+    }
+
+    /**
+     * Mark row y as soft wrapped: the logical line continues on the next row.
+     */
+    public void setWrapped(int y, boolean wrapped) {
+        if ((y >= 0) && (y < nrRows)) {
+            beginWrite();
+            try {
+                row(y).wrapped = wrapped;
+            } finally {
+                endWrite();
+            }
+        }
+    }
+
+    public boolean isWrapped(int y) {
+        return row(y).wrapped;
+    }
+
+    TextRow getRow(int y) {
+        return row(y);
+    }
+
+    /**
+     * Replace row y, the row must have the width of this buffer.
+     */
+    void setRow(int y, TextRow newRow) {
+        int index = top + y;
+        if (index >= rows.length) {
+            index -= rows.length;
+        }
+        newRow.setAllChanged();
+        newRow.epoch = epoch;
+        // unknown: the next blink tick drops the row from the index if it doesn't blink
+        newRow.blinking = true;
+        beginWrite();
+        try {
+            rows[index] = newRow;
+        } finally {
+            endWrite();
+        }
+        setRowsDirty(y, y + 1);
         this.bufferChanged = true;
     }
 
+    public void setHistory(ScrollbackBuffer history) {
+        this.history = history;
+    }
+
+    public ScrollbackBuffer getHistory() {
+        return history;
+    }
+
+    /**
+     * Encode the top numLines rows into historyLines and make room for them in the history.
+     *
+     * @return number of encoded lines.
+     */
+    private int encodeHistory(int numLines) {
+        if (historyLines.length < numLines) {
+            historyLines = new HistoryLine[numLines];
+        }
+        for (int y = 0; y < numLines; y++) {
+            historyLines[y] = HistoryLine.encode(row(y), palette, clusters);
+        }
+        history.reserve(historyLines, numLines);
+        return numLines;
+    }
+
+    /**
+     * Save rows [y1,y2) in the history, if set.
+     */
+    void addToHistory(int y1, int y2) {
+        if (history == null) {
+            return;
+        }
+        for (int y = Math.max(y1, 0); (y < y2) && (y < rows.length); y++) {
+            history.add(row(y), palette, clusters);
+        }
+    }
+
+    /**
+     * Mark style ids used by any cell, including virtual rows and columns. See StylePalette.compact().
+     */
+    void markStyleIds(boolean[] used) {
+        for (TextRow row : rows) {
+            for (int id : row.styleIds) {
+                used[id] = true;
+            }
+        }
+    }
+
+    /**
+     * Renumber style ids after compaction of the palette, doesn't change the appearance of the cells.
+     */
+    void remapStyleIds(int[] remap) {
+        beginWrite();
+        try {
+            for (TextRow row : rows) {
+                row.makeWritable(epoch);
+                int[] ids = row.styleIds;
+                for (int x = 0; x < ids.length; x++) {
+                    ids[x] = remap[ids[x]];
+                }
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Mark cluster ids used by any cell, including virtual rows and columns. See ClusterTable.compact().
+     */
+    void markClusterIds(boolean[] used) {
+        for (TextRow row : rows) {
+            for (int glyph : row.glyphs) {
+                if (PackedCell.isCluster(glyph)) {
+                    used[PackedCell.clusterId(glyph)] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Renumber cluster ids after compaction of the cluster table.
+     */
+    void remapClusterIds(int[] remap) {
+        beginWrite();
+        try {
+            for (TextRow row : rows) {
+                row.makeWritable(epoch);
+                int[] glyphs = row.glyphs;
+                for (int x = 0; x < glyphs.length; x++) {
+                    if (PackedCell.isCluster(glyphs[x])) {
+                        glyphs[x] = PackedCell.clusterGlyph(remap[PackedCell.clusterId(glyphs[x])], glyphs[x]);
+                    }
+                }
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Capture a consistent view of the screen rows in O(rows): the row arrays are shared with the snapshot
+     * and copied by the next update of the row. Doesn't block the updating thread: if rows are updated or
+     * the palette is compacted while capturing, the capture is retried.
+     *
+     * @return snapshot or null if the buffer has been disposed.
+     */
+    public ScreenSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Snapshot of the screen rows and, if withHistory is set, the history lines of the same moment. The heap
+     * lines of the history are copied by reference in O(history), lines of the overflow file are read on
+     * demand.
+     */
+    public synchronized ScreenSnapshot snapshot(boolean withHistory) {
+        ScrollbackBuffer snapshotHistory = withHistory ? history : null;
+        for (int spins = 0; ; spins++) {
+            int seq = writeSeq;
+            int paletteSeq = palette.compactSeq();
+            int clusterSeq = clusters.compactSeq();
+            if (((seq | paletteSeq | clusterSeq) & 1) == 0) {
+                // rows updated from now on are copied first:
+                int snapshotEpoch = epoch;
+                epoch = snapshotEpoch + 1;
+                ScreenSnapshot snapshot = capture(snapshotEpoch, snapshotHistory);
+                if ((seq == writeSeq) && (paletteSeq == palette.compactSeq()) && (clusterSeq == clusters.compactSeq())) {
+                    return snapshot;
+                }
+            }
+            if (spins < SNAPSHOT_SPINS) {
+                Thread.onSpinWait();
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Copy row references, only valid if no update happened meanwhile.
+     */
+    private ScreenSnapshot capture(int snapshotEpoch, ScrollbackBuffer snapshotHistory) {
+        TextRow[] rowArray = this.rows;
+        if (rowArray == null) {
+            return null;
+        }
+        int numRows = Math.min(nrRows, rowArray.length);
+        int[][] glyphs = new int[numRows][];
+        int[][] styleIds = new int[numRows][];
+        boolean[] wrapped = new boolean[numRows];
+        int index = top;
+        for (int y = 0; y < numRows; y++) {
+            if (index >= rowArray.length) {
+                index -= rowArray.length;
+            }
+            TextRow row = rowArray[index++];
+            glyphs[y] = row.glyphs;
+            styleIds[y] = row.styleIds;
+            wrapped[y] = row.wrapped;
+        }
+        ScreenSnapshot snapshot = new ScreenSnapshot(snapshotEpoch, nrColumns, glyphs, styleIds, wrapped,
+                palette.styleTable(), clusters.clusterTable());
+        if (snapshotHistory != null) {
+            synchronized (snapshotHistory) {
+                snapshot.setHistory(snapshotHistory, (int) snapshotHistory.numOverflowLines(), snapshotHistory.heapLines());
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Whether row y hasn't been updated or replaced since the snapshot was taken.
+     */
+    public boolean isUnchangedSince(ScreenSnapshot snapshot, int y) {
+        return (y < snapshot.rows()) && snapshot.sharesRow(y, row(y));
+    }
+
     public void setChanged(boolean val) {
         this.bufferChanged = val;
     }
@@ -171,7 +792,9 @@ public class TextBuffer {
     }
 
     public void dispose() {
-        this.textBuffer = null; // nullify object references.
+        this.rows = null; // nullify object references.
+        this.scratch = null;
+        this.historyLines = new HistoryLine[0];
     }
 
     int rows() {
@@ -182,5 +805,15 @@ public class TextBuffer {
         return this.nrColumns;
     }
 
+    /**
+     * Estimated heap size in bytes, assuming 16 byte array headers and 4 byte (compressed) references.
+     */
+    public long estimatedSize() {
+        long size = 2 * (16 + 4L * rows.length);
+        for (TextRow row : rows) {
+            size += row.estimatedSize();
+        }
+        return size;
+    }
 
 }
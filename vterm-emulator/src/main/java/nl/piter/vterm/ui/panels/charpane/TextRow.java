@@ -0,0 +1,150 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.Arrays;
+
+/**
+ * Single row of packed cells: glyph words (see PackedCell) and style ids (see StylePalette).
+ * Rows are moved by reference when scrolling.
+ * The glyph and style arrays are copy-on-write: a ScreenSnapshot shares them, the buffer replaces them by a
+ * copy before the first update after the snapshot (see makeWritable()). Damage bits are not part of a
+ * snapshot and are never copied.
+ */
+final class TextRow {
+
+    int[] glyphs;
+    int[] styleIds;
+    // snapshot epoch of the glyph and style arrays, arrays of an older epoch may be shared by a snapshot
+    int epoch;
+    // bit set: cell needs redraw
+    final long[] changed;
+    // inclusive bounds of the set bits, conservative: [dirtyMin,dirtyMax] may contain clean cells.
+    int dirtyMin;
+    int dirtyMax;
+    // soft wrapped by auto wrap: the logical line continues on the next row
+    boolean wrapped;
+    // blink index: the row may have blinking cells, see TextBuffer.markBlinking()
+    boolean blinking;
+
+    TextRow(int columns) {
+        this.glyphs = new int[columns];
+        this.styleIds = new int[columns];
+        this.changed = new long[(columns + 63) >>> 6];
+        clear();
+    }
+
+    /**
+     * Copy the glyph and style arrays if they belong to an older snapshot epoch.
+     */
+    void makeWritable(int currentEpoch) {
+        if (epoch != currentEpoch) {
+            glyphs = glyphs.clone();
+            styleIds = styleIds.clone();
+            epoch = currentEpoch;
+        }
+    }
+
+    void clear() {
+        Arrays.fill(glyphs, PackedCell.BLANK);
+        Arrays.fill(styleIds, StylePalette.DEFAULT_ID);
+        wrapped = false;
+        blinking = false;
+        setAllChanged();
+    }
+
+    void setAllChanged() {
+        Arrays.fill(changed, -1L);
+        dirtyMin = 0;
+        dirtyMax = glyphs.length - 1;
+    }
+
+    void clearAllChanged() {
+        Arrays.fill(changed, 0L);
+        dirtyMin = Integer.MAX_VALUE;
+        dirtyMax = -1;
+    }
+
+    void setChanged(int x) {
+        changed[x >>> 6] |= (1L << x);
+        if (x < dirtyMin) {
+            dirtyMin = x;
+        }
+        if (x > dirtyMax) {
+            dirtyMax = x;
+        }
+    }
+
+    /**
+     * Clear changed bit, the lower bound is advanced when cells are cleared from left to right.
+     *
+     * @return true if the row has no changed cells left.
+     */
+    boolean clearChanged(int x) {
+        changed[x >>> 6] &= ~(1L << x);
+        if (x == dirtyMin) {
+            int next = nextChanged(x + 1, dirtyMax + 1);
+            if (next < 0) {
+                dirtyMin = Integer.MAX_VALUE;
+                dirtyMax = -1;
+                return true;
+            }
+            dirtyMin = next;
+        }
+        return false;
+    }
+
+    boolean isChanged(int x) {
+        return (changed[x >>> 6] & (1L << x)) != 0;
+    }
+
+    boolean isDirty() {
+        return dirtyMax >= 0;
+    }
+
+    /**
+     * Returns first changed column in [x,end) or -1.
+     */
+    int nextChanged(int x, int end) {
+        if (end > glyphs.length) {
+            end = glyphs.length;
+        }
+        while (x < end) {
+            long word = changed[x >>> 6] & (-1L << x);
+            if (word != 0) {
+                int next = ((x >>> 6) << 6) + Long.numberOfTrailingZeros(word);
+                return (next < end) ? next : -1;
+            }
+            x = ((x >>> 6) + 1) << 6;
+        }
+        return -1;
+    }
+
+    int length() {
+        return glyphs.length;
+    }
+
+    /**
+     * Number of cells after trimming trailing blanks with the default style.
+     */
+    int extent() {
+        int extent = glyphs.length;
+        while ((extent > 0) && (glyphs[extent - 1] == PackedCell.BLANK) && (styleIds[extent - 1] == StylePalette.DEFAULT_ID)) {
+            extent--;
+        }
+        return extent;
+    }
+
+    /**
+     * Estimated heap size in bytes, assuming 12 byte object and 16 byte array headers.
+     */
+    long estimatedSize() {
+        return 12 + 3 * 4 + 3 * 4 + 4 + (16 + 4L * glyphs.length) + (16 + 4L * styleIds.length) + (16 + 8L * changed.length);
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import java.util.Arrays;
+
+/**
+ * CharSequence view on cells of one or more lines, see ScreenText. The glyph arrays are shared, chars are
+ * decoded on access. A line of which every cell is a single BMP character maps a char index directly to
+ * a cell, otherwise a table with the char offset of each cell is built for that line.
+ */
+final class TextView implements CharSequence {
+
+    private final int[][] glyphs;
+    private final String[][] clusters;
+    private final int[] starts;
+    // per segment: char offset of each cell relative to the segment start, or null if one char per cell.
+    private final int[][] cellOffsets;
+    // char offset of each segment, one extra for the end.
+    private final int[] segmentOffsets;
+    private final int offset;
+    private final int length;
+
+    /**
+     * View on cells [starts[i],ends[i]) of each segment i.
+     */
+    TextView(int[][] glyphs, String[][] clusters, int[] starts, int[] ends) {
+        this.glyphs = glyphs;
+        this.clusters = clusters;
+        this.starts = starts;
+        this.cellOffsets = new int[glyphs.length][];
+        this.segmentOffsets = new int[glyphs.length + 1];
+        int total = 0;
+        for (int s = 0; s < glyphs.length; s++) {
+            segmentOffsets[s] = total;
+            cellOffsets[s] = offsets(glyphs[s], clusters[s], starts[s], ends[s]);
+            total += (cellOffsets[s] == null) ? ends[s] - starts[s] : cellOffsets[s][ends[s] - starts[s]];
+        }
+        segmentOffsets[glyphs.length] = total;
+        this.offset = 0;
+        this.length = total;
+    }
+
+    private TextView(TextView view, int offset, int length) {
+        this.glyphs = view.glyphs;
+        this.clusters = view.clusters;
+        this.starts = view.starts;
+        this.cellOffsets = view.cellOffsets;
+        this.segmentOffsets = view.segmentOffsets;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    static TextView of(int[] glyphs, String[] clusters, int start, int end) {
+        return new TextView(new int[][]{glyphs}, new String[][]{clusters}, new int[]{start}, new int[]{end});
+    }
+
+    /**
+     * Char offsets of cells [start,end] or null if each cell is a single char.
+     */
+    private static int[] offsets(int[] glyphs, String[] clusters, int start, int end) {
+        int x = start;
+        while ((x < end) && (numChars(glyphs[x], clusters) == 1)) {
+            x++;
+        }
+        if (x == end) {
+            return null;
+        }
+        int[] offsets = new int[end - start + 1];
+        for (int i = 0; i < end - start; i++) {
+            offsets[i + 1] = offsets[i] + numChars(glyphs[start + i], clusters);
+        }
+        return offsets;
+    }
+
+    static int numChars(int glyph, String[] clusters) {
+        if (PackedCell.isCluster(glyph)) {
+            return ClusterTable.get(clusters, PackedCell.clusterId(glyph)).length();
+        }
+        return Character.charCount(PackedCell.codePoint(glyph));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if ((index < 0) || (index >= length)) {
+            throw new IndexOutOfBoundsException("index " + index + " not in [0," + length + ")");
+        }
+        int pos = offset + index;
+        int s = 0;
+        while (segmentOffsets[s + 1] <= pos) {
+            s++;
+        }
+        pos -= segmentOffsets[s];
+        int[] offsets = cellOffsets[s];
+        if (offsets == null) {
+            return (char) PackedCell.codePoint(glyphs[s][starts[s] + pos]);
+        }
+        int cell = Arrays.binarySearch(offsets, pos);
+        if (cell < 0) {
+            cell = -cell - 2;
+        }
+        int glyph = glyphs[s][starts[s] + cell];
+        int charIndex = pos - offsets[cell];
+        if (PackedCell.isCluster(glyph)) {
+            return ClusterTable.get(clusters[s], PackedCell.clusterId(glyph)).charAt(charIndex);
+        }
+        int codePoint = PackedCell.codePoint(glyph);
+        if (Character.isBmpCodePoint(codePoint)) {
+            return (char) codePoint;
+        }
+        return (charIndex == 0) ? Character.highSurrogate(codePoint) : Character.lowSurrogate(codePoint);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if ((start < 0) || (end > length) || (start > end)) {
+            throw new IndexOutOfBoundsException("range [" + start + "," + end + ") not in [0," + length + ")");
+        }
+        return new TextView(this, offset + start, end - start);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(charAt(i));
+        }
+        return sb.toString();
+    }
+
+}
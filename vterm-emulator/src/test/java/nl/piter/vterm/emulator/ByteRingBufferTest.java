@@ -0,0 +1,105 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ByteRingBufferTest {
+
+    @Test
+    public void capacityRoundedUp() {
+        ByteRingBuffer buffer = new ByteRingBuffer(1000, 10, 1000);
+        assertThat(buffer.capacity()).isEqualTo(1024);
+        assertThat(buffer.occupancy()).isEqualTo(0);
+    }
+
+    @Test
+    public void invalidWatermarks() {
+        try {
+            new ByteRingBuffer(1024, 512, 256);
+            Assert.fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void writeAndReadWrapAround() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, 4, 12);
+        byte[] out = new byte[16];
+        for (int round = 0; round < 10; round++) {
+            byte[] in = {(byte) round, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+            assertThat(buffer.write(in, 0, in.length)).isTrue();
+            assertThat(buffer.occupancy()).isEqualTo(10);
+            int len = 0;
+            while (len < in.length) {
+                len += buffer.read(out, len, out.length - len);
+            }
+            assertThat(len).isEqualTo(10);
+            assertThat(out[0]).isEqualTo((byte) round);
+            assertThat(out[9]).isEqualTo((byte) 9);
+        }
+        assertThat(buffer.getPeakOccupancy()).isEqualTo(10);
+        assertThat(buffer.getTotalBytes()).isEqualTo(100L);
+    }
+
+    @Test
+    public void closeReturnsEofWhenEmpty() {
+        ByteRingBuffer buffer = new ByteRingBuffer(16, 4, 12);
+        buffer.write(new byte[]{1, 2}, 0, 2);
+        buffer.close();
+        byte[] out = new byte[4];
+        assertThat(buffer.read(out, 0, 4)).isEqualTo(2);
+        assertThat(buffer.read(out, 0, 4)).isEqualTo(-1);
+    }
+
+    /**
+     * Producer thread is throttled at the high watermark, consumer must receive all bytes in order.
+     */
+    @Test
+    public void producerConsumer() throws Exception {
+        byte[] input = new byte[1024 * 1024];
+        for (int i = 0; i < input.length; i++) {
+            input[i] = (byte) (i * 31);
+        }
+        ByteRingBuffer buffer = new ByteRingBuffer(4096, 1024, 3072);
+        Thread producer = new Thread(() -> {
+            ByteArrayInputStream inps = new ByteArrayInputStream(input);
+            try {
+                while (buffer.readFrom(inps) >= 0) {
+                    // continue
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                buffer.close();
+            }
+        });
+        producer.start();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream(input.length);
+        byte[] block = new byte[1000];
+        int len;
+        while ((len = buffer.read(block, 0, block.length)) >= 0) {
+            output.write(block, 0, len);
+        }
+        producer.join();
+
+        assertThat(output.toByteArray()).isEqualTo(input);
+        assertThat(buffer.getPeakOccupancy()).isLessThanOrEqualTo(4096);
+        assertThat(buffer.occupancy()).isEqualTo(0);
+    }
+
+}
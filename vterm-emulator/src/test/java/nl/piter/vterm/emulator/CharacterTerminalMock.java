@@ -23,6 +23,9 @@ public class CharacterTerminalMock implements CharacterTerminal {
     protected int drawForeground;
     protected int drawStyle;
     char[][] chars;
+    boolean[] wrapped;
+    // combined code points per cell
+    String[][] combined;
 
     protected int currentStyle;
     protected int currentCharSet;
@@ -40,6 +43,8 @@ public class CharacterTerminalMock implements CharacterTerminal {
         this.rows = rows;
         this.columns = cols;
         chars = new char[rows][cols];
+        wrapped = new boolean[rows];
+        combined = new String[rows][cols];
     }
 
     @Override
@@ -73,6 +78,20 @@ public class CharacterTerminalMock implements CharacterTerminal {
         chars[cursorY][cursorX] = new String(bytes).charAt(0);
     }
 
+    @Override
+    public void writeCodePoint(int codePoint) {
+        chars[cursorY][cursorX] = (char) codePoint;
+    }
+
+    @Override
+    public void writeText(byte[] bytes, int offset, int length) {
+        int x = cursorX;
+        int end = offset + length;
+        for (int pos = offset; pos < end; pos += Utf8Decoder.sequenceLength(bytes, pos, end)) {
+            chars[cursorY][x++] = (char) Utf8Decoder.codePointAt(bytes, pos);
+        }
+    }
+
     @Override
     public void putChar(byte[] bytes, int x, int y) {
         chars[y][x] = new String(bytes).charAt(0);
@@ -159,6 +178,17 @@ public class CharacterTerminalMock implements CharacterTerminal {
         //dummy
     }
 
+    @Override
+    public void setLineWrapped(int y, boolean value) {
+        wrapped[y] = value;
+    }
+
+    @Override
+    public void combineCodePoint(int x, int y, int codePoint) {
+        String prev = (combined[y][x] == null) ? "" : combined[y][x];
+        combined[y][x] = prev + new String(Character.toChars(codePoint));
+    }
+
     @Override
     public void setCharSet(int nr) {
         currentCharSet = nr;
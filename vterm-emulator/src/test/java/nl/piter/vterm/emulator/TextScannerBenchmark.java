@@ -0,0 +1,89 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import static nl.piter.vterm.emulator.VTxCharDefs.CTRL_ESC;
+
+/**
+ * JMH comparison of scalar and SWAR text scanning.
+ * <p>
+ * Uses a recorded session if system property "vterm.bench.recording" points to a raw byte log (for example
+ * captured with 'script'), otherwise a synthetic session with colored 'ls' and compiler like output.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nl.piter.vterm.emulator.TextScannerBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextScannerBenchmark {
+
+    private byte[] session;
+
+    @Setup
+    public void setup() throws IOException {
+        String recording = System.getProperty("vterm.bench.recording");
+        if (recording != null) {
+            session = Files.readAllBytes(Paths.get(recording));
+        } else {
+            session = createSession();
+        }
+    }
+
+    static byte[] createSession() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            sb.append("-rw-r--r--  1 piter users  ").append(1000 + i * 7).append(" Jan 12 10:42 ")
+                    .append(CTRL_ESC).append("[01;34m").append("directory-").append(i).append(CTRL_ESC).append("[0m\r\n");
+            sb.append("[INFO] Compiling ").append(i % 97).append(" source files to /home/piter/vterm/target/classes\r\n");
+            if (i % 10 == 0) {
+                sb.append("Größe: ").append(i).append(" € – done\r\n");
+            }
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public int scalar() {
+        int pos = 0;
+        int runs = 0;
+        while (pos < session.length) {
+            pos = TextScanner.scanScalar(session, pos, session.length) + 1;
+            runs++;
+        }
+        return runs;
+    }
+
+    @Benchmark
+    public int swar() {
+        int pos = 0;
+        int runs = 0;
+        while (pos < session.length) {
+            pos = TextScanner.scanSwar(session, pos, session.length) + 1;
+            runs++;
+        }
+        return runs;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TextScannerBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
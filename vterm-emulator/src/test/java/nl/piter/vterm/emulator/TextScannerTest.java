@@ -0,0 +1,63 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TextScannerTest {
+
+    @Test
+    public void printableOnly() {
+        byte[] bytes = "The quick brown fox jumps over the lazy dog ~!".getBytes();
+        assertThat(TextScanner.scanSwar(bytes, 0, bytes.length)).isEqualTo(bytes.length);
+        assertThat(TextScanner.scanScalar(bytes, 0, bytes.length)).isEqualTo(bytes.length);
+        assertThat(TextScanner.scanSwar(bytes, 3, 11)).isEqualTo(11);
+    }
+
+    /**
+     * Each non printable byte value at each position of a (partial) word must be found.
+     */
+    @Test
+    public void allStopBytesAllPositions() {
+        byte[] bytes = new byte[24];
+        for (int value = 0; value < 256; value++) {
+            boolean printable = (value >= 0x20) && (value < 0x7f);
+            for (int pos = 0; pos < bytes.length; pos++) {
+                Arrays.fill(bytes, (byte) 'a');
+                bytes[pos] = (byte) value;
+                int expected = printable ? bytes.length : pos;
+                assertThat(TextScanner.scanSwar(bytes, 0, bytes.length)).as("value %s at %s", value, pos).isEqualTo(expected);
+                assertThat(TextScanner.scanScalar(bytes, 0, bytes.length)).isEqualTo(expected);
+            }
+        }
+    }
+
+    /**
+     * Borrows of a control byte may not hide or move the first stop byte.
+     */
+    @Test
+    public void randomSameAsScalar() {
+        Random random = new Random(42);
+        byte[] bytes = new byte[64];
+        for (int i = 0; i < 10000; i++) {
+            for (int j = 0; j < bytes.length; j++) {
+                // mostly printable:
+                bytes[j] = (byte) (random.nextInt(16) == 0 ? random.nextInt(256) : 0x20 + random.nextInt(0x5f));
+            }
+            int offset = random.nextInt(8);
+            assertThat(TextScanner.scanSwar(bytes, offset, bytes.length))
+                    .isEqualTo(TextScanner.scanScalar(bytes, offset, bytes.length));
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static nl.piter.vterm.emulator.Utf8Decoder.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class Utf8DecoderTest {
+
+    @Test
+    public void decodeAll() {
+        String str = "aé€😀";
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        Utf8Decoder decoder = new Utf8Decoder();
+        int[] codePoints = new int[4];
+        int num = 0;
+        for (byte b : bytes) {
+            int result = decoder.decode(b & 0xff);
+            assertThat(result).isNotEqualTo(REJECT);
+            if (result == ACCEPT) {
+                codePoints[num++] = decoder.codePoint();
+            }
+        }
+        assertThat(codePoints).isEqualTo(str.codePoints().toArray());
+    }
+
+    @Test
+    public void rejectOverlong() {
+        // overlong '/': c0 af and e0 80 af
+        assertRejected(0xc0);
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertThat(decoder.decode(0xe0)).isEqualTo(CONTINUE);
+        assertThat(decoder.decode(0x80)).isEqualTo(REJECT);
+        assertThat(decoder.isConsumed()).isFalse();
+        assertThat(decoder.codePoint()).isEqualTo(REPLACEMENT_CHAR);
+    }
+
+    @Test
+    public void rejectSurrogatesAndOutOfRange() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertThat(decoder.decode(0xed)).isEqualTo(CONTINUE);
+        assertThat(decoder.decode(0xa0)).isEqualTo(REJECT);
+        assertThat(decoder.decode(0xf4)).isEqualTo(CONTINUE);
+        assertThat(decoder.decode(0x90)).isEqualTo(REJECT);
+        assertRejected(0xf5);
+    }
+
+    @Test
+    public void rejectFiveAndSixByteForms() {
+        assertRejected(0xf8);
+        assertRejected(0xfc);
+        assertRejected(0xfe);
+        assertRejected(0xff);
+    }
+
+    @Test
+    public void interruptedSequence() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertThat(decoder.decode(0xe2)).isEqualTo(CONTINUE);
+        assertThat(decoder.decode(0x82)).isEqualTo(CONTINUE);
+        assertThat(decoder.decode('x')).isEqualTo(REJECT);
+        assertThat(decoder.isConsumed()).isFalse();
+        // reprocess:
+        assertThat(decoder.decode('x')).isEqualTo(ACCEPT);
+        assertThat(decoder.codePoint()).isEqualTo((int) 'x');
+    }
+
+    @Test
+    public void abortAtEof() {
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertThat(decoder.abort()).isEqualTo(ACCEPT);
+        decoder.decode(0xf0);
+        assertThat(decoder.abort()).isEqualTo(REJECT);
+        assertThat(decoder.inSequence()).isFalse();
+    }
+
+    @Test
+    public void encodeAndSequenceLength() {
+        byte[] buffer = new byte[4];
+        for (int codePoint : new int[]{'a', 0xe9, 0x20ac, 0x1f600}) {
+            int len = encode(codePoint, buffer, 0);
+            assertThat(sequenceLength(buffer, 0, len)).isEqualTo(len);
+            assertThat(codePointAt(buffer, 0)).isEqualTo(codePoint);
+            assertThat(new String(buffer, 0, len, StandardCharsets.UTF_8).codePointAt(0)).isEqualTo(codePoint);
+        }
+        // incomplete:
+        assertThat(sequenceLength(buffer, 0, 3)).isEqualTo(0);
+    }
+
+    private void assertRejected(int lead) {
+        Utf8Decoder decoder = new Utf8Decoder();
+        assertThat(decoder.decode(lead)).as("lead byte %s", lead).isEqualTo(REJECT);
+        assertThat(decoder.isConsumed()).isTrue();
+        assertThat(decoder.codePoint()).isEqualTo(REPLACEMENT_CHAR);
+    }
+
+}
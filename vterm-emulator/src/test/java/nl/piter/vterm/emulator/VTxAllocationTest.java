@@ -0,0 +1,147 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+
+import static nl.piter.vterm.emulator.Tokens.Token.EOF;
+import static nl.piter.vterm.emulator.VTxCharDefs.CTRL_ESC;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verify zero steady state allocation per escape sequence. Debug logging is switched off during the test
+ * as enabled log statements do allocate. A few rounds are measured to skip one-off allocations by
+ * the JIT (deoptimization), at least one round must be allocation free.
+ */
+public class VTxAllocationTest {
+
+    private static final String[] LOGGERS = {"VTERM-RECORDER", "nl.piter.vterm.emulator", "nl.piter.vterm.emulator.VTxTokenizer"};
+
+    private static final String SEQUENCES = CTRL_ESC + "[1;31m" + CTRL_ESC + "[12;34H" + CTRL_ESC + "[?25l"
+            + CTRL_ESC + "[?1;7h" + CTRL_ESC + "[K" + CTRL_ESC + "[38;5;200m" + CTRL_ESC + "[2A" + CTRL_ESC + "[0m"
+            + "ab\r\n" + CTRL_ESC + "[;2;q" + CTRL_ESC + "[2;3r" + CTRL_ESC + "[H" + CTRL_ESC + "[6C";
+
+    private static final int NUM_WARMUP = 2000;
+    private static final int NUM_MEASURED = 1000;
+    private static final int NUM_ROUNDS = 5;
+
+    private final Level[] savedLevels = new Level[LOGGERS.length];
+
+    private com.sun.management.ThreadMXBean threadBean;
+
+    @Before
+    public void setup() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        for (int i = 0; i < LOGGERS.length; i++) {
+            Logger logger = Logger.getLogger(LOGGERS[i]);
+            savedLevels[i] = logger.getLevel();
+            logger.setLevel(Level.WARN);
+        }
+    }
+
+    @After
+    public void restore() {
+        for (int i = 0; i < LOGGERS.length; i++) {
+            Logger.getLogger(LOGGERS[i]).setLevel(savedLevels[i]);
+        }
+    }
+
+    @Test
+    public void searchTreeTokenizer() throws IOException {
+        assertZeroAllocation(VTxTokenizer.Engine.SEARCH_TREE);
+    }
+
+    @Test
+    public void stateMachineTokenizer() throws IOException {
+        assertZeroAllocation(VTxTokenizer.Engine.STATE_MACHINE);
+    }
+
+    @Test
+    public void emulator() throws IOException {
+        CharacterTerminalMock term = new CharacterTerminalMock();
+        VTxEmulator emulator = new VTxEmulator(term, new ByteArrayInputStream(createInput()), new ByteArrayOutputStream());
+        emulator.setTokenizerEngine(VTxTokenizer.Engine.STATE_MACHINE);
+
+        for (int i = 0; i < NUM_WARMUP; i++) {
+            emulator.nextToken();
+        }
+        long overhead = measureOverhead();
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long start = allocatedBytes();
+            for (int i = 0; i < NUM_MEASURED; i++) {
+                emulator.nextToken();
+            }
+            allocated = Math.min(allocated, allocatedBytes() - start - overhead);
+        }
+        assertThat(allocated).as("allocated bytes for %s tokens", NUM_MEASURED).isEqualTo(0L);
+    }
+
+    private void assertZeroAllocation(VTxTokenizer.Engine engine) throws IOException {
+        VTxTokenizer tokenizer = new VTxTokenizer(new ByteArrayInputStream(createInput()),
+                VTxTokenizer.DEFAULT_READ_BUFFER_SIZE, engine);
+        tokenizer.setMaxTextRun(80);
+
+        int sum = 0;
+        for (int i = 0; i < NUM_WARMUP; i++) {
+            assertThat(tokenizer.nextToken()).isNotEqualTo(EOF);
+        }
+        long overhead = measureOverhead();
+        long allocated = Long.MAX_VALUE;
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            long start = allocatedBytes();
+            for (int i = 0; i < NUM_MEASURED; i++) {
+                tokenizer.nextToken();
+                // use indexed accessors as the emulator does:
+                for (int j = 0; j < tokenizer.args().numArgs(); j++) {
+                    sum += tokenizer.args().intArg(j);
+                }
+            }
+            allocated = Math.min(allocated, allocatedBytes() - start - overhead);
+        }
+        assertThat(sum).isGreaterThan(0);
+        assertThat(allocated).as("allocated bytes for %s tokens with %s", NUM_MEASURED, engine).isEqualTo(0L);
+    }
+
+    private byte[] createInput() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            sb.append(SEQUENCES);
+        }
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private long allocatedBytes() {
+        return threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Allocation done by measuring itself.
+     */
+    private long measureOverhead() {
+        long start = allocatedBytes();
+        return allocatedBytes() - start;
+    }
+
+}
@@ -9,13 +9,18 @@ package nl.piter.vterm.emulator;
 
 import lombok.extern.slf4j.Slf4j;
 import nl.piter.vterm.api.CharacterTerminal;
+import nl.piter.vterm.api.EmulatorListener;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
+import static nl.piter.vterm.emulator.VTxCharDefs.CTRL_BEL;
 import static nl.piter.vterm.emulator.VTxCharDefs.CTRL_ESC;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -39,6 +44,127 @@ public class VTxEmulatorIT {
         assertThat(sendBytes).isEqualTo(bytes);
     }
 
+    @Test
+    public void textRunAutoWrap() throws IOException {
+        byte[] bytes = "0123456789abc".getBytes(StandardCharsets.UTF_8);
+        CharacterTerminalMock charTerm = new CharacterTerminalMock();
+        charTerm.resize(4, 10);
+        VTxEmulator emulator = new VTxEmulator(charTerm, new ByteArrayInputStream(bytes), null);
+        // run up to last column:
+        emulator.nextToken();
+        assertThat(charTerm.getCursorX()).isEqualTo(9);
+        assertThat(new String(charTerm.chars[0], 0, 9)).isEqualTo("012345678");
+        // last column and wrapped characters:
+        for (int i = 0; i < 3; i++) {
+            emulator.nextToken();
+        }
+        assertThat(charTerm.chars[0][9]).isEqualTo('9');
+        assertThat(new String(charTerm.chars[1], 0, 3)).isEqualTo("abc");
+        assertThat(charTerm.getCursorY()).isEqualTo(1);
+        assertThat(charTerm.getCursorX()).isEqualTo(3);
+        // soft wrap:
+        assertThat(charTerm.wrapped[0]).isTrue();
+        assertThat(charTerm.wrapped[1]).isFalse();
+    }
+
+    @Test
+    public void combiningCharacters() throws IOException {
+        // combining accent after a text run, in a text run and as single character, emoji zwj sequence:
+        String text = "abe\u0301\u0302cd" + "x\u0301" + "\ud83d\udc68\u200d\ud83d\udc69z";
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        CharacterTerminalMock charTerm = new CharacterTerminalMock();
+        charTerm.resize(4, 20);
+        VTxEmulator emulator = new VTxEmulator(charTerm, null, null);
+        emulator.feed(bytes, 0, bytes.length);
+        assertThat(new String(charTerm.chars[0], 0, 6)).isEqualTo("abecdx");
+        assertThat((int) charTerm.chars[0][6]).isEqualTo(0x1f468 & 0xffff);
+        assertThat(charTerm.combined[0][2]).isEqualTo("\u0301\u0302");
+        assertThat(charTerm.combined[0][5]).isEqualTo("\u0301");
+        assertThat(charTerm.combined[0][6]).isEqualTo("\u200d\ud83d\udc69");
+        assertThat(charTerm.chars[0][7]).isEqualTo('z');
+        assertThat(charTerm.getCursorX()).isEqualTo(8);
+    }
+
+    @Test
+    public void joinerBeforeCursorMove() throws IOException {
+        byte[] bytes = ("a\u200d" + CTRL_ESC + "[5;5H" + "b").getBytes(StandardCharsets.UTF_8);
+        CharacterTerminalMock charTerm = new CharacterTerminalMock();
+        charTerm.resize(6, 10);
+        VTxEmulator emulator = new VTxEmulator(charTerm, null, null);
+        emulator.feed(bytes, 0, bytes.length);
+        assertThat(charTerm.combined[0][0]).isEqualTo("\u200d");
+        // not joined with the cell left of the new cursor position:
+        assertThat(charTerm.chars[4][4]).isEqualTo('b');
+        assertThat(charTerm.combined[4][3]).isNull();
+        assertThat(charTerm.getCursorX()).isEqualTo(5);
+    }
+
+    @Test
+    public void feedSplitBytes() throws IOException {
+        byte[] bytes = ("0123456789abc" + CTRL_ESC + "[3;5Hx€y" + CTRL_ESC + "[1;31mz").getBytes(StandardCharsets.UTF_8);
+        for (int pieceSize = 1; pieceSize <= bytes.length; pieceSize++) {
+            CharacterTerminalMock charTerm = new CharacterTerminalMock();
+            charTerm.resize(4, 10);
+            VTxEmulator emulator = new VTxEmulator(charTerm, null, null);
+            for (int offset = 0; offset < bytes.length; offset += pieceSize) {
+                emulator.feed(bytes, offset, Math.min(pieceSize, bytes.length - offset));
+            }
+            assertThat(new String(charTerm.chars[0])).isEqualTo("0123456789");
+            assertThat(new String(charTerm.chars[1], 0, 3)).isEqualTo("abc");
+            assertThat(new String(charTerm.chars[2], 4, 4)).isEqualTo("x€yz");
+            assertThat(charTerm.getCursorX()).isEqualTo(8);
+        }
+    }
+
+    @Test
+    public void readerThread() {
+        byte[] bytes = ("0123456789abc" + CTRL_ESC + "[3;5Hx€y").getBytes(StandardCharsets.UTF_8);
+        CharacterTerminalMock charTerm = new CharacterTerminalMock();
+        charTerm.resize(4, 10);
+        VTxEmulator emulator = new VTxEmulator(charTerm, new ByteArrayInputStream(bytes), null);
+        emulator.setInputRingBuffer(new ByteRingBuffer(16, 4, 12));
+        // feed() parses with the state machine:
+        assertThat(emulator.getTokenizerEngine()).isEqualTo(VTxTokenizer.Engine.STATE_MACHINE);
+        emulator.setTokenizerEngine(VTxTokenizer.Engine.SEARCH_TREE);
+        assertThat(emulator.getTokenizerEngine()).isEqualTo(VTxTokenizer.Engine.STATE_MACHINE);
+        // returns at EOF:
+        emulator.start();
+        assertThat(new String(charTerm.chars[1], 0, 3)).isEqualTo("abc");
+        assertThat(new String(charTerm.chars[2], 4, 3)).isEqualTo("x€y");
+        assertThat(emulator.getInputRingBuffer().getTotalBytes()).isEqualTo((long) bytes.length);
+    }
+
+    @Test
+    public void longTitle() throws IOException {
+        char[] chars = new char[3 * VTxStateMachine.MAX_STRING];
+        Arrays.fill(chars, 't');
+        String title = new String(chars);
+        byte[] bytes = (CTRL_ESC + "]0;" + title + CTRL_BEL + "x").getBytes(StandardCharsets.UTF_8);
+        List<String> titles = new ArrayList<>();
+        EmulatorListener listener = new EmulatorListener() {
+            public void emulatorStarted() {
+            }
+
+            public void emulatorStopped() {
+            }
+
+            public void notifyTermTitle(int type, String arg) {
+                titles.add(arg);
+            }
+
+            public void notifyResized(int columns, int rows) {
+            }
+        };
+        // pulled with the search tree, fed to the state machine:
+        VTxEmulator emulator = new VTxEmulator(createCharacterTermMock(), new ByteArrayInputStream(bytes), null);
+        emulator.addListener(listener);
+        emulator.nextToken();
+        emulator = new VTxEmulator(createCharacterTermMock(), null, null);
+        emulator.addListener(listener);
+        emulator.feed(bytes, 0, bytes.length);
+        assertThat(titles).isEqualTo(Arrays.asList(title, title));
+    }
+
     @Test
     public void setCursor() throws IOException {
         // \[[<rows>;<columns>H
@@ -0,0 +1,84 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static nl.piter.vterm.emulator.Tokens.Token.*;
+import static nl.piter.vterm.emulator.VTxCharDefs.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Run tokenizer sequences against the state machine engine, plus engine specific sequences.
+ */
+public class VTxStateMachineTokenizerTest extends VTxTokenizerTest {
+
+    @Override
+    protected VTxTokenizer createTokenizer(InputStream inps, int readBufferSize) {
+        return new VTxTokenizer(inps, readBufferSize, VTxTokenizer.Engine.STATE_MACHINE);
+    }
+
+    @Test
+    public void csiIntermediates() throws IOException {
+        testSequence(new byte[]{CTRL_ESC, '[', '?', '1', '2', '$', 'p'}, UNSUPPORTED, new int[]{12});
+    }
+
+    @Test
+    public void escIntermediate() throws IOException {
+        testSequence(new byte[]{CTRL_ESC, '#', '8'}, DEC_SCREEN_ALIGNMENT, new int[]{});
+    }
+
+    @Test
+    public void unknownCsiIsError() throws IOException {
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(new byte[]{CTRL_ESC, '[', '1', 'p', 'a'}));
+        assertThat(tokenizer.nextToken()).isEqualTo(ERROR);
+        // parser recovers at next char:
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("a");
+    }
+
+    @Test
+    public void cancelSequence() throws IOException {
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(new byte[]{CTRL_ESC, '[', '1', CTRL_CAN, 'A'}));
+        assertThat(tokenizer.nextToken()).isEqualTo(CAN);
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("A");
+    }
+
+    @Test
+    public void abortedStringRestartsEscapeSequence() throws IOException {
+        // YaST: OSC prefix directly followed by a charset designation:
+        testSequence(new byte[]{CTRL_ESC, ']', CTRL_ESC, '(', 'B'}, CHARSET_G0_DES, "B");
+    }
+
+    @Test
+    public void utf8Char() throws IOException {
+        byte[] bytes = "€x".getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("€");
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("x");
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
+    @Test
+    public void longStringTruncatedWithoutHandler() throws IOException {
+        byte[] bytes = (CTRL_ESC + "]2;" + repeat('t', 1000) + CTRL_BEL).getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        assertThat(tokenizer.nextToken()).isEqualTo(OSC_GRAPHMODE);
+        assertThat(tokenizer.args().arg1()).isEqualTo(2);
+        assertThat(tokenizer.args().strArg()).isEqualTo(repeat('t', VTxStateMachine.MAX_STRING - 2));
+    }
+
+}
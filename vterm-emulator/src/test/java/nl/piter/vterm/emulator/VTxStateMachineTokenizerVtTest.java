@@ -0,0 +1,22 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import java.io.InputStream;
+
+/**
+ * Run 'vttest' inspired sequences against the state machine engine.
+ */
+public class VTxStateMachineTokenizerVtTest extends VTxTokenizerVtTest {
+
+    @Override
+    protected VTxTokenizer createTokenizer(InputStream inps) {
+        return new VTxTokenizer(inps, VTxTokenizer.DEFAULT_READ_BUFFER_SIZE, VTxTokenizer.Engine.STATE_MACHINE);
+    }
+
+}
@@ -36,6 +36,14 @@ public class VTxTokenDefsTest {
         );
     }
 
+    @Test
+    public void sharedPatterns() {
+        IToken first = new VTxTokenDefs().getPatterns().get(0);
+        IToken second = new VTxTokenDefs().getPatterns().get(0);
+        // compiled once:
+        assertThat(second).isSameAs(first);
+    }
+
     @Test
     public void findPartialPrefix() {
         VTxTokenDefs tokenDefs = new VTxTokenDefs();
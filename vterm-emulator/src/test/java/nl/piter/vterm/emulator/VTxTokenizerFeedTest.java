@@ -0,0 +1,129 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static nl.piter.vterm.emulator.Tokens.Token.*;
+import static nl.piter.vterm.emulator.VTxCharDefs.CTRL_ESC;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Push API: feeding bytes in arbitrary pieces must result in the same tokens as pulling them from a stream.
+ */
+public class VTxTokenizerFeedTest {
+
+    private static final String INPUT = "hello" + CTRL_ESC + "[1;31m" + "wörld €" + CTRL_ESC + "[?25l\r\n"
+            + CTRL_ESC + "]0;title\007" + CTRL_ESC + "(B" + "x" + CTRL_ESC + "[12;34H" + "😀!" + CTRL_ESC + "[0m";
+
+    /**
+     * Text runs are split at feed boundaries, so all text is concatenated before comparing.
+     */
+    private static class Recorder implements VTxTokenizer.TokenHandler {
+        private final StringBuilder sb = new StringBuilder();
+        private VTxTokenizer tokenizer;
+
+        @Override
+        public void handleToken(Tokens.Token token) {
+            if ((token == CHAR) || (token == TEXT)) {
+                sb.append(tokenizer.getText());
+            } else {
+                sb.append('<').append(token).append(tokenizer.getFormattedArguments()).append('>');
+            }
+        }
+    }
+
+    @Test
+    public void feedAll() throws IOException {
+        byte[] bytes = INPUT.getBytes(StandardCharsets.UTF_8);
+        assertThat(feed(bytes, bytes.length)).isEqualTo(pull(bytes));
+    }
+
+    @Test
+    public void feedSplitAnywhere() throws IOException {
+        byte[] bytes = INPUT.getBytes(StandardCharsets.UTF_8);
+        String expected = pull(bytes);
+        for (int pieceSize = 1; pieceSize < bytes.length; pieceSize++) {
+            assertThat(feed(bytes, pieceSize)).as("piece size %s", pieceSize).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void textRun() throws IOException {
+        Recorder recorder = new Recorder();
+        VTxTokenizer tokenizer = new VTxTokenizer(recorder);
+        recorder.tokenizer = tokenizer;
+        tokenizer.setMaxTextRun(80);
+        byte[] bytes = "abc€".getBytes(StandardCharsets.UTF_8);
+
+        Tokens.Token[] tokens = new Tokens.Token[1];
+        tokenizer.setTokenHandler(token -> {
+            tokens[0] = token;
+            assertThat(tokenizer.getTextBuffer()).isSameAs(bytes);
+            assertThat(tokenizer.getTextNumChars()).isEqualTo(4);
+            assertThat(tokenizer.getTextLastCodePoint()).isEqualTo((int) '€');
+        });
+        tokenizer.feed(bytes, 0, bytes.length);
+        assertThat(tokens[0]).isEqualTo(TEXT);
+    }
+
+    @Test
+    public void incompleteUtf8AtEof() throws IOException {
+        Recorder recorder = new Recorder();
+        VTxTokenizer tokenizer = new VTxTokenizer(recorder);
+        recorder.tokenizer = tokenizer;
+        byte[] bytes = {'a', (byte) 0xe2, (byte) 0x82};
+        tokenizer.feed(bytes, 0, bytes.length);
+        assertThat(recorder.sb.toString()).isEqualTo("a");
+        tokenizer.feedEof();
+        assertThat(recorder.sb.toString()).isEqualTo("a�<EOF[]>");
+    }
+
+    @Test
+    public void pushOnlyCannotPull() throws IOException {
+        VTxTokenizer tokenizer = new VTxTokenizer(new Recorder());
+        try {
+            tokenizer.nextToken();
+            Assert.fail("nextToken() on push-only tokenizer");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage()).isEqualTo("push-only tokenizer");
+        }
+    }
+
+    private String feed(byte[] bytes, int pieceSize) throws IOException {
+        Recorder recorder = new Recorder();
+        VTxTokenizer tokenizer = new VTxTokenizer(recorder);
+        recorder.tokenizer = tokenizer;
+        tokenizer.setMaxTextRun(80);
+        for (int offset = 0; offset < bytes.length; offset += pieceSize) {
+            tokenizer.feed(bytes, offset, Math.min(pieceSize, bytes.length - offset));
+        }
+        tokenizer.feedEof();
+        return recorder.sb.toString();
+    }
+
+    private String pull(byte[] bytes) throws IOException {
+        Recorder recorder = new Recorder();
+        VTxTokenizer tokenizer = new VTxTokenizer(new ByteArrayInputStream(bytes),
+                VTxTokenizer.DEFAULT_READ_BUFFER_SIZE, VTxTokenizer.Engine.STATE_MACHINE);
+        recorder.tokenizer = tokenizer;
+        tokenizer.setMaxTextRun(80);
+        Tokens.Token token;
+        do {
+            token = tokenizer.nextToken();
+            recorder.handleToken(token);
+        } while (token != EOF);
+        return recorder.sb.toString();
+    }
+
+}
@@ -13,6 +13,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
@@ -35,7 +36,7 @@ public class VTxTokenizerTest {
         String source = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLNMOPQRSTUVWXYZ0123456789";
         byte[] bytes = source.getBytes(StandardCharsets.UTF_8);
         InputStream inps = new ByteArrayInputStream(bytes);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
         Tokens.Token token;
         int index = 0;
 
@@ -213,12 +214,258 @@ public class VTxTokenizerTest {
         testSequence(seq, tokens, values, strValues);
     }
 
+    @Test
+    public void readBufferRefillBoundaries() throws IOException {
+        byte[] seq = new byte[]{'a', CTRL_ESC, '[', '1', '2', ';', '3', '4', 'H', CTRL_ESC, '[', '?', '2', '5', 'l', 'b'};
+        // Small read buffer and stream which returns at most 3 bytes per read:
+        for (int bufSize = 1; bufSize < 5; bufSize++) {
+            VTxTokenizer tokenizer = createTokenizer(new TrickleInputStream(seq, 3), bufSize);
+            assertThat(tokenizer.nextToken()).as("buffer size %s", bufSize).isEqualTo(CHAR);
+            assertThat(tokenizer.nextToken()).as("buffer size %s", bufSize).isEqualTo(SET_CURSOR);
+            assertThat(tokenizer.args().intArg(0)).isEqualTo(12);
+            assertThat(tokenizer.args().intArg(1)).isEqualTo(34);
+            assertThat(tokenizer.nextToken()).as("buffer size %s", bufSize).isEqualTo(DEC_RESETMODE);
+            assertThat(tokenizer.args().intArg(0)).isEqualTo(25);
+            assertThat(tokenizer.nextToken()).as("buffer size %s", bufSize).isEqualTo(CHAR);
+            assertThat(tokenizer.getText()).isEqualTo("b");
+            assertThat(tokenizer.nextToken()).as("buffer size %s", bufSize).isEqualTo(EOF);
+        }
+    }
+
+    @Test
+    public void readBufferUngetAcrossRefill() throws IOException {
+        VTxTokenizer tokenizer = createTokenizer(new TrickleInputStream(new byte[]{'x', 'y', 'z'}, 1), 1);
+        assertThat(tokenizer.nextChar()).isEqualTo((int) 'x');
+        assertThat(tokenizer.nextChar()).isEqualTo((int) 'y');
+        tokenizer.ungetChar('y');
+        tokenizer.ungetChar('x');
+        assertThat(tokenizer.nextChar()).isEqualTo((int) 'x');
+        assertThat(tokenizer.nextChar()).isEqualTo((int) 'y');
+        assertThat(tokenizer.nextChar()).isEqualTo((int) 'z');
+        assertThat(tokenizer.nextChar()).isEqualTo(-1);
+    }
+
+    @Test
+    public void textRun() throws IOException {
+        byte[] seq = "ab€cd\r\nx".getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        tokenizer.setMaxTextRun(80);
+        assertThat(tokenizer.nextToken()).isEqualTo(TEXT);
+        assertThat(tokenizer.getText()).isEqualTo("ab€cd");
+        assertThat(tokenizer.getTextNumChars()).isEqualTo(5);
+        assertThat(tokenizer.getTextLastCodePoint()).isEqualTo((int) 'd');
+        assertThat(tokenizer.nextToken()).isEqualTo(CR);
+        assertThat(tokenizer.nextToken()).isEqualTo(LF);
+        // single char is not a run:
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("x");
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
+    @Test
+    public void textRunMaxChars() throws IOException {
+        byte[] seq = new byte[]{'a', 'b', 'c', 'd', 'e', CTRL_ESC, '[', '2', 'A'};
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        tokenizer.setMaxTextRun(3);
+        assertThat(tokenizer.nextToken()).isEqualTo(TEXT);
+        assertThat(tokenizer.getText()).isEqualTo("abc");
+        assertThat(tokenizer.nextToken()).isEqualTo(TEXT);
+        assertThat(tokenizer.getText()).isEqualTo("de");
+        assertThat(tokenizer.nextToken()).isEqualTo(UP);
+        assertThat(tokenizer.args().intArg(0)).isEqualTo(2);
+    }
+
+    @Test
+    public void textRunStopsAtInvalidUtf8() throws IOException {
+        // overlong encoding of '/' is not part of a run:
+        byte[] seq = new byte[]{'a', 'b', (byte) 0xc0, (byte) 0xaf, 'c'};
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        tokenizer.setMaxTextRun(80);
+        assertThat(tokenizer.nextToken()).isEqualTo(TEXT);
+        assertThat(tokenizer.getText()).isEqualTo("ab");
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+    }
+
+    @Test
+    public void utf8CodePoint() throws IOException {
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream("a€\uD83D\uDE00".getBytes(StandardCharsets.UTF_8)));
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo((int) 'a');
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo(0x20ac);
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo(0x1f600);
+        assertThat(tokenizer.getText()).isEqualTo("\uD83D\uDE00");
+    }
+
+    @Test
+    public void utf8Malformed() throws IOException {
+        // truncated 3 byte sequence followed by 'x': replacement char, then 'x'.
+        byte[] seq = new byte[]{(byte) 0xe2, (byte) 0x82, 'x'};
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo(Utf8Decoder.REPLACEMENT_CHAR);
+        assertThat(tokenizer.getBytes()).isEqualTo(Utf8Decoder.REPLACEMENT_BYTES);
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo((int) 'x');
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
+    @Test
+    public void utf8FiveByteFormRejected() throws IOException {
+        byte[] seq = new byte[]{(byte) 0xf8, (byte) 0x88, (byte) 0x80, (byte) 0x80, (byte) 0x80};
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        for (int i = 0; i < seq.length; i++) {
+            assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+            assertThat(tokenizer.getCodePoint()).isEqualTo(Utf8Decoder.REPLACEMENT_CHAR);
+        }
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
+    @Test
+    public void utf8IncompleteAtEof() throws IOException {
+        byte[] seq = new byte[]{'a', (byte) 0xe2, (byte) 0x82};
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(seq));
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getCodePoint()).isEqualTo(Utf8Decoder.REPLACEMENT_CHAR);
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
     // --- Helper methods --- //
 
+    /**
+     * Collects streamed string payload.
+     */
+    private static class PayloadRecorder implements StringPayloadHandler {
+        private final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        private Tokens.Token token;
+        private int command;
+        private int numChunks;
+        private int maxChunk;
+        private Boolean complete;
+
+        @Override
+        public void startPayload(Tokens.Token token, int command) {
+            this.token = token;
+            this.command = command;
+        }
+
+        @Override
+        public void payloadChunk(byte[] bytes, int offset, int length) {
+            payload.write(bytes, offset, length);
+            numChunks++;
+            maxChunk = Math.max(maxChunk, length);
+        }
+
+        @Override
+        public void endPayload(boolean complete) {
+            this.complete = complete;
+        }
+    }
+
+    protected static String repeat(char c, int num) {
+        char[] chars = new char[num];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    public void streamedOscPayload() throws IOException {
+        String data = repeat('A', 512 * 1024);
+        byte[] bytes = (CTRL_ESC + "]52;c;" + data + CTRL_BEL + "x").getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        PayloadRecorder recorder = new PayloadRecorder();
+        tokenizer.setStringPayloadHandler(recorder);
+
+        assertThat(tokenizer.nextToken()).isEqualTo(STRING_END);
+        assertThat(tokenizer.args().arg1()).isEqualTo(52);
+        assertThat(tokenizer.args().strArg()).isNull();
+        assertThat(recorder.token).isEqualTo(OSC_GRAPHMODE);
+        assertThat(recorder.command).isEqualTo(52);
+        assertThat(recorder.complete).isEqualTo(true);
+        assertThat(recorder.maxChunk).isLessThanOrEqualTo(VTxStateMachine.MAX_STRING);
+        assertThat(new String(recorder.payload.toByteArray(), StandardCharsets.UTF_8)).isEqualTo("c;" + data);
+        // parser continues:
+        assertThat(tokenizer.nextToken()).isEqualTo(CHAR);
+        assertThat(tokenizer.getText()).isEqualTo("x");
+    }
+
+    @Test
+    public void streamedDcsPayloadLimit() throws IOException {
+        String data = repeat('q', 10000);
+        byte[] bytes = (CTRL_ESC + "P" + data + CTRL_ESC + "\\").getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        PayloadRecorder recorder = new PayloadRecorder();
+        tokenizer.setStringPayloadHandler(recorder);
+        tokenizer.setMaxStringPayload(4000);
+
+        assertThat(tokenizer.nextToken()).isEqualTo(STRING_END);
+        assertThat(recorder.token).isEqualTo(DCS_DEVICE_CONTROL_STRING);
+        assertThat(recorder.command).isEqualTo(-1);
+        assertThat(recorder.complete).isEqualTo(false);
+        assertThat(recorder.payload.size()).isEqualTo(4000);
+        assertThat(tokenizer.nextToken()).isEqualTo(EOF);
+    }
+
+    @Test
+    public void streamedPayloadAborted() throws IOException {
+        byte[] bytes = (CTRL_ESC + "]8;;" + repeat('h', 1000) + CTRL_ESC + "[1A").getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        PayloadRecorder recorder = new PayloadRecorder();
+        tokenizer.setStringPayloadHandler(recorder);
+
+        assertThat(tokenizer.nextToken()).isEqualTo(UP);
+        assertThat(recorder.command).isEqualTo(8);
+        assertThat(recorder.complete).isEqualTo(false);
+    }
+
+    @Test
+    public void streamedPayloadCancelled() throws IOException {
+        byte[] bytes = (CTRL_ESC + "]1337;" + repeat('i', 1000) + CTRL_CAN + CTRL_ESC + "]0;abc" + CTRL_BEL)
+                .getBytes(StandardCharsets.UTF_8);
+        VTxTokenizer tokenizer = createTokenizer(new ByteArrayInputStream(bytes));
+        PayloadRecorder recorder = new PayloadRecorder();
+        tokenizer.setStringPayloadHandler(recorder);
+
+        assertThat(tokenizer.nextToken()).isEqualTo(CAN);
+        assertThat(recorder.command).isEqualTo(1337);
+        assertThat(recorder.complete).isEqualTo(false);
+        // next string isn't appended to the cancelled one:
+        assertThat(tokenizer.nextToken()).isEqualTo(OSC_GRAPHMODE);
+        assertThat(tokenizer.args().arg1()).isEqualTo(0);
+        assertThat(tokenizer.args().strArg()).isEqualTo("abc");
+    }
+
+    protected VTxTokenizer createTokenizer(InputStream inps) {
+        return createTokenizer(inps, VTxTokenizer.DEFAULT_READ_BUFFER_SIZE);
+    }
+
+    protected VTxTokenizer createTokenizer(InputStream inps, int readBufferSize) {
+        return new VTxTokenizer(inps, readBufferSize, VTxTokenizer.Engine.SEARCH_TREE);
+    }
+
+    /**
+     * Stream which returns at most maxRead bytes per read() to simulate a slow channel.
+     */
+    protected static class TrickleInputStream extends ByteArrayInputStream {
+        private final int maxRead;
+
+        public TrickleInputStream(byte[] bytes, int maxRead) {
+            super(bytes);
+            this.maxRead = maxRead;
+        }
+
+        @Override
+        public synchronized int read(byte[] bytes, int off, int len) {
+            return super.read(bytes, off, Math.min(len, maxRead));
+        }
+    }
+
     private void testSequence(byte[] seq, List<Tokens.Token> tokens, List<Integer> intValues, List<String> strValues) throws IOException {
 
         InputStream inps = new ByteArrayInputStream(seq);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
 
         for (int i = 0; i < tokens.size(); i++) {
             Tokens.Token expectedToken = tokens.get(i);
@@ -237,7 +484,7 @@ public class VTxTokenizerTest {
 
     protected void testSequence(byte[] bytes, Tokens.Token expected, int[] expectedInts) throws IOException {
         InputStream inps = new ByteArrayInputStream(bytes);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
 
         Tokens.Token token = tokenizer.nextToken();
         Assert.assertEquals(expected, token);
@@ -250,7 +497,7 @@ public class VTxTokenizerTest {
 
     protected void testSequence(byte[] bytes, Tokens.Token expected, String expectedArg) throws IOException {
         InputStream inps = new ByteArrayInputStream(bytes);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
 
         Tokens.Token token = tokenizer.nextToken();
         assertThat(token).isEqualTo(expected);
@@ -259,7 +506,7 @@ public class VTxTokenizerTest {
 
     protected void testSequence(byte[] bytes, Tokens.Token expected, int graphmodeInt, String graphmodeStr) throws IOException {
         InputStream inps = new ByteArrayInputStream(bytes);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
 
         Tokens.Token token = tokenizer.nextToken();
         Assert.assertEquals(expected, token);
@@ -64,10 +64,14 @@ public class VTxTokenizerVtTest {
 
     // --- helpers --- //
 
+    protected VTxTokenizer createTokenizer(InputStream inps) {
+        return new VTxTokenizer(inps, VTxTokenizer.DEFAULT_READ_BUFFER_SIZE, VTxTokenizer.Engine.SEARCH_TREE);
+    }
+
     private void testSequence(byte[] seq, List<Tokens.Token> tokens, List<Integer> intValues, List<String> strValues) throws IOException {
 
         InputStream inps = new ByteArrayInputStream(seq);
-        VTxTokenizer tokenizer = new VTxTokenizer(inps);
+        VTxTokenizer tokenizer = createTokenizer(inps);
 
         for (int i = 0; i < tokens.size(); i++) {
             Tokens.Token expectedToken = tokens.get(i);
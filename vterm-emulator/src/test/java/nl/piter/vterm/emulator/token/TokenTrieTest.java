@@ -0,0 +1,84 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.emulator.token;
+
+import nl.piter.vterm.emulator.Tokens;
+import nl.piter.vterm.emulator.VTxTokenDefs;
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TokenTrieTest {
+
+    @Test
+    public void firstAddedMatches() {
+        SearchTree<IToken> tree = new SearchTree<>();
+        TokenDef token12 = new TokenDef(new byte[]{1, 2}, null, null, Tokens.Token.NUL, "test12");
+        TokenDef token134 = new TokenDef(new byte[]{1, 3, 4}, null, null, Tokens.Token.NUL, "test134");
+        TokenDef token135 = new TokenDef(new byte[]{1, 3, 5}, null, null, Tokens.Token.NUL, "test135");
+        tree.add(token12);
+        tree.add(token134);
+        tree.add(token135);
+
+        TokenTrie<IToken> trie = tree.compile();
+        // root + 1 + 2,3 + 4,5
+        assertThat(trie.numNodes()).isEqualTo(6);
+        assertThat(trie.numSlots()).isGreaterThanOrEqualTo(6);
+
+        assertThat(trie.findPartial(new byte[]{1}, 1)).isEqualTo(token12);
+        assertThat(trie.findFull(new byte[]{1, 2}, 2)).isEqualTo(token12);
+        assertThat(trie.findPartial(new byte[]{1, 3}, 2)).isEqualTo(token134);
+        assertThat(trie.findFull(new byte[]{1, 3, 5}, 3)).isEqualTo(token135);
+        assertThat(trie.findPartial(new byte[]{1, 3, 6}, 3)).isNull();
+        assertThat(trie.findPartial(new byte[]{2}, 1)).isNull();
+        assertThat(trie.findPartial(new byte[]{1, 2, 3}, 3)).isNull();
+        assertThat(trie.findPartial(new byte[]{1}, 0)).isNull();
+    }
+
+    @Test
+    public void highByteLabels() {
+        SearchTree<IToken> tree = new SearchTree<>();
+        TokenDef tokenHigh = new TokenDef(new byte[]{(byte) 0x9b, (byte) 0xff}, null, null, Tokens.Token.NUL, "high");
+        TokenDef tokenLow = new TokenDef(new byte[]{(byte) 0x9b, 0x01}, null, null, Tokens.Token.NUL, "low");
+        tree.add(tokenHigh);
+        tree.add(tokenLow);
+
+        TokenTrie<IToken> trie = tree.compile();
+        assertThat(trie.findFull(new byte[]{(byte) 0x9b, (byte) 0xff}, 2)).isEqualTo(tokenHigh);
+        assertThat(trie.findFull(new byte[]{(byte) 0x9b, 0x01}, 2)).isEqualTo(tokenLow);
+        assertThat(trie.findFull(new byte[]{(byte) 0x9b, 0x7f}, 2)).isNull();
+    }
+
+    /**
+     * Compiled trie must return the same matches as the SearchTree for all (partial) token definitions.
+     */
+    @Test
+    public void sameAsSearchTree() {
+        List<IToken> patterns = new VTxTokenDefs().getPatterns();
+        SearchTree<IToken> tree = new SearchTree<>();
+        patterns.forEach(tree::add);
+        TokenTrie<IToken> trie = tree.compile();
+
+        byte[] search = new byte[64];
+        for (IToken pattern : patterns) {
+            byte[] bytes = pattern.bytes();
+            for (int len = 1; len <= bytes.length; len++) {
+                assertThat(trie.findPartial(bytes, len)).isSameAs(tree.findPartial(bytes, len));
+                // prefix followed by all possible next bytes, including non matching ones:
+                System.arraycopy(bytes, 0, search, 0, len);
+                for (int next = 0; next < 256; next++) {
+                    search[len] = (byte) next;
+                    assertThat(trie.findPartial(search, len + 1)).isSameAs(tree.findPartial(search, len + 1));
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import java.awt.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BlinkAnimatorTest {
+
+    @Test
+    public void colorsOfPhase() {
+        BlinkAnimator animator = new BlinkAnimator(() -> false);
+        Color fg = new Color(0x40, 0x80, 0xff);
+        for (int counter : new int[]{0, 1, 77, 500, 12345}) {
+            animator.setCounter(counter);
+            for (int x = 0; x < 80; x += 7) {
+                // table colors are those of the cosine of the phase:
+                assertThat(animator.blinkColor(x)).isEqualTo(new Color(level(counter, x, 7), level(counter, x, 11),
+                        level(counter, x, 17)));
+                double scale = 0.5 + cos(counter, x, 7) / 2.0;
+                assertThat(animator.cursorColor(x, fg)).isEqualTo(new Color((int) (0x40 * scale),
+                        (int) (0x80 * scale), (int) (0xff * scale), level(counter, x, 7)));
+            }
+        }
+        // same phase, same instance:
+        animator.setCounter(0);
+        assertThat(animator.blinkColor(1)).isSameAs(animator.blinkColor(1));
+        assertThat(animator.cursorColor(1, fg)).isSameAs(animator.cursorColor(1, fg));
+        // the cursor color follows the foreground, full at phase 0:
+        assertThat(animator.cursorColor(0, Color.GREEN).getGreen()).isEqualTo(255);
+    }
+
+    @Test
+    public void idleWithoutStart() {
+        BlinkAnimator animator = new BlinkAnimator(() -> true);
+        animator.wakeUp();
+        // not enabled: no timer
+        assertThat(animator.isRunning()).isFalse();
+    }
+
+    private static double cos(int counter, int x, int divider) {
+        double phase = ((counter + x * 16) / divider) % 32;
+        return Math.cos((phase / 32) * Math.PI * 2);
+    }
+
+    private static int level(int counter, int x, int divider) {
+        return (int) (128 + 127 * cos(counter, x, divider));
+    }
+
+}
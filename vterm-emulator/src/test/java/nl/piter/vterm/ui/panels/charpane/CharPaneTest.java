@@ -0,0 +1,46 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TerminalText;
+import org.junit.Test;
+
+import javax.swing.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CharPaneTest {
+
+    @Test
+    public void resizeAltScreen() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+            CharPane charPane = new CharPane();
+            charPane.resizeTextBuffers(10, 4, false, false);
+            charPane.putChar('m', 0, 0);
+            charPane.setAltScreenBuffer(true);
+            charPane.putChar('a', 0, 3);
+            charPane.setCursor(0, 3);
+
+            // cursor is on the last row: alt screen content moves up, but not into the history
+            charPane.resizeTextBuffers(10, 2, true, false);
+            assertThat(charPane.getScreenBufferNr()).isEqualTo(1);
+            assertThat(charPane.getHistory().size()).isEqualTo(0);
+            TerminalText text = charPane.getTerminalText(false);
+            assertThat(text.getLine(0).toString()).isEqualTo("");
+            assertThat(text.getLine(1).toString()).isEqualTo("a");
+
+            // main screen is kept:
+            charPane.setAltScreenBuffer(false);
+            text = charPane.getTerminalText(false);
+            assertThat(text.getLine(0).toString()).isEqualTo("m");
+            assertThat(text.getLine(1).toString()).isEqualTo("");
+            charPane.dispose();
+        });
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CharRendererTest {
+
+    private static final int COLUMNS = 40;
+    private static final String TEXT = "Hello, world! italic BOLD uber ~|_ end.";
+
+    @Test
+    public void rowWithAtlasMatchesCells() {
+        assertRowMatchesCells(GlyphAtlas.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    public void rowWithGlyphVectorsMatchesCells() {
+        assertRowMatchesCells(0);
+    }
+
+    /**
+     * Spans of a row must be drawn like the cells one by one: backgrounds first, so italic and uberbold glyphs
+     * can lean into the next cell.
+     */
+    private void assertRowMatchesCells(int glyphCacheSize) {
+        CharRenderer renderer = new CharRenderer();
+        renderer.setGlyphCacheSize(glyphCacheSize);
+        int[] drawStyles = {StyleChar.STYLE_NONE, StyleChar.STYLE_ITALIC, StyleChar.STYLE_BOLD,
+                StyleChar.STYLE_UBERBOLD, StyleChar.STYLE_INVERSE, StyleChar.STYLE_BOLD | StyleChar.STYLE_ITALIC};
+        int[] glyphs = new int[COLUMNS];
+        long[] styles = new long[COLUMNS];
+        for (int x = 0; x < COLUMNS; x++) {
+            glyphs[x] = (x < TEXT.length()) ? TEXT.charAt(x) : PackedCell.BLANK;
+            styles[x] = PackedCell.style(drawStyles[(x / 5) % drawStyles.length], (x / 7) % 8, -1, null, null);
+        }
+        StyleChar view = new StyleChar();
+        int charWidth = renderer.getCharWidth();
+
+        BufferedImage cells = createImage(renderer);
+        Graphics2D graphics = cells.createGraphics();
+        renderer.updateRenderingHints(graphics);
+        for (int x = 0; x < COLUMNS; x++) {
+            PackedCell.unpack(glyphs[x], styles[x], view);
+            renderer.renderChar(graphics, cells, view, x * charWidth, 0, true, false);
+        }
+        for (int x = 0; x < COLUMNS; x++) {
+            PackedCell.unpack(glyphs[x], styles[x], view);
+            renderer.renderChar(graphics, cells, view, x * charWidth, 0, false, true);
+        }
+        graphics.dispose();
+
+        BufferedImage row = createImage(renderer);
+        graphics = row.createGraphics();
+        renderer.updateRenderingHints(graphics);
+        renderer.renderRow(graphics, row, glyphs, styles, null, 0, COLUMNS, 0, view);
+        graphics.dispose();
+
+        int numDiffs = 0;
+        for (int y = 0; y < row.getHeight(); y++) {
+            for (int x = 0; x < row.getWidth(); x++) {
+                if (cells.getRGB(x, y) != row.getRGB(x, y)) {
+                    numDiffs++;
+                }
+            }
+        }
+        assertThat(numDiffs).isZero();
+    }
+
+    private BufferedImage createImage(CharRenderer renderer) {
+        return new BufferedImage(COLUMNS * renderer.getCharWidth(), renderer.getLineHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+    }
+
+}
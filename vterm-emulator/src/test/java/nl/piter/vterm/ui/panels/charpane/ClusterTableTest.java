@@ -0,0 +1,106 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TermConst;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterTableTest {
+
+    private static final String E_ACUTE = "e\u0301";
+    private static final String FAMILY = "\ud83d\udc68\u200d\ud83d\udc69";
+
+    @Test
+    public void appendAndIntern() {
+        ClusterTable table = new ClusterTable();
+        int glyph = PackedCell.glyph('e', TermConst.CharSet.CHARSET_GRAPHICS);
+        int cluster = table.append(glyph, 0x301);
+        assertThat(PackedCell.isCluster(cluster)).isTrue();
+        assertThat(PackedCell.charSet(cluster)).isEqualTo(TermConst.CharSet.CHARSET_GRAPHICS);
+        assertThat(table.get(PackedCell.clusterId(cluster))).isEqualTo(E_ACUTE);
+        // same text, same id:
+        assertThat(table.glyph(E_ACUTE, null)).isEqualTo(PackedCell.clusterGlyph(PackedCell.clusterId(cluster), 0));
+        // single code point stays inline:
+        assertThat(table.glyph("x", null)).isEqualTo((int) 'x');
+        assertThat(table.size()).isEqualTo(1);
+        // too long: unchanged
+        int stacked = cluster;
+        for (int i = 0; i < ClusterTable.MAX_CLUSTER_LENGTH; i++) {
+            stacked = table.append(stacked, 0x302);
+        }
+        assertThat(table.get(PackedCell.clusterId(stacked)).length()).isLessThanOrEqualTo(ClusterTable.MAX_CLUSTER_LENGTH);
+    }
+
+    @Test
+    public void combineInTextBuffer() {
+        TextBuffer buffer = new TextBuffer(10, 2, 10, 2);
+        buffer.put(1, 0, 'e', PackedCell.DEFAULT_STYLE);
+        buffer.combine(1, 0, 0x301);
+        assertThat(buffer.getText(1, 0)).isEqualTo(E_ACUTE);
+        assertThat(buffer.isChanged(1, 0)).isTrue();
+
+        StyleChar view = new StyleChar();
+        buffer.get(1, 0, view);
+        assertThat(new String(view.charBytes, 0, view.numBytes, StandardCharsets.UTF_8)).isEqualTo(E_ACUTE);
+        // a long cluster doesn't fit the initial StyleChar bytes:
+        view.setText(FAMILY);
+        buffer.set(2, 0, view);
+        assertThat(buffer.getText(2, 0)).isEqualTo(FAMILY);
+        buffer.get(2, 0, view);
+        assertThat(new String(view.charBytes, 0, view.numBytes, StandardCharsets.UTF_8)).isEqualTo(FAMILY);
+    }
+
+    @Test
+    public void compact() {
+        ClusterTable table = new ClusterTable();
+        TextBuffer buffer = new TextBuffer(10, 2, 10, 2, new StylePalette(), table);
+        buffer.put(0, 0, 'a', PackedCell.DEFAULT_STYLE);
+        buffer.combine(0, 0, 0x301);
+        buffer.put(1, 0, 'b', PackedCell.DEFAULT_STYLE);
+        buffer.combine(1, 0, 0x301);
+        buffer.put(0, 0, 'c', PackedCell.DEFAULT_STYLE);
+        assertThat(table.size()).isEqualTo(2);
+
+        assertThat(table.compact(buffer)).isEqualTo(1);
+        assertThat(table.size()).isEqualTo(1);
+        assertThat(buffer.getText(1, 0)).isEqualTo("b\u0301");
+        assertThat(PackedCell.clusterId(buffer.getGlyph(1, 0))).isEqualTo(0);
+    }
+
+    @Test
+    public void historyLineClusters() {
+        ClusterTable table = new ClusterTable();
+        int[] glyphs = {'x', table.glyph(E_ACUTE, null), table.glyph(FAMILY, null), table.glyph(E_ACUTE, null)};
+        HistoryLine line = HistoryLine.encode(glyphs, new long[glyphs.length], 0, glyphs.length, false, table);
+        // line local ids:
+        table.clear();
+        assertThat(line.cluster(line.getGlyph(1))).isEqualTo(E_ACUTE);
+        assertThat(line.cluster(line.getGlyph(2))).isEqualTo(FAMILY);
+        assertThat(line.getGlyph(3)).isEqualTo(line.getGlyph(1));
+
+        ByteBuffer buffer = ByteBuffer.allocate(line.encodedSize());
+        line.writeTo(buffer);
+        assertThat(buffer.remaining()).isEqualTo(0);
+        buffer.flip();
+        HistoryLine read = HistoryLine.readFrom(buffer);
+        assertThat(read.length()).isEqualTo(4);
+        assertThat(read.cluster(read.getGlyph(2))).isEqualTo(FAMILY);
+
+        // reflow keeps clusters:
+        Reflow.History reflowed = Reflow.reflowHistory(new HistoryLine[]{read}, 2, () -> false);
+        HistoryLine second = reflowed.lines.get(1);
+        assertThat(second.cluster(second.getGlyph(0))).isEqualTo(FAMILY);
+        assertThat(second.cluster(second.getGlyph(1))).isEqualTo(E_ACUTE);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GlyphAtlasTest {
+
+    private static final Font FONT = new Font(Font.MONOSPACED, Font.PLAIN, 12);
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        GlyphAtlas atlas = new GlyphAtlas(8, 16, 2);
+        int a = GlyphAtlas.key('a', 0, false);
+        int b = GlyphAtlas.key('b', 0, false);
+        int c = GlyphAtlas.key('c', 0, false);
+
+        assertThat(atlas.get(a)).isEqualTo(-1);
+        atlas.put(a, "a", FONT, 12, null);
+        atlas.put(b, "b", FONT, 12, null);
+        // 'a' becomes most recently used, 'b' is evicted:
+        assertThat(atlas.get(a)).isGreaterThanOrEqualTo(0);
+        atlas.put(c, "c", FONT, 12, null);
+
+        assertThat(atlas.size()).isEqualTo(2);
+        assertThat(atlas.get(b)).isEqualTo(-1);
+        assertThat(atlas.get(a)).isGreaterThanOrEqualTo(0);
+        assertThat(atlas.get(c)).isGreaterThanOrEqualTo(0);
+        assertThat(atlas.getNumHits()).isEqualTo(3L);
+        assertThat(atlas.getNumMisses()).isEqualTo(2L);
+        assertThat(atlas.getNumEvictions()).isEqualTo(1L);
+
+        atlas.clear();
+        assertThat(atlas.size()).isZero();
+        assertThat(atlas.get(a)).isEqualTo(-1);
+    }
+
+    @Test
+    public void keysDifferByFontAndCharset() {
+        assertThat(GlyphAtlas.key('q', 0, false)).isNotEqualTo(GlyphAtlas.key('q', 1, false));
+        assertThat(GlyphAtlas.key('q', 3, false)).isNotEqualTo(GlyphAtlas.key('q', 3, true));
+        assertThat(GlyphAtlas.key(0x10ffff, 0, false)).isNotEqualTo(GlyphAtlas.key(0x10ffff, 2, false));
+    }
+
+    @Test
+    public void blend() {
+        assertThat(GlyphAtlas.blend(0xff000000, 0xffffff, 255)).isEqualTo(0xffffffff);
+        assertThat(GlyphAtlas.blend(0xff102030, 0xffffff, 0)).isEqualTo(0xff102030);
+        assertThat(GlyphAtlas.blend(0xff000000, 0xffffff, 128)).isEqualTo(0xff808080);
+        // transparent background takes the foreground color:
+        assertThat(GlyphAtlas.blend(0x00000000, 0x00ff00, 128)).isEqualTo(0x8000ff00);
+    }
+
+    @Test
+    public void compositeDrawsGlyph() {
+        GlyphAtlas atlas = new GlyphAtlas(8, 16, 4);
+        int slot = atlas.put(GlyphAtlas.key('#', 0, false), "#", FONT, 12, null);
+        BufferedImage image = new BufferedImage(32, 16, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.BLACK);
+        graphics.fillRect(0, 0, 32, 16);
+        graphics.dispose();
+
+        atlas.composite(slot, image, 8, 0, Color.WHITE);
+
+        int lit = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 32; x++) {
+                if ((image.getRGB(x, y) & 0xffffff) != 0) {
+                    lit++;
+                    // inside the cell:
+                    assertThat(x).isGreaterThanOrEqualTo(8).isLessThan(16);
+                }
+            }
+        }
+        assertThat(lit).isGreaterThan(0);
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ReflowTest {
+
+    private static final StylePalette PALETTE = new StylePalette();
+
+    @Test
+    public void reflowScreen() {
+        TextBuffer buffer = new TextBuffer(10, 4, 10, 4, PALETTE);
+        // "0123456789abc" auto wrapped, then "xy" and cursor after 'y':
+        write(buffer, 0, "0123456789");
+        buffer.setWrapped(0, true);
+        write(buffer, 1, "abc");
+        write(buffer, 2, "xy");
+        long bold = PackedCell.style(StyleChar.STYLE_BOLD, -1, -1, null, null);
+        buffer.put(2, 1, 'c', bold);
+
+        Reflow.Screen narrow = Reflow.reflowScreen(buffer, 2, 2, 4);
+        assertThat(narrow.rows.size()).isEqualTo(5);
+        assertThat(text(narrow.rows.get(0))).isEqualTo("0123");
+        assertThat(text(narrow.rows.get(3))).isEqualTo("c");
+        assertThat(narrow.rows.get(2).wrapped).isTrue();
+        assertThat(narrow.rows.get(3).wrapped).isFalse();
+        assertThat(PALETTE.style(narrow.rows.get(3).styleIds[0])).isEqualTo(bold);
+        assertThat(text(narrow.rows.get(4))).isEqualTo("xy");
+        assertThat(narrow.cursorX).isEqualTo(2);
+        assertThat(narrow.cursorY).isEqualTo(4);
+
+        // and back:
+        TextBuffer narrowBuffer = new TextBuffer(4, 5, 4, 5, PALETTE);
+        for (int y = 0; y < 5; y++) {
+            narrowBuffer.setRow(y, narrow.rows.get(y));
+        }
+        Reflow.Screen wide = Reflow.reflowScreen(narrowBuffer, 2, 4, 20);
+        assertThat(wide.rows.size()).isEqualTo(2);
+        assertThat(text(wide.rows.get(0))).isEqualTo("0123456789abc");
+        assertThat(wide.rows.get(0).wrapped).isFalse();
+        assertThat(wide.cursorY).isEqualTo(1);
+    }
+
+    @Test
+    public void reflowHistory() {
+        HistoryLine[] source = {
+                line("0123456789", true), line("abc", false),
+                line("", false),
+                line("xyz", false)};
+        Reflow.History reflowed = Reflow.reflowHistory(source, 4, () -> false);
+        assertThat(reflowed.lines.size()).isEqualTo(6);
+        assertThat(reflowed.numLogical).isEqualTo(3);
+        assertThat(reflowed.firstSource[2]).isEqualTo(3);
+        assertThat(reflowed.firstOutput[2]).isEqualTo(5);
+        assertThat(text(reflowed.lines.get(3))).isEqualTo("c");
+        assertThat(reflowed.lines.get(2).isWrapped()).isTrue();
+        assertThat(reflowed.lines.get(3).isWrapped()).isFalse();
+        // wrapped lines aren't trimmed:
+        assertThat(reflowed.lines.get(2).length()).isEqualTo(4);
+
+        assertThat(Reflow.reflowHistory(source, 4, () -> true)).isNull();
+    }
+
+    @Test
+    public void replaceReflowed() {
+        ScrollbackBuffer history = new ScrollbackBuffer(100, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        history.add(line("0123456789", true));
+        history.add(line("abc", false));
+        history.add(line("xyz", false));
+        HistoryLine[] source = history.heapLines();
+        long removed = history.getTotalRemoved();
+        Reflow.History reflowed = Reflow.reflowHistory(source, 4, () -> false);
+
+        // concurrent updates: first line removed, one line added
+        history.setLimits(3, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        history.add(line("new", false));
+        assertThat(history.replaceReflowed(source, removed, reflowed)).isTrue();
+        history.setLimits(100, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        // partially removed logical line is kept as is:
+        assertThat(history.size()).isEqualTo(3);
+        assertThat(text(history.get(0))).isEqualTo("abc");
+        assertThat(text(history.get(1))).isEqualTo("xyz");
+        assertThat(text(history.get(2))).isEqualTo("new");
+
+        // replaced completely, including lines added later:
+        source = history.heapLines();
+        removed = history.getTotalRemoved();
+        history.add(line("more", false));
+        history.clear();
+        assertThat(history.replaceReflowed(source, removed, reflowed)).isFalse();
+    }
+
+    @Test
+    public void serializeWrapped() {
+        HistoryLine line = line("0123", true);
+        ByteBuffer buffer = ByteBuffer.allocate(line.encodedSize());
+        line.writeTo(buffer);
+        buffer.flip();
+        HistoryLine read = HistoryLine.readFrom(buffer);
+        assertThat(read.isWrapped()).isTrue();
+        assertThat(read.length()).isEqualTo(4);
+        assertThat(text(read)).isEqualTo("0123");
+    }
+
+    private static void write(TextBuffer buffer, int y, String text) {
+        for (int x = 0; x < text.length(); x++) {
+            buffer.put(x, y, text.charAt(x), PackedCell.DEFAULT_STYLE);
+        }
+    }
+
+    private static HistoryLine line(String text, boolean wrapped) {
+        int[] glyphs = text.chars().toArray();
+        return HistoryLine.encode(glyphs, new long[glyphs.length], 0, glyphs.length, wrapped);
+    }
+
+    private static String text(TextRow row) {
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < row.extent(); x++) {
+            sb.appendCodePoint(PackedCell.codePoint(row.glyphs[x]));
+        }
+        return sb.toString();
+    }
+
+    private static String text(HistoryLine line) {
+        StringBuilder sb = new StringBuilder();
+        for (int x = 0; x < line.length(); x++) {
+            sb.appendCodePoint(PackedCell.codePoint(line.getGlyph(x)));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of a full screen redraw of 200x60 cells of text into the backing image, with a style change
+ * every few words like colored 'ls' output.
+ * cellByCell is the former rendering of one fillRect and one glyph per cell, rows uses CharRenderer.renderRow()
+ * which draws spans of cells with the same style. glyphCacheSize=0 disables the glyph atlas.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nl.piter.vterm.ui.panels.charpane.RenderBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RenderBenchmark {
+
+    private static final int COLUMNS = 200;
+    private static final int ROWS = 60;
+    private static final String TEXT = "drwxr-xr-x 2 piter users 4096 Jan 12 10:02 src.main.java ";
+
+    @Param({"2048", "0"})
+    public int glyphCacheSize;
+
+    private CharRenderer renderer;
+    private BufferedImage image;
+    private Graphics2D graphics;
+    private final StyleChar view = new StyleChar();
+    private final int[][] glyphs = new int[ROWS][COLUMNS];
+    private final long[][] styles = new long[ROWS][COLUMNS];
+
+    @Setup
+    public void setup() {
+        renderer = new CharRenderer();
+        renderer.setGlyphCacheSize(glyphCacheSize);
+        image = new BufferedImage(COLUMNS * renderer.getCharWidth(), ROWS * renderer.getLineHeight(),
+                BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+        renderer.updateRenderingHints(graphics);
+        int[] drawStyles = {StyleChar.STYLE_NONE, StyleChar.STYLE_BOLD, StyleChar.STYLE_NONE, StyleChar.STYLE_INVERSE};
+        for (int y = 0; y < ROWS; y++) {
+            for (int x = 0; x < COLUMNS; x++) {
+                int i = (x + y) % TEXT.length();
+                glyphs[y][x] = TEXT.charAt(i);
+                // new style every 16 cells:
+                int span = (x + y) / 16;
+                styles[y][x] = PackedCell.style(drawStyles[span % drawStyles.length], span % 8, -1, null, null);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage cellByCell() {
+        int charWidth = renderer.getCharWidth();
+        for (int y = 0; y < ROWS; y++) {
+            int ypos = y * renderer.getLineHeight();
+            for (int x = 0; x < COLUMNS; x++) {
+                PackedCell.unpack(glyphs[y][x], styles[y][x], view);
+                renderer.renderChar(graphics, image, view, x * charWidth, ypos, true, true);
+            }
+        }
+        return image;
+    }
+
+    @Benchmark
+    public BufferedImage rows() {
+        for (int y = 0; y < ROWS; y++) {
+            renderer.renderRow(graphics, image, glyphs[y], styles[y], null, 0, COLUMNS,
+                    y * renderer.getLineHeight(), view);
+        }
+        return image;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RenderBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
@@ -0,0 +1,116 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import javax.swing.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class RenderSchedulerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void requestsAreCoalesced() throws Exception {
+        AtomicLong clock = new AtomicLong(10 * SECOND);
+        AtomicInteger onEdt = new AtomicInteger();
+        RenderScheduler scheduler = new RenderScheduler(() -> {
+            if (SwingUtilities.isEventDispatchThread()) {
+                onEdt.incrementAndGet();
+            }
+        }, clock::get);
+        scheduler.setFrameRate(1);
+        assertThat(scheduler.getFrameRate()).isEqualTo(1);
+
+        // first frame is rendered right away:
+        scheduler.requestFrame();
+        waitForEdt();
+        assertThat(scheduler.getNumFrames()).isEqualTo(1L);
+
+        // within the frame interval requests wait for the next frame:
+        for (int i = 0; i < 1000; i++) {
+            scheduler.requestFrame();
+        }
+        waitForEdt();
+        assertThat(scheduler.getNumFrames()).isEqualTo(1L);
+
+        // one frame for all requests:
+        clock.addAndGet(SECOND);
+        scheduler.flush();
+        waitForEdt();
+        assertThat(scheduler.getNumFrames()).isEqualTo(2L);
+        assertThat((long) onEdt.get()).isEqualTo(2L);
+
+        // no requests: no frames
+        scheduler.flush();
+        waitForEdt();
+        assertThat(scheduler.getNumFrames()).isEqualTo(2L);
+        scheduler.stop();
+    }
+
+    @Test
+    public void lastRequestIsRendered() throws Exception {
+        // set before each request, cleared by a frame:
+        AtomicBoolean pending = new AtomicBoolean();
+        CountDownLatch rendered = new CountDownLatch(1);
+        AtomicBoolean done = new AtomicBoolean();
+        RenderScheduler scheduler = new RenderScheduler(() -> {
+            pending.set(false);
+            if (done.get()) {
+                rendered.countDown();
+            }
+        });
+        scheduler.setFrameRate(100);
+        long numRequests = 0;
+        for (int i = 0; i < 100000; i++) {
+            pending.set(true);
+            scheduler.requestFrame();
+            numRequests++;
+        }
+        done.set(true);
+        pending.set(true);
+        scheduler.requestFrame();
+        assertThat(rendered.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(pending.get()).isFalse();
+        assertThat(numRequests).isGreaterThan(scheduler.getNumFrames());
+        scheduler.stop();
+    }
+
+    @Test
+    public void flushWhenIdle() throws Exception {
+        AtomicLong clock = new AtomicLong(10 * SECOND);
+        CountDownLatch second = new CountDownLatch(2);
+        RenderScheduler scheduler = new RenderScheduler(second::countDown, clock::get);
+        scheduler.setFrameRate(1);
+        // first frame is rendered right away, the next one would wait for a second:
+        scheduler.requestFrame();
+        waitForEdt();
+        scheduler.requestFrame();
+        waitForEdt();
+        assertThat(second.getCount()).isEqualTo(1L);
+        scheduler.flush();
+        assertThat(second.await(5, TimeUnit.SECONDS)).isTrue();
+        scheduler.stop();
+    }
+
+    /**
+     * Process the events posted to the event dispatch thread so far.
+     */
+    private static void waitForEdt() throws Exception {
+        SwingUtilities.invokeAndWait(() -> {
+        });
+    }
+
+}
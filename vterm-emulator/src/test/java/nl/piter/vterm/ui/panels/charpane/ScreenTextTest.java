@@ -0,0 +1,112 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TerminalText;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScreenTextTest {
+
+    private static final String E_ACUTE = "e\u0301";
+    private static final String SMILEY = "\ud83d\ude00";
+
+    @Test
+    public void screenLines() {
+        TextBuffer buffer = new TextBuffer(6, 4, 6, 4);
+        write(buffer, 0, "abc");
+        write(buffer, 1, "x" + SMILEY + "y");
+        buffer.put(0, 2, 'e', PackedCell.DEFAULT_STYLE);
+        buffer.combine(0, 2, 0x301);
+        TerminalText text = new ScreenText(buffer.snapshot());
+
+        assertThat(text.numLines()).isEqualTo(4);
+        assertThat(text.getLine(0).toString()).isEqualTo("abc");
+        assertThat(text.getLine(0).length()).isEqualTo(3);
+        CharSequence line = text.getLine(1);
+        assertThat(line.length()).isEqualTo(4);
+        assertThat(line.charAt(1)).isEqualTo('\ud83d');
+        assertThat(line.charAt(3)).isEqualTo('y');
+        assertThat(line.subSequence(1, 4).toString()).isEqualTo(SMILEY + "y");
+        assertThat(text.getLine(2).toString()).isEqualTo(E_ACUTE);
+        assertThat(text.getLine(3).length()).isEqualTo(0);
+        // column range, not trimmed:
+        assertThat(text.getLine(0, 1, 5).toString()).isEqualTo("bc  ");
+        assertThat(text.getLine(0, 4, 10).toString()).isEqualTo("  ");
+    }
+
+    @Test
+    public void logicalLinesWithHistory() throws IOException {
+        TextBuffer buffer = new TextBuffer(4, 2, 4, 2);
+        buffer.setHistory(new ScrollbackBuffer());
+        // "0123456 " wrapped: one line scrolls into the history.
+        write(buffer, 0, "0123");
+        buffer.setWrapped(0, true);
+        write(buffer, 1, "456 ");
+        buffer.setWrapped(1, true);
+        buffer.scrollRegion(0, 2, 1, true);
+        write(buffer, 1, "78");
+        TerminalText text = new ScreenText(buffer.snapshot(true));
+
+        assertThat(text.numHistoryLines()).isEqualTo(1);
+        assertThat(text.numLines()).isEqualTo(3);
+        assertThat(text.getLine(0).toString()).isEqualTo("0123");
+        assertThat(text.isWrapped(0)).isTrue();
+        assertThat(text.getLine(1).toString()).isEqualTo("456");
+        assertThat(text.nextLogicalLine(0)).isEqualTo(3);
+        // inner blank at the wrap is kept:
+        assertThat(text.getLogicalLine(0).toString()).isEqualTo("0123456 78");
+        assertThat(text.getLogicalLine(1).toString()).isEqualTo("456 78");
+
+        StringWriter writer = new StringWriter();
+        text.writeTo(writer, false);
+        assertThat(writer.toString()).isEqualTo("0123\n456\n78\n");
+        writer = new StringWriter();
+        text.writeTo(writer, true);
+        assertThat(writer.toString()).isEqualTo("0123456 78\n");
+    }
+
+    @Test
+    public void exportToChannel() throws IOException {
+        TextBuffer buffer = new TextBuffer(200, 50, 200, 50);
+        StringBuilder expected = new StringBuilder();
+        for (int y = 0; y < 40; y++) {
+            String line = "line " + y + " €" + SMILEY + "x".repeat(150);
+            write(buffer, y, line);
+            expected.append(line).append('\n');
+        }
+        buffer.put(0, 45, 'e', PackedCell.DEFAULT_STYLE);
+        buffer.combine(0, 45, 0x301);
+        for (int y = 40; y < 45; y++) {
+            expected.append('\n');
+        }
+        expected.append(E_ACUTE).append('\n');
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long numBytes = new ScreenText(buffer.snapshot()).writeTo(Channels.newChannel(out), false);
+        assertThat(new String(out.toByteArray(), StandardCharsets.UTF_8)).isEqualTo(expected.toString());
+        assertThat(numBytes).isEqualTo((long) out.size());
+    }
+
+    private static void write(TextBuffer buffer, int y, String text) {
+        int x = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            buffer.put(x++, y, codePoint, PackedCell.DEFAULT_STYLE);
+            i += Character.charCount(codePoint);
+        }
+    }
+
+}
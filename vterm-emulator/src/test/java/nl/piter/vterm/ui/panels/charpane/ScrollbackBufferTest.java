@@ -0,0 +1,124 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScrollbackBufferTest {
+
+    private static final StylePalette PALETTE = new StylePalette();
+
+    @Test
+    public void encodeLine() {
+        TextRow row = new TextRow(200);
+        long bold = PackedCell.style(StyleChar.STYLE_BOLD, 2, -1, null, null);
+        long inverse = PackedCell.style(StyleChar.STYLE_INVERSE, -1, -1, null, null);
+        for (int x = 0; x < 5; x++) {
+            row.glyphs[x] = 'a' + x;
+            row.styleIds[x] = PALETTE.intern((x < 3) ? bold : PackedCell.DEFAULT_STYLE);
+        }
+        // styled blanks:
+        row.styleIds[10] = PALETTE.intern(inverse);
+        row.styleIds[11] = PALETTE.intern(inverse);
+
+        HistoryLine line = HistoryLine.encode(row, PALETTE);
+        assertThat(line.length()).isEqualTo(5);
+        assertThat(line.numRuns()).isEqualTo(3);
+        assertThat(line.getGlyph(4)).isEqualTo((int) 'e');
+        assertThat(line.getGlyph(5)).isEqualTo(PackedCell.BLANK);
+        assertThat(line.getStyle(2)).isEqualTo(bold);
+        assertThat(line.getStyle(3)).isEqualTo(PackedCell.DEFAULT_STYLE);
+        assertThat(line.getStyle(11)).isEqualTo(inverse);
+        assertThat(line.getStyle(12)).isEqualTo(PackedCell.DEFAULT_STYLE);
+        // proportional to content, not to the width:
+        assertThat(line.estimatedSize()).isLessThan(150L);
+        assertThat(HistoryLine.encode(new TextRow(200), PALETTE).estimatedSize()).isLessThan(32L);
+    }
+
+    @Test
+    public void lineLimit() {
+        ScrollbackBuffer history = new ScrollbackBuffer(100, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 250; i++) {
+            history.add(createRow(i), PALETTE);
+        }
+        assertThat(history.size()).isEqualTo(100);
+        assertThat(history.getTotalAdded()).isEqualTo(250L);
+        assertThat(history.get(0).getGlyph(0)).isEqualTo(150);
+        assertThat(history.get(99).getGlyph(0)).isEqualTo(249);
+
+        history.setLimits(10, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        assertThat(history.size()).isEqualTo(10);
+        assertThat(history.get(0).getGlyph(0)).isEqualTo(240);
+    }
+
+    @Test
+    public void byteBudget() {
+        long lineSize = HistoryLine.encode(createRow(0), PALETTE).estimatedSize();
+        ScrollbackBuffer history = new ScrollbackBuffer(1000, lineSize * 20);
+        for (int i = 0; i < 100; i++) {
+            history.add(createRow(i), PALETTE);
+        }
+        assertThat(history.size()).isEqualTo(20);
+        assertThat(history.getNumBytes()).isLessThanOrEqualTo(lineSize * 20);
+        assertThat(history.get(19).getGlyph(0)).isEqualTo(99);
+    }
+
+    @Test
+    public void fedByFullScreenScroll() {
+        ScrollbackBuffer history = new ScrollbackBuffer();
+        TextBuffer buffer = new TextBuffer(10, 4, 10, 4);
+        buffer.setHistory(history);
+        for (int y = 0; y < 4; y++) {
+            buffer.put(0, y, '0' + y, PackedCell.DEFAULT_STYLE);
+        }
+        // region scrolls and scrolling down don't add history:
+        buffer.scrollRegion(1, 4, 1, true);
+        buffer.scrollRegion(0, 4, 1, false);
+        assertThat(history.size()).isEqualTo(0);
+
+        buffer.scrollRegion(0, 4, 2, true);
+        assertThat(history.size()).isEqualTo(2);
+        assertThat(history.get(0).getGlyph(0)).isEqualTo(PackedCell.BLANK);
+        assertThat(history.get(1).getGlyph(0)).isEqualTo((int) '0');
+    }
+
+    @Test
+    public void reservedLinesAddedWithoutTrimming() {
+        ScrollbackBuffer history = new ScrollbackBuffer(5, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+        for (int i = 0; i < 5; i++) {
+            history.add(createRow(i), PALETTE);
+        }
+        HistoryLine[] lines = {HistoryLine.encode(createRow(5), PALETTE), HistoryLine.encode(createRow(6), PALETTE)};
+        // room is made before the lines are added:
+        history.reserve(lines, 2);
+        assertThat(history.size()).isEqualTo(3);
+        assertThat(history.getTotalRemoved()).isEqualTo(2L);
+        history.addAll(lines, 2);
+        assertThat(history.size()).isEqualTo(5);
+        assertThat(history.getTotalRemoved()).isEqualTo(2L);
+        assertThat(history.get(0).getGlyph(0)).isEqualTo(2);
+        assertThat(history.get(4).getGlyph(0)).isEqualTo(6);
+    }
+
+    @Test
+    public void disabled() {
+        ScrollbackBuffer history = new ScrollbackBuffer(0, 0);
+        history.add(createRow(1), PALETTE);
+        assertThat(history.size()).isEqualTo(0);
+    }
+
+    private static TextRow createRow(int value) {
+        TextRow row = new TextRow(80);
+        row.glyphs[0] = value;
+        row.glyphs[1] = 'x';
+        return row;
+    }
+
+}
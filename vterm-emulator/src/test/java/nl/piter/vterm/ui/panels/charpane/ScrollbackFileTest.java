@@ -0,0 +1,90 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ScrollbackFileTest {
+
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("vterm-test");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    @Test
+    public void appendAndGet() throws IOException {
+        // small segments, records may not cross a segment boundary:
+        try (ScrollbackFile file = ScrollbackFile.create(dir, 1024)) {
+            for (int i = 0; i < 500; i++) {
+                file.append(createLine(i, i % 40));
+            }
+            assertThat(file.size()).isEqualTo(500L);
+            for (int i = 499; i >= 0; i -= 7) {
+                HistoryLine line = file.get(i);
+                assertThat(line.length()).isEqualTo(1 + i % 40);
+                assertThat(line.getGlyph(0)).isEqualTo(i);
+                assertThat(line.getStyle(0)).isEqualTo((long) i);
+            }
+            file.clear();
+            assertThat(file.size()).isEqualTo(0L);
+        }
+        try (Stream<Path> files = Files.list(dir)) {
+            assertThat(files.count()).isEqualTo(0L);
+        }
+    }
+
+    @Test
+    public void historyOverflow() throws IOException {
+        try (ScrollbackFile file = ScrollbackFile.create(dir)) {
+            ScrollbackBuffer history = new ScrollbackBuffer(100, ScrollbackBuffer.DEFAULT_MAX_BYTES);
+            history.setOverflow(file);
+            for (int i = 0; i < 10000; i++) {
+                history.add(createLine(i, 10));
+            }
+            // heap window stays bounded:
+            assertThat(history.heapSize()).isEqualTo(100);
+            assertThat(file.size()).isEqualTo(9900L);
+            assertThat(history.size()).isEqualTo(10000);
+            for (int i = 0; i < 10000; i += 99) {
+                assertThat(history.get(i).getGlyph(0)).isEqualTo(i);
+            }
+            history.clear();
+            assertThat(history.size()).isEqualTo(0);
+        }
+    }
+
+    private static HistoryLine createLine(int value, int length) {
+        int[] glyphs = new int[80];
+        long[] styles = new long[80];
+        Arrays.fill(glyphs, PackedCell.BLANK);
+        glyphs[0] = value;
+        styles[0] = value;
+        for (int x = 1; x <= length; x++) {
+            glyphs[x] = 'a' + x % 26;
+        }
+        return HistoryLine.encode(glyphs, styles, 80);
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.junit.Test;
+
+import java.awt.*;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class StylePaletteTest {
+
+    @Test
+    public void intern() {
+        StylePalette palette = new StylePalette();
+        long bold = PackedCell.style(StyleChar.STYLE_BOLD, 2, -1, null, null);
+        long rgb = PackedCell.style(0, -1, -1, new Color(10, 20, 30), null);
+
+        assertThat(palette.intern(PackedCell.DEFAULT_STYLE)).isEqualTo(StylePalette.DEFAULT_ID);
+        int boldId = palette.intern(bold);
+        int rgbId = palette.intern(rgb);
+        assertThat(boldId).isNotEqualTo(rgbId);
+        assertThat(palette.intern(bold)).isEqualTo(boldId);
+        assertThat(palette.style(rgbId)).isEqualTo(rgb);
+        assertThat(palette.size()).isEqualTo(3);
+
+        // grows beyond initial capacity:
+        for (int i = 0; i < 1000; i++) {
+            palette.intern(PackedCell.style(0, i % 256, i / 256, null, null));
+        }
+        assertThat(palette.intern(bold)).isEqualTo(boldId);
+        assertThat(palette.style(boldId)).isEqualTo(bold);
+    }
+
+    @Test
+    public void bufferStoresIds() {
+        StylePalette palette = new StylePalette();
+        TextBuffer buffer = new TextBuffer(10, 2, 10, 2, palette);
+        TextBuffer alt = new TextBuffer(10, 2, 10, 2, palette);
+        long inverse = PackedCell.style(StyleChar.STYLE_INVERSE, -1, -1, null, null);
+
+        buffer.put(0, 0, 'a', inverse);
+        alt.put(5, 1, 'b', inverse);
+        assertThat(buffer.getStyleId(0, 0)).isEqualTo(alt.getStyleId(5, 1));
+        assertThat(buffer.getStyle(0, 0)).isEqualTo(inverse);
+        assertThat(buffer.get(0, 0).hasStyle(StyleChar.STYLE_INVERSE)).isTrue();
+
+        // copy between palettes re-interns the style:
+        TextBuffer other = new TextBuffer(10, 2, 10, 2);
+        other.copyFrom(buffer, 0, 0);
+        assertThat(other.getStyle(0, 0)).isEqualTo(inverse);
+        assertThat(other.getStyle(1, 0)).isEqualTo(PackedCell.DEFAULT_STYLE);
+    }
+
+    @Test
+    public void compact() {
+        StylePalette palette = new StylePalette();
+        palette.setCompactThreshold(16);
+        TextBuffer buffer = new TextBuffer(40, 2, 40, 2, palette);
+        TextBuffer alt = new TextBuffer(40, 2, 40, 2, palette);
+        // blink like updates: many styles, few remain in use.
+        for (int i = 0; i < 40; i++) {
+            buffer.put(i % 4, 0, 'x', PackedCell.style(0, i, -1, null, null));
+        }
+        alt.put(0, 1, 'y', PackedCell.style(StyleChar.STYLE_BOLD, -1, -1, null, null));
+        assertThat(palette.needsCompaction()).isTrue();
+        int epoch = palette.epoch();
+
+        int dropped = palette.compact(buffer, alt);
+        // default, 4 in buffer, 1 in alt:
+        assertThat(palette.size()).isEqualTo(6);
+        assertThat(dropped).isEqualTo(36);
+        assertThat(palette.epoch()).isNotEqualTo(epoch);
+        assertThat(palette.needsCompaction()).isFalse();
+        for (int x = 0; x < 4; x++) {
+            assertThat(buffer.getStyle(x, 0)).isEqualTo(PackedCell.style(0, 36 + x, -1, null, null));
+        }
+        assertThat(alt.get(0, 1).hasStyle(StyleChar.STYLE_BOLD)).isTrue();
+        assertThat(buffer.getStyle(5, 1)).isEqualTo(PackedCell.DEFAULT_STYLE);
+        // interning after compaction returns the renumbered id:
+        assertThat(palette.intern(PackedCell.style(0, 37, -1, null, null))).isEqualTo(buffer.getStyleId(1, 0));
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH benchmark of 'yes' style output on a 200x60 text buffer: each operation writes one line at the bottom
+ * and scrolls the screen (or a DECSTBM region) up by one line.
+ * cellCopy is the former cell by cell move as done by CharPane.move(), the others use the circular row index.
+ * Run with: mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=nl.piter.vterm.ui.panels.charpane.TextBufferBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TextBufferBenchmark {
+
+    private static final int COLUMNS = 200;
+    private static final int ROWS = 60;
+
+    private TextBuffer buffer;
+
+    @Setup
+    public void setup() {
+        buffer = new TextBuffer(COLUMNS, ROWS, COLUMNS, ROWS);
+    }
+
+    @Benchmark
+    public int cellCopy() {
+        writeLine(ROWS - 1);
+        for (int y = 0; y < ROWS - 1; y++) {
+            for (int x = 0; x < COLUMNS; x++) {
+                buffer.copy(x, y, x, y + 1);
+                buffer.clear(x, y + 1);
+            }
+        }
+        return buffer.getGlyph(0, 0);
+    }
+
+    @Benchmark
+    public int rowIndex() {
+        writeLine(ROWS - 1);
+        buffer.scrollRegion(0, ROWS, 1, true);
+        return buffer.getGlyph(0, 0);
+    }
+
+    @Benchmark
+    public int regionRowIndex() {
+        writeLine(ROWS - 2);
+        buffer.scrollRegion(1, ROWS - 1, 1, true);
+        return buffer.getGlyph(0, 0);
+    }
+
+    private void writeLine(int y) {
+        buffer.put(0, y, 'y', PackedCell.DEFAULT_STYLE);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TextBufferBenchmark.class.getSimpleName()).build()).run();
+    }
+
+}
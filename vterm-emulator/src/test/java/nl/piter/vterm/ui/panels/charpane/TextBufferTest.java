@@ -0,0 +1,433 @@
+/*
+ * (C) 2005 - 2012 Virtual Laboratory for eScience (VL-e).
+ * (C) 2012 - 2015 Netherlands eScience Center.
+ * (C) 2005 - 2023 Piter.NL
+ *     See LICENSE.txt for details.
+ */
+//---
+package nl.piter.vterm.ui.panels.charpane;
+
+import nl.piter.vterm.api.TermConst;
+import org.junit.Test;
+
+import java.awt.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TextBufferTest {
+
+    @Test
+    public void styleWord() {
+        long style = PackedCell.style(StyleChar.STYLE_BOLD | StyleChar.STYLE_FRAKTUR, 255, -1, null, new Color(0x12, 0x34, 0x56));
+        assertThat(PackedCell.drawStyle(style)).isEqualTo(StyleChar.STYLE_BOLD | StyleChar.STYLE_FRAKTUR);
+        assertThat(PackedCell.colorIndex(PackedCell.foreground(style))).isEqualTo(255);
+        assertThat(PackedCell.isRGB(PackedCell.background(style))).isTrue();
+        assertThat(PackedCell.rgb(PackedCell.background(style))).isEqualTo(0x123456);
+        assertThat(PackedCell.style(0, -1, -1, null, null)).isEqualTo(PackedCell.DEFAULT_STYLE);
+
+        long blink = PackedCell.withForeground(style, Color.RED);
+        assertThat(PackedCell.rgb(PackedCell.foreground(blink))).isEqualTo(0xff0000);
+        assertThat(PackedCell.background(blink)).isEqualTo(PackedCell.background(style));
+        assertThat(PackedCell.drawStyle(blink)).isEqualTo(PackedCell.drawStyle(style));
+    }
+
+    @Test
+    public void glyphWord() {
+        int glyph = PackedCell.glyph(0x1f600, TermConst.CharSet.CHARSET_GRAPHICS);
+        assertThat(PackedCell.codePoint(glyph)).isEqualTo(0x1f600);
+        assertThat(PackedCell.charSet(glyph)).isEqualTo(TermConst.CharSet.CHARSET_GRAPHICS);
+        assertThat(PackedCell.isGraphics(glyph)).isTrue();
+        assertThat(PackedCell.charSet(PackedCell.glyph('a', null))).isNull();
+    }
+
+    @Test
+    public void styleCharView() {
+        TextBuffer buffer = new TextBuffer(80, 24, 80, 24);
+        StyleChar sChar = new StyleChar();
+        sChar.setCodePoint('€');
+        sChar.style = StyleChar.STYLE_ITALIC;
+        sChar.foregroundColor = 3;
+        sChar.backgroundColor = 4;
+        sChar.customBackground = new Color(1, 2, 3);
+        sChar.charSet = TermConst.CharSet.CHARSET_UK.toString();
+        buffer.set(10, 5, sChar);
+
+        StyleChar view = buffer.get(10, 5);
+        assertThat(view.isItalic()).isTrue();
+        assertThat(view.foregroundColor).isEqualTo(3);
+        assertThat(view.customForeground).isNull();
+        // custom color overrides index:
+        assertThat(view.backgroundColor).isEqualTo(-1);
+        assertThat(view.customBackground).isEqualTo(new Color(1, 2, 3));
+        assertThat(view.charSet).isEqualTo("CHARSET_UK");
+        assertThat(new String(view.charBytes, 0, view.numBytes, StandardCharsets.UTF_8)).isEqualTo("€");
+        assertThat(view.hasChanged).isTrue();
+
+        // view is detached:
+        view.style = 0;
+        assertThat(buffer.get(10, 5).isItalic()).isTrue();
+        assertThat(buffer.get(80, 5)).isNull();
+    }
+
+    @Test
+    public void changedFlags() {
+        TextBuffer buffer = new TextBuffer(130, 3, 130, 3);
+        for (int x = 0; x < 130; x++) {
+            buffer.needsRepaint(x, 1, false);
+        }
+        assertThat(buffer.isChanged(100, 1)).isFalse();
+        buffer.put(100, 1, 'x', PackedCell.DEFAULT_STYLE);
+        assertThat(buffer.isChanged(100, 1)).isTrue();
+        assertThat(buffer.isChanged(36, 1)).isFalse();
+        assertThat(buffer.isChanged(100, 0)).isTrue();
+    }
+
+    @Test
+    public void damageBounds() {
+        TextBuffer buffer = new TextBuffer(130, 70, 130, 70);
+        clearDamage(buffer);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+
+        buffer.put(100, 66, 'x', PackedCell.DEFAULT_STYLE);
+        buffer.put(70, 66, 'y', PackedCell.DEFAULT_STYLE);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(66);
+        assertThat(buffer.dirtyStart(66)).isEqualTo(70);
+        assertThat(buffer.dirtyEnd(66)).isEqualTo(101);
+        assertThat(buffer.nextChanged(71, 66, 130)).isEqualTo(100);
+        assertThat(buffer.nextChanged(71, 66, 100)).isEqualTo(-1);
+
+        // drawn from left to right:
+        buffer.needsRepaint(70, 66, false);
+        assertThat(buffer.dirtyStart(66)).isEqualTo(100);
+        buffer.needsRepaint(100, 66, false);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+        assertThat(buffer.dirtyEnd(66)).isEqualTo(0);
+
+        // new rows of a scroll are damaged:
+        buffer.scrollRegion(2, 5, 1, true);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(2);
+        assertThat(buffer.nextDirtyRow(5)).isEqualTo(-1);
+        assertThat(buffer.dirtyEnd(4)).isEqualTo(130);
+    }
+
+    @Test
+    public void takeDamageAfterScroll() {
+        TextBuffer buffer = new TextBuffer(10, 6, 10, 6);
+        DamageMap damage = new DamageMap(10, 6);
+        buffer.takeDamage(damage);
+        for (int y = 0; y < 6; y++) {
+            for (int x = 0; x < 10; x++) {
+                damage.clear(x, y);
+            }
+        }
+        // line feeds are merged into one scroll:
+        buffer.put(3, 5, 'x', PackedCell.DEFAULT_STYLE);
+        buffer.scrollRegion(0, 6, 1, true);
+        buffer.scrollRegion(0, 6, 1, true);
+        assertThat(buffer.hasPendingScrolls()).isTrue();
+        // moved row keeps its damage, not drawn at the old position:
+        damage.set(7, 4);
+        buffer.takeDamage(damage);
+        assertThat(buffer.hasPendingScrolls()).isFalse();
+
+        ScrollLog scrolls = damage.scrolls();
+        assertThat(scrolls.size()).isEqualTo(1);
+        assertThat(scrolls.start(0)).isEqualTo(0);
+        assertThat(scrolls.end(0)).isEqualTo(6);
+        assertThat(scrolls.lines(0)).isEqualTo(2);
+        assertThat(damage.nextDirtyRow(0)).isEqualTo(2);
+        assertThat(damage.dirtyStart(2)).isEqualTo(7);
+        assertThat(damage.dirtyEnd(2)).isEqualTo(8);
+        assertThat(damage.dirtyStart(3)).isEqualTo(3);
+        assertThat(damage.dirtyEnd(3)).isEqualTo(4);
+        assertThat(damage.nextChanged(0, 4, 10)).isEqualTo(0);
+        assertThat(damage.dirtyEnd(5)).isEqualTo(10);
+
+        // a full log is dropped and all rows are damaged instead:
+        for (int i = 0; i <= ScrollLog.MAX_SCROLLS; i++) {
+            buffer.scrollRegion(i % 2, 6, 1, true);
+        }
+        assertThat(buffer.hasPendingScrolls()).isFalse();
+        assertThat(buffer.dirtyStart(0)).isEqualTo(0);
+        assertThat(buffer.dirtyEnd(0)).isEqualTo(10);
+    }
+
+    @Test
+    public void markBlinking() {
+        TextBuffer buffer = new TextBuffer(10, 6, 10, 6);
+        DamageMap damage = new DamageMap(10, 6);
+        assertThat(buffer.markBlinking()).isZero();
+
+        long blink = PackedCell.style(StyleChar.STYLE_SLOW_BLINK, 2, -1, null, null);
+        buffer.put(3, 1, 'b', blink);
+        buffer.put(4, 1, 'c', PackedCell.DEFAULT_STYLE);
+        buffer.setStyle(8, 4, blink);
+        // the blinking row moves with a scroll:
+        buffer.scrollRegion(0, 6, 1, true);
+        buffer.takeDamage(damage);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+
+        assertThat(buffer.markBlinking()).isEqualTo(2);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(0);
+        assertThat(buffer.dirtyStart(0)).isEqualTo(3);
+        assertThat(buffer.dirtyEnd(0)).isEqualTo(4);
+        assertThat(buffer.nextDirtyRow(1)).isEqualTo(3);
+        assertThat(buffer.nextChanged(0, 3, 10)).isEqualTo(8);
+        assertThat(buffer.nextDirtyRow(4)).isEqualTo(-1);
+
+        // rows without blinking cells are dropped from the index:
+        buffer.put(3, 0, 'b', PackedCell.DEFAULT_STYLE);
+        buffer.clearRegion();
+        buffer.takeDamage(damage);
+        assertThat(buffer.markBlinking()).isZero();
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void takeDamage() {
+        TextBuffer buffer = new TextBuffer(130, 70, 130, 70);
+        DamageMap damage = new DamageMap(130, 70);
+        // new buffer and map: all damaged
+        buffer.takeDamage(damage);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+        assertThat(damage.nextDirtyRow(0)).isEqualTo(0);
+        for (int y = 0; y < 70; y++) {
+            for (int x = 0; x < 130; x++) {
+                damage.clear(x, y);
+            }
+        }
+        assertThat(damage.nextDirtyRow(0)).isEqualTo(-1);
+
+        buffer.put(100, 66, 'x', PackedCell.DEFAULT_STYLE);
+        buffer.put(70, 66, 'y', PackedCell.DEFAULT_STYLE);
+        buffer.takeDamage(damage);
+        assertThat(buffer.nextDirtyRow(0)).isEqualTo(-1);
+        assertThat(buffer.dirtyEnd(66)).isEqualTo(0);
+        assertThat(damage.nextDirtyRow(0)).isEqualTo(66);
+        assertThat(damage.dirtyStart(66)).isEqualTo(70);
+        assertThat(damage.dirtyEnd(66)).isEqualTo(101);
+        assertThat(damage.nextChanged(71, 66, 130)).isEqualTo(100);
+
+        // not drawn yet: added to the damage of the next frame
+        damage.clear(70, 66);
+        buffer.put(3, 66, 'z', PackedCell.DEFAULT_STYLE);
+        buffer.takeDamage(damage);
+        assertThat(damage.dirtyStart(66)).isEqualTo(3);
+        assertThat(damage.isChanged(70, 66)).isFalse();
+        assertThat(damage.isChanged(100, 66)).isTrue();
+        damage.clear(3, 66);
+        damage.clear(100, 66);
+        assertThat(damage.nextDirtyRow(0)).isEqualTo(-1);
+    }
+
+    private static void clearDamage(TextBuffer buffer) {
+        Dimension size = buffer.getSize();
+        for (int y = 0; y < size.height; y++) {
+            for (int x = 0; x < size.width; x++) {
+                buffer.needsRepaint(x, y, false);
+            }
+        }
+    }
+
+    @Test
+    public void copyAndClear() {
+        TextBuffer buffer = new TextBuffer(20, 4, 20, 4);
+        long style = PackedCell.style(StyleChar.STYLE_BOLD, 1, 2, null, null);
+        buffer.put(3, 1, 'a', style);
+        buffer.copy(4, 2, 3, 1);
+        assertThat(buffer.getGlyph(4, 2)).isEqualTo((int) 'a');
+        assertThat(buffer.getStyle(4, 2)).isEqualTo(style);
+        buffer.clear(3, 1);
+        assertThat(buffer.getGlyph(3, 1)).isEqualTo((int) ' ');
+        assertThat(buffer.getStyle(3, 1)).isEqualTo(PackedCell.DEFAULT_STYLE);
+
+        TextBuffer resized = new TextBuffer(10, 2, 10, 2);
+        resized.copyFrom(buffer, 0, 1);
+        assertThat(resized.getGlyph(4, 1)).isEqualTo((int) 'a');
+        assertThat(resized.getStyle(4, 1)).isEqualTo(style);
+    }
+
+    @Test
+    public void scrollFullScreen() {
+        TextBuffer buffer = createNumbered(5, 4);
+        buffer.scrollRegion(0, 4, 1, true);
+        assertRows(buffer, "1", "2", "3", " ");
+        buffer.scrollRegion(0, 4, 2, false);
+        assertRows(buffer, " ", " ", "1", "2");
+        assertThat(buffer.isChanged(0, 0)).isTrue();
+        assertThat(buffer.isChanged(4, 3)).isTrue();
+        // more lines than region clears region:
+        buffer.scrollRegion(0, 4, 10, true);
+        assertRows(buffer, " ", " ", " ", " ");
+    }
+
+    @Test
+    public void scrollRegion() {
+        TextBuffer buffer = createNumbered(3, 6);
+        buffer.scrollRegion(1, 5, 1, true);
+        assertRows(buffer, "0", "2", "3", "4", " ", "5");
+        buffer.scrollRegion(1, 5, 2, false);
+        assertRows(buffer, "0", " ", " ", "2", "3", "5");
+    }
+
+    @Test
+    public void scrollMatchesCellCopy() {
+        // compare with cell by cell move as done by CharPane.move():
+        int[][] scrolls = {{0, 7, 1, 1}, {2, 5, 1, 0}, {0, 7, 3, 0}, {1, 7, 2, 1}, {0, 7, 1, 1}, {0, 6, 4, 1}, {3, 7, 1, 0}};
+        TextBuffer rows = createNumbered(4, 7);
+        TextBuffer cells = createNumbered(4, 7);
+        for (int i = 0; i < 50; i++) {
+            int[] scroll = scrolls[i % scrolls.length];
+            rows.scrollRegion(scroll[0], scroll[1], scroll[2], scroll[3] == 1);
+            cellScroll(cells, scroll[0], scroll[1], scroll[2], scroll[3] == 1);
+            for (int y = 0; y < 7; y++) {
+                rows.put(i % 4, y, 'a' + i % 26, i);
+                cells.put(i % 4, y, 'a' + i % 26, i);
+            }
+            for (int y = 0; y < 7; y++) {
+                for (int x = 0; x < 4; x++) {
+                    assertThat(rows.getGlyph(x, y)).isEqualTo(cells.getGlyph(x, y));
+                    assertThat(rows.getStyle(x, y)).isEqualTo(cells.getStyle(x, y));
+                }
+            }
+        }
+    }
+
+    static void cellScroll(TextBuffer buffer, int y1, int y2, int lines, boolean up) {
+        int height = y2 - y1 - lines;
+        int columns = buffer.columns();
+        if (up) {
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < columns; x++) {
+                    buffer.copy(x, y1 + y, x, y1 + lines + y);
+                    buffer.clear(x, y1 + lines + y);
+                }
+            }
+        } else {
+            for (int y = height - 1; y >= 0; y--) {
+                for (int x = 0; x < columns; x++) {
+                    buffer.copy(x, y1 + lines + y, x, y1 + y);
+                    buffer.clear(x, y1 + y);
+                }
+            }
+        }
+        // new rows, not all of them are a source when scrolling more than half the region:
+        int newStart = up ? y2 - lines : y1;
+        for (int y = newStart; y < newStart + lines; y++) {
+            for (int x = 0; x < columns; x++) {
+                buffer.clear(x, y);
+            }
+        }
+    }
+
+    private static TextBuffer createNumbered(int columns, int rows) {
+        TextBuffer buffer = new TextBuffer(columns, rows, columns, rows);
+        for (int y = 0; y < rows; y++) {
+            buffer.put(0, y, '0' + y, y);
+        }
+        return buffer;
+    }
+
+    private static void assertRows(TextBuffer buffer, String... firstChars) {
+        for (int y = 0; y < firstChars.length; y++) {
+            assertThat(buffer.getGlyph(0, y)).as("row %s", y).isEqualTo((int) firstChars[y].charAt(0));
+        }
+    }
+
+    @Test
+    public void decodeCodePoint() {
+        byte[] bytes = "a€".getBytes(StandardCharsets.UTF_8);
+        assertThat(PackedCell.decodeCodePoint(bytes, 0, 1)).isEqualTo((int) 'a');
+        assertThat(PackedCell.decodeCodePoint(bytes, 1, 3)).isEqualTo((int) '€');
+        // truncated:
+        assertThat(PackedCell.decodeCodePoint(bytes, 1, 2)).isEqualTo(0xfffd);
+    }
+
+    @Test
+    public void snapshotCopyOnWrite() {
+        TextBuffer buffer = createNumbered(4, 3);
+        ScreenSnapshot snapshot = buffer.snapshot();
+        buffer.put(0, 1, 'x', PackedCell.DEFAULT_STYLE);
+        buffer.scrollRegion(0, 3, 1, true);
+        buffer.setWrapped(0, true);
+        // snapshot unchanged:
+        assertThat(snapshot.getGlyph(0, 0)).isEqualTo((int) '0');
+        assertThat(snapshot.getGlyph(0, 1)).isEqualTo((int) '1');
+        assertThat(snapshot.getStyle(0, 2)).isEqualTo(2L);
+        assertThat(snapshot.isWrapped(0)).isFalse();
+        assertThat(buffer.getGlyph(0, 0)).isEqualTo((int) 'x');
+        assertThat(buffer.isUnchangedSince(snapshot, 0)).isFalse();
+
+        ScreenSnapshot next = buffer.snapshot();
+        assertThat(next.epoch()).isGreaterThan(snapshot.epoch());
+        assertThat(next.getGlyph(0, 0)).isEqualTo((int) 'x');
+        assertThat(buffer.isUnchangedSince(next, 1)).isTrue();
+    }
+
+    @Test
+    public void snapshotAfterCompaction() {
+        StylePalette palette = new StylePalette();
+        TextBuffer buffer = new TextBuffer(4, 2, 4, 2, palette);
+        buffer.put(0, 0, 'a', 1);
+        buffer.put(1, 0, 'b', 2);
+        buffer.put(0, 0, 'a', 3);
+        ScreenSnapshot snapshot = buffer.snapshot();
+        // style 1 is dropped, the ids of the other styles change:
+        palette.compact(buffer);
+        assertThat(buffer.getStyleId(1, 0)).isEqualTo(1);
+        assertThat(snapshot.getStyle(0, 0)).isEqualTo(3L);
+        assertThat(snapshot.getStyle(1, 0)).isEqualTo(2L);
+        assertThat(buffer.getStyle(1, 0)).isEqualTo(2L);
+    }
+
+    @Test
+    public void concurrentSnapshots() throws InterruptedException {
+        // writer keeps glyph and style of each cell in sync, a snapshot must never show them apart:
+        TextBuffer buffer = new TextBuffer(80, 24, 80, 24);
+        // writer starts once the reader is running:
+        CountDownLatch readerStarted = new CountDownLatch(1);
+        Thread writer = new Thread(() -> {
+            try {
+                readerStarted.await();
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (int i = 0; i < 200000; i++) {
+                int value = i % 1000;
+                buffer.put(i % 80, (i / 80) % 24, 'a' + value, value);
+                if (i % 5000 == 0) {
+                    buffer.scrollRegion(0, 24, 1, true);
+                }
+            }
+        });
+        writer.start();
+        int numSnapshots = 0;
+        int errors = 0;
+        do {
+            ScreenSnapshot snapshot = buffer.snapshot();
+            numSnapshots++;
+            readerStarted.countDown();
+            for (int y = 0; y < snapshot.rows(); y++) {
+                for (int x = 0; x < snapshot.columns(); x++) {
+                    int glyph = snapshot.getGlyph(x, y);
+                    if ((glyph != PackedCell.BLANK) && (glyph - 'a' != snapshot.getStyle(x, y))) {
+                        errors++;
+                    }
+                }
+            }
+        } while (writer.isAlive());
+        writer.join();
+        assertThat(numSnapshots).isGreaterThan(0);
+        assertThat(errors).isEqualTo(0);
+    }
+
+    @Test
+    public void estimatedSize() {
+        // 300x100 screen: about 8 bytes per cell (glyph + style id) instead of 80+ for a StyleChar object.
+        TextBuffer buffer = new TextBuffer(300, 100, 300, 100);
+        assertThat(buffer.estimatedSize()).isLessThan(300L * 100 * 9);
+    }
+
+}